@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * <p>Creates the images used by the benchmarks. An image is named 
+ * <code>&lt;type&gt;:&lt;size&gt;</code> for a generated square image or 
+ * <code>test:&lt;file name&gt;</code> for 1 of the images in the test 
+ * directory of ImageOptimization.</p>
+ * <p>The types are <code>png-argb</code>, <code>png-rgb</code>, 
+ * <code>png-gray</code>, <code>png-indexed</code>, <code>gif</code> and 
+ * <code>jpeg</code>. The pixels are a gradient with some noise, from a fixed
+ * seed, so the images compress like real images and are the same on every 
+ * run.</p>
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public final class BenchmarkCorpus {
+
+	/**
+	 * System property with the directory of the test images. The default is
+	 * the test directory of ImageOptimization, relative to this module.
+	 */
+	public static final String TEST_IMAGES_PROPERTY = "imageoptimization.benchmark.testImages";
+	
+	private static final String TEST_IMAGES = System.getProperty(TEST_IMAGES_PROPERTY, "../test/com/salesforce/perfeng/uiperf/imageoptimization/service");
+	
+	private static final String TEST_PREFIX = "test:";
+	
+	private BenchmarkCorpus() {
+	}
+	
+	/**
+	 * @param directory Where the image is created.
+	 * @param image The name of the image, for example <code>png-argb:1024</code>
+	 *              or <code>test:csv_120.png</code>.
+	 * @return The created image.
+	 * @throws IOException Thrown if the image cannot be created.
+	 */
+	public static File create(final File directory, final String image) throws IOException {
+		if(image.startsWith(TEST_PREFIX)) {
+			final File source = new File(TEST_IMAGES, image.substring(TEST_PREFIX.length()));
+			final File file = new File(directory, source.getName());
+			Files.copy(source.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			return file;
+		}
+		
+		final int separator = image.indexOf(':');
+		if(separator < 0) {
+			throw new IllegalArgumentException("The image must be <type>:<size> or test:<file name>: " + image);
+		}
+		final String type = image.substring(0, separator);
+		final int size = Integer.parseInt(image.substring(separator + 1));
+		return write(new File(directory, type + '-' + size + '.' + getExtension(type)), type, size, size);
+	}
+	
+	/**
+	 * @param type The type of image, for example <code>png-argb</code>.
+	 * @return The file extension of the type.
+	 */
+	public static String getExtension(final String type) {
+		switch(type) {
+			case "gif":
+				return "gif";
+			case "jpeg":
+				return "jpg";
+			default:
+				return "png";
+		}
+	}
+	
+	/**
+	 * Writes a generated square image.
+	 * 
+	 * @param file Where the image is written, see {@link #getExtension(String)}.
+	 * @param type The type of image, for example <code>png-argb</code>.
+	 * @param size The width and height of the image.
+	 * @param seed The seed of the noise, images with different seeds have 
+	 *             different pixels.
+	 * @return The passed in file.
+	 * @throws IOException Thrown if the image cannot be written.
+	 */
+	public static File write(final File file, final String type, final int size, final long seed) throws IOException {
+		final BufferedImage bufferedImage;
+		switch(type) {
+			case "png-argb":
+				bufferedImage = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+				break;
+			case "png-rgb":
+			case "jpeg":
+				bufferedImage = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+				break;
+			case "png-gray":
+				bufferedImage = new BufferedImage(size, size, BufferedImage.TYPE_BYTE_GRAY);
+				break;
+			case "png-indexed":
+			case "gif":
+				bufferedImage = new BufferedImage(size, size, BufferedImage.TYPE_BYTE_INDEXED, createPalette());
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown image type: " + type);
+		}
+		
+		final Random random = new Random(seed);
+		final boolean alpha = bufferedImage.getColorModel().hasAlpha();
+		for(int y = 0; y < size; y++) {
+			for(int x = 0; x < size; x++) {
+				final int noise = random.nextInt(16);
+				final int red = ((x * 255) / size) ^ noise;
+				final int green = ((y * 255) / size) ^ noise;
+				final int blue = (((x + y) * 127) / size) ^ noise;
+				final int a = alpha ? (((x * 255) / size) | 0x0F) : 0xFF;
+				bufferedImage.setRGB(x, y, (a << 24) | (red << 16) | (green << 8) | blue);
+			}
+		}
+		
+		final String format = getExtension(type);
+		if(!ImageIO.write(bufferedImage, format, file)) {
+			throw new IOException("No writer for " + format);
+		}
+		return file;
+	}
+	
+	/**
+	 * Appends zeros after the end of the image. The decoders stop at the end 
+	 * of the image, so the pixels do not change, and the stub binaries can 
+	 * make the image smaller by removing them.
+	 * 
+	 * @param file The image.
+	 * @param bytes The number of zeros to append.
+	 * @throws IOException Thrown if the image cannot be written.
+	 * @see StubBinaries
+	 */
+	public static void pad(final File file, final int bytes) throws IOException {
+		Files.write(file.toPath(), new byte[bytes], StandardOpenOption.APPEND);
+	}
+	
+	/**
+	 * @return A 256 color palette, 6 levels of red, green and blue plus 
+	 *         shades of gray.
+	 */
+	private static IndexColorModel createPalette() {
+		final byte[] red = new byte[256];
+		final byte[] green = new byte[256];
+		final byte[] blue = new byte[256];
+		int i = 0;
+		for(int r = 0; r < 6; r++) {
+			for(int g = 0; g < 6; g++) {
+				for(int b = 0; b < 6; b++) {
+					red[i] = (byte) (r * 51);
+					green[i] = (byte) (g * 51);
+					blue[i] = (byte) (b * 51);
+					i++;
+				}
+			}
+		}
+		for(; i < 256; i++) {
+			final byte gray = (byte) ((i - 216) * 255 / 39);
+			red[i] = gray;
+			green[i] = gray;
+			blue[i] = gray;
+		}
+		return new IndexColorModel(8, 256, red, green, blue);
+	}
+	
+	/**
+	 * Copies the image, so the benchmarks compare 2 different files with the 
+	 * same pixels, which is the slowest comparison.
+	 * 
+	 * @param image The image to copy.
+	 * @return The copy, in the same directory.
+	 * @throws IOException Thrown if the image cannot be copied.
+	 */
+	public static File copy(final File image) throws IOException {
+		final File copy = new File(image.getParentFile(), "copy-" + image.getName());
+		Files.copy(image.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return copy;
+	}
+	
+	/**
+	 * @return The images in the test directory, the directory of the 
+	 *         {@value #TEST_IMAGES_PROPERTY} system property, sorted by name.
+	 * @throws IOException Thrown if the directory cannot be listed.
+	 */
+	public static File[] listTestImages() throws IOException {
+		final File[] images = new File(TEST_IMAGES).listFiles(file -> file.isFile() && file.getName().matches("(?i).*\\.(png|gif|jpe?g)"));
+		if(images == null) {
+			throw new IOException("Unable to list the test images in " + TEST_IMAGES + '.');
+		}
+		Arrays.sort(images);
+		return images;
+	}
+	
+	/**
+	 * @param directory The directory to delete, with all of its files.
+	 */
+	public static void delete(final File directory) {
+		final File[] files = directory.listFiles();
+		if(files != null) {
+			for(final File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+}
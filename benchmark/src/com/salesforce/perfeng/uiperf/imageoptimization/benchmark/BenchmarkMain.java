@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.benchmark;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the JMH command line options, always adding the 
+ * GC profiler so the bytes allocated per operation 
+ * (<code>gc.alloc.rate.norm</code>) are reported next to the operations per
+ * second.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public final class BenchmarkMain {
+
+	private BenchmarkMain() {
+	}
+	
+	/**
+	 * @param args The JMH command line options, for example 
+	 *             <code>-p image=png-rgb:2048 ImageUtilsBenchmark</code>.
+	 * @throws CommandLineOptionException Thrown if the options are not valid.
+	 * @throws RunnerException Thrown if a benchmark fails.
+	 * @throws IOException Thrown if the options cannot be listed.
+	 */
+	public static void main(final String[] args) throws CommandLineOptionException, RunnerException, IOException {
+		final CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+		if(commandLineOptions.shouldHelp()) {
+			commandLineOptions.showHelp();
+			return;
+		}
+		final Runner runner = new Runner(new OptionsBuilder().parent(commandLineOptions).addProfiler(GCProfiler.class).build());
+		if(commandLineOptions.shouldList()) {
+			runner.list();
+			return;
+		}
+		runner.run();
+	}
+}
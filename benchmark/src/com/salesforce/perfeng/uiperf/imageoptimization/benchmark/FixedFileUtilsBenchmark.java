@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.FixedFileUtils;
+
+/**
+ * Benchmark of {@link FixedFileUtils#copyFile(File, File)}, which copies 
+ * every master image to the scratch directory and every optimized image to
+ * the final directory. The destination already exists, like it does when an
+ * image is copied over its previous version.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FixedFileUtilsBenchmark {
+
+	/**
+	 * The size of the file in bytes.
+	 */
+	@Param({"1024", "65536", "1048576", "16777216"})
+	public int bytes;
+	
+	private File directory;
+	private File source;
+	private File destination;
+	
+	/**
+	 * Creates a file of random bytes.
+	 * 
+	 * @throws IOException Thrown if the file cannot be created.
+	 */
+	@Setup
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("ImageOptimizationBenchmark").toFile();
+		source = new File(directory, "source.png");
+		destination = new File(directory, "destination.png");
+		final byte[] data = new byte[bytes];
+		new Random(bytes).nextBytes(data);
+		Files.write(source.toPath(), data);
+	}
+	
+	/**
+	 * Deletes the files.
+	 */
+	@TearDown
+	public void tearDown() {
+		BenchmarkCorpus.delete(directory);
+	}
+	
+	/**
+	 * @throws IOException Thrown if the file cannot be copied.
+	 */
+	@Benchmark
+	public void copyFile() throws IOException {
+		FixedFileUtils.copyFile(source, destination);
+	}
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageUtils;
+
+/**
+ * Benchmarks of the checks {@link ImageUtils} runs on every image file: the 
+ * visual comparison of an image to its optimized copy, the alpha 
+ * transparency check and the animated GIF check. Each one reads and decodes 
+ * the files, like the service does.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ * @see BenchmarkCorpus
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ImageUtilsBenchmark {
+
+	/**
+	 * The image, see {@link BenchmarkCorpus#create(File, String)}.
+	 */
+	@Param({"png-argb:64", "png-argb:1024", "png-argb:4096", "png-rgb:1024", "png-gray:1024", "png-indexed:1024", "gif:1024", "jpeg:1024",
+		"test:csv_120.png", "test:safe32.png", "test:loading.gif", "test:addCol.gif", "test:sharing_model2.jpg"})
+	public String image;
+	
+	private File directory;
+	private File file;
+	private File copy;
+	
+	/**
+	 * Creates the image and a copy of it.
+	 * 
+	 * @throws IOException Thrown if the image cannot be created.
+	 */
+	@Setup
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("ImageOptimizationBenchmark").toFile();
+		file = BenchmarkCorpus.create(directory, image);
+		copy = BenchmarkCorpus.copy(file);
+	}
+	
+	/**
+	 * Deletes the images.
+	 */
+	@TearDown
+	public void tearDown() {
+		BenchmarkCorpus.delete(directory);
+	}
+	
+	/**
+	 * @return <code>true</code>, the images have the same pixels.
+	 */
+	@Benchmark
+	public boolean visuallyCompare() {
+		return ImageUtils.visuallyCompare(file, copy);
+	}
+	
+	/**
+	 * @return If the image has some transparency.
+	 */
+	@Benchmark
+	public boolean containsAlphaTransparency() {
+		return ImageUtils.containsAlphaTransparency(file);
+	}
+	
+	/**
+	 * @return If the image is an animated GIF.
+	 */
+	@Benchmark
+	public boolean isAminatedGif() {
+		return ImageUtils.isAminatedGif(file);
+	}
+}
@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.benchmark;
+
+import java.awt.Image;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorConvertOp;
+import java.awt.image.PixelGrabber;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageDecoder;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFileOptimizationException;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.PixelComparator;
+
+/**
+ * Benchmark of {@link PixelComparator#equals(BufferedImage, BufferedImage)} 
+ * alone, on 2 images that are decoded once. The images have the same pixels,
+ * so every pixel is compared. Images of more than 
+ * {@link PixelComparator#PARALLEL_THRESHOLD} pixels are compared in parallel.
+ * {@link #pixelGrabber()} is the baseline, the comparison it replaced: both
+ * images copied into a new <code>int[]</code> with a {@link PixelGrabber} and
+ * compared 1 pixel at a time.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ * @see BenchmarkCorpus
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PixelComparatorBenchmark {
+
+	private final static Logger logger = LoggerFactory.getLogger(PixelComparatorBenchmark.class);
+
+	/**
+	 * The image, see {@link BenchmarkCorpus#create(File, String)}.
+	 */
+	@Param({"png-argb:64", "png-argb:1024", "png-argb:4096", "png-rgb:1024", "png-gray:1024", "png-indexed:1024", "gif:1024", "jpeg:1024",
+		"test:csv_120.png", "test:safe32.png", "test:loading.gif", "test:sharing_model2.jpg"})
+	public String image;
+	
+	private ImageDecoder.DecodedImage image1;
+	private ImageDecoder.DecodedImage image2;
+	
+	/**
+	 * Decodes the image twice.
+	 * 
+	 * @throws IOException Thrown if the image cannot be created.
+	 * @throws ImageFileOptimizationException Thrown if the image cannot be 
+	 *                                        decoded.
+	 */
+	@Setup
+	public void setUp() throws IOException, ImageFileOptimizationException {
+		final File directory = Files.createTempDirectory("ImageOptimizationBenchmark").toFile();
+		try {
+			final File file = BenchmarkCorpus.create(directory, image);
+			image1 = ImageDecoder.decode(file);
+			image2 = ImageDecoder.decode(file);
+		} finally {
+			BenchmarkCorpus.delete(directory);
+		}
+	}
+	
+	/**
+	 * @return <code>true</code>, the images have the same pixels.
+	 */
+	@Benchmark
+	public boolean equals() {
+		return PixelComparator.equals(image1.getImage(), image2.getImage());
+	}
+	
+	/**
+	 * @return <code>true</code>, the images have the same pixels.
+	 * @throws InterruptedException Thrown if the pixels cannot be grabbed.
+	 */
+	@Benchmark
+	public boolean pixelGrabber() throws InterruptedException {
+		return equals(getPixels(image1.getImage()), getPixels(image2.getImage()));
+	}
+	
+	/**
+	 * The way the pixels were copied before {@link PixelComparator}.
+	 */
+	private static int[] getPixels(final BufferedImage img) throws InterruptedException {
+		final int width = img.getWidth();
+		final int height = img.getHeight();
+		final int[] pixelData = new int[width * height];
+		final Image pixelImg;
+		if(img.getColorModel().getColorSpace() == ColorSpace.getInstance(ColorSpace.CS_sRGB)) {
+			pixelImg = img;
+		} else {
+			pixelImg = new ColorConvertOp(ColorSpace.getInstance(ColorSpace.CS_sRGB), null).filter(img, null);
+		}
+		final PixelGrabber pg = new PixelGrabber(pixelImg, 0, 0, width, height, pixelData, 0, width);
+		if(!pg.grabPixels()) {
+			throw new IllegalStateException("The pixels could not be grabbed.");
+		}
+		return pixelData;
+	}
+	
+	/**
+	 * The way the pixels were compared before {@link PixelComparator}, 
+	 * including the boxing of the debug messages.
+	 */
+	private static boolean equals(final int[] data1, final int[] data2) {
+		final int length = data1.length;
+		if(length != data2.length) {
+			logger.debug("File lengths are different.");
+			return false;
+		}
+		for(int i = 0; i < length; i++) {
+			if(data1[i] != data2[i]) {
+				if((((data1[i] >> 24) & 0xff) == 0) && (((data2[i] >> 24) & 0xff) == 0)) {
+					logger.debug("Both pixles at spot {} are different but 100% transparent.", Integer.valueOf(i));
+				} else {
+					logger.debug("The pixel {} is different.", Integer.valueOf(i));
+					return false;
+				}
+			}
+		}
+		logger.debug("Both groups of pixels are the same.");
+		return true;
+	}
+	
+	/**
+	 * Gives the memory of the images back to the decode budget.
+	 */
+	@TearDown
+	public void tearDown() {
+		image1.close();
+		image2.close();
+	}
+}
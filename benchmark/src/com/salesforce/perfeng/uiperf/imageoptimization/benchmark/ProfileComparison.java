@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.io.FileUtils;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.dto.OptimizationResult;
+import com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService.FileTypeConversion;
+import com.salesforce.perfeng.uiperf.imageoptimization.service.ImageOptimizationService;
+import com.salesforce.perfeng.uiperf.imageoptimization.service.OptimizationProfile;
+
+/**
+ * <p>Optimizes the test images with each {@link OptimizationProfile} and the 
+ * real binaries, and prints a Markdown table of the throughput against the 
+ * bytes saved by each profile.</p>
+ * <p>It is configured with system properties:</p>
+ * <ul>
+ *   <li><code>imageoptimization.benchmark.binaries</code> The directory of 
+ *       the binaries, <code>../lib/binary/linux</code> by default.</li>
+ *   <li><code>imageoptimization.benchmark.rounds</code> How many times the 
+ *       images are optimized with each profile, 3 by default. The first 
+ *       round is a warm up and is not measured.</li>
+ *   <li>{@value BenchmarkCorpus#TEST_IMAGES_PROPERTY} The directory of the 
+ *       images.</li>
+ * </ul>
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public final class ProfileComparison {
+
+	private static final String PROPERTY_PREFIX = "imageoptimization.benchmark.";
+	
+	private ProfileComparison() {
+	}
+	
+	/**
+	 * @param args Not used, see the system properties.
+	 * @throws Exception Thrown if the comparison cannot run.
+	 */
+	public static void main(final String[] args) throws Exception {
+		final File binaryDirectory = new File(System.getProperty(PROPERTY_PREFIX + "binaries", "../lib/binary/linux"));
+		final int rounds = Math.max(2, Integer.getInteger(PROPERTY_PREFIX + "rounds", 3).intValue());
+		final List<File> images = Arrays.asList(BenchmarkCorpus.listTestImages());
+		long originalSize = 0;
+		for(final File image : images) {
+			originalSize += image.length();
+		}
+		
+		System.out.println(String.format(Locale.ENGLISH, "%d images, %d bytes, %d measured rounds", Integer.valueOf(images.size()), Long.valueOf(originalSize), Integer.valueOf(rounds - 1)));
+		System.out.println();
+		System.out.println("| Profile  | Images/s | Time/round | Bytes saved | Saved |");
+		System.out.println("|----------|---------:|-----------:|------------:|------:|");
+		for(final OptimizationProfile profile : OptimizationProfile.values()) {
+			final File directory = Files.createTempDirectory("ImageOptimizationProfiles").toFile();
+			try {
+				final ImageOptimizationService<Void> service = new ImageOptimizationService<>(directory, binaryDirectory);
+				try {
+					long bytesSaved = 0;
+					long elapsed = 0;
+					for(int round = 0; round < rounds; round++) {
+						final long start = System.nanoTime();
+						final List<OptimizationResult<Void>> results = service.optimizeAllImages(profile, FileTypeConversion.NONE, false, images);
+						if(round > 0) {
+							elapsed += System.nanoTime() - start;
+						}
+						bytesSaved = 0;
+						for(final OptimizationResult<Void> result : results) {
+							bytesSaved += result.getOriginalFileSize() - result.getOptimizedFileSize();
+						}
+					}
+					final double seconds = elapsed / 1000000000.0 / (rounds - 1);
+					System.out.println(String.format(Locale.ENGLISH, "| %-8s | %8.1f | %9.2fs | %11d | %4.1f%% |", profile.name().toLowerCase(Locale.ENGLISH),
+							Double.valueOf(images.size() / seconds), Double.valueOf(seconds), Long.valueOf(bytesSaved), Double.valueOf((100.0 * bytesSaved) / originalSize)));
+				} finally {
+					service.destroy();
+				}
+			} finally {
+				FileUtils.deleteDirectory(directory);
+			}
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <p>Writes shell scripts that stand in for the binaries used by 
+ * {@link com.salesforce.perfeng.uiperf.imageoptimization.service.ImageOptimizationService},
+ * so the time spent in the service itself can be measured without the time 
+ * spent in the real binaries. Each script accepts the same arguments as the 
+ * binary it replaces, in file and pipe mode, sleeps and then writes its 
+ * output as configured by its {@link Output}.</p>
+ * <p>The scripts only need <code>sh</code> and coreutils, so they run on any 
+ * Linux box.</p>
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public final class StubBinaries {
+
+	/**
+	 * What a stub binary writes.
+	 */
+	public static enum Output {
+		/**
+		 * The image is not changed.
+		 */
+		COPY,
+		/**
+		 * {@link StubBinaries#SHRINK_BYTES} bytes are removed from the end of
+		 * the image. The images of the corpus are padded, so the pixels do 
+		 * not change.
+		 * 
+		 * @see BenchmarkCorpus#pad(File, int)
+		 */
+		SHRINK,
+		/**
+		 * Nothing is written and the binary exits with 1.
+		 */
+		FAIL
+	}
+	
+	/**
+	 * The number of bytes removed by {@link Output#SHRINK}.
+	 */
+	public static final int SHRINK_BYTES = 16;
+	
+	/**
+	 * The binaries that are replaced and how each one finds its input and 
+	 * output in its arguments. <code>transform</code> is passed the input and
+	 * the output, <code>-</code> is stdin or stdout.
+	 */
+	private static final Map<String, String> ARGUMENTS;
+	static {
+		final String inPlace = "for last; do :; done\ntransform \"$last\" \"$last\"\n";
+		final String inputOutput = "in=-\nout=-\nwhile [ $# -gt 0 ]; do\n"
+				+ "  case \"$1\" in\n"
+				+ "    -o|-outfile) shift; out=$1;;\n"
+				+ "    -copy|-m) shift;;\n"
+				+ "    -*) ;;\n"
+				+ "    *) in=$1;;\n"
+				+ "  esac\n"
+				+ "  shift\n"
+				+ "done\n"
+				+ "transform \"$in\" \"$out\"\n";
+		final Map<String, String> arguments = new LinkedHashMap<>();
+		arguments.put("advpng", inPlace);
+		arguments.put("optipng", inPlace);
+		arguments.put("pngout", "transform \"$1\" \"$2\"\n");
+		arguments.put("pngquant", "for last; do :; done\nif [ \"$last\" = \"-\" ]; then transform - -; else transform \"$last\" \"${last%.png}.png2\"; fi\n");
+		arguments.put("jpegtran", inputOutput);
+		arguments.put("jfifremove", "transform - -\n");
+		arguments.put("gifsicle", inputOutput);
+		arguments.put("cwebp", inputOutput);
+		arguments.put("gif2webp", inputOutput);
+		ARGUMENTS = Collections.unmodifiableMap(arguments);
+	}
+	
+	private StubBinaries() {
+	}
+	
+	/**
+	 * @return The names of the binaries that are replaced.
+	 */
+	public static Iterable<String> getBinaries() {
+		return ARGUMENTS.keySet();
+	}
+	
+	/**
+	 * Writes the script of a binary.
+	 * 
+	 * @param directory The binary directory passed to the service.
+	 * @param binary The name of the binary, see {@link #getBinaries()}.
+	 * @param sleepMillis How long the binary sleeps before it writes its 
+	 *                    output.
+	 * @param output What the binary writes.
+	 * @return The script.
+	 * @throws IOException Thrown if the script cannot be written.
+	 */
+	public static File write(final File directory, final String binary, final long sleepMillis, final Output output) throws IOException {
+		final String arguments = ARGUMENTS.get(binary);
+		if(arguments == null) {
+			throw new IllegalArgumentException("Unknown binary: " + binary);
+		}
+		final StringBuilder script = new StringBuilder(1024).append("#!/bin/sh\n# Stand-in for ").append(binary)
+			.append(" written by the ImageOptimization throughput harness, ").append(output.name().toLowerCase(Locale.ENGLISH)).append(" output.\n");
+		if(sleepMillis > 0) {
+			script.append("sleep ").append(String.format(Locale.ENGLISH, "%.3f", Double.valueOf(sleepMillis / 1000.0))).append('\n');
+		}
+		script.append("transform() {\n");
+		switch(output) {
+			case COPY:
+				script.append("  if [ \"$1\" = \"-\" ]; then cat; elif [ \"$1\" != \"$2\" ]; then cat \"$1\" > \"$2\"; fi\n");
+				break;
+			case SHRINK:
+				script.append("  if [ \"$1\" = \"-\" ]; then head -c -").append(SHRINK_BYTES)
+					.append("; elif [ \"$1\" = \"$2\" ]; then truncate -s -").append(SHRINK_BYTES)
+					.append(" \"$1\"; else head -c -").append(SHRINK_BYTES).append(" \"$1\" > \"$2\"; fi\n");
+				break;
+			default:
+				script.append("  if [ \"$1\" = \"-\" ]; then cat > /dev/null; fi\n  exit 1\n");
+				break;
+		}
+		script.append("}\n").append(arguments).append("exit 0\n");
+		
+		final File file = new File(directory, binary);
+		Files.write(file.toPath(), script.toString().getBytes(StandardCharsets.UTF_8));
+		if(!file.setExecutable(true)) {
+			throw new IOException("Cannot make " + file.getPath() + " executable.");
+		}
+		return file;
+	}
+}
@@ -0,0 +1,261 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.dto.OptimizationResult;
+import com.salesforce.perfeng.uiperf.imageoptimization.metrics.BinaryMetrics;
+import com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService.FileTypeConversion;
+import com.salesforce.perfeng.uiperf.imageoptimization.service.ImageOptimizationService;
+
+/**
+ * <p>Measures the throughput of {@link ImageOptimizationService} with the 
+ * binaries replaced by {@link StubBinaries}, so the result is the cost of the
+ * scheduling, copying, scratch directories and verification done by the 
+ * service. It generates a corpus of padded images with 
+ * {@link BenchmarkCorpus}, optimizes a warm up set and then the measured set,
+ * 1 image per call, from a number of threads, and prints the images per 
+ * second, the p50 and p99 latency of a call, the time spent in the stub 
+ * binaries, the service overhead per image and the peak RSS of the JVM.</p>
+ * <p>It is configured with system properties:</p>
+ * <ul>
+ *   <li><code>imageoptimization.benchmark.images</code> The number of 
+ *       measured images, 1000 by default.</li>
+ *   <li><code>imageoptimization.benchmark.warmup</code> The number of warm up
+ *       images, 100 by default.</li>
+ *   <li><code>imageoptimization.benchmark.corpus</code> The comma separated 
+ *       <code>&lt;type&gt;:&lt;size&gt;</code> of the images, used in 
+ *       turn.</li>
+ *   <li><code>imageoptimization.benchmark.threads</code> The number of calls
+ *       at the same time, the number of processors by default.</li>
+ *   <li><code>imageoptimization.benchmark.sleepMillis</code> and 
+ *       <code>imageoptimization.benchmark.sleepMillis.&lt;binary&gt;</code> 
+ *       How long the stub binaries sleep, 0 by default.</li>
+ *   <li><code>imageoptimization.benchmark.output</code> and 
+ *       <code>imageoptimization.benchmark.output.&lt;binary&gt;</code> The 
+ *       {@link StubBinaries.Output} of the stub binaries, <code>shrink</code>
+ *       by default.</li>
+ *   <li><code>imageoptimization.benchmark.webp</code> If the WebP version is
+ *       also created, <code>false</code> by default.</li>
+ * </ul>
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public final class ThroughputHarness {
+
+	private static final String PROPERTY_PREFIX = "imageoptimization.benchmark.";
+	
+	private static final String DEFAULT_CORPUS = "png-argb:256,png-rgb:256,png-indexed:256,gif:256,jpeg:256";
+	
+	/**
+	 * The zeros appended to each image, enough for every binary to 
+	 * {@link StubBinaries.Output#SHRINK} the image twice.
+	 */
+	private static final int PADDING = 64 * StubBinaries.SHRINK_BYTES;
+	
+	private ThroughputHarness() {
+	}
+	
+	/**
+	 * @param args Not used, see the system properties.
+	 * @throws Exception Thrown if the harness cannot run.
+	 */
+	public static void main(final String[] args) throws Exception {
+		final int imageCount = Integer.getInteger(PROPERTY_PREFIX + "images", 1000).intValue();
+		final int warmupCount = Integer.getInteger(PROPERTY_PREFIX + "warmup", 100).intValue();
+		final int threads = Integer.getInteger(PROPERTY_PREFIX + "threads", Runtime.getRuntime().availableProcessors()).intValue();
+		final boolean webp = Boolean.getBoolean(PROPERTY_PREFIX + "webp");
+		final String[] corpus = System.getProperty(PROPERTY_PREFIX + "corpus", DEFAULT_CORPUS).split(",");
+		
+		final File directory = Files.createTempDirectory("ImageOptimizationThroughput").toFile();
+		try {
+			final File binaryDirectory = new File(directory, "bin");
+			final File imageDirectory = new File(directory, "images");
+			final File scratchDirectory = new File(directory, "scratch");
+			binaryDirectory.mkdir();
+			imageDirectory.mkdir();
+			scratchDirectory.mkdir();
+			
+			final long defaultSleepMillis = Long.getLong(PROPERTY_PREFIX + "sleepMillis", 0).longValue();
+			final String defaultOutput = System.getProperty(PROPERTY_PREFIX + "output", StubBinaries.Output.SHRINK.name());
+			for(final String binary : StubBinaries.getBinaries()) {
+				StubBinaries.write(binaryDirectory, binary, Long.getLong(PROPERTY_PREFIX + "sleepMillis." + binary, defaultSleepMillis).longValue(),
+						StubBinaries.Output.valueOf(System.getProperty(PROPERTY_PREFIX + "output." + binary, defaultOutput).toUpperCase(Locale.ENGLISH)));
+			}
+			
+			final List<File> files = createCorpus(imageDirectory, corpus, warmupCount + imageCount);
+			
+			final ImageOptimizationService<Void> service = new ImageOptimizationService<>(scratchDirectory, binaryDirectory);
+			try {
+				run(service, webp, files.subList(0, warmupCount), threads);
+				service.getBinaryMetrics().reset();
+				
+				final long start = System.nanoTime();
+				final Run run = run(service, webp, files.subList(warmupCount, files.size()), threads);
+				final long elapsed = System.nanoTime() - start;
+				
+				long binaryMillis = 0;
+				long invocations = 0;
+				for(final BinaryMetrics metrics : service.getBinaryMetrics().getAll()) {
+					binaryMillis += metrics.getTotalTimeMillis();
+					invocations += metrics.getInvocations();
+				}
+				
+				final long[] latencies = run.latencies;
+				Arrays.sort(latencies);
+				final double meanMillis = (Arrays.stream(latencies).sum() / (double) latencies.length) / 1000000.0;
+				final double binaryMillisPerImage = binaryMillis / (double) latencies.length;
+				System.out.println(String.format(Locale.ENGLISH, "Images:           %d (%s, %d threads, %d warm up)", Integer.valueOf(imageCount), String.join(",", corpus), Integer.valueOf(threads), Integer.valueOf(warmupCount)));
+				System.out.println(String.format(Locale.ENGLISH, "Throughput:       %.1f images/s", Double.valueOf(imageCount / (elapsed / 1000000000.0))));
+				System.out.println(String.format(Locale.ENGLISH, "Latency p50:      %.2f ms", Double.valueOf(percentile(latencies, 50) / 1000000.0)));
+				System.out.println(String.format(Locale.ENGLISH, "Latency p99:      %.2f ms", Double.valueOf(percentile(latencies, 99) / 1000000.0)));
+				System.out.println(String.format(Locale.ENGLISH, "Binary time:      %.2f ms/image (%d invocations)", Double.valueOf(binaryMillisPerImage), Long.valueOf(invocations)));
+				System.out.println(String.format(Locale.ENGLISH, "Service overhead: %.2f ms/image", Double.valueOf(meanMillis - binaryMillisPerImage)));
+				System.out.println(String.format(Locale.ENGLISH, "Failures:         %d (%d failed the automated test)", Integer.valueOf(run.failures.get()), Integer.valueOf(run.failedAutomatedTest.get())));
+				System.out.println("Peak RSS:         " + getPeakRss());
+			} finally {
+				service.destroy();
+			}
+		} finally {
+			FileUtils.deleteDirectory(directory);
+		}
+	}
+	
+	/**
+	 * @param directory Where the images are created.
+	 * @param corpus The <code>&lt;type&gt;:&lt;size&gt;</code> of the images.
+	 * @param count The number of images.
+	 * @return The images, each one with different pixels.
+	 * @throws IOException Thrown if an image cannot be created.
+	 */
+	private static List<File> createCorpus(final File directory, final String[] corpus, final int count) throws IOException {
+		final List<File> files = new ArrayList<>(count);
+		for(int i = 0; i < count; i++) {
+			final String image = corpus[i % corpus.length].trim();
+			final int separator = image.indexOf(':');
+			final String type = image.substring(0, separator);
+			final File file = BenchmarkCorpus.write(new File(directory, "image-" + i + '.' + BenchmarkCorpus.getExtension(type)), type, Integer.parseInt(image.substring(separator + 1)), i);
+			BenchmarkCorpus.pad(file, PADDING);
+			files.add(file);
+		}
+		return files;
+	}
+	
+	/**
+	 * The latencies and failures of a run.
+	 */
+	private static final class Run {
+		private final long[] latencies;
+		private final AtomicInteger failures = new AtomicInteger();
+		private final AtomicInteger failedAutomatedTest = new AtomicInteger();
+		
+		Run(final int count) {
+			latencies = new long[count];
+		}
+	}
+	
+	private static Run run(final ImageOptimizationService<Void> service, final boolean webp, final List<File> files, final int threads) throws Exception {
+		final Run run = new Run(files.size());
+		final AtomicInteger next = new AtomicInteger();
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final List<Future<?>> futures = new ArrayList<>(threads);
+			for(int t = 0; t < threads; t++) {
+				futures.add(executor.submit(() -> {
+					for(int i = next.getAndIncrement(); i < files.size(); i = next.getAndIncrement()) {
+						final long start = System.nanoTime();
+						try {
+							for(final OptimizationResult<Void> result : service.optimizeAllImages(FileTypeConversion.NONE, webp, Collections.singletonList(files.get(i)))) {
+								if(result.isFailedAutomatedTest()) {
+									run.failedAutomatedTest.incrementAndGet();
+								}
+							}
+						} catch(final Exception e) {
+							run.failures.incrementAndGet();
+						}
+						run.latencies[i] = System.nanoTime() - start;
+					}
+				}));
+			}
+			for(final Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		return run;
+	}
+	
+	/**
+	 * @param sorted The sorted values.
+	 * @param percentile The percentile, from 0 to 100.
+	 * @return The value at the percentile, using the nearest rank.
+	 */
+	private static long percentile(final long[] sorted, final int percentile) {
+		final int rank = (int) Math.ceil((percentile / 100.0) * sorted.length);
+		return sorted[Math.max(0, rank - 1)];
+	}
+	
+	/**
+	 * @return The peak resident set size of the JVM, from 
+	 *         <code>/proc/self/status</code>.
+	 * @throws IOException Thrown if the status cannot be read.
+	 */
+	private static String getPeakRss() throws IOException {
+		final Path status = Paths.get("/proc/self/status");
+		if(Files.isReadable(status)) {
+			for(final String line : Files.readAllLines(status, StandardCharsets.UTF_8)) {
+				if(line.startsWith("VmHWM:")) {
+					final long kilobytes = Long.parseLong(line.substring("VmHWM:".length()).replace("kB", "").trim());
+					return String.format(Locale.ENGLISH, "%.1f MB", Double.valueOf(kilobytes / 1024.0));
+				}
+			}
+		}
+		return "unknown";
+	}
+}
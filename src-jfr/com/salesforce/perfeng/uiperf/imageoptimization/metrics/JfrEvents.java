@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.metrics;
+
+import java.util.List;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import org.apache.http.annotation.ThreadSafe;
+
+/**
+ * The JDK Flight Recorder events behind {@link OptimizationEvents}. This is 
+ * the only class that uses <code>jdk.jfr</code>, so it is in its own source 
+ * directory that is compiled for Java 11 and it is found with 
+ * {@link java.util.ServiceLoader} when the JVM can load it. An event is only 
+ * returned if it is enabled in a recording.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@ThreadSafe
+public final class JfrEvents implements OptimizationEventFactory {
+
+	private static final String CATEGORY = "Image Optimization";
+	private static final String PREFIX = "com.salesforce.perfeng.uiperf.imageoptimization.";
+	
+	@Override
+	public OptimizationEvent queued(final long imageId, final String path) {
+		final QueuedEvent event = new QueuedEvent();
+		if(!event.isEnabled()) {
+			return OptimizationEvents.NOOP;
+		}
+		event.imageId = imageId;
+		event.path = path;
+		event.begin();
+		return event;
+	}
+	
+	@Override
+	public OptimizationEvent copyMaster(final long imageId, final String path) {
+		final CopyMasterEvent event = new CopyMasterEvent();
+		if(!event.isEnabled()) {
+			return OptimizationEvents.NOOP;
+		}
+		event.imageId = imageId;
+		event.path = path;
+		event.begin();
+		return event;
+	}
+	
+	@Override
+	public OptimizationEvent binary(final long imageId, final String tool) {
+		final BinaryEvent event = new BinaryEvent();
+		if(!event.isEnabled()) {
+			return OptimizationEvents.NOOP;
+		}
+		event.imageId = imageId;
+		event.tool = tool;
+		event.exitCode = -1;
+		event.begin();
+		return event;
+	}
+	
+	@Override
+	public OptimizationEvent verification(final long imageId, final String check, final String path) {
+		final VerificationEvent event = new VerificationEvent();
+		if(!event.isEnabled()) {
+			return OptimizationEvents.NOOP;
+		}
+		event.imageId = imageId;
+		event.check = check;
+		event.path = path;
+		event.begin();
+		return event;
+	}
+	
+	@Override
+	public OptimizationEvent promotion(final long imageId, final String path) {
+		final PromotionEvent event = new PromotionEvent();
+		if(!event.isEnabled()) {
+			return OptimizationEvents.NOOP;
+		}
+		event.imageId = imageId;
+		event.path = path;
+		event.begin();
+		return event;
+	}
+	
+	@Name(PREFIX + "Queued")
+	@Label("Image Queued")
+	@Description("Time an image waited for a thread to optimize it.")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	static final class QueuedEvent extends Event implements OptimizationEvent {
+		@Label("Image ID")
+		long imageId;
+		@Label("Path")
+		String path;
+	}
+	
+	@Name(PREFIX + "CopyMaster")
+	@Label("Copy Master Image")
+	@Description("Copy of the original image to the working directory.")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	static final class CopyMasterEvent extends Event implements OptimizationEvent {
+		@Label("Image ID")
+		long imageId;
+		@Label("Path")
+		String path;
+		@Label("Size")
+		@DataAmount
+		long bytes;
+		
+		@Override
+		public void setBytes(final long before, final long after) {
+			bytes = after;
+		}
+	}
+	
+	@Name(PREFIX + "Binary")
+	@Label("Binary Invocation")
+	@Description("Run of a binary application that optimizes or converts an image.")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	static final class BinaryEvent extends Event implements OptimizationEvent {
+		@Label("Image ID")
+		long imageId;
+		@Label("Tool")
+		String tool;
+		@Label("Arguments")
+		String arguments;
+		@Label("Exit Code")
+		int exitCode;
+		@Label("Size Before")
+		@DataAmount
+		long bytesBefore;
+		@Label("Size After")
+		@DataAmount
+		long bytesAfter;
+		
+		@Override
+		public void setArguments(final List<String> command) {
+			arguments = String.join(" ", command);
+		}
+		
+		@Override
+		public void setExitCode(final int exitCode) {
+			this.exitCode = exitCode;
+		}
+		
+		@Override
+		public void setBytes(final long before, final long after) {
+			bytesBefore = before;
+			bytesAfter = after;
+		}
+	}
+	
+	@Name(PREFIX + "Verification")
+	@Label("Image Verification")
+	@Description("Decode or pixel comparison of an image to verify that the optimization did not change it.")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	static final class VerificationEvent extends Event implements OptimizationEvent {
+		@Label("Image ID")
+		long imageId;
+		@Label("Check")
+		String check;
+		@Label("Path")
+		String path;
+		@Label("Passed")
+		boolean passed;
+		
+		@Override
+		public void setPassed(final boolean passed) {
+			this.passed = passed;
+		}
+	}
+	
+	@Name(PREFIX + "Promotion")
+	@Label("Image Promotion")
+	@Description("Copy of the optimized image to the final directory.")
+	@Category(CATEGORY)
+	@StackTrace(false)
+	static final class PromotionEvent extends Event implements OptimizationEvent {
+		@Label("Image ID")
+		long imageId;
+		@Label("Path")
+		String path;
+		@Label("Size")
+		@DataAmount
+		long bytes;
+		
+		@Override
+		public void setBytes(final long before, final long after) {
+			bytes = after;
+		}
+	}
+}
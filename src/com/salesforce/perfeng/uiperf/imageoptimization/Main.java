@@ -27,40 +27,43 @@
  ******************************************************************************/
 package com.salesforce.perfeng.uiperf.imageoptimization;
 
-import static com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService.GIF_EXTENSION;
-import static com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService.GIF_MIME_TYPE;
-import static com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService.JPEG_EXTENSION;
-import static com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService.JPEG_EXTENSION2;
-import static com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService.JPEG_EXTENSION3;
-import static com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService.JPEG_MIME_TYPE;
-import static com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService.PNG_EXTENSION;
-import static com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService.PNG_MIME_TYPE;
-
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URLConnection;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Date;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.FilenameUtils;
 import org.apache.http.annotation.Immutable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.salesforce.perfeng.uiperf.imageoptimization.dto.OptimizationResult;
+import com.salesforce.perfeng.uiperf.imageoptimization.report.ReportWriter;
+import com.salesforce.perfeng.uiperf.imageoptimization.server.OptimizationDaemon;
+import com.salesforce.perfeng.uiperf.imageoptimization.server.OptimizationDaemonClient;
+import com.salesforce.perfeng.uiperf.imageoptimization.server.OptimizationHttpServer;
 import com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService;
 import com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService.FileTypeConversion;
 import com.salesforce.perfeng.uiperf.imageoptimization.service.ImageOptimizationService;
+import com.salesforce.perfeng.uiperf.imageoptimization.service.OptimizationBatch;
+import com.salesforce.perfeng.uiperf.imageoptimization.service.OptimizationProfile;
 import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFileOptimizationException;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFileScanner;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageHeader;
+import com.salesforce.perfeng.uiperf.imageoptimization.watch.ImageDirectoryWatcher;
 
 /**
  * Class to run the image optimization against a specified directory. Used 
@@ -89,6 +92,41 @@ public class Main {
 	
 	private final static Logger logger = LoggerFactory.getLogger(Main.class);
 	
+	/**
+	 * When this is the first argument, instead of optimizing files, an 
+	 * {@link OptimizationHttpServer} is started. The optional second argument
+	 * is the port, the default is {@value #DEFAULT_SERVER_PORT}.
+	 */
+	public final static String SERVER_ARGUMENT = "--server";
+	/**
+	 * The port the {@link OptimizationHttpServer} listens on by default.
+	 */
+	public final static int DEFAULT_SERVER_PORT = 8765;
+	/**
+	 * When this is the first argument, instead of optimizing files, an 
+	 * {@link OptimizationDaemon} is started. Later calls to this class forward
+	 * the images to the daemon instead of creating a new service each time.
+	 */
+	public final static String DAEMON_ARGUMENT = "--daemon";
+	/**
+	 * When this is the first argument, the rest of the arguments are 
+	 * directories that are watched by an {@link ImageDirectoryWatcher}. The 
+	 * images created or modified in them are optimized in place.
+	 */
+	public final static String WATCH_ARGUMENT = "--watch";
+	/**
+	 * System property with the format of the report of the optimized images 
+	 * that is written to stdout, either {@value ReportWriter#JSON_LINES}, the 
+	 * default, or {@value ReportWriter#CSV}.
+	 */
+	public final static String REPORT_FORMAT_PROPERTY = "reportFormat";
+	/**
+	 * System property with the {@link OptimizationProfile} the images are 
+	 * optimized with, for example <code>fast</code> for a quick check. The 
+	 * default is {@link OptimizationProfile#MAXIMUM}.
+	 */
+	public final static String OPTIMIZATION_PROFILE_PROPERTY = "optimizationProfile";
+	
 	/**
 	 * Optimizes all of the images that are passed in.
 	 * 
@@ -108,87 +146,196 @@ public class Main {
 			return;
 		}
 		
-		final Set<File> imagesToOptimize = new TreeSet<>();
-		File file;
-		for(final String path : args) {
-			file = new File(path);
-			if(!file.exists()) {
-				throw new IllegalArgumentException("The file \"" + path + "\" does not exist.");
-			} else if(file.isFile()) {
-				imagesToOptimize.add(file);
-			} else {
-				imagesToOptimize.addAll(getAllImages(path));
+		if(SERVER_ARGUMENT.equals(args[0])) {
+			startServer((args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_SERVER_PORT);
+			return;
+		}
+		if(DAEMON_ARGUMENT.equals(args[0])) {
+			startDaemon();
+			return;
+		}
+		if(WATCH_ARGUMENT.equals(args[0])) {
+			startWatching(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
+		
+		final OptimizationProfile profile = OptimizationProfile.fromName(System.getProperty(OPTIMIZATION_PROFILE_PROPERTY, OptimizationProfile.MAXIMUM.name()));
+		final OptimizationDaemonClient client = OptimizationDaemonClient.find(OptimizationDaemon.getDaemonFile());
+		if(client != null) {
+			final Queue<File> imagesToOptimize = new ConcurrentLinkedQueue<>();
+			findImages(args, (file, header) -> imagesToOptimize.add(file));
+			final List<OptimizationResult<Void>> list = client.optimizeAllImages(profile, FileTypeConversion.ALL, false, imagesToOptimize);
+			if(list != null) {
+				final ReportWriter report = createReportWriter();
+				list.forEach(report);
+				report.finish();
+				logger.info("Images can be downloaded from: {}", client.getFinalResultsDirectory());
+				return;
 			}
+			logger.info("The image optimization daemon is not reachable. Optimizing the images in process.");
 		}
 		
+		// The images start being optimized while the directories are still 
+		// being searched.
 		final IImageOptimizationService<Void> service = ImageOptimizationService.createInstance(IMAGE_OPTIMIZATION_BINARY_LOCATION, 0);
-		final List<OptimizationResult<Void>> list = service.optimizeAllImages(FileTypeConversion.ALL, false, imagesToOptimize);
-		System.out.println(list);
-		System.out.println("Images can be downloaded from: " + service.getFinalResultsDirectory());
+		final OptimizationBatch<Void> batch = service.newOptimizationBatch(profile, FileTypeConversion.ALL, false);
+		// Each result is written as soon as it is done instead of keeping all
+		// of them in memory. While the directories are searched, whichever 
+		// thread finds an image also writes the results that are done, unless
+		// another thread already is.
+		final ReportWriter report = createReportWriter();
+		final Lock reportLock = new ReentrantLock();
+		try {
+			findImages(args, (file, header) -> {
+				batch.submit(file, header);
+				if(reportLock.tryLock()) {
+					try {
+						batch.pollResults(report);
+					} finally {
+						reportLock.unlock();
+					}
+				}
+			});
+			reportLock.lock();
+			try {
+				batch.awaitResults(report);
+			} finally {
+				reportLock.unlock();
+			}
+		} finally {
+			report.setSkipped(batch.getSkippedFiles().size());
+			report.setTimedOut(batch.getTimedOutCount());
+			report.finish();
+		}
+		logger.info("Images can be downloaded from: {}", service.getFinalResultsDirectory());
 	}
 	
 	/**
-	 * Used to determine if the image's content type matches the extension.
-	 * 
-	 * @param contentType The content type to check (mime type)
-	 * @param extension The extension to check.
-	 * @return {@code true} if the combination is valid, otherwise 
-	 *         {@code false}.
+	 * @return The writer of the report to stdout in the format of the 
+	 *         {@value #REPORT_FORMAT_PROPERTY} system property.
 	 */
-	private static final boolean isValidContentType(final String contentType, final String extension) {
-		if(PNG_EXTENSION.equals(extension)) {
-			return PNG_MIME_TYPE.equals(contentType);
-		}
-		if(GIF_EXTENSION.equals(extension)) {
-			return GIF_MIME_TYPE.equals(contentType);
-		}
-		if(JPEG_EXTENSION.equals(extension) || JPEG_EXTENSION2.equals(extension) || JPEG_EXTENSION3.equals(extension)) {
-			return JPEG_MIME_TYPE.equals(contentType);
-		}
-		return false;
+	private static ReportWriter createReportWriter() {
+		return ReportWriter.create(System.getProperty(REPORT_FORMAT_PROPERTY, ReportWriter.JSON_LINES), new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
 	}
 	
 	/**
-	 * Retrieves all of the valid images from the passed in directories.
+	 * Finds all of the images in the passed in paths. A path that is inside 
+	 * of another one of the paths is skipped, so each image is only found 
+	 * once without having to remember all of the images.
 	 * 
-	 * @param rootDirectories The directories to search in.
-	 * @return The {@link List} of images that were found.
+	 * @param paths The paths to images or directories of images.
+	 * @param consumer Called with each image as soon as it is found, with its
+	 *                 header if it was read while searching the directories,
+	 *                 otherwise <code>null</code>. Is called from multiple 
+	 *                 threads at the same time.
 	 * @throws IOException Thrown if there are any issues trying to read from 
 	 *                     the file system.
 	 */
-	private static List<File> getAllImages(final String... rootDirectories) throws IOException  {
-		
-		final List<File> images = new ArrayList<>();
-		for(final String rootDirectory : rootDirectories) {
-			logger.info("Starting with {} at {}", rootDirectory, new Date());
-			InputStream is = null;
-			final Collection<File> c = FileUtils.listFiles(new File(rootDirectory), IImageOptimizationService.SUPPORTED_FILE_EXTENSIONS, true);
-			for(final File image : c) {
-				try {
-					is = new BufferedInputStream(new FileInputStream(image));
-					final String contentType = URLConnection.guessContentTypeFromStream(is);
-					
-					if(isValidContentType(contentType, FilenameUtils.getExtension(image.getName()).toLowerCase())) {
-						images.add(image);
-					} else if(image.length() > 0) {
-						logger.warn("Skipping file. Unexpected content type for file\n\tfile: {}\n\tcontentType: {}", image.getPath(), contentType);
-					}
-				} finally {
-					if(is != null) {
-						try {
-							is.close();
-						} catch (final IOException ignore) {
-							// If we can't close it then there is nothing we can
-							// do and should move on.
-						}
-					}
+	private static void findImages(final String[] paths, final BiConsumer<File, ImageHeader> consumer) throws IOException {
+		final List<File> files = new ArrayList<>();
+		final List<File> directories = new ArrayList<>();
+		for(final String path : paths) {
+			final File file = new File(path);
+			if(!file.exists()) {
+				throw new IllegalArgumentException("The file \"" + path + "\" does not exist.");
+			}
+			final File canonicalFile = file.getCanonicalFile();
+			if(!isInside(canonicalFile, directories) && !files.contains(canonicalFile)) {
+				if(canonicalFile.isFile()) {
+					files.add(canonicalFile);
+				} else {
+					directories.removeIf(directory -> isInside(directory, Collections.singletonList(canonicalFile)));
+					directories.add(canonicalFile);
 				}
 			}
-
-			logger.info("Done with {} at {}", rootDirectory, new Date());
-			logger.info("Found {} images.", Integer.valueOf(images.size()));
+		}
+		for(final File file : files) {
+			if(!isInside(file, directories)) {
+				consumer.accept(file, null);
+			}
 		}
 		
-		return images;
+		if(!directories.isEmpty()) {
+			final ImageFileScanner scanner = new ImageFileScanner(Runtime.getRuntime().availableProcessors() * 2);
+			try {
+				scanner.scan(directories, consumer);
+			} finally {
+				scanner.shutdown();
+			}
+		}
+	}
+	
+	/**
+	 * @param file A canonical file.
+	 * @param directories Canonical directories.
+	 * @return <code>true</code> if the file is one of the directories or is 
+	 *         inside of one of them.
+	 */
+	private static boolean isInside(final File file, final Collection<File> directories) {
+		for(final File directory : directories) {
+			if(file.toPath().startsWith(directory.toPath())) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Starts an {@link OptimizationHttpServer} on the loopback interface that 
+	 * keeps running until the JVM is stopped.
+	 * 
+	 * @param port The port to listen on.
+	 * @throws IOException Thrown if the server cannot be started.
+	 */
+	private static void startServer(final int port) throws IOException {
+		final int numberOfThreads = Runtime.getRuntime().availableProcessors();
+		final ImageOptimizationService<Void> service = ImageOptimizationService.createInstance(IMAGE_OPTIMIZATION_BINARY_LOCATION, 0);
+		final OptimizationHttpServer server = new OptimizationHttpServer(service, new InetSocketAddress(InetAddress.getLoopbackAddress(), port), numberOfThreads, numberOfThreads * 4, 50 * 1024 * 1024);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			server.stop(1);
+			service.destroy();
+		}));
+		server.start();
+	}
+	
+	/**
+	 * Starts an {@link OptimizationDaemon} that keeps running until the JVM is
+	 * stopped.
+	 * 
+	 * @throws IOException Thrown if the daemon cannot be started.
+	 */
+	private static void startDaemon() throws IOException {
+		final ImageOptimizationService<Void> service = ImageOptimizationService.createInstance(IMAGE_OPTIMIZATION_BINARY_LOCATION, 0);
+		final OptimizationDaemon daemon = new OptimizationDaemon(service, OptimizationDaemon.getDaemonFile(), Runtime.getRuntime().availableProcessors());
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			daemon.stop();
+			service.destroy();
+		}));
+		daemon.start();
+	}
+	
+	/**
+	 * Starts an {@link ImageDirectoryWatcher} that keeps running until the JVM
+	 * is stopped.
+	 * 
+	 * @param directories The directories to watch.
+	 * @throws IOException Thrown if the directories cannot be watched.
+	 */
+	private static void startWatching(final String... directories) throws IOException {
+		final int numberOfThreads = Runtime.getRuntime().availableProcessors();
+		final ImageOptimizationService<Void> service = ImageOptimizationService.createInstance(IMAGE_OPTIMIZATION_BINARY_LOCATION, 0);
+		final ImageDirectoryWatcher watcher = new ImageDirectoryWatcher(service, FileTypeConversion.NONE, false, 500, numberOfThreads * 16, numberOfThreads * 4);
+		for(final String directory : directories) {
+			watcher.watch(Paths.get(directory));
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			try {
+				watcher.close();
+			} catch(final IOException ioe) {
+				logger.warn("Error stopping the watcher.", ioe);
+			}
+			service.destroy();
+		}));
+		watcher.start();
 	}
-}
\ No newline at end of file
+}
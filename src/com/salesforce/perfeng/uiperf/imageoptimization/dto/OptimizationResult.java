@@ -45,9 +45,11 @@ public class OptimizationResult<C> {
 	private final boolean fileTypeChanged;
 	private final boolean failedAutomatedTest;
 	private final boolean isBrowserSpecific;
+	private final boolean mislabeled;
 	private C newChangeList;
 	private String gusBugId;
 	private String ownerUserName;
+	private StageTrace stageTrace;
 
 	/**
 	 * Constructor which sets all of the values.
@@ -72,6 +74,32 @@ public class OptimizationResult<C> {
 	 *                          type of browser.
 	 */
 	public OptimizationResult(final File optimizedFile, final long optimizedFileSize, final File originalFile, final long originalFileSize, final boolean fileTypeChanged, final boolean failedAutomatedTest, final boolean isBrowserSpecific) {
+		this(optimizedFile, optimizedFileSize, originalFile, originalFileSize, fileTypeChanged, failedAutomatedTest, isBrowserSpecific, false);
+	}
+	
+	/**
+	 * Constructor which sets all of the values.
+	 * 
+	 * @param optimizedFile The optimized version of the image
+	 * @param optimizedFileSize The size of the optimized image (aka 
+	 *                          {@link File#length()}
+	 * @param originalFile The original version of the image
+	 * @param originalFileSize The size of the original image (aka 
+	 *                         {@link File#length()}
+	 * @param fileTypeChanged {@code true} if the file type of the optimized 
+	 *                        image is different than the file type of the 
+	 *                        original images.
+	 * @param failedAutomatedTest {@code true} if the file failed the automated 
+	 *                            validation after compression and should be 
+	 *                            considered ineligible for check-in.
+	 * @param isBrowserSpecific {@code true} if the image format only works in 1
+	 *                          type of browser.
+	 * @param mislabeled {@code true} if the file extension of the original 
+	 *                   image does not match its content, for example a JPEG
+	 *                   named <code>.png</code>.
+	 * @since 1.6.0
+	 */
+	public OptimizationResult(final File optimizedFile, final long optimizedFileSize, final File originalFile, final long originalFileSize, final boolean fileTypeChanged, final boolean failedAutomatedTest, final boolean isBrowserSpecific, final boolean mislabeled) {
 		this.optimizedFile = optimizedFile;
 		this.optimizedFileSize = optimizedFileSize;
 		this.originalFile = originalFile;
@@ -79,6 +107,7 @@ public class OptimizationResult<C> {
 		this.fileTypeChanged = fileTypeChanged;
 		this.failedAutomatedTest = failedAutomatedTest;
 		this.isBrowserSpecific = isBrowserSpecific;
+		this.mislabeled = mislabeled;
 	}
 
 	/**
@@ -181,6 +210,33 @@ public class OptimizationResult<C> {
 	public final boolean isBrowserSpecific() {
 		return isBrowserSpecific;
 	}
+	
+	/**
+	 * @return {@code true} if the file extension of the original image does 
+	 *         not match its content.
+	 * @since 1.6.0
+	 */
+	public final boolean isMislabeled() {
+		return mislabeled;
+	}
+	
+	/**
+	 * @return The stages the image went through while it was optimized, or 
+	 *         <code>null</code> if they were not traced.
+	 * @since 1.6.0
+	 */
+	public final StageTrace getStageTrace() {
+		return stageTrace;
+	}
+	
+	/**
+	 * @param stageTrace The stages the image went through while it was 
+	 *                   optimized.
+	 * @since 1.6.0
+	 */
+	public final void setStageTrace(final StageTrace stageTrace) {
+		this.stageTrace = stageTrace;
+	}
 
 	/**
 	 * Eclipse generated with a subset of the fields
@@ -271,6 +327,7 @@ public class OptimizationResult<C> {
 		return sb.append("\n\tfailedAutomatedTest:\t").append(failedAutomatedTest)
 			.append("\n\tfileTypeChanged:\t").append(fileTypeChanged)
 			.append("\n\tisBrowserSpecific:\t").append(isBrowserSpecific)
+			.append("\n\tmislabeled:\t\t").append(mislabeled)
 			.append("\n\toriginalFileSize:\t").append(originalFileSize)
 			.append("\n\toptimizedFileSize:\t").append(optimizedFileSize)
 			.append("\n\tSavings:\t\t").append(originalFileSize - optimizedFileSize).toString();
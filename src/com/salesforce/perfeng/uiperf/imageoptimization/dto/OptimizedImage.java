@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.dto;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFormat;
+
+/**
+ * This class holds the results of optimizing 1 image that was passed to the 
+ * service in memory (as bytes) instead of as a {@link java.io.File}.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public class OptimizedImage {
+
+	private final byte[] data;
+	private final ImageFormat format;
+	private final long originalSize;
+	private final boolean fileTypeChanged;
+	private final boolean failedAutomatedTest;
+	private final boolean isBrowserSpecific;
+
+	/**
+	 * Constructor which sets all of the values.
+	 * 
+	 * @param data The bytes of the optimized image. The array is not copied.
+	 * @param format The format of the optimized image.
+	 * @param originalSize The number of bytes of the original image.
+	 * @param fileTypeChanged {@code true} if the format of the optimized image
+	 *                        is different than the format of the original 
+	 *                        image.
+	 * @param failedAutomatedTest {@code true} if the image failed the automated
+	 *                            validation after compression.
+	 * @param isBrowserSpecific {@code true} if the image format only works in 1
+	 *                          type of browser.
+	 */
+	public OptimizedImage(final byte[] data, final ImageFormat format, final long originalSize, final boolean fileTypeChanged, final boolean failedAutomatedTest, final boolean isBrowserSpecific) {
+		this.data = data;
+		this.format = format;
+		this.originalSize = originalSize;
+		this.fileTypeChanged = fileTypeChanged;
+		this.failedAutomatedTest = failedAutomatedTest;
+		this.isBrowserSpecific = isBrowserSpecific;
+	}
+
+	/**
+	 * @return The bytes of the optimized image. The array is not copied so it
+	 *         should not be modified.
+	 */
+	public byte[] getData() {
+		return data;
+	}
+
+	/**
+	 * @return The format of the optimized image.
+	 */
+	public ImageFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * @return The number of bytes of the original image.
+	 */
+	public long getOriginalSize() {
+		return originalSize;
+	}
+
+	/**
+	 * @return The number of bytes of the optimized image.
+	 */
+	public long getOptimizedSize() {
+		return data.length;
+	}
+
+	/**
+	 * @return Returns if the optimized image is smaller than the original 
+	 *         image.
+	 */
+	public boolean isOptimized() {
+		return data.length < originalSize;
+	}
+
+	/**
+	 * @return Returns the fileTypeChanged
+	 */
+	public boolean isFileTypeChanged() {
+		return fileTypeChanged;
+	}
+
+	/**
+	 * @return Returns the failedAutomatedTest
+	 */
+	public boolean isFailedAutomatedTest() {
+		return failedAutomatedTest;
+	}
+
+	/**
+	 * @return the isBrowserSpecific
+	 */
+	public boolean isBrowserSpecific() {
+		return isBrowserSpecific;
+	}
+
+	/**
+	 * Returns the human readable version of the data.
+	 * 
+	 * @return Text
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return new StringBuilder(format.getMimeType())
+			.append("\n\tfailedAutomatedTest:\t").append(failedAutomatedTest)
+			.append("\n\tfileTypeChanged:\t").append(fileTypeChanged)
+			.append("\n\tisBrowserSpecific:\t").append(isBrowserSpecific)
+			.append("\n\toriginalSize:\t\t").append(originalSize)
+			.append("\n\toptimizedSize:\t\t").append(data.length)
+			.append("\n\tSavings:\t\t").append(originalSize - data.length).toString();
+	}
+}
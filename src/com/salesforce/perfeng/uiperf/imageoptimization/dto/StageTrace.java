@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.dto;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.annotation.Immutable;
+import org.apache.http.annotation.ThreadSafe;
+
+/**
+ * <p>The stages 1 image went through while it was optimized: for each stage 
+ * the tool that ran, how long it took, the CPU time and the size of the image 
+ * after it. For example it shows the images where 10 seconds of pngout saved 
+ * 3 bytes.</p>
+ * <p>The stages are kept in primitive arrays, with the tools as indexes into 1
+ * shared table of names, so that a trace is cheap to keep for each of 100k 
+ * results.</p>
+ * <p>The CPU time is the time of the JVM thread running the stage. The CPU 
+ * time of a binary application, which runs in its own process, is not 
+ * included.</p>
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@Immutable
+public final class StageTrace {
+
+	/**
+	 * System property that can be set to <code>false</code> to not trace the 
+	 * stages of the images.
+	 */
+	public static final String ENABLED_PROPERTY = "imageoptimization.stageTrace";
+	
+	/**
+	 * The number of <code>long</code> values kept for each stage.
+	 */
+	private static final int STRIDE = 3;
+	
+	private static final Map<String, Short> TOOL_IDS = new ConcurrentHashMap<>();
+	private static final List<String> TOOL_NAMES = new CopyOnWriteArrayList<>();
+	
+	private final short[] tools;
+	/** Duration, CPU time and size after of each stage. */
+	private final long[] values;
+	
+	private StageTrace(final short[] tools, final long[] values) {
+		this.tools = tools;
+		this.values = values;
+	}
+	
+	/**
+	 * @return <code>true</code> if the stages of the images should be traced.
+	 */
+	public static boolean isEnabled() {
+		return Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"));
+	}
+	
+	private static short getToolId(final String tool) {
+		final Short id = TOOL_IDS.get(tool);
+		if(id != null) {
+			return id.shortValue();
+		}
+		synchronized(TOOL_NAMES) {
+			return TOOL_IDS.computeIfAbsent(tool, name -> {
+				TOOL_NAMES.add(name);
+				return Short.valueOf((short) (TOOL_NAMES.size() - 1));
+			}).shortValue();
+		}
+	}
+	
+	/**
+	 * @return The number of stages.
+	 */
+	public int size() {
+		return tools.length;
+	}
+	
+	/**
+	 * @param stage The index of the stage.
+	 * @return The tool that ran in the stage.
+	 */
+	public String getTool(final int stage) {
+		return TOOL_NAMES.get(tools[stage]);
+	}
+	
+	/**
+	 * @param stage The index of the stage.
+	 * @return The wall time of the stage.
+	 */
+	public long getDurationNanos(final int stage) {
+		return values[stage * STRIDE];
+	}
+	
+	/**
+	 * @param stage The index of the stage.
+	 * @return The CPU time of the JVM thread during the stage, -1 if the JVM 
+	 *         does not measure it.
+	 */
+	public long getCpuNanos(final int stage) {
+		return values[(stage * STRIDE) + 1];
+	}
+	
+	/**
+	 * @param stage The index of the stage.
+	 * @return The size of the image after the stage.
+	 */
+	public long getSizeAfter(final int stage) {
+		return values[(stage * STRIDE) + 2];
+	}
+	
+	/**
+	 * @return The text version of the stages, 1 per line.
+	 */
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < tools.length; i++) {
+			if(i > 0) {
+				sb.append('\n');
+			}
+			sb.append(getTool(i)).append('\t').append(TimeUnit.NANOSECONDS.toMillis(getDurationNanos(i))).append("ms\t")
+				.append(TimeUnit.NANOSECONDS.toMillis(getCpuNanos(i))).append("ms cpu\t").append(getSizeAfter(i)).append(" bytes");
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Collects the stages of 1 image. The stages can be added from more than 1
+	 * thread.
+	 */
+	@ThreadSafe
+	public static final class Builder {
+		
+		private short[] tools = new short[8];
+		private long[] values = new long[8 * STRIDE];
+		private int size;
+		
+		/**
+		 * Adds a stage.
+		 * 
+		 * @param tool The tool that ran in the stage.
+		 * @param durationNanos The wall time of the stage.
+		 * @param cpuNanos The CPU time of the JVM thread during the stage, -1
+		 *                 if not measured.
+		 * @param sizeAfter The size of the image after the stage.
+		 */
+		public synchronized void add(final String tool, final long durationNanos, final long cpuNanos, final long sizeAfter) {
+			if(size == tools.length) {
+				tools = Arrays.copyOf(tools, size * 2);
+				values = Arrays.copyOf(values, size * 2 * STRIDE);
+			}
+			tools[size] = getToolId(tool);
+			final int offset = size * STRIDE;
+			values[offset] = durationNanos;
+			values[offset + 1] = cpuNanos;
+			values[offset + 2] = sizeAfter;
+			size++;
+		}
+		
+		/**
+		 * @return The stages added so far.
+		 */
+		public synchronized StageTrace build() {
+			return new StageTrace(Arrays.copyOf(tools, size), Arrays.copyOf(values, size * STRIDE));
+		}
+	}
+}
@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.annotation.ThreadSafe;
+
+/**
+ * <p>The numbers for 1 binary application: how often it ran, how long it 
+ * took, its exit codes, the bytes it read and wrote and how often it failed.</p>
+ * <p>Every number is a {@link LongAdder} (or a {@link LongAccumulator} for the
+ * maximum), so recording a run never blocks and threads running the binary at
+ * the same time do not contend on 1 counter. That keeps them cheap enough to 
+ * always be on. The wall times go into fixed buckets instead of being kept 
+ * one by one.</p>
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@ThreadSafe
+public class BinaryMetrics implements BinaryMetricsMXBean {
+
+	/**
+	 * The upper bounds, in milliseconds, of the wall time histogram buckets. 
+	 * Anything slower goes in a last bucket.
+	 */
+	private static final long[] TIME_BUCKETS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1_000, 2_000, 5_000, 10_000, 30_000, 60_000};
+	
+	private final String binary;
+	private final LongAdder invocations = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final Map<Integer, LongAdder> exitCodes = new ConcurrentHashMap<>();
+	private final LongAdder[] timeHistogram = new LongAdder[TIME_BUCKETS.length + 1];
+	
+	/**
+	 * @param binary The name of the binary application.
+	 */
+	public BinaryMetrics(final String binary) {
+		this.binary = binary;
+		for(int i = 0; i < timeHistogram.length; i++) {
+			timeHistogram[i] = new LongAdder();
+		}
+	}
+	
+	/**
+	 * Records 1 run of the binary.
+	 * 
+	 * @param nanos The wall time of the run.
+	 * @param inputSize The size of the image passed to the binary.
+	 * @param outputSize The size of the image the binary produced, 0 if it 
+	 *                   failed.
+	 * @param failed <code>true</code> if the run failed.
+	 */
+	public void record(final long nanos, final long inputSize, final long outputSize, final boolean failed) {
+		invocations.increment();
+		if(failed) {
+			failures.increment();
+		}
+		totalNanos.add(nanos);
+		maxNanos.accumulate(nanos);
+		bytesIn.add(inputSize);
+		bytesOut.add(outputSize);
+		
+		final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+		int bucket = 0;
+		while((bucket < TIME_BUCKETS.length) && (millis > TIME_BUCKETS[bucket])) {
+			bucket++;
+		}
+		timeHistogram[bucket].increment();
+	}
+	
+	/**
+	 * Records the exit code of 1 run of the binary.
+	 * 
+	 * @param exitCode The exit code of the process.
+	 */
+	public void recordExitCode(final int exitCode) {
+		exitCodes.computeIfAbsent(Integer.valueOf(exitCode), code -> new LongAdder()).increment();
+	}
+	
+	@Override
+	public String getBinary() {
+		return binary;
+	}
+	
+	@Override
+	public long getInvocations() {
+		return invocations.sum();
+	}
+	
+	@Override
+	public long getFailures() {
+		return failures.sum();
+	}
+	
+	@Override
+	public long getTotalTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(totalNanos.sum());
+	}
+	
+	@Override
+	public double getMeanTimeMillis() {
+		final long count = invocations.sum();
+		return (count == 0) ? 0 : (totalNanos.sum() / 1_000_000d / count);
+	}
+	
+	@Override
+	public long getMaxTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+	}
+	
+	@Override
+	public long getBytesIn() {
+		return bytesIn.sum();
+	}
+	
+	@Override
+	public long getBytesOut() {
+		return bytesOut.sum();
+	}
+	
+	@Override
+	public Map<String, Long> getExitCodes() {
+		final Map<String, Long> answer = new TreeMap<>();
+		for(final Map.Entry<Integer, LongAdder> entry : exitCodes.entrySet()) {
+			answer.put(entry.getKey().toString(), Long.valueOf(entry.getValue().sum()));
+		}
+		return answer;
+	}
+	
+	@Override
+	public Map<String, Long> getTimeHistogram() {
+		final Map<String, Long> answer = new LinkedHashMap<>();
+		for(int i = 0; i < TIME_BUCKETS.length; i++) {
+			answer.put("<=" + TIME_BUCKETS[i] + "ms", Long.valueOf(timeHistogram[i].sum()));
+		}
+		answer.put(">" + TIME_BUCKETS[TIME_BUCKETS.length - 1] + "ms", Long.valueOf(timeHistogram[TIME_BUCKETS.length].sum()));
+		return answer;
+	}
+	
+	@Override
+	public void reset() {
+		invocations.reset();
+		failures.reset();
+		totalNanos.reset();
+		maxNanos.reset();
+		bytesIn.reset();
+		bytesOut.reset();
+		exitCodes.clear();
+		for(final LongAdder bucket : timeHistogram) {
+			bucket.reset();
+		}
+	}
+}
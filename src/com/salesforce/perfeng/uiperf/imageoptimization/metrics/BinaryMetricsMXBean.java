@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link BinaryMetrics} of 1 binary application used by 1 
+ * image optimization service.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public interface BinaryMetricsMXBean {
+
+	/**
+	 * @return The name of the binary application.
+	 */
+	String getBinary();
+	
+	/**
+	 * @return The number of times the binary was run.
+	 */
+	long getInvocations();
+	
+	/**
+	 * @return The number of runs that failed, either with an exit code that 
+	 *         is not a success or because the binary could not be run.
+	 */
+	long getFailures();
+	
+	/**
+	 * @return The total wall time of all of the runs in milliseconds.
+	 */
+	long getTotalTimeMillis();
+	
+	/**
+	 * @return The average wall time of a run in milliseconds.
+	 */
+	double getMeanTimeMillis();
+	
+	/**
+	 * @return The longest wall time of a run in milliseconds.
+	 */
+	long getMaxTimeMillis();
+	
+	/**
+	 * @return The total size of the images passed to the binary.
+	 */
+	long getBytesIn();
+	
+	/**
+	 * @return The total size of the images the binary produced.
+	 */
+	long getBytesOut();
+	
+	/**
+	 * @return The number of runs for each exit code.
+	 */
+	Map<String, Long> getExitCodes();
+	
+	/**
+	 * @return The number of runs for each wall time bucket, keyed by the upper
+	 *         bound of the bucket, for example <code>&lt;=100ms</code>.
+	 */
+	Map<String, Long> getTimeHistogram();
+	
+	/**
+	 * Sets all of the numbers back to 0.
+	 */
+	void reset();
+}
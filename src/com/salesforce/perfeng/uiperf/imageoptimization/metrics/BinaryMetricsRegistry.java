@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.http.annotation.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link BinaryMetrics} of 1 image optimization service. Each binary's
+ * numbers are published on the platform MBean server as 
+ * <code>com.salesforce.perfeng.uiperf.imageoptimization:type=BinaryMetrics,service=&lt;name&gt;,binary=&lt;binary&gt;</code>
+ * the first time they are asked for, and removed by {@link #unregister()}. 
+ * The same numbers can be kept for something other than a binary, for 
+ * example each tier of image, under another type and key.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@ThreadSafe
+public class BinaryMetricsRegistry {
+
+	private final static Logger logger = LoggerFactory.getLogger(BinaryMetricsRegistry.class);
+	
+	/** The JMX domain the metrics are published under. */
+	public static final String JMX_DOMAIN = "com.salesforce.perfeng.uiperf.imageoptimization";
+	
+	private final String serviceName;
+	private final String type;
+	private final String key;
+	private final ConcurrentMap<String, BinaryMetrics> metrics = new ConcurrentHashMap<>();
+	
+	/**
+	 * @param serviceName The name of the service, unique within the JVM.
+	 */
+	public BinaryMetricsRegistry(final String serviceName) {
+		this(serviceName, "BinaryMetrics", "binary");
+	}
+	
+	/**
+	 * @param serviceName The name of the service, unique within the JVM.
+	 * @param type The <code>type</code> of the JMX names.
+	 * @param key The key of the JMX names with the name of the metrics.
+	 */
+	public BinaryMetricsRegistry(final String serviceName, final String type, final String key) {
+		this.serviceName = serviceName;
+		this.type = type;
+		this.key = key;
+	}
+	
+	/**
+	 * @return The name of the service the metrics belong to.
+	 */
+	public String getServiceName() {
+		return serviceName;
+	}
+	
+	/**
+	 * @param binary The name of the binary application.
+	 * @return The metrics of the binary, created and published the first time.
+	 */
+	public BinaryMetrics get(final String binary) {
+		final BinaryMetrics answer = metrics.get(binary);
+		if(answer != null) {
+			return answer;
+		}
+		return metrics.computeIfAbsent(binary, name -> {
+			final BinaryMetrics binaryMetrics = new BinaryMetrics(name);
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(binaryMetrics, getObjectName(name));
+			} catch (final JMException e) {
+				logger.warn("Unable to publish the metrics of {} for {} over JMX.", name, serviceName, e);
+			}
+			return binaryMetrics;
+		});
+	}
+	
+	/**
+	 * @return The metrics of every binary run so far.
+	 */
+	public Collection<BinaryMetrics> getAll() {
+		return Collections.unmodifiableCollection(metrics.values());
+	}
+	
+	/**
+	 * Sets the metrics of every binary back to 0.
+	 */
+	public void reset() {
+		for(final BinaryMetrics binaryMetrics : metrics.values()) {
+			binaryMetrics.reset();
+		}
+	}
+	
+	/**
+	 * Removes the metrics from the platform MBean server.
+	 */
+	public void unregister() {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for(final String binary : metrics.keySet()) {
+			try {
+				final ObjectName name = getObjectName(binary);
+				if(server.isRegistered(name)) {
+					server.unregisterMBean(name);
+				}
+			} catch (final JMException e) {
+				logger.warn("Unable to remove the metrics of {} for {} from JMX.", binary, serviceName, e);
+			}
+		}
+	}
+	
+	/**
+	 * @param binary The name of the binary application.
+	 * @return The JMX name of the metrics of the binary.
+	 * @throws JMException If the name is not valid.
+	 */
+	public ObjectName getObjectName(final String binary) throws JMException {
+		return new ObjectName(JMX_DOMAIN + ":type=" + type + ",service=" + ObjectName.quote(serviceName) + ',' + key + '=' + ObjectName.quote(binary));
+	}
+}
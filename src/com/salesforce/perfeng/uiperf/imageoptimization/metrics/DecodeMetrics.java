@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.http.annotation.ThreadSafe;
+
+/**
+ * How many times the images of 1 operation were decoded. Like the 
+ * {@link BinaryMetrics}, every number is a {@link LongAdder} so recording an
+ * image never blocks.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@ThreadSafe
+public class DecodeMetrics implements DecodeMetricsMXBean {
+
+	private final String operation;
+	private final LongAdder images = new LongAdder();
+	private final LongAdder decodes = new LongAdder();
+	private final LongAdder redecodedImages = new LongAdder();
+	
+	/**
+	 * @param operation The name of the operation.
+	 */
+	public DecodeMetrics(final String operation) {
+		this.operation = operation;
+	}
+	
+	/**
+	 * Records 1 image the operation is done with.
+	 * 
+	 * @param decodeCount The number of times the image was decoded.
+	 */
+	public void record(final int decodeCount) {
+		images.increment();
+		decodes.add(decodeCount);
+		if(decodeCount > 1) {
+			redecodedImages.increment();
+		}
+	}
+	
+	@Override
+	public String getOperation() {
+		return operation;
+	}
+	
+	@Override
+	public long getImages() {
+		return images.sum();
+	}
+	
+	@Override
+	public long getDecodes() {
+		return decodes.sum();
+	}
+	
+	@Override
+	public double getMeanDecodesPerImage() {
+		final long count = images.sum();
+		return (count == 0) ? 0 : ((double)decodes.sum() / count);
+	}
+	
+	@Override
+	public long getRedecodedImages() {
+		return redecodedImages.sum();
+	}
+	
+	@Override
+	public void reset() {
+		images.reset();
+		decodes.reset();
+		redecodedImages.reset();
+	}
+}
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.metrics;
+
+/**
+ * JMX view of the {@link DecodeMetrics} of 1 operation of 1 image 
+ * optimization service.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public interface DecodeMetricsMXBean {
+
+	/**
+	 * @return The name of the operation, for example <code>gif</code>.
+	 */
+	String getOperation();
+	
+	/**
+	 * @return The number of images the operation worked on.
+	 */
+	long getImages();
+	
+	/**
+	 * @return The number of times the images were decoded.
+	 */
+	long getDecodes();
+	
+	/**
+	 * @return The average number of times an image was decoded.
+	 */
+	double getMeanDecodesPerImage();
+	
+	/**
+	 * @return The number of images decoded more than once, because the 
+	 *         decoded image did not stay in memory between the checks.
+	 */
+	long getRedecodedImages();
+	
+	/**
+	 * Sets all of the numbers back to 0.
+	 */
+	void reset();
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.http.annotation.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link DecodeMetrics} of 1 image optimization service. Each 
+ * operation's numbers are published on the platform MBean server as 
+ * <code>com.salesforce.perfeng.uiperf.imageoptimization:type=DecodeMetrics,service=&lt;name&gt;,operation=&lt;operation&gt;</code>,
+ * next to the {@link BinaryMetricsRegistry binary metrics} of the service, 
+ * the first time they are asked for, and removed by {@link #unregister()}.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@ThreadSafe
+public class DecodeMetricsRegistry {
+
+	private final static Logger logger = LoggerFactory.getLogger(DecodeMetricsRegistry.class);
+	
+	private final String serviceName;
+	private final ConcurrentMap<String, DecodeMetrics> metrics = new ConcurrentHashMap<>();
+	
+	/**
+	 * @param serviceName The name of the service, unique within the JVM.
+	 */
+	public DecodeMetricsRegistry(final String serviceName) {
+		this.serviceName = serviceName;
+	}
+	
+	/**
+	 * @param operation The name of the operation.
+	 * @return The metrics of the operation, created and published the first
+	 *         time.
+	 */
+	public DecodeMetrics get(final String operation) {
+		final DecodeMetrics answer = metrics.get(operation);
+		if(answer != null) {
+			return answer;
+		}
+		return metrics.computeIfAbsent(operation, name -> {
+			final DecodeMetrics decodeMetrics = new DecodeMetrics(name);
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(decodeMetrics, getObjectName(name));
+			} catch (final JMException e) {
+				logger.warn("Unable to publish the decode metrics of {} for {} over JMX.", name, serviceName, e);
+			}
+			return decodeMetrics;
+		});
+	}
+	
+	/**
+	 * @return The metrics of every operation that recorded an image so far.
+	 */
+	public Collection<DecodeMetrics> getAll() {
+		return Collections.unmodifiableCollection(metrics.values());
+	}
+	
+	/**
+	 * Removes the metrics from the platform MBean server.
+	 */
+	public void unregister() {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for(final String operation : metrics.keySet()) {
+			try {
+				final ObjectName name = getObjectName(operation);
+				if(server.isRegistered(name)) {
+					server.unregisterMBean(name);
+				}
+			} catch (final JMException e) {
+				logger.warn("Unable to remove the decode metrics of {} for {} from JMX.", operation, serviceName, e);
+			}
+		}
+	}
+	
+	/**
+	 * @param operation The name of the operation.
+	 * @return The JMX name of the metrics of the operation.
+	 * @throws JMException If the name is not valid.
+	 */
+	public ObjectName getObjectName(final String operation) throws JMException {
+		return new ObjectName(BinaryMetricsRegistry.JMX_DOMAIN + ":type=DecodeMetrics,service=" + ObjectName.quote(serviceName) + ",operation=" + ObjectName.quote(operation));
+	}
+}
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.metrics;
+
+import java.util.List;
+
+/**
+ * 1 stage of the optimization of an image that is recorded as a JDK Flight 
+ * Recorder event. The stage starts when the event is created by 
+ * {@link OptimizationEvents} and ends when it is committed. Each stage only 
+ * keeps the details that apply to it, the others are ignored, as is 
+ * everything when nothing is being recorded.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public interface OptimizationEvent {
+
+	/**
+	 * @param command The command line of the binary application.
+	 */
+	default void setArguments(final List<String> command) {
+		// Ignored by the stages that do not run a binary.
+	}
+	
+	/**
+	 * @param exitCode The exit code of the binary application.
+	 */
+	default void setExitCode(final int exitCode) {
+		// Ignored by the stages that do not run a binary.
+	}
+	
+	/**
+	 * @param before The size of the image before the stage.
+	 * @param after The size of the image after the stage.
+	 */
+	default void setBytes(final long before, final long after) {
+		// Ignored by the stages that do not change the image.
+	}
+	
+	/**
+	 * @param passed <code>true</code> if the verification passed.
+	 */
+	default void setPassed(final boolean passed) {
+		// Ignored by the stages that do not verify the image.
+	}
+	
+	/**
+	 * Ends the stage and writes the event, if it is being recorded.
+	 */
+	default void commit() {
+		// Nothing is being recorded.
+	}
+}
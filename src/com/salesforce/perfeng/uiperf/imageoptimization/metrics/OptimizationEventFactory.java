@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.metrics;
+
+/**
+ * Creates the events of {@link OptimizationEvents}. The implementation that 
+ * records them with JDK Flight Recorder is compiled for Java 11 and found with
+ * {@link java.util.ServiceLoader}, so this library still runs on Java 8, 
+ * without the events.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public interface OptimizationEventFactory {
+
+	/**
+	 * @param imageId The ID of the image.
+	 * @param path The path of the image.
+	 * @return The event of the stage where the image waits for a thread.
+	 */
+	OptimizationEvent queued(long imageId, String path);
+	
+	/**
+	 * @param imageId The ID of the image.
+	 * @param path The path of the master image.
+	 * @return The event of the stage where the master image is copied to the
+	 *         working directory.
+	 */
+	OptimizationEvent copyMaster(long imageId, String path);
+	
+	/**
+	 * @param imageId The ID of the image.
+	 * @param tool The name of the binary application.
+	 * @return The event of the stage where a binary application runs.
+	 */
+	OptimizationEvent binary(long imageId, String tool);
+	
+	/**
+	 * @param imageId The ID of the image.
+	 * @param check Either <code>decode</code> or <code>compare</code>.
+	 * @param path The path of the image.
+	 * @return The event of the stage where an image is decoded or compared to
+	 *         verify the optimization.
+	 */
+	OptimizationEvent verification(long imageId, String check, String path);
+	
+	/**
+	 * @param imageId The ID of the image.
+	 * @param path The final path of the image.
+	 * @return The event of the stage where the optimized image is copied to 
+	 *         the final directory.
+	 */
+	OptimizationEvent promotion(long imageId, String path);
+}
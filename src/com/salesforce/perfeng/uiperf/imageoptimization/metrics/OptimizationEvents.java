@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.metrics;
+
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.annotation.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Creates the JDK Flight Recorder events for the stages of the optimization
+ * of an image: waiting in the queue, copying the master image, running each 
+ * binary application, decoding and comparing the images to verify them and 
+ * promoting the optimized image to the final directory. The events show up in
+ * a recording next to the GC and thread events, for example after starting 
+ * the JVM with <code>-XX:StartFlightRecording</code>.</p>
+ * <p>All of the events of 1 image share its image ID. The tasks set the image
+ * ID of the thread they run on, with {@link #setCurrentImageId(long)}, so that
+ * the code deeper down does not need to pass it around.</p>
+ * <p>The events are created by the {@link OptimizationEventFactory} found 
+ * with {@link ServiceLoader}, which is only there on Java 11 or later because
+ * it uses <code>jdk.jfr</code>. Otherwise, or if the event is not enabled in 
+ * any recording, the events do nothing.</p>
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@ThreadSafe
+public final class OptimizationEvents {
+
+	private final static Logger logger = LoggerFactory.getLogger(OptimizationEvents.class);
+	
+	/**
+	 * System property that can be set to <code>false</code> to never create 
+	 * the JDK Flight Recorder events.
+	 */
+	public static final String ENABLED_PROPERTY = "imageoptimization.flightRecorder";
+	
+	/**
+	 * The event used when nothing is recorded.
+	 */
+	static final OptimizationEvent NOOP = new OptimizationEvent() {
+		// All of the methods do nothing.
+	};
+	
+	private static final OptimizationEventFactory FACTORY;
+	private static final boolean AVAILABLE;
+	private static final AtomicLong IMAGE_IDS = new AtomicLong();
+	private static final ThreadLocal<long[]> CURRENT_IMAGE_ID = ThreadLocal.withInitial(() -> new long[1]);
+	
+	static {
+		OptimizationEventFactory factory = null;
+		if(Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"))) {
+			try {
+				for(final OptimizationEventFactory found : ServiceLoader.load(OptimizationEventFactory.class, OptimizationEventFactory.class.getClassLoader())) {
+					factory = found;
+					break;
+				}
+			} catch(final ServiceConfigurationError | LinkageError e) {
+				logger.debug("JDK Flight Recorder is not available, no optimization events are created.", e);
+			}
+		}
+		FACTORY = factory;
+		AVAILABLE = (factory != null);
+	}
+	
+	private OptimizationEvents() {
+		// Only has static methods.
+	}
+	
+	/**
+	 * @return <code>true</code> if the JVM supports JDK Flight Recorder 
+	 *         events.
+	 */
+	public static boolean isAvailable() {
+		return AVAILABLE;
+	}
+	
+	/**
+	 * @return A new ID to correlate the events of 1 image.
+	 */
+	public static long nextImageId() {
+		return IMAGE_IDS.incrementAndGet();
+	}
+	
+	/**
+	 * @return The ID of the image the current thread is working on, 0 if none.
+	 */
+	public static long getCurrentImageId() {
+		return AVAILABLE ? CURRENT_IMAGE_ID.get()[0] : 0;
+	}
+	
+	/**
+	 * @param imageId The ID of the image the current thread is working on, 0 
+	 *                if none.
+	 * @return The previous ID, to put back when the thread is done with the 
+	 *         image.
+	 */
+	public static long setCurrentImageId(final long imageId) {
+		if(!AVAILABLE) {
+			return 0;
+		}
+		final long[] current = CURRENT_IMAGE_ID.get();
+		final long previous = current[0];
+		current[0] = imageId;
+		return previous;
+	}
+	
+	/**
+	 * Starts the stage where the image waits for a thread. It is committed 
+	 * when the task starts.
+	 * 
+	 * @param imageId The ID of the image.
+	 * @param path The path of the image.
+	 * @return The event of the stage.
+	 */
+	public static OptimizationEvent queued(final long imageId, final String path) {
+		return AVAILABLE ? FACTORY.queued(imageId, path) : NOOP;
+	}
+	
+	/**
+	 * Starts the stage where the master image is copied to the working 
+	 * directory.
+	 * 
+	 * @param path The path of the master image.
+	 * @return The event of the stage.
+	 */
+	public static OptimizationEvent copyMaster(final String path) {
+		return AVAILABLE ? FACTORY.copyMaster(getCurrentImageId(), path) : NOOP;
+	}
+	
+	/**
+	 * Starts the stage where a binary application runs.
+	 * 
+	 * @param tool The name of the binary application.
+	 * @return The event of the stage.
+	 */
+	public static OptimizationEvent binary(final String tool) {
+		return AVAILABLE ? FACTORY.binary(getCurrentImageId(), tool) : NOOP;
+	}
+	
+	/**
+	 * Starts the stage where an image is decoded or compared to verify the 
+	 * optimization.
+	 * 
+	 * @param check Either <code>decode</code> or <code>compare</code>.
+	 * @param path The path of the image.
+	 * @return The event of the stage.
+	 */
+	public static OptimizationEvent verification(final String check, final String path) {
+		return AVAILABLE ? FACTORY.verification(getCurrentImageId(), check, path) : NOOP;
+	}
+	
+	/**
+	 * Starts the stage where the optimized image is copied to the final 
+	 * directory.
+	 * 
+	 * @param path The final path of the image.
+	 * @return The event of the stage.
+	 */
+	public static OptimizationEvent promotion(final String path) {
+		return AVAILABLE ? FACTORY.promotion(getCurrentImageId(), path) : NOOP;
+	}
+}
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.report;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+import org.apache.http.annotation.NotThreadSafe;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.dto.OptimizationResult;
+
+/**
+ * <p>Writes the report as CSV with the columns {@value #HEADER}.</p>
+ * <p>Each optimized image is a <code>result</code> row. The totals at the end
+ * are a <code>total</code> row for each format of the original images and 1 
+ * for the format <code>all</code>, with the number of images, the number that
+ * failed the automated test and the number of browser specific images in the
+ * <code>images</code>, <code>failures</code> and <code>browserSpecific</code>
+ * columns, followed by a <code>skipped</code> and a <code>timeout</code> row 
+ * with their count in the <code>images</code> column.</p>
+ *
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@NotThreadSafe
+public class CsvReportWriter extends ReportWriter {
+
+	/**
+	 * The first line of the report.
+	 */
+	public static final String HEADER = "record,format,images,original,optimized,originalSize,optimizedSize,bytesSaved,failures,fileTypeChanged,browserSpecific,mislabeled";
+
+	private boolean headerWritten;
+
+	/**
+	 * @param writer Where the report is written.
+	 */
+	public CsvReportWriter(final Writer writer) {
+		super(writer);
+	}
+
+	private void writeHeader() throws IOException {
+		if(!headerWritten) {
+			headerWritten = true;
+			writer.write(HEADER);
+			writer.write('\n');
+		}
+	}
+
+	@Override
+	protected void writeResult(final String format, final OptimizationResult<?> result) throws IOException {
+		writeHeader();
+		final StringBuilder sb = new StringBuilder(256).append("result,").append(format).append(",1,");
+		appendValue(sb, result.getOriginalFile().getPath()).append(',');
+		appendValue(sb, result.getOptimizedFile().getPath()).append(',')
+			.append(result.getOriginalFileSize()).append(',')
+			.append(result.getOptimizedFileSize()).append(',')
+			.append(result.getOriginalFileSize() - result.getOptimizedFileSize()).append(',')
+			.append(result.isFailedAutomatedTest() ? 1 : 0).append(',')
+			.append(result.isFileTypeChanged()).append(',')
+			.append(result.isBrowserSpecific()).append(',')
+			.append(result.isMislabeled()).append('\n');
+		writer.write(sb.toString());
+	}
+
+	@Override
+	protected void writeTotals(final Map<String, FormatTotals> totals, final FormatTotals all, final int skipped, final int timedOut) throws IOException {
+		writeHeader();
+		final StringBuilder sb = new StringBuilder(256);
+		for(final Map.Entry<String, FormatTotals> entry : totals.entrySet()) {
+			appendTotals(sb, entry.getKey(), entry.getValue());
+		}
+		appendTotals(sb, "all", all);
+		sb.append("skipped,,").append(skipped).append(",,,,,,,,,\n");
+		sb.append("timeout,,").append(timedOut).append(",,,,,,,,,\n");
+		writer.write(sb.toString());
+	}
+
+	private static void appendTotals(final StringBuilder sb, final String format, final FormatTotals totals) {
+		sb.append("total,").append(format).append(',').append(totals.getImages()).append(",,,")
+			.append(totals.getOriginalSize()).append(',')
+			.append(totals.getOptimizedSize()).append(',')
+			.append(totals.getBytesSaved()).append(',')
+			.append(totals.getFailures()).append(",,")
+			.append(totals.getBrowserSpecific()).append(",\n");
+	}
+
+	/**
+	 * Appends the value, quoted if it contains a comma, quote or line break.
+	 *
+	 * @param sb Where the value is appended.
+	 * @param value The value to append.
+	 * @return The passed in {@link StringBuilder}.
+	 */
+	static StringBuilder appendValue(final StringBuilder sb, final String value) {
+		if((value.indexOf(',') < 0) && (value.indexOf('"') < 0) && (value.indexOf('\n') < 0) && (value.indexOf('\r') < 0)) {
+			return sb.append(value);
+		}
+		return sb.append('"').append(value.replace("\"", "\"\"")).append('"');
+	}
+}
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.report;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+import org.apache.http.annotation.NotThreadSafe;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.dto.OptimizationResult;
+import com.salesforce.perfeng.uiperf.imageoptimization.dto.StageTrace;
+
+/**
+ * <p>Writes the report as JSON Lines, 1 JSON object per line. Each optimized 
+ * image is a <code>"record":"result"</code> object, including its 
+ * {@link StageTrace} if it has one, and the last line is the 
+ * <code>"record":"totals"</code> object.</p>
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@NotThreadSafe
+public class JsonLinesReportWriter extends ReportWriter {
+
+	/**
+	 * @param writer Where the report is written.
+	 */
+	public JsonLinesReportWriter(final Writer writer) {
+		super(writer);
+	}
+	
+	@Override
+	protected void writeResult(final String format, final OptimizationResult<?> result) throws IOException {
+		final StringBuilder sb = new StringBuilder(256).append("{\"record\":\"result\",\"format\":");
+		appendString(sb, format).append(",\"original\":");
+		appendString(sb, result.getOriginalFile().getPath()).append(",\"optimized\":");
+		appendString(sb, result.getOptimizedFile().getPath())
+			.append(",\"originalSize\":").append(result.getOriginalFileSize())
+			.append(",\"optimizedSize\":").append(result.getOptimizedFileSize())
+			.append(",\"bytesSaved\":").append(result.getOriginalFileSize() - result.getOptimizedFileSize())
+			.append(",\"fileTypeChanged\":").append(result.isFileTypeChanged())
+			.append(",\"failedAutomatedTest\":").append(result.isFailedAutomatedTest())
+			.append(",\"browserSpecific\":").append(result.isBrowserSpecific())
+			.append(",\"mislabeled\":").append(result.isMislabeled());
+		final StageTrace trace = result.getStageTrace();
+		if(trace != null) {
+			sb.append(",\"stages\":[");
+			for(int i = 0; i < trace.size(); i++) {
+				if(i > 0) {
+					sb.append(',');
+				}
+				sb.append("{\"tool\":");
+				appendString(sb, trace.getTool(i))
+					.append(",\"durationNanos\":").append(trace.getDurationNanos(i))
+					.append(",\"cpuNanos\":").append(trace.getCpuNanos(i))
+					.append(",\"sizeAfter\":").append(trace.getSizeAfter(i)).append('}');
+			}
+			sb.append(']');
+		}
+		writer.write(sb.append("}\n").toString());
+	}
+	
+	@Override
+	protected void writeTotals(final Map<String, FormatTotals> totals, final FormatTotals all, final int skipped, final int timedOut) throws IOException {
+		final StringBuilder sb = new StringBuilder(256).append("{\"record\":\"totals\",\"formats\":{");
+		boolean first = true;
+		for(final Map.Entry<String, FormatTotals> entry : totals.entrySet()) {
+			if(!first) {
+				sb.append(',');
+			}
+			first = false;
+			appendString(sb, entry.getKey()).append(':');
+			appendTotals(sb.append('{'), entry.getValue()).append('}');
+		}
+		sb.append("},");
+		appendTotals(sb, all).append(",\"skipped\":").append(skipped).append(",\"timeouts\":").append(timedOut);
+		writer.write(sb.append("}\n").toString());
+	}
+	
+	private static StringBuilder appendTotals(final StringBuilder sb, final FormatTotals totals) {
+		return sb.append("\"images\":").append(totals.getImages())
+			.append(",\"originalSize\":").append(totals.getOriginalSize())
+			.append(",\"optimizedSize\":").append(totals.getOptimizedSize())
+			.append(",\"bytesSaved\":").append(totals.getBytesSaved())
+			.append(",\"failures\":").append(totals.getFailures())
+			.append(",\"browserSpecific\":").append(totals.getBrowserSpecific());
+	}
+	
+	/**
+	 * Appends the value as a quoted and escaped JSON string.
+	 * 
+	 * @param sb Where the value is appended.
+	 * @param value The value to append.
+	 * @return The passed in {@link StringBuilder}.
+	 */
+	static StringBuilder appendString(final StringBuilder sb, final String value) {
+		sb.append('"');
+		for(int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			switch(c) {
+				case '"':
+					sb.append("\\\"");
+					break;
+				case '\\':
+					sb.append("\\\\");
+					break;
+				case '\n':
+					sb.append("\\n");
+					break;
+				case '\r':
+					sb.append("\\r");
+					break;
+				case '\t':
+					sb.append("\\t");
+					break;
+				default:
+					if(c < 0x20) {
+						sb.append(String.format("\\u%04x", Integer.valueOf(c)));
+					} else {
+						sb.append(c);
+					}
+			}
+		}
+		return sb.append('"');
+	}
+}
@@ -0,0 +1,280 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.report;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.http.annotation.NotThreadSafe;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.dto.OptimizationResult;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFormat;
+
+/**
+ * <p>Writes a machine readable report of a batch of optimized images. Each 
+ * result is written as soon as it is passed in, and only the totals per image
+ * format are kept, so the memory used does not grow with the size of the 
+ * batch. {@link #finish()} writes the totals: the bytes saved per format, the
+ * images that failed the automated test, the files that were skipped and the
+ * images that timed out.</p>
+ * <p>The totals are grouped by the format of the original image. A browser 
+ * specific version of an image, like a WebP, is made in addition to the 
+ * optimized image rather than replacing it, so it is only counted as a 
+ * browser specific image and its sizes are left out of the totals. Otherwise
+ * its original would be counted twice.</p>
+ * <p>Meant to be passed to 
+ * {@link com.salesforce.perfeng.uiperf.imageoptimization.service.OptimizationBatch#awaitResults(Consumer)}.</p>
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@NotThreadSafe
+public abstract class ReportWriter implements Consumer<OptimizationResult<?>>, Closeable {
+
+	/**
+	 * Name of the JSON Lines format, 1 JSON object per line.
+	 */
+	public static final String JSON_LINES = "jsonl";
+	/**
+	 * Name of the CSV format.
+	 */
+	public static final String CSV = "csv";
+	
+	/**
+	 * Where the report is written.
+	 */
+	protected final Writer writer;
+	private final Map<String, FormatTotals> totals = new TreeMap<>();
+	private int skipped;
+	private int timedOut;
+	private boolean finished;
+	
+	/**
+	 * @param writer Where the report is written.
+	 */
+	protected ReportWriter(final Writer writer) {
+		this.writer = (writer instanceof BufferedWriter) ? writer : new BufferedWriter(writer);
+	}
+	
+	/**
+	 * @param format Either {@value #JSON_LINES} or {@value #CSV}.
+	 * @param writer Where the report is written.
+	 * @return The writer of the report in the requested format.
+	 * @throws IllegalArgumentException Thrown if the format is not supported.
+	 */
+	public static ReportWriter create(final String format, final Writer writer) {
+		if(JSON_LINES.equalsIgnoreCase(format)) {
+			return new JsonLinesReportWriter(writer);
+		} else if(CSV.equalsIgnoreCase(format)) {
+			return new CsvReportWriter(writer);
+		}
+		throw new IllegalArgumentException("Unsupported report format \"" + format + "\". Use " + JSON_LINES + " or " + CSV + '.');
+	}
+	
+	/**
+	 * Writes the result and adds it to the totals.
+	 * 
+	 * @param result The optimized image.
+	 * @throws UncheckedIOException Thrown if the report cannot be written.
+	 */
+	@Override
+	public final void accept(final OptimizationResult<?> result) {
+		final String format = getFormat(result.getOptimizedFile());
+		totals.computeIfAbsent(getFormat(result.getOriginalFile()), key -> new FormatTotals()).add(result);
+		try {
+			writeResult(format, result);
+			writer.flush();
+		} catch(final IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+	}
+	
+	/**
+	 * @param skipped The number of files skipped because they are not a 
+	 *                supported image.
+	 */
+	public final void setSkipped(final int skipped) {
+		this.skipped = skipped;
+	}
+	
+	/**
+	 * @param timedOut The number of images that timed out.
+	 */
+	public final void setTimedOut(final int timedOut) {
+		this.timedOut = timedOut;
+	}
+	
+	/**
+	 * Writes the totals, only the first time it is called, and flushes the 
+	 * report without closing the underlying writer.
+	 * 
+	 * @throws IOException Thrown if the report cannot be written.
+	 */
+	public final void finish() throws IOException {
+		if(!finished) {
+			finished = true;
+			final FormatTotals all = new FormatTotals();
+			for(final FormatTotals formatTotals : totals.values()) {
+				all.add(formatTotals);
+			}
+			writeTotals(totals, all, skipped, timedOut);
+		}
+		writer.flush();
+	}
+	
+	/**
+	 * Writes the totals and closes the underlying writer.
+	 * 
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public final void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			writer.close();
+		}
+	}
+	
+	/**
+	 * Writes 1 optimized image.
+	 * 
+	 * @param format The format of the optimized image.
+	 * @param result The optimized image.
+	 * @throws IOException Thrown if the report cannot be written.
+	 */
+	protected abstract void writeResult(final String format, final OptimizationResult<?> result) throws IOException;
+	
+	/**
+	 * Writes the totals at the end of the report.
+	 * 
+	 * @param totals The totals of each format, by the name of the format of 
+	 *               the original images.
+	 * @param all The totals of all of the formats.
+	 * @param skipped The number of files that were skipped.
+	 * @param timedOut The number of images that timed out.
+	 * @throws IOException Thrown if the report cannot be written.
+	 */
+	protected abstract void writeTotals(final Map<String, FormatTotals> totals, final FormatTotals all, final int skipped, final int timedOut) throws IOException;
+	
+	/**
+	 * @param file The image.
+	 * @return The lower case name of the format of the image.
+	 */
+	static String getFormat(final File file) {
+		final String extension = FilenameUtils.getExtension(file.getName());
+		final ImageFormat format = ImageFormat.fromExtension(extension);
+		return ((format == null) ? extension : format.name()).toLowerCase(Locale.ENGLISH);
+	}
+	
+	/**
+	 * The totals of the images of 1 format.
+	 */
+	@NotThreadSafe
+	protected static final class FormatTotals {
+		
+		private long images;
+		private long originalSize;
+		private long optimizedSize;
+		private long failures;
+		private long browserSpecific;
+		
+		void add(final OptimizationResult<?> result) {
+			if(result.isBrowserSpecific()) {
+				browserSpecific++;
+				return;
+			}
+			images++;
+			originalSize += result.getOriginalFileSize();
+			optimizedSize += result.getOptimizedFileSize();
+			if(result.isFailedAutomatedTest()) {
+				failures++;
+			}
+		}
+		
+		void add(final FormatTotals formatTotals) {
+			images += formatTotals.images;
+			originalSize += formatTotals.originalSize;
+			optimizedSize += formatTotals.optimizedSize;
+			failures += formatTotals.failures;
+			browserSpecific += formatTotals.browserSpecific;
+		}
+		
+		/**
+		 * @return The number of optimized images.
+		 */
+		public long getImages() {
+			return images;
+		}
+		
+		/**
+		 * @return The total size of the original images.
+		 */
+		public long getOriginalSize() {
+			return originalSize;
+		}
+		
+		/**
+		 * @return The total size of the optimized images.
+		 */
+		public long getOptimizedSize() {
+			return optimizedSize;
+		}
+		
+		/**
+		 * @return The bytes saved by the optimization.
+		 */
+		public long getBytesSaved() {
+			return originalSize - optimizedSize;
+		}
+		
+		/**
+		 * @return The number of images that failed the automated test.
+		 */
+		public long getFailures() {
+			return failures;
+		}
+		
+		/**
+		 * @return The number of browser specific images, which are not 
+		 *         counted in the other totals.
+		 */
+		public long getBrowserSpecific() {
+			return browserSpecific;
+		}
+	}
+}
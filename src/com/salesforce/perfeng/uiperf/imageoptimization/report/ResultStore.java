@@ -0,0 +1,382 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.report;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.http.annotation.NotThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.dto.OptimizationResult;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFormat;
+
+/**
+ * <p>Keeps the results of a very large batch in a compact columnar format 
+ * instead of as {@link OptimizationResult} objects. Meant to be passed to 
+ * {@link com.salesforce.perfeng.uiperf.imageoptimization.service.OptimizationBatch#awaitResults(Consumer)}.</p>
+ * <p>The results are stored in segments of {@value #SEGMENT_ROWS} rows. Each
+ * segment has a column for each of the sizes, the format of the optimized 
+ * image, the flags, the directories and the file names. The directories are 
+ * interned, so each one is only kept once, and the file names are kept as 
+ * UTF-8 in a separate heap. Everything but the directories is kept off of the
+ * JAVA heap. Once the store uses more than the spill threshold, the new 
+ * segments are mapped from a file, so the operating system can page them out.
+ * </p>
+ * <p>The changelist, bug, owner and stage trace of the results are not kept.
+ * </p>
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@NotThreadSafe
+public final class ResultStore implements Consumer<OptimizationResult<?>>, Iterable<OptimizationResult<Void>>, Closeable {
+
+	private final static Logger logger = LoggerFactory.getLogger(ResultStore.class);
+	
+	/**
+	 * System property with the number of bytes the store keeps in memory 
+	 * before it spills to a memory mapped file. The default is 64MB.
+	 */
+	public static final String SPILL_THRESHOLD_PROPERTY = "imageoptimization.resultStoreSpillThreshold";
+	
+	/**
+	 * The number of rows in each segment.
+	 */
+	static final int SEGMENT_ROWS = 16 * 1024;
+	
+	private static final int ORIGINAL_SIZE       = 0;
+	private static final int OPTIMIZED_SIZE      = ORIGINAL_SIZE + (Long.BYTES * SEGMENT_ROWS);
+	private static final int ORIGINAL_NAME       = OPTIMIZED_SIZE + (Long.BYTES * SEGMENT_ROWS);
+	private static final int OPTIMIZED_NAME      = ORIGINAL_NAME + (Long.BYTES * SEGMENT_ROWS);
+	private static final int ORIGINAL_DIRECTORY  = OPTIMIZED_NAME + (Long.BYTES * SEGMENT_ROWS);
+	private static final int OPTIMIZED_DIRECTORY = ORIGINAL_DIRECTORY + (Integer.BYTES * SEGMENT_ROWS);
+	private static final int FORMAT              = OPTIMIZED_DIRECTORY + (Integer.BYTES * SEGMENT_ROWS);
+	private static final int FLAGS               = FORMAT + SEGMENT_ROWS;
+	private static final int SEGMENT_BYTES       = FLAGS + SEGMENT_ROWS;
+	
+	private static final int NAME_CHUNK_BYTES = 1024 * 1024;
+	
+	private static final byte FILE_TYPE_CHANGED     = 1;
+	private static final byte FAILED_AUTOMATED_TEST = 1 << 1;
+	private static final byte BROWSER_SPECIFIC      = 1 << 2;
+	private static final byte MISLABELED            = 1 << 3;
+	
+	private static final ImageFormat[] FORMATS = ImageFormat.values();
+	
+	private final File spillDirectory;
+	private final long spillThreshold;
+	private final List<ByteBuffer> segments = new ArrayList<>();
+	private final List<ByteBuffer> nameChunks = new ArrayList<>();
+	private final Map<String, Integer> directoryIds = new HashMap<>();
+	private final List<String> directories = new ArrayList<>();
+	private long allocatedBytes;
+	private File spillFile;
+	private FileChannel spillChannel;
+	private long spillPosition;
+	private int size;
+	private long originalSize;
+	private long optimizedSize;
+	
+	/**
+	 * Creates a store that spills to a file in <code>java.io.tmpdir</code> 
+	 * past the threshold of the {@value #SPILL_THRESHOLD_PROPERTY} system 
+	 * property.
+	 */
+	public ResultStore() {
+		this(new File(System.getProperty("java.io.tmpdir")), Long.getLong(SPILL_THRESHOLD_PROPERTY, 64L * 1024 * 1024).longValue());
+	}
+	
+	/**
+	 * @param spillDirectory Where the file is created once the store spills.
+	 * @param spillThreshold The number of bytes kept in memory before the 
+	 *                       store spills.
+	 */
+	public ResultStore(final File spillDirectory, final long spillThreshold) {
+		this.spillDirectory = spillDirectory;
+		this.spillThreshold = spillThreshold;
+	}
+	
+	/**
+	 * Adds the result to the store.
+	 * 
+	 * @param result The optimized image.
+	 * @throws UncheckedIOException Thrown if the store cannot spill to disk.
+	 */
+	@Override
+	public void accept(final OptimizationResult<?> result) {
+		try {
+			final int row = size % SEGMENT_ROWS;
+			if(row == 0) {
+				segments.add(allocate(SEGMENT_BYTES));
+			}
+			final ByteBuffer segment = segments.get(segments.size() - 1);
+			segment.putLong(ORIGINAL_SIZE + (row * Long.BYTES), result.getOriginalFileSize());
+			segment.putLong(OPTIMIZED_SIZE + (row * Long.BYTES), result.getOptimizedFileSize());
+			segment.putLong(ORIGINAL_NAME + (row * Long.BYTES), addName(result.getOriginalFile().getName()));
+			segment.putLong(OPTIMIZED_NAME + (row * Long.BYTES), addName(result.getOptimizedFile().getName()));
+			segment.putInt(ORIGINAL_DIRECTORY + (row * Integer.BYTES), getDirectoryId(result.getOriginalFile().getParent()));
+			segment.putInt(OPTIMIZED_DIRECTORY + (row * Integer.BYTES), getDirectoryId(result.getOptimizedFile().getParent()));
+			final ImageFormat format = ImageFormat.fromExtension(FilenameUtils.getExtension(result.getOptimizedFile().getName()));
+			segment.put(FORMAT + row, (byte) ((format == null) ? -1 : format.ordinal()));
+			segment.put(FLAGS + row, (byte) ((result.isFileTypeChanged() ? FILE_TYPE_CHANGED : 0)
+					| (result.isFailedAutomatedTest() ? FAILED_AUTOMATED_TEST : 0)
+					| (result.isBrowserSpecific() ? BROWSER_SPECIFIC : 0)
+					| (result.isMislabeled() ? MISLABELED : 0)));
+		} catch(final IOException ioe) {
+			throw new UncheckedIOException(ioe);
+		}
+		size++;
+		originalSize += result.getOriginalFileSize();
+		optimizedSize += result.getOptimizedFileSize();
+	}
+	
+	/**
+	 * @param bytes The size of the buffer.
+	 * @return A direct buffer while the store is under its threshold, 
+	 *         otherwise a buffer mapped from the spill file.
+	 * @throws IOException Thrown if the spill file cannot be mapped.
+	 */
+	private ByteBuffer allocate(final int bytes) throws IOException {
+		allocatedBytes += bytes;
+		if(allocatedBytes <= spillThreshold) {
+			return ByteBuffer.allocateDirect(bytes);
+		}
+		if(spillChannel == null) {
+			spillFile = File.createTempFile("ImageOptimization", ".results", spillDirectory);
+			spillChannel = FileChannel.open(spillFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+			if(logger.isInfoEnabled()) {
+				logger.info("Spilling the results after {} to {}", Integer.valueOf(size), spillFile.getPath());
+			}
+		}
+		final ByteBuffer buffer = spillChannel.map(FileChannel.MapMode.READ_WRITE, spillPosition, bytes);
+		spillPosition += bytes;
+		return buffer;
+	}
+	
+	/**
+	 * @param name The name to add to the heap of names.
+	 * @return Where the name is in the heap of names.
+	 * @throws IOException Thrown if the store cannot spill to disk.
+	 */
+	private long addName(final String name) throws IOException {
+		final byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		final int length = Short.BYTES + bytes.length;
+		if(length > NAME_CHUNK_BYTES) {
+			throw new IllegalArgumentException("The file name is too long: " + name);
+		}
+		ByteBuffer chunk = nameChunks.isEmpty() ? null : nameChunks.get(nameChunks.size() - 1);
+		if((chunk == null) || (chunk.remaining() < length)) {
+			chunk = allocate(NAME_CHUNK_BYTES);
+			nameChunks.add(chunk);
+		}
+		final long offset = ((long) (nameChunks.size() - 1) * NAME_CHUNK_BYTES) + chunk.position();
+		chunk.putShort((short) bytes.length).put(bytes);
+		return offset;
+	}
+	
+	private String getName(final long offset) {
+		final ByteBuffer chunk = nameChunks.get((int) (offset / NAME_CHUNK_BYTES));
+		final int position = (int) (offset % NAME_CHUNK_BYTES);
+		final byte[] bytes = new byte[chunk.getShort(position) & 0xFFFF];
+		for(int i = 0; i < bytes.length; i++) {
+			bytes[i] = chunk.get(position + Short.BYTES + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	private int getDirectoryId(final String directory) {
+		if(directory == null) {
+			return -1;
+		}
+		final Integer id = directoryIds.get(directory);
+		if(id != null) {
+			return id.intValue();
+		}
+		directories.add(directory);
+		directoryIds.put(directory, Integer.valueOf(directories.size() - 1));
+		return directories.size() - 1;
+	}
+	
+	private File getFile(final int directoryId, final long nameOffset) {
+		return (directoryId < 0) ? new File(getName(nameOffset)) : new File(directories.get(directoryId), getName(nameOffset));
+	}
+	
+	/**
+	 * @return The number of results in the store.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return <code>true</code> once the store uses a file.
+	 */
+	public boolean isSpilled() {
+		return spillChannel != null;
+	}
+	
+	/**
+	 * @return The total size of the original images.
+	 */
+	public long getOriginalSize() {
+		return originalSize;
+	}
+	
+	/**
+	 * @return The total size of the optimized images.
+	 */
+	public long getOptimizedSize() {
+		return optimizedSize;
+	}
+	
+	/**
+	 * @return The bytes saved by the optimization of all of the images.
+	 */
+	public long getBytesSaved() {
+		return originalSize - optimizedSize;
+	}
+	
+	/**
+	 * @return The number of images that failed the automated test.
+	 */
+	public int getFailedAutomatedTestCount() {
+		int count = 0;
+		for(int i = 0; i < size; i++) {
+			if((segments.get(i / SEGMENT_ROWS).get(FLAGS + (i % SEGMENT_ROWS)) & FAILED_AUTOMATED_TEST) != 0) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * @return The bytes saved for each format of the optimized images, only 
+	 *         the columns of the sizes and formats are read.
+	 */
+	public Map<ImageFormat, Long> getBytesSavedByFormat() {
+		final long[] saved = new long[FORMATS.length];
+		for(int i = 0; i < size; i++) {
+			final ByteBuffer segment = segments.get(i / SEGMENT_ROWS);
+			final int row = i % SEGMENT_ROWS;
+			final int format = segment.get(FORMAT + row);
+			if(format >= 0) {
+				saved[format] += segment.getLong(ORIGINAL_SIZE + (row * Long.BYTES)) - segment.getLong(OPTIMIZED_SIZE + (row * Long.BYTES));
+			}
+		}
+		final Map<ImageFormat, Long> answer = new EnumMap<>(ImageFormat.class);
+		for(int i = 0; i < saved.length; i++) {
+			if(saved[i] != 0) {
+				answer.put(FORMATS[i], Long.valueOf(saved[i]));
+			}
+		}
+		return answer;
+	}
+	
+	/**
+	 * @param index The index of the result, in the order they were added.
+	 * @return A new {@link OptimizationResult} with the values of the result.
+	 */
+	public OptimizationResult<Void> get(final int index) {
+		if((index < 0) || (index >= size)) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		final ByteBuffer segment = segments.get(index / SEGMENT_ROWS);
+		final int row = index % SEGMENT_ROWS;
+		final byte flags = segment.get(FLAGS + row);
+		return new OptimizationResult<>(
+				getFile(segment.getInt(OPTIMIZED_DIRECTORY + (row * Integer.BYTES)), segment.getLong(OPTIMIZED_NAME + (row * Long.BYTES))),
+				segment.getLong(OPTIMIZED_SIZE + (row * Long.BYTES)),
+				getFile(segment.getInt(ORIGINAL_DIRECTORY + (row * Integer.BYTES)), segment.getLong(ORIGINAL_NAME + (row * Long.BYTES))),
+				segment.getLong(ORIGINAL_SIZE + (row * Long.BYTES)),
+				(flags & FILE_TYPE_CHANGED) != 0,
+				(flags & FAILED_AUTOMATED_TEST) != 0,
+				(flags & BROWSER_SPECIFIC) != 0,
+				(flags & MISLABELED) != 0);
+	}
+	
+	/**
+	 * @return Creates each result as it is iterated over.
+	 */
+	@Override
+	public Iterator<OptimizationResult<Void>> iterator() {
+		return new Iterator<OptimizationResult<Void>>() {
+			private int index;
+			
+			@Override
+			public boolean hasNext() {
+				return index < size;
+			}
+			
+			@Override
+			public OptimizationResult<Void> next() {
+				if(index >= size) {
+					throw new NoSuchElementException();
+				}
+				return get(index++);
+			}
+		};
+	}
+	
+	/**
+	 * Releases the memory and deletes the spill file. The store cannot be used
+	 * after it is closed.
+	 * 
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		segments.clear();
+		nameChunks.clear();
+		directories.clear();
+		directoryIds.clear();
+		size = 0;
+		if(spillChannel != null) {
+			spillChannel.close();
+			spillChannel = null;
+			Files.deleteIfExists(spillFile.toPath());
+		}
+	}
+}
@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.http.annotation.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.dto.OptimizationResult;
+import com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService;
+import com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService.FileTypeConversion;
+import com.salesforce.perfeng.uiperf.imageoptimization.service.OptimizationProfile;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.DaemonThreadFactory;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.UserFiles;
+
+/**
+ * <p>Keeps a warm {@link IImageOptimizationService} running in the background 
+ * so that the command line, {@link com.salesforce.perfeng.uiperf.imageoptimization.Main},
+ * does not have to create the service for each call. The command line uses 
+ * {@link OptimizationDaemonClient} to forward its list of files to the daemon
+ * when one is running.</p>
+ * <p>The daemon only listens on the loopback interface. The port and a random
+ * token are written to the {@link #getDaemonFile() daemon file}, which is 
+ * only readable by the current user, in a directory only the current user can
+ * write to, and every request has to include the token.</p>
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@ThreadSafe
+public class OptimizationDaemon {
+
+	private final static Logger logger = LoggerFactory.getLogger(OptimizationDaemon.class);
+	
+	/**
+	 * Version of the protocol spoken between the client and the daemon.
+	 */
+	static final int PROTOCOL_VERSION = 3;
+	
+	/**
+	 * How long the daemon waits for a client to send its request before 
+	 * closing the connection.
+	 */
+	static final int REQUEST_TIMEOUT_IN_MILLIS = 10000;
+	
+	private final IImageOptimizationService<?> service;
+	private final File daemonFile;
+	private final String token;
+	private final ServerSocket serverSocket;
+	private final ExecutorService connectionExecutorService;
+	
+	/**
+	 * Binds the daemon to a free port on the loopback interface. It does not 
+	 * accept connections until {@link #start()} is called.
+	 * 
+	 * @param service The (warm) service used to optimize the images.
+	 * @param daemonFile The file used to tell the clients how to connect to 
+	 *                   the daemon.
+	 * @param numberOfConnections The number of clients that are served at the
+	 *                            same time. The other clients wait.
+	 * @throws IOException Thrown if the daemon cannot bind to a port.
+	 */
+	public OptimizationDaemon(final IImageOptimizationService<?> service, final File daemonFile, final int numberOfConnections) throws IOException {
+		if(service == null) {
+			throw new IllegalArgumentException("The passed in service cannot be null.");
+		} else if(daemonFile == null) {
+			throw new IllegalArgumentException("The passed in daemonFile cannot be null.");
+		}
+		this.service = service;
+		this.daemonFile = daemonFile;
+		
+		final byte[] random = new byte[16];
+		new SecureRandom().nextBytes(random);
+		final StringBuilder sb = new StringBuilder(32);
+		for(final byte b : random) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		token = sb.toString();
+		
+		serverSocket = new ServerSocket();
+		serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		connectionExecutorService = Executors.newFixedThreadPool(numberOfConnections, DaemonThreadFactory.INSTANCE);
+	}
+	
+	/**
+	 * @return The default location of the daemon file for the current user, 
+	 *         in {@link UserFiles#getDirectory()}.
+	 */
+	public static File getDaemonFile() {
+		return new File(UserFiles.getDirectory(), "daemon");
+	}
+	
+	/**
+	 * Writes the daemon file and starts accepting connections on a background
+	 * thread. The directory of the daemon file is created if it does not 
+	 * exist.
+	 * 
+	 * @throws IOException Thrown if the daemon file cannot be written or if 
+	 *                     another user can write to its directory.
+	 */
+	public void start() throws IOException {
+		UserFiles.createDirectory(daemonFile.getAbsoluteFile().getParentFile());
+		UserFiles.write(daemonFile, (serverSocket.getLocalPort() + " " + token).getBytes(StandardCharsets.UTF_8));
+		
+		final Thread acceptThread = new Thread(this::acceptConnections, "ImageOptimizationDaemon");
+		acceptThread.start();
+		if(logger.isInfoEnabled()) {
+			logger.info("Image optimization daemon listening on {}", serverSocket.getLocalSocketAddress());
+		}
+	}
+	
+	/**
+	 * Stops accepting connections and deletes the daemon file.
+	 */
+	public void stop() {
+		daemonFile.delete();
+		try {
+			serverSocket.close();
+		} catch(final IOException ioe) {
+			logger.warn("Error closing the daemon socket.", ioe);
+		}
+		connectionExecutorService.shutdown();
+		logger.debug("The image optimization daemon is stopped.");
+	}
+	
+	private void acceptConnections() {
+		while(!serverSocket.isClosed()) {
+			try {
+				final Socket socket = serverSocket.accept();
+				connectionExecutorService.execute(() -> handleConnection(socket));
+			} catch(final SocketException se) {
+				// The socket was closed by stop()
+				logger.debug("The daemon socket is closed.", se);
+			} catch(final IOException ioe) {
+				logger.warn("Error accepting a connection.", ioe);
+			}
+		}
+	}
+	
+	private void handleConnection(final Socket socket) {
+		try(final Socket s = socket;
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+			
+			s.setSoTimeout(REQUEST_TIMEOUT_IN_MILLIS);
+			if(in.readInt() != PROTOCOL_VERSION) {
+				out.writeBoolean(false);
+				out.writeUTF("Unsupported protocol version.");
+				return;
+			}
+			if(!MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), in.readUTF().getBytes(StandardCharsets.UTF_8))) {
+				logger.warn("Rejected a connection with an invalid token.");
+				out.writeBoolean(false);
+				out.writeUTF("Invalid token.");
+				return;
+			}
+			final FileTypeConversion conversionType = FileTypeConversion.valueOf(in.readUTF());
+			final OptimizationProfile profile = OptimizationProfile.valueOf(in.readUTF());
+			final boolean includeWebPConversion = in.readBoolean();
+			final int numberOfFiles = in.readInt();
+			final List<File> files = new ArrayList<>(numberOfFiles);
+			for(int i = 0; i < numberOfFiles; i++) {
+				files.add(new File(in.readUTF()));
+			}
+			
+			// The request is read, optimizing the images can take as long as it takes.
+			s.setSoTimeout(0);
+			final List<? extends OptimizationResult<?>> results;
+			try {
+				results = service.optimizeAllImages(profile, conversionType, includeWebPConversion, files);
+			} catch(final Exception e) {
+				logger.warn("Error optimizing the images for a client.", e);
+				out.writeBoolean(false);
+				out.writeUTF(String.valueOf(e));
+				return;
+			}
+			
+			out.writeBoolean(true);
+			out.writeUTF(service.getFinalResultsDirectory());
+			out.writeInt(results.size());
+			for(final OptimizationResult<?> result : results) {
+				out.writeUTF(result.getOptimizedFile().getPath());
+				out.writeLong(result.getOptimizedFileSize());
+				out.writeUTF(result.getOriginalFile().getPath());
+				out.writeLong(result.getOriginalFileSize());
+				out.writeBoolean(result.isFileTypeChanged());
+				out.writeBoolean(result.isFailedAutomatedTest());
+				out.writeBoolean(result.isBrowserSpecific());
+				out.writeBoolean(result.isMislabeled());
+			}
+		} catch(final Exception e) {
+			logger.warn("Error handling a daemon client.", e);
+		}
+	}
+}
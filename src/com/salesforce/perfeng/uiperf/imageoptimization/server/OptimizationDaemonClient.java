@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.http.annotation.NotThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.dto.OptimizationResult;
+import com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService.FileTypeConversion;
+import com.salesforce.perfeng.uiperf.imageoptimization.service.OptimizationProfile;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFileOptimizationException;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.UserFiles;
+
+/**
+ * Client used to forward a list of images to a running 
+ * {@link OptimizationDaemon}.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@NotThreadSafe
+public class OptimizationDaemonClient {
+
+	private final static Logger logger = LoggerFactory.getLogger(OptimizationDaemonClient.class);
+	
+	/**
+	 * How long to wait when connecting to the daemon before giving up and 
+	 * running in process.
+	 */
+	private static final int CONNECT_TIMEOUT_IN_MILLIS = 500;
+	
+	/**
+	 * Name of the system property used to set how long, in milliseconds, to 
+	 * wait for the daemon to answer before giving up and running in process.
+	 * The default is 30 minutes.
+	 */
+	public static final String READ_TIMEOUT_PROPERTY = "imageoptimization.daemon.readTimeoutMillis";
+	
+	private final int port;
+	private final String token;
+	private final int readTimeout;
+	private String finalResultsDirectory;
+	
+	private OptimizationDaemonClient(final int port, final String token) {
+		this.port = port;
+		this.token = token;
+		readTimeout = Integer.getInteger(READ_TIMEOUT_PROPERTY, 30 * 60 * 1000).intValue();
+	}
+	
+	/**
+	 * Looks for a running daemon. The daemon file is only used if it, and its
+	 * directory, belong to the current user and no other user can write to 
+	 * them, so the images are never sent to a port picked by another user.
+	 * 
+	 * @param daemonFile The file written by the daemon.
+	 * @return The client or <code>null</code> if no daemon is running.
+	 */
+	public static OptimizationDaemonClient find(final File daemonFile) {
+		if(!daemonFile.isFile()) {
+			return null;
+		}
+		try {
+			UserFiles.checkPrivate(daemonFile.getAbsoluteFile().getParentFile());
+			UserFiles.checkPrivate(daemonFile);
+		} catch(final IOException ioe) {
+			logger.warn("Ignoring the daemon file.", ioe);
+			return null;
+		}
+		try {
+			final String[] content = new String(Files.readAllBytes(daemonFile.toPath()), StandardCharsets.UTF_8).trim().split(" ");
+			if(content.length == 2) {
+				return new OptimizationDaemonClient(Integer.parseInt(content[0]), content[1]);
+			}
+		} catch(final IOException | NumberFormatException e) {
+			logger.debug("Unable to read the daemon file.", e);
+		}
+		return null;
+	}
+	
+	/**
+	 * Sends the images to the daemon to be optimized.
+	 * 
+	 * @param conversionType If and how to handle converting images from one 
+	 *                       type to another.
+	 * @param includeWebPConversion If <code>true</code> then the WebP versions 
+	 *                              of the image will be generated.
+	 * @param files The images to optimize
+	 * @return The results from the optimization or <code>null</code> if the 
+	 *         daemon could not be reached, in which case the images should be
+	 *         optimized in process.
+	 * @throws ImageFileOptimizationException Thrown if the daemon failed to 
+	 *                                        optimize the images.
+	 */
+	public List<OptimizationResult<Void>> optimizeAllImages(final FileTypeConversion conversionType, final boolean includeWebPConversion, final Collection<File> files) throws ImageFileOptimizationException {
+		return optimizeAllImages(OptimizationProfile.MAXIMUM, conversionType, includeWebPConversion, files);
+	}
+	
+	/**
+	 * Sends the images to the daemon to be optimized with a profile.
+	 * 
+	 * @param profile How hard to try to make the images smaller.
+	 * @param conversionType If and how to handle converting images from one 
+	 *                       type to another.
+	 * @param includeWebPConversion If <code>true</code> then the WebP versions 
+	 *                              of the image will be generated.
+	 * @param files The images to optimize
+	 * @return The results from the optimization or <code>null</code> if the 
+	 *         daemon could not be reached, in which case the images should be
+	 *         optimized in process.
+	 * @throws ImageFileOptimizationException Thrown if the daemon failed to 
+	 *                                        optimize the images.
+	 */
+	public List<OptimizationResult<Void>> optimizeAllImages(final OptimizationProfile profile, final FileTypeConversion conversionType, final boolean includeWebPConversion, final Collection<File> files) throws ImageFileOptimizationException {
+		try(final Socket socket = new Socket()) {
+			socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT_IN_MILLIS);
+			socket.setSoTimeout(readTimeout);
+			
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.writeInt(OptimizationDaemon.PROTOCOL_VERSION);
+			out.writeUTF(token);
+			out.writeUTF(conversionType.name());
+			out.writeUTF(profile.name());
+			out.writeBoolean(includeWebPConversion);
+			out.writeInt(files.size());
+			for(final File file : files) {
+				out.writeUTF(file.getCanonicalPath());
+			}
+			out.flush();
+			
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			if(!in.readBoolean()) {
+				throw new ImageFileOptimizationException("daemon", in.readUTF());
+			}
+			finalResultsDirectory = in.readUTF();
+			final int numberOfResults = in.readInt();
+			final List<OptimizationResult<Void>> results = new ArrayList<>(numberOfResults);
+			for(int i = 0; i < numberOfResults; i++) {
+				results.add(new OptimizationResult<>(new File(in.readUTF()), in.readLong(), new File(in.readUTF()), in.readLong(), in.readBoolean(), in.readBoolean(), in.readBoolean(), in.readBoolean()));
+			}
+			return results;
+		} catch(final IOException ioe) {
+			logger.debug("Unable to reach the daemon.", ioe);
+			return null;
+		}
+	}
+	
+	/**
+	 * @return The path to the optimized images as reported by the daemon on 
+	 *         the last successful call to 
+	 *         {@link #optimizeAllImages(FileTypeConversion, boolean, Collection)}.
+	 */
+	public String getFinalResultsDirectory() {
+		return finalResultsDirectory;
+	}
+}
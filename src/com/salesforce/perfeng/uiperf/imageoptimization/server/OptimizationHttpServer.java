@@ -0,0 +1,367 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.annotation.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.perfeng.uiperf.ThirdPartyBinaryNotFoundException;
+import com.salesforce.perfeng.uiperf.imageoptimization.dto.OptimizedImage;
+import com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService;
+import com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService.FileTypeConversion;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.DaemonThreadFactory;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFileOptimizationException;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>Small HTTP server, built on the JDK's {@link HttpServer}, that lets a long
+ * lived JVM optimize images for other processes. This avoids paying for the 
+ * JVM startup and {@link com.salesforce.perfeng.uiperf.imageoptimization.service.ImageOptimizationService#createInstance(String, int)}
+ * for every image.</p>
+ * <p>The image is sent as the body of a <code>POST</code> to 
+ * {@value #OPTIMIZE_PATH}. The optimized bytes are returned as the response 
+ * body and the details of the optimization as the <code>X-*</code> response 
+ * headers. Supported query parameters are</p>
+ * <ul>
+ * <li><code>conversion</code>: One of the {@link FileTypeConversion} values. 
+ *     Defaults to {@link FileTypeConversion#NONE}.</li>
+ * <li><code>variant=webp</code>: Return the browser specific WebP version of 
+ *     the image if it is smaller.</li>
+ * </ul>
+ * <p>The number of requests that are being processed or waiting to be 
+ * processed is bounded. Any request above that limit is answered right away 
+ * with a <code>503</code> instead of being queued.</p>
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@ThreadSafe
+public class OptimizationHttpServer {
+
+	private final static Logger logger = LoggerFactory.getLogger(OptimizationHttpServer.class);
+	
+	/**
+	 * The path the images are posted to.
+	 */
+	public static final String OPTIMIZE_PATH = "/optimize";
+	/**
+	 * Query parameter used to pick the {@link FileTypeConversion}.
+	 */
+	public static final String CONVERSION_PARAMETER = "conversion";
+	/**
+	 * Query parameter used to request a browser specific version of the image.
+	 */
+	public static final String VARIANT_PARAMETER = "variant";
+	/**
+	 * Value of the {@value #VARIANT_PARAMETER} parameter to request the WebP 
+	 * version of the image.
+	 */
+	public static final String WEBP_VARIANT = "webp";
+	/**
+	 * Response header holding the size of the posted image.
+	 */
+	public static final String ORIGINAL_SIZE_HEADER = "X-Original-Size";
+	/**
+	 * Response header holding the size of the returned image.
+	 */
+	public static final String OPTIMIZED_SIZE_HEADER = "X-Optimized-Size";
+	/**
+	 * Response header indicating if the format of the returned image is 
+	 * different than the posted image.
+	 */
+	public static final String FILE_TYPE_CHANGED_HEADER = "X-File-Type-Changed";
+	/**
+	 * Response header indicating if the returned image only works in some 
+	 * browsers.
+	 */
+	public static final String BROWSER_SPECIFIC_HEADER = "X-Browser-Specific";
+	/**
+	 * Response header indicating if the returned image failed the automated 
+	 * pixel by pixel validation.
+	 */
+	public static final String FAILED_AUTOMATED_TEST_HEADER = "X-Failed-Automated-Test";
+	
+	/**
+	 * Set while an exchange that was rejected because the server is at 
+	 * capacity runs, so that the handler only sends the <code>503</code>.
+	 */
+	private static final ThreadLocal<Boolean> REJECTED = new ThreadLocal<>();
+	
+	private final IImageOptimizationService<?> service;
+	private final HttpServer httpServer;
+	private final ExecutorService workerExecutorService;
+	private final Semaphore capacity;
+	private final int maxRequestSize;
+	
+	/**
+	 * Creates the server. It does not accept connections until 
+	 * {@link #start()} is called.
+	 * 
+	 * @param service The (warm) service used to optimize every image.
+	 * @param address The address to listen on. Use a loopback address unless 
+	 *                the server should be reachable from other machines.
+	 * @param numberOfThreads The number of images optimized at the same time.
+	 * @param queueCapacity The number of requests that can wait for a thread 
+	 *                      before new requests get a <code>503</code>.
+	 * @param maxRequestSize The largest image, in bytes, that is accepted.
+	 * @throws IOException Thrown if the server cannot bind to the address.
+	 */
+	public OptimizationHttpServer(final IImageOptimizationService<?> service, final InetSocketAddress address, final int numberOfThreads, final int queueCapacity, final int maxRequestSize) throws IOException {
+		if(service == null) {
+			throw new IllegalArgumentException("The passed in service cannot be null.");
+		} else if(numberOfThreads < 1) {
+			throw new IllegalArgumentException("The numberOfThreads needs to be greater than 0.");
+		} else if(queueCapacity < 0) {
+			throw new IllegalArgumentException("The queueCapacity cannot be negative.");
+		} else if(maxRequestSize < 1) {
+			throw new IllegalArgumentException("The maxRequestSize needs to be greater than 0.");
+		}
+		this.service = service;
+		this.maxRequestSize = maxRequestSize;
+		capacity = new Semaphore(numberOfThreads + queueCapacity);
+		workerExecutorService = Executors.newFixedThreadPool(numberOfThreads, DaemonThreadFactory.INSTANCE);
+		
+		httpServer = HttpServer.create(address, queueCapacity);
+		httpServer.createContext(OPTIMIZE_PATH, new OptimizeHandler());
+		httpServer.setExecutor(new Executor() {
+			/**
+			 * Hands the exchange to the worker threads if there is capacity,
+			 * otherwise it runs it right away in rejected mode which only 
+			 * writes the <code>503</code> response.
+			 * 
+			 * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+			 */
+			@Override
+			public void execute(final Runnable exchange) {
+				if(capacity.tryAcquire()) {
+					workerExecutorService.execute(() -> {
+						try {
+							exchange.run();
+						} finally {
+							capacity.release();
+						}
+					});
+				} else {
+					REJECTED.set(Boolean.TRUE);
+					try {
+						exchange.run();
+					} finally {
+						REJECTED.remove();
+					}
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Starts accepting requests.
+	 */
+	public void start() {
+		httpServer.start();
+		if(logger.isInfoEnabled()) {
+			logger.info("Image optimization server listening on {}", httpServer.getAddress());
+		}
+	}
+	
+	/**
+	 * Stops the server and its worker threads.
+	 * 
+	 * @param delayInSeconds The maximum time to wait for the requests that are
+	 *                       being processed to finish.
+	 */
+	public void stop(final int delayInSeconds) {
+		httpServer.stop(delayInSeconds);
+		workerExecutorService.shutdown();
+		try {
+			workerExecutorService.awaitTermination(delayInSeconds, TimeUnit.SECONDS);
+		} catch(final InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+		logger.debug("The image optimization server is stopped.");
+	}
+	
+	/**
+	 * @return The address the server is listening on. Useful when it was 
+	 *         created with port 0.
+	 */
+	public InetSocketAddress getAddress() {
+		return httpServer.getAddress();
+	}
+	
+	/**
+	 * Reads the request body up to the {@link #maxRequestSize}.
+	 * 
+	 * @param is The request body.
+	 * @return The body or <code>null</code> if it is too large.
+	 * @throws IOException Thrown if the body cannot be read.
+	 */
+	private final byte[] readRequestBody(final InputStream is) throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream(8192);
+		final byte[] buffer = new byte[8192];
+		int read;
+		while((read = is.read(buffer)) != -1) {
+			if(baos.size() + read > maxRequestSize) {
+				return null;
+			}
+			baos.write(buffer, 0, read);
+		}
+		return baos.toByteArray();
+	}
+	
+	/**
+	 * Parses the value of the passed in query parameter.
+	 * 
+	 * @param query The raw query string, can be <code>null</code>.
+	 * @param name The name of the parameter.
+	 * @return The value or <code>null</code> if the parameter is not present.
+	 */
+	static final String getQueryParameter(final String query, final String name) {
+		if(query != null) {
+			for(final String parameter : query.split("&")) {
+				final int index = parameter.indexOf('=');
+				if((index > 0) && name.equals(parameter.substring(0, index))) {
+					return parameter.substring(index + 1);
+				}
+			}
+		}
+		return null;
+	}
+	
+	private static final void sendError(final HttpExchange exchange, final int status, final String message) throws IOException {
+		final byte[] body = message.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+		try(final OutputStream os = exchange.getResponseBody()) {
+			os.write(body);
+		}
+	}
+	
+	private final class OptimizeHandler implements HttpHandler {
+
+		/**
+		 * @see com.sun.net.httpserver.HttpHandler#handle(com.sun.net.httpserver.HttpExchange)
+		 */
+		@Override
+		public void handle(final HttpExchange exchange) throws IOException {
+			try {
+				if(REJECTED.get() != null) {
+					exchange.getResponseHeaders().set("Retry-After", "1");
+					sendError(exchange, HttpURLConnection.HTTP_UNAVAILABLE, "Too many images are already being optimized.");
+					return;
+				}
+				if(!"POST".equals(exchange.getRequestMethod())) {
+					exchange.getResponseHeaders().set("Allow", "POST");
+					sendError(exchange, HttpURLConnection.HTTP_BAD_METHOD, "Only POST is supported.");
+					return;
+				}
+				
+				final String query = exchange.getRequestURI().getRawQuery();
+				final FileTypeConversion conversionType;
+				try {
+					final String conversion = getQueryParameter(query, CONVERSION_PARAMETER);
+					conversionType = (conversion == null) ? FileTypeConversion.NONE : FileTypeConversion.valueOf(conversion.toUpperCase());
+				} catch(final IllegalArgumentException iae) {
+					sendError(exchange, HttpURLConnection.HTTP_BAD_REQUEST, "Unknown " + CONVERSION_PARAMETER + '.');
+					return;
+				}
+				final boolean includeWebPConversion = WEBP_VARIANT.equalsIgnoreCase(getQueryParameter(query, VARIANT_PARAMETER));
+				
+				final byte[] image;
+				try(final InputStream is = exchange.getRequestBody()) {
+					image = readRequestBody(is);
+				}
+				if(image == null) {
+					sendError(exchange, HttpURLConnection.HTTP_ENTITY_TOO_LARGE, "The image is larger than " + maxRequestSize + " bytes.");
+					return;
+				} else if(image.length == 0) {
+					sendError(exchange, HttpURLConnection.HTTP_BAD_REQUEST, "The request body needs to be the image.");
+					return;
+				}
+				
+				final List<OptimizedImage> results;
+				try {
+					results = service.optimizeImage(conversionType, includeWebPConversion, image);
+				} catch(final ThirdPartyBinaryNotFoundException tpbnfe) {
+					logger.error("Unable to optimize the image.", tpbnfe);
+					sendError(exchange, HttpURLConnection.HTTP_INTERNAL_ERROR, "The server is not set up correctly.");
+					return;
+				} catch(final ImageFileOptimizationException ifoe) {
+					logger.debug("Unable to optimize the image.", ifoe);
+					sendError(exchange, HttpURLConnection.HTTP_UNSUPPORTED_TYPE, "The image is corrupted or is not a supported format.");
+					return;
+				}
+				
+				// The browser specific version is only returned when asked for
+				// and smaller than the version that works in all browsers.
+				OptimizedImage result = results.get(0);
+				if(includeWebPConversion && (results.size() > 1) && (results.get(1).getOptimizedSize() < result.getOptimizedSize())) {
+					result = results.get(1);
+				}
+				
+				final Headers headers = exchange.getResponseHeaders();
+				headers.set("Content-Type", result.getFormat().getMimeType());
+				headers.set(ORIGINAL_SIZE_HEADER, Long.toString(result.getOriginalSize()));
+				headers.set(OPTIMIZED_SIZE_HEADER, Long.toString(result.getOptimizedSize()));
+				headers.set(FILE_TYPE_CHANGED_HEADER, Boolean.toString(result.isFileTypeChanged()));
+				headers.set(BROWSER_SPECIFIC_HEADER, Boolean.toString(result.isBrowserSpecific()));
+				headers.set(FAILED_AUTOMATED_TEST_HEADER, Boolean.toString(result.isFailedAutomatedTest()));
+				exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, result.getData().length);
+				try(final OutputStream os = exchange.getResponseBody()) {
+					os.write(result.getData());
+				}
+			} catch(final IOException ioe) {
+				throw ioe;
+			} catch(final Exception e) {
+				logger.error("Unexpected error optimizing an image.", e);
+				if(exchange.getResponseCode() == -1) {
+					sendError(exchange, HttpURLConnection.HTTP_INTERNAL_ERROR, "Unexpected error.");
+				}
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+}
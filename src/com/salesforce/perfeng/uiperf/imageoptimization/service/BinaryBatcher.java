@@ -0,0 +1,299 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.service;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.annotation.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFileOptimizationException;
+
+/**
+ * <p>Groups the small images that threads want to run the same binary on, 
+ * so that 1 process optimizes all of them instead of 1 process each. Most of
+ * the time spent on an icon goes to starting the binary, and OptiPNG, AdvPNG
+ * and <code>gifsicle --batch</code> all take many files.</p>
+ * <p>The first thread to ask for a binary leads the group. While other 
+ * images are being optimized, see {@link #imageStarted()}, it waits up to 
+ * {@link #getLingerMillis()} for them to join, or until there are 
+ * {@link #getMaxFiles()} files, runs the binary on all of them and wakes the
+ * others. An image that is optimized alone never waits. If the binary fails
+ * on the group, each thread runs the binary on its own file instead, so 1 
+ * bad file only fails itself.</p>
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@ThreadSafe
+public class BinaryBatcher {
+	
+	private final static Logger logger = LoggerFactory.getLogger(BinaryBatcher.class);
+	
+	/**
+	 * Name of the system property with the most files passed to 1 run of a 
+	 * binary. The default is 16, 1 turns the batching off.
+	 */
+	public static final String MAX_FILES_PROPERTY = "imageoptimization.batch.maxFiles";
+	/**
+	 * Name of the system property with the size of the largest image that is
+	 * batched. The default is 4096 bytes, larger images take long enough that
+	 * starting the binary does not matter.
+	 */
+	public static final String MAX_BYTES_PROPERTY = "imageoptimization.batch.maxBytes";
+	/**
+	 * Name of the system property with how many milliseconds the first image
+	 * waits for others to join its group. The default is 5.
+	 */
+	public static final String LINGER_MILLIS_PROPERTY = "imageoptimization.batch.lingerMillis";
+	
+	/**
+	 * Runs a binary on a group of files.
+	 */
+	@FunctionalInterface
+	public interface GroupExecution {
+		/**
+		 * @param files The files to optimize.
+		 * @return The file the binary produced for each file, in the same 
+		 *         order.
+		 * @throws ImageFileOptimizationException If the binary failed on any
+		 *                                        of the files.
+		 * @throws InterruptedException If the optimization was interrupted.
+		 */
+		List<File> execute(List<File> files) throws ImageFileOptimizationException, InterruptedException;
+	}
+	
+	/**
+	 * Runs a binary on 1 file.
+	 */
+	@FunctionalInterface
+	public interface SingleExecution {
+		/**
+		 * @return The file the binary produced.
+		 * @throws InterruptedException If the optimization was interrupted.
+		 */
+		File execute() throws InterruptedException;
+	}
+	
+	/**
+	 * The files of 1 run of a binary.
+	 */
+	private static final class Group {
+		private final List<File> files = new ArrayList<>();
+		private final CountDownLatch done = new CountDownLatch(1);
+		/**
+		 * The file the binary produced for each file, <code>null</code> if 
+		 * the binary failed on the group.
+		 */
+		private volatile List<File> results;
+	}
+	
+	private final int maxFiles;
+	private final long maxBytes;
+	private final long lingerMillis;
+	/**
+	 * The group that is still waiting for files, by binary.
+	 */
+	private final Map<String, Group> openGroups = new HashMap<>();
+	/**
+	 * The number of small images being optimized, guarded by the 
+	 * {@link #openGroups}.
+	 */
+	private int activeImages;
+	
+	/**
+	 * @param maxFiles The most files passed to 1 run of a binary, 1 or less 
+	 *                 turns the batching off.
+	 * @param maxBytes The size of the largest image that is batched.
+	 * @param lingerMillis How long the first image waits for others to join 
+	 *                     its group.
+	 */
+	public BinaryBatcher(final int maxFiles, final long maxBytes, final long lingerMillis) {
+		this.maxFiles = maxFiles;
+		this.maxBytes = maxBytes;
+		this.lingerMillis = lingerMillis;
+	}
+	
+	/**
+	 * @return The batcher configured by the {@value #MAX_FILES_PROPERTY}, 
+	 *         {@value #MAX_BYTES_PROPERTY} and {@value #LINGER_MILLIS_PROPERTY}
+	 *         system properties.
+	 */
+	public static BinaryBatcher createInstance() {
+		return new BinaryBatcher(Integer.getInteger(MAX_FILES_PROPERTY, 16).intValue(), Long.getLong(MAX_BYTES_PROPERTY, 4096).longValue(), Long.getLong(LINGER_MILLIS_PROPERTY, 5).longValue());
+	}
+	
+	/**
+	 * @param file The image to optimize.
+	 * @return <code>true</code> if the image is small enough to be batched.
+	 */
+	public boolean accepts(final File file) {
+		return (maxFiles > 1) && (file.length() <= maxBytes);
+	}
+	
+	/**
+	 * Runs the binary on the file, together with the files other threads 
+	 * asked for with the same key.
+	 * 
+	 * @param key The binary and its arguments, only files with the same key
+	 *            are grouped.
+	 * @param file The image to optimize.
+	 * @param group Runs the binary on a group of files.
+	 * @param single Runs the binary on only this file, when it is alone or 
+	 *               the binary failed on the group.
+	 * @return The file the binary produced.
+	 * @throws InterruptedException If the optimization was interrupted.
+	 */
+	public File execute(final String key, final File file, final GroupExecution group, final SingleExecution single) throws InterruptedException {
+		final Group current;
+		final int index;
+		final boolean leader;
+		synchronized(openGroups) {
+			final Group open = openGroups.get(key);
+			leader = (open == null);
+			current = leader ? new Group() : open;
+			index = current.files.size();
+			current.files.add(file);
+			if(leader) {
+				openGroups.put(key, current);
+			} else {
+				if(current.files.size() >= maxFiles) {
+					openGroups.remove(key);
+				}
+				openGroups.notifyAll();
+			}
+		}
+		
+		if(leader) {
+			lead(key, current, group);
+		} else {
+			current.done.await();
+		}
+		
+		final List<File> results = current.results;
+		if(results == null) {
+			return single.execute();
+		}
+		return results.get(index);
+	}
+	
+	/**
+	 * Waits for the group to fill up, then runs the binary on it.
+	 * 
+	 * @param key The binary and its arguments.
+	 * @param current The group this thread leads.
+	 * @param group Runs the binary on a group of files.
+	 * @throws InterruptedException If the optimization was interrupted.
+	 */
+	private void lead(final String key, final Group current, final GroupExecution group) throws InterruptedException {
+		try {
+			final List<File> files;
+			synchronized(openGroups) {
+				try {
+					final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+					long remaining;
+					while((openGroups.get(key) == current) && (current.files.size() < activeImages) && ((remaining = deadline - System.nanoTime()) > 0)) {
+						TimeUnit.NANOSECONDS.timedWait(openGroups, remaining);
+					}
+				} finally {
+					if(openGroups.get(key) == current) {
+						openGroups.remove(key);
+					}
+				}
+				files = Collections.unmodifiableList(new ArrayList<>(current.files));
+			}
+			// Alone there is nothing to save, and the own run attributes the 
+			// failures.
+			if(files.size() > 1) {
+				try {
+					final List<File> results = group.execute(files);
+					if(results.size() == files.size()) {
+						current.results = results;
+					}
+				} catch(final RuntimeException re) {
+					if(logger.isDebugEnabled()) {
+						logger.debug("The " + key + " run of " + files.size() + " files failed. Running each file on its own.", re);
+					}
+				}
+			}
+		} finally {
+			current.done.countDown();
+		}
+	}
+	
+	/**
+	 * Called when a small image starts being optimized, so the groups wait 
+	 * for it to join. Each call has to be followed by 
+	 * {@link #imageFinished()}.
+	 */
+	public void imageStarted() {
+		synchronized(openGroups) {
+			activeImages++;
+		}
+	}
+	
+	/**
+	 * Called when a small image is optimized, so the groups stop waiting for
+	 * it.
+	 */
+	public void imageFinished() {
+		synchronized(openGroups) {
+			activeImages--;
+			openGroups.notifyAll();
+		}
+	}
+	
+	/**
+	 * @return The most files passed to 1 run of a binary.
+	 */
+	public int getMaxFiles() {
+		return maxFiles;
+	}
+	
+	/**
+	 * @return The size of the largest image that is batched.
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+	
+	/**
+	 * @return How long the first image waits for others to join its group.
+	 */
+	public long getLingerMillis() {
+		return lingerMillis;
+	}
+}
@@ -28,11 +28,15 @@
 package com.salesforce.perfeng.uiperf.imageoptimization.service;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.TimeoutException;
 
 import com.salesforce.perfeng.uiperf.imageoptimization.dto.OptimizationResult;
+import com.salesforce.perfeng.uiperf.imageoptimization.dto.OptimizedImage;
 import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFileOptimizationException;
 
 /**
@@ -146,9 +150,31 @@ public interface IImageOptimizationService<C> {
 	 *                                        optimizing an image.
 	 * @throws TimeoutException Happens if an image took to long to optimize.
 	 * @see #optimizeAllImages(FileTypeConversion, boolean, File...)
+	 * @see #optimizeAllImages(OptimizationProfile, FileTypeConversion, boolean, Collection)
 	 */
 	public List<OptimizationResult<C>> optimizeAllImages(final FileTypeConversion conversionType, final boolean includeWebPConversion, final Collection<File> files) throws ImageFileOptimizationException, TimeoutException;
 	
+	/**
+	 * This method will try to optimize all of the passed in images with the 
+	 * tools and effort levels of the profile.
+	 * 
+	 * @param profile How hard to try to make the images smaller. The other 
+	 *                methods use {@link OptimizationProfile#MAXIMUM}.
+	 * @param conversionType If and how to handle converting images from one 
+	 *                       type to another.
+	 * @param includeWebPConversion If <code>true</code> then the WebP versions 
+	 *                              of the image will be generated.
+	 * @param files The images to optimize
+	 * @return The results from the optimization. All items in the {@link List}
+	 *         are considered optimized, not <code>null</code>, and will exclude
+	 *         images that could not be optimized to a smaller size.
+	 * @throws ImageFileOptimizationException Thrown if there is a problem 
+	 *                                        optimizing an image.
+	 * @throws TimeoutException Happens if an image took to long to optimize.
+	 * @since 1.6.0
+	 */
+	public List<OptimizationResult<C>> optimizeAllImages(final OptimizationProfile profile, final FileTypeConversion conversionType, final boolean includeWebPConversion, final Collection<File> files) throws ImageFileOptimizationException, TimeoutException;
+	
 	/**
 	 * This method will try to optimize all of the passed in images.
 	 * 
@@ -167,6 +193,101 @@ public interface IImageOptimizationService<C> {
 	 */
 	public List<OptimizationResult<C>> optimizeAllImages(final FileTypeConversion conversionType, final boolean includeWebPConversion, final File... files) throws ImageFileOptimizationException, TimeoutException;
 	
+	/**
+	 * Creates a batch that images can be added to while they are being 
+	 * discovered. Each image starts being optimized as soon as it is 
+	 * submitted.
+	 * 
+	 * @param conversionType If and how to handle converting images from one 
+	 *                       type to another.
+	 * @param includeWebPConversion If <code>true</code> then the WebP versions 
+	 *                              of the image will be generated.
+	 * @return The new batch.
+	 * @see #optimizeAllImages(FileTypeConversion, boolean, Collection)
+	 * @since 1.6.0
+	 */
+	public OptimizationBatch<C> newOptimizationBatch(final FileTypeConversion conversionType, final boolean includeWebPConversion);
+	
+	/**
+	 * Creates a batch that images can be added to while they are being 
+	 * discovered, optimized with the tools and effort levels of the profile.
+	 * 
+	 * @param profile How hard to try to make the images smaller.
+	 * @param conversionType If and how to handle converting images from one 
+	 *                       type to another.
+	 * @param includeWebPConversion If <code>true</code> then the WebP versions 
+	 *                              of the image will be generated.
+	 * @return The new batch.
+	 * @see #optimizeAllImages(OptimizationProfile, FileTypeConversion, boolean, Collection)
+	 * @since 1.6.0
+	 */
+	public OptimizationBatch<C> newOptimizationBatch(final OptimizationProfile profile, final FileTypeConversion conversionType, final boolean includeWebPConversion);
+	
+	/**
+	 * Optimizes a single image that is held in memory. Unlike
+	 * {@link #optimizeAllImages(FileTypeConversion, boolean, Collection)} the 
+	 * results are not written to {@link #getFinalResultsDirectory()}. The 
+	 * image data is streamed to the binary applications over stdin / stdout 
+	 * wherever the application supports it and the file system is only used 
+	 * for the applications that require it.
+	 * 
+	 * @param conversionType If and how to handle converting images from one 
+	 *                       type to another.
+	 * @param includeWebPConversion If <code>true</code> then the WebP version 
+	 *                              of the image will be generated.
+	 * @param image The bytes of the image to optimize. The format is detected 
+	 *              from the content.
+	 * @return The results from the optimization. The first item is always the
+	 *         best version of the image in a format supported by all browsers
+	 *         (it can be the original bytes if the image could not be made 
+	 *         smaller). If requested, a WebP version follows when it is 
+	 *         smaller than the original.
+	 * @throws ImageFileOptimizationException Thrown if there is a problem 
+	 *                                        optimizing the image or the format
+	 *                                        is not supported.
+	 * @see #optimizeImage(FileTypeConversion, boolean, ByteBuffer)
+	 * @see #optimizeImage(FileTypeConversion, boolean, InputStream)
+	 * @since 1.6.0
+	 */
+	public List<OptimizedImage> optimizeImage(final FileTypeConversion conversionType, final boolean includeWebPConversion, final byte[] image) throws ImageFileOptimizationException;
+	
+	/**
+	 * Optimizes a single image that is held in memory. The position of the 
+	 * passed in buffer is not changed.
+	 * 
+	 * @param conversionType If and how to handle converting images from one 
+	 *                       type to another.
+	 * @param includeWebPConversion If <code>true</code> then the WebP version 
+	 *                              of the image will be generated.
+	 * @param image The remaining bytes of the buffer are the image to optimize.
+	 * @return The results from the optimization.
+	 * @throws ImageFileOptimizationException Thrown if there is a problem 
+	 *                                        optimizing the image or the format
+	 *                                        is not supported.
+	 * @see #optimizeImage(FileTypeConversion, boolean, byte[])
+	 * @since 1.6.0
+	 */
+	public List<OptimizedImage> optimizeImage(final FileTypeConversion conversionType, final boolean includeWebPConversion, final ByteBuffer image) throws ImageFileOptimizationException;
+	
+	/**
+	 * Optimizes a single image read from the passed in {@link InputStream}. 
+	 * The stream is read fully but not closed.
+	 * 
+	 * @param conversionType If and how to handle converting images from one 
+	 *                       type to another.
+	 * @param includeWebPConversion If <code>true</code> then the WebP version 
+	 *                              of the image will be generated.
+	 * @param image The stream containing the image to optimize.
+	 * @return The results from the optimization.
+	 * @throws ImageFileOptimizationException Thrown if there is a problem 
+	 *                                        optimizing the image or the format
+	 *                                        is not supported.
+	 * @throws IOException Thrown if the stream cannot be read.
+	 * @see #optimizeImage(FileTypeConversion, boolean, byte[])
+	 * @since 1.6.0
+	 */
+	public List<OptimizedImage> optimizeImage(final FileTypeConversion conversionType, final boolean includeWebPConversion, final InputStream image) throws ImageFileOptimizationException, IOException;
+	
 	/**
 	 * Returns the path to the optimized images.
 	 * 
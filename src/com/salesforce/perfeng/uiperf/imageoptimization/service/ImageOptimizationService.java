@@ -27,10 +27,15 @@
  ******************************************************************************/
 package com.salesforce.perfeng.uiperf.imageoptimization.service;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.StringWriter;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
@@ -38,18 +43,29 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import javax.imageio.ImageIO;
 
@@ -63,9 +79,25 @@ import org.slf4j.LoggerFactory;
 
 import com.salesforce.perfeng.uiperf.ThirdPartyBinaryNotFoundException;
 import com.salesforce.perfeng.uiperf.imageoptimization.dto.OptimizationResult;
+import com.salesforce.perfeng.uiperf.imageoptimization.dto.OptimizedImage;
+import com.salesforce.perfeng.uiperf.imageoptimization.dto.StageTrace;
+import com.salesforce.perfeng.uiperf.imageoptimization.metrics.BinaryMetrics;
+import com.salesforce.perfeng.uiperf.imageoptimization.metrics.BinaryMetricsRegistry;
+import com.salesforce.perfeng.uiperf.imageoptimization.metrics.DecodeMetricsRegistry;
+import com.salesforce.perfeng.uiperf.imageoptimization.metrics.OptimizationEvent;
+import com.salesforce.perfeng.uiperf.imageoptimization.metrics.OptimizationEvents;
+import com.salesforce.perfeng.uiperf.imageoptimization.tool.OptimizerTool;
+import com.salesforce.perfeng.uiperf.imageoptimization.tool.OptimizerTool.Capability;
+import com.salesforce.perfeng.uiperf.imageoptimization.tool.OptimizerTools;
+import com.salesforce.perfeng.uiperf.imageoptimization.tool.ToolContext;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.DaemonThreadFactory;
 import com.salesforce.perfeng.uiperf.imageoptimization.utils.FixedFileUtils;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageContext;
 import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFileOptimizationException;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFormat;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageHeader;
 import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageUtils;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ProcessRunner;
 
 /**
  * Service used to perform the optimization of images.
@@ -189,6 +221,11 @@ public class ImageOptimizationService<C> implements IImageOptimizationService<C>
 	 * optimize a {@value IImageOptimizationService#JPEG_MIME_TYPE} file.
 	 */
 	protected final String jfifremoveBinaryPath;
+	/**
+	 * Unquoted version of {@link #jfifremoveBinaryPath} used when the binary 
+	 * is executed directly instead of through bash.
+	 */
+	private final String jfifremoveExecutablePath;
 	/**
 	 * Path of the {@value #ADVPNG_BINARY} binary application used to optimize 
 	 * a {@value IImageOptimizationService#PNG_MIME_TYPE} file.
@@ -212,24 +249,113 @@ public class ImageOptimizationService<C> implements IImageOptimizationService<C>
 	
 	private final int MAX_NUMBER_OF_THREADS = Runtime.getRuntime().availableProcessors();
 
-	private final ExecutorService executorService = Executors.newFixedThreadPool(MAX_NUMBER_OF_THREADS, new ThreadFactory() {
-		/**
-		 * Makes the thread daemon threads so they can be killed automatically 
-		 * when the parent thread is done running
-		 * 
-		 * @see java.util.concurrent.ThreadFactory#newThread(java.lang.Runnable)
-		 */
-		@Override
-		public Thread newThread(final Runnable runnable) {
-			final Thread thread = Executors.defaultThreadFactory().newThread(runnable);
-			thread.setDaemon(true);
-			return thread;
-		}
-	});
+	private final ExecutorService executorService = Executors.newFixedThreadPool(MAX_NUMBER_OF_THREADS, DaemonThreadFactory.INSTANCE);
+	
+	/**
+	 * Used by the {@link #processRunner} to feed stdin and drain the output 
+	 * of the binary applications. These threads only block on I/O so the 
+	 * pool is not bounded by the number of CPUs.
+	 */
+	private final ExecutorService pipeExecutorService = Executors.newCachedThreadPool(DaemonThreadFactory.INSTANCE);
+	
+	/**
+	 * Decides which of the PNG optimization binaries are worth running.
+	 */
+	private final ToolStatistics toolStatistics;
+	/**
+	 * The time the processes spent on each file that 
+	 * {@link #executeBinary(String, int, String, File, BinaryExecution)} is 
+	 * running a binary on, for the {@link #toolStatistics}. A process run on 
+	 * a group of files is split evenly between them, and the time waiting 
+	 * for the group to fill up is left out. -1 until a process ran.
+	 */
+	private final Map<File, Long> processNanos = new ConcurrentHashMap<>();
+	
+	/**
+	 * Used to give each service its own name in JMX.
+	 */
+	private static final AtomicInteger SERVICE_COUNT = new AtomicInteger();
+	
+	/**
+	 * The event of the binary that is running on the thread, so that the 
+	 * command line and exit code can be added to it.
+	 */
+	private static final ThreadLocal<OptimizationEvent> BINARY_EVENT = new ThreadLocal<>();
+	
+	/**
+	 * The stages of the image the thread is working on, <code>null</code> if
+	 * they are not traced.
+	 */
+	private static final ThreadLocal<StageTrace.Builder> STAGE_TRACE = new ThreadLocal<>();
+	
+	private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+	
+	/**
+	 * Name of the operation that optimizes a GIF file in the 
+	 * {@link #decodeMetrics}.
+	 */
+	static final String GIF_OPERATION = "gif";
+	/**
+	 * Name of the operation that optimizes an in memory image in the 
+	 * {@link #decodeMetrics}.
+	 */
+	static final String IN_MEMORY_OPERATION = "memory";
+	/**
+	 * Name of the stage that copies the original image to the working 
+	 * directory in the {@link StageTrace}.
+	 */
+	private static final String COPY_STAGE = "copy";
+	/**
+	 * Name of the stage that copies the optimized image to the final 
+	 * directory in the {@link StageTrace}.
+	 */
+	private static final String PROMOTE_STAGE = "promote";
+	
+	/**
+	 * How often, how long and how well each binary ran for this service, 
+	 * published over JMX.
+	 */
+	private final BinaryMetricsRegistry binaryMetrics = new BinaryMetricsRegistry(ImageOptimizationService.class.getSimpleName() + '-' + SERVICE_COUNT.incrementAndGet());
+	/**
+	 * How many images of each {@link ImageTier} were optimized, how long it
+	 * took and how many bytes it saved, published over JMX.
+	 */
+	private final BinaryMetricsRegistry tierMetrics = new BinaryMetricsRegistry(binaryMetrics.getServiceName(), "TierMetrics", "tier");
+	/**
+	 * How many times the images of each operation were decoded, published 
+	 * over JMX.
+	 */
+	private final DecodeMetricsRegistry decodeMetrics = new DecodeMetricsRegistry(binaryMetrics.getServiceName());
+	/**
+	 * Picks the {@link OptimizationProfile} of each image by its size.
+	 */
+	private final ImageTiers imageTiers = ImageTiers.createInstance();
+	/**
+	 * Runs the binaries that take many files once for the small images that 
+	 * are optimized at the same time.
+	 */
+	private final BinaryBatcher binaryBatcher = BinaryBatcher.createInstance();
 
 	private final File tmpWorkingDirectory;
 	private final String finalWorkingDirectoryPath;
 	private final int timeoutInSeconds;
+	private final File binaryDirectory;
+	/**
+	 * Runs the binaries, killing each one that runs longer than the 
+	 * {@link #timeoutInSeconds}.
+	 */
+	private final ProcessRunner processRunner;
+	
+	/**
+	 * The built-in and plugged in tools and the pipeline of each format, for
+	 * each profile.
+	 */
+	private final Map<OptimizationProfile, OptimizerTools> optimizerTools = new EnumMap<>(OptimizationProfile.class);
+	
+	/**
+	 * Runs the binaries of the {@link OptimizerTool}s, for each profile.
+	 */
+	private final Map<OptimizationProfile, ToolContext> toolContexts = new EnumMap<>(OptimizationProfile.class);
 
 	/**
 	 * Constructor that sets the working directories and root directories. The
@@ -247,22 +373,49 @@ public class ImageOptimizationService<C> implements IImageOptimizationService<C>
 	 * @throws IOException Thrown when interacting with the tmpWorkingDirectory
 	 * @see #ImageOptimizationService(File, File)
 	 * @see #ImageOptimizationService(File, File, String)
+	 * @see #ImageOptimizationService(File, File, int, ToolStatistics)
 	 */
 	public ImageOptimizationService(final File tmpWorkingDirectory, final File binaryDirectory, final int timeoutInSeconds) throws IOException {
+		this(tmpWorkingDirectory, binaryDirectory, timeoutInSeconds, ToolStatistics.createInstance());
+	}
+	
+	/**
+	 * Constructor that sets the working directories, the timeout for any of 
+	 * the optimization processes and the statistics used to decide which of 
+	 * the PNG optimization binaries are worth running.
+	 * 
+	 * @param tmpWorkingDirectory This is the temp directory where all of the 
+	 *                            images will be optimized from and stored 
+	 *                            before they are checked back into P4.
+	 * @param binaryDirectory The location the binary image compression programs
+	 *                        are located.
+	 * @param timeoutInSeconds The timeout for execing an image optimization
+	 *                         process. If the value is 0 or a negative number 
+	 *                         then there will be no timeout
+	 * @param toolStatistics The statistics, for example 
+	 *                       {@link ToolStatistics#createInstance()}.
+	 * @throws IOException Thrown when interacting with the tmpWorkingDirectory
+	 * @see #ImageOptimizationService(File, File, int)
+	 */
+	public ImageOptimizationService(final File tmpWorkingDirectory, final File binaryDirectory, final int timeoutInSeconds, final ToolStatistics toolStatistics) throws IOException {
 		if(tmpWorkingDirectory == null) {
 			throw new IllegalArgumentException("The passed in tmpWorkingDirectory needs to exist.");
 		}else if(binaryDirectory == null) {
 			throw new IllegalArgumentException("The passed in binaryDirectory needs to exist.");
+		} else if(toolStatistics == null) {
+			throw new IllegalArgumentException("The passed in toolStatistics cannot be null.");
 		}  else if(!tmpWorkingDirectory.isDirectory()) {
 			throw new IllegalArgumentException("The passed in tmpWorkingDirectory, \"" + tmpWorkingDirectory.getCanonicalPath() + "\", needs to be a directory.");
 		} else if(!binaryDirectory.isDirectory()) {
 			throw new IllegalArgumentException("The passed in binaryDirectory , \"" + binaryDirectory.getCanonicalPath() + "\", needs to exist and be a directory.");
 		}
 		this.tmpWorkingDirectory = tmpWorkingDirectory.getCanonicalFile();
+		this.toolStatistics = toolStatistics;
 
 		finalWorkingDirectoryPath = new StringBuilder(tmpWorkingDirectory.getCanonicalPath()).append(File.separatorChar).append("final").toString();
 		
 		this.timeoutInSeconds = timeoutInSeconds;
+		processRunner = ProcessRunner.createInstance(pipeExecutorService, TimeUnit.SECONDS.toMillis(timeoutInSeconds));
 		
 		final String binaryDirectoryPath = binaryDirectory.getAbsolutePath() + File.separator;
 		
@@ -273,10 +426,40 @@ public class ImageOptimizationService<C> implements IImageOptimizationService<C>
 		// Needs to be quoted because it is passed as an argument to the bash 
 		// command.
 		jfifremoveBinaryPath = '\"' + binaryDirectoryPath + JFIFREMOVE_BINARY + '\"';
+		jfifremoveExecutablePath = binaryDirectoryPath + JFIFREMOVE_BINARY;
 		advpngBinaryPath     = binaryDirectoryPath + ADVPNG_BINARY;
 		optipngBinaryPath    = binaryDirectoryPath + OPTIPNG_BINARY;
 		pngoutBinaryPath     = binaryDirectoryPath + PNGOUT_BINARY;
 		pngquantBinaryPath   = binaryDirectoryPath + PNGQUANT_BINARY;
+		
+		this.binaryDirectory = binaryDirectory.getAbsoluteFile();
+		final OptimizerTools tools = new OptimizerTools(createBuiltInTools(), OptimizationProfile.MAXIMUM.getDefaultPipelines());
+		for(final OptimizationProfile profile : OptimizationProfile.values()) {
+			optimizerTools.put(profile, (profile == OptimizationProfile.MAXIMUM) ? tools : tools.withPipelines(profile.getPipelinePropertyPrefix(), profile.getDefaultPipelines()));
+			toolContexts.put(profile, new ServiceToolContext(profile));
+		}
+	}
+	
+	/**
+	 * @return The tools that run the binaries of the service, with the 
+	 *         <code>execute*</code> methods.
+	 */
+	private final List<OptimizerTool> createBuiltInTools() {
+		final Set<ImageFormat> png = EnumSet.of(ImageFormat.PNG);
+		final Set<ImageFormat> jpeg = EnumSet.of(ImageFormat.JPEG);
+		final Set<ImageFormat> gif = EnumSet.of(ImageFormat.GIF);
+		final Set<Capability> inPlace = EnumSet.of(Capability.IN_PLACE);
+		final Set<Capability> stdin = EnumSet.of(Capability.STDIN);
+		return Arrays.asList(
+				new BinaryTool(ADVPNG_BINARY, png, null, inPlace, (profile, image) -> executeAdvpng(image, image.getCanonicalPath(), profile), null),
+				new BinaryTool(PNGOUT_BINARY, png, null, inPlace, (profile, image) -> executePngout(image, image.getCanonicalPath()), null),
+				new BinaryTool(OPTIPNG_BINARY, png, null, inPlace, (profile, image) -> executeOptipng(image, image.getCanonicalPath(), profile), null),
+				new BinaryTool(PNGQUANT_BINARY, png, null, EnumSet.of(Capability.IN_PLACE, Capability.STDIN), (profile, image) -> executePngquant(image, image.getCanonicalPath()), (profile, image) -> executePngquant(image)),
+				new BinaryTool(JPEGTRAN_BINARY, jpeg, null, stdin, (profile, image) -> executeJpegtran(image, image.getCanonicalPath()), (profile, image) -> executeJpegtran(image)),
+				new BinaryTool(JFIFREMOVE_BINARY, jpeg, null, stdin, (profile, image) -> executeJfifremove(image, image.getCanonicalPath()), (profile, image) -> executeJfifremove(image)),
+				new BinaryTool(GIFSICLE_BINARY, gif, null, stdin, (profile, image) -> executeGifsicle(image, image.getCanonicalPath(), profile), (profile, image) -> executeGifsicle(image, profile)),
+				new BinaryTool(CWEBP_BINARY, EnumSet.of(ImageFormat.PNG, ImageFormat.JPEG), ImageFormat.WEBP, stdin, (profile, image) -> executeCWebp(image, image.getCanonicalPath(), profile), (profile, image) -> executeCWebp(image, profile)),
+				new BinaryTool(GIF2WEBP_BINARY, gif, ImageFormat.WEBP, EnumSet.noneOf(Capability.class), (profile, image) -> executeGif2Webp(image, image.getCanonicalPath(), profile), null));
 	}
 	
 	/**
@@ -386,41 +569,59 @@ public class ImageOptimizationService<C> implements IImageOptimizationService<C>
 			return null;
 		}
 
+		final OptimizationEvent event = OptimizationEvents.promotion(minifiedFile.getPath());
+		final long cpuStart = getCpuTime();
+		final long start = System.nanoTime();
 		FixedFileUtils.copyFile(workingFile, minifiedFile);
+		traceStage(PROMOTE_STAGE, start, cpuStart, minifiedFile.length());
+		event.setBytes(workingFile.length(), minifiedFile.length());
+		event.commit();
 		return minifiedFile;
 	}
 
 	/**
-	 * Submits the {@link Callable} that will optimize the passed in image.
+	 * Submits the {@link Callable} that will optimize the passed in image. The
+	 * image is routed on its real format, detected from its content, instead 
+	 * of on its file extension.
 	 * 
 	 * @param file The file to optimize.
+	 * @param header The header of the file, with the format detected from 
+	 *               its content.
+	 * @param mislabeled <code>true</code> if the file extension does not match
+	 *                   the detected format.
 	 * @param conversionType If and how to handle converting images from one 
 	 *                       type to another.
+	 * @param profile How hard to try to make the image smaller.
+	 * @param tier The tier of the image, its metrics are recorded in the 
+	 *             {@link #tierMetrics}.
 	 * @param tmpImageWorkingDirectory the working directory for optimizing the 
 	 *                                 files.
 	 * @return The list of {@link Future} for each optimization process.
 	 * @throws ImageFileOptimizationException Thrown if an error occurs.
 	 */
-	private final List<Future<OptimizationResult<C>>> submitExecuteOptimization(final CompletionService<OptimizationResult<C>> completionService, final File file, final StringBuilder tmpImageWorkingDirectory, final FileTypeConversion conversionType, final boolean includeWebPConversion) throws ImageFileOptimizationException {
+	private final List<Future<OptimizationResult<C>>> submitExecuteOptimization(final CompletionService<OptimizationResult<C>> completionService, final File file, final ImageHeader header, final boolean mislabeled, final StringBuilder tmpImageWorkingDirectory, final FileTypeConversion conversionType, final boolean includeWebPConversion, final OptimizationProfile profile, final ImageTier tier) throws ImageFileOptimizationException {
 		try {
-			final String ext = FilenameUtils.getExtension(file.getName()).toLowerCase();
-			
 			final List<Future<OptimizationResult<C>>> futures = new ArrayList<>(2);
 			
-			if(PNG_EXTENSION.equals(ext)) {
-				futures.add(completionService.submit(new ExecutePngOptimization(file.getCanonicalFile(), new File(new StringBuilder(tmpImageWorkingDirectory).append(file.getCanonicalPath()).toString()), conversionType)));
-				if(includeWebPConversion) {
-					futures.add(completionService.submit(new ExecuteWebpConversion(file.getCanonicalFile(), new File(new StringBuilder(tmpImageWorkingDirectory).append(IImageOptimizationService.WEBP_EXTENSION).append(file.getCanonicalPath()).toString()), false)));
-				}
-			} else if(GIF_EXTENSION.equals(ext)) {
-				futures.add(completionService.submit(new ExecuteGifOptimization(file.getCanonicalFile(), new File(new StringBuilder(tmpImageWorkingDirectory).append(file.getCanonicalPath()).toString()), conversionType)));
-				if(includeWebPConversion) {
-					futures.add(completionService.submit(new ExecuteWebpConversion(file.getCanonicalFile(), new File(new StringBuilder(tmpImageWorkingDirectory).append(IImageOptimizationService.WEBP_EXTENSION).append(file.getCanonicalPath()).toString()), true)));
-				}
-			} else if(JPEG_EXTENSION.equals(ext) || JPEG_EXTENSION2.equals(ext) || JPEG_EXTENSION3.equals(ext)) {
-				futures.add(completionService.submit(new ExecuteJpegOptimization(file.getCanonicalFile(), new File(new StringBuilder(tmpImageWorkingDirectory).append(file.getCanonicalPath()).toString()), conversionType)));
-			} else {
-				throw new IllegalArgumentException("The passed in file has an unsupported file extension.");
+			final ImageFormat format = header.getFormat();
+			switch(format) {
+				case PNG:
+					futures.add(completionService.submit(new ExecutePngOptimization(file.getCanonicalFile(), new File(new StringBuilder(tmpImageWorkingDirectory).append(file.getCanonicalPath()).toString()), conversionType, mislabeled, profile, tier, ToolStatistics.classify(header, file.length()))));
+					if(includeWebPConversion) {
+						futures.add(completionService.submit(new ExecuteWebpConversion(file.getCanonicalFile(), new File(new StringBuilder(tmpImageWorkingDirectory).append(IImageOptimizationService.WEBP_EXTENSION).append(file.getCanonicalPath()).toString()), false, mislabeled, profile)));
+					}
+					break;
+				case GIF:
+					futures.add(completionService.submit(new ExecuteGifOptimization(file.getCanonicalFile(), new File(new StringBuilder(tmpImageWorkingDirectory).append(file.getCanonicalPath()).toString()), conversionType, mislabeled, profile, tier)));
+					if(includeWebPConversion) {
+						futures.add(completionService.submit(new ExecuteWebpConversion(file.getCanonicalFile(), new File(new StringBuilder(tmpImageWorkingDirectory).append(IImageOptimizationService.WEBP_EXTENSION).append(file.getCanonicalPath()).toString()), true, mislabeled, profile)));
+					}
+					break;
+				case JPEG:
+					futures.add(completionService.submit(new ExecuteJpegOptimization(file.getCanonicalFile(), new File(new StringBuilder(tmpImageWorkingDirectory).append(file.getCanonicalPath()).toString()), conversionType, mislabeled, profile, tier)));
+					break;
+				default:
+					throw new IllegalArgumentException("The passed in file has an unsupported format: " + format);
 			}
 			return futures;
 		} catch (final Exception e) {
@@ -428,30 +629,47 @@ public class ImageOptimizationService<C> implements IImageOptimizationService<C>
 		}
 	}
 
-	private final List<OptimizationResult<C>> optimizeGroupOfImages(final CompletionService<OptimizationResult<C>> completionService, final List<Future<OptimizationResult<C>>> futures) throws TimeoutException {
+	/**
+	 * Waits for the submitted images, passing each result to the consumer as 
+	 * soon as it is done. Each future is removed from the passed in 
+	 * {@link Collection} once it is done so that its result is not kept.
+	 * 
+	 * @param completionService The service the images were submitted to.
+	 * @param futures The futures of the images, the ones left over when it 
+	 *                times out are cancelled.
+	 * @param consumer Called with each image that was optimized.
+	 * @return The number of futures cancelled because it timed out.
+	 * @throws TimeoutException Thrown if it takes to long to optimize an image.
+	 */
+	private final int optimizeGroupOfImages(final CompletionService<OptimizationResult<C>> completionService, final Collection<Future<OptimizationResult<C>>> futures, final Consumer<? super OptimizationResult<C>> consumer) throws TimeoutException {
 
 		OptimizationResult<C> optimizationResult;
 
-		final List<OptimizationResult<C>> masterListOfOptimizedFiles = new ArrayList<>();
 		final int numberOfThreads = futures.size();
 		
 		for(int i = 0; i < numberOfThreads; i++) {
 			try {
+				final Future<OptimizationResult<C>> f;
 				if(this.timeoutInSeconds > 0) {
-					 final Future<OptimizationResult<C>> f = completionService.poll(this.timeoutInSeconds, TimeUnit.SECONDS);
+					 f = completionService.poll(this.timeoutInSeconds, TimeUnit.SECONDS);
 					 if(f == null) {
+						 int cancelled = 0;
 						 for(final Future<OptimizationResult<C>> future : futures) {
-							 future.cancel(true);
+							 if(future.cancel(true)) {
+								 cancelled++;
+							 }
 						 }
-						 throw new TimeoutException("Timed out waiting for image to optimize.");
+						 futures.clear();
+						 return cancelled;
 					 }
-					 optimizationResult = f.get();
 				} else {
-					optimizationResult = completionService.take().get();
+					f = completionService.take();
 				}
+				futures.remove(f);
+				optimizationResult = f.get();
 				if(optimizationResult != null) {
 					logger.info(optimizationResult.toString());
-					masterListOfOptimizedFiles.add(optimizationResult);
+					consumer.accept(optimizationResult);
 				}
 			} catch (final ExecutionException ee) {
 				throw new RuntimeException(ee);
@@ -459,30 +677,25 @@ public class ImageOptimizationService<C> implements IImageOptimizationService<C>
 				throw new RuntimeException(ie);
 			}
 		}
-		return masterListOfOptimizedFiles;
+		return 0;
 	}
 
-	private final static void handleOptimizationFailure(final Process ps, final String binaryApplicationName, final File originalFile) throws ThirdPartyBinaryNotFoundException, ImageFileOptimizationException {
-
-		try(final StringWriter writer = new StringWriter();
-			final InputStream is      = ps.getInputStream()) {
-			try {
-				IOUtils.copy(is, writer);
-				final StringBuilder errorMessage = new StringBuilder("Optimization failed with edit code: ").append(ps.exitValue()).append(". ").append(writer);
-				if(ps.exitValue() == 127 /* command not found */) {
-					throw new ThirdPartyBinaryNotFoundException(binaryApplicationName, "Most likely this is due to required libraries not being installed on the OS. On Ubuntu run \"sudo apt-get install libjpeg62:i386\".", new RuntimeException(errorMessage.toString()));
-				}
-				throw ImageFileOptimizationException.getInstance(originalFile, new RuntimeException(errorMessage.toString()));
-			} catch (final IOException ioe) {
-				logger.error("Unable to redirect error output for child process for " + originalFile, ioe);
-			}
-		} catch(final ThirdPartyBinaryNotFoundException tpbnfe) {
-			throw tpbnfe;
-		} catch(final ImageFileOptimizationException ifoe) {
-			throw ifoe;
-		} catch(final Exception e) {
-			throw new RuntimeException(e);
+	/**
+	 * Throws the error of a binary that failed.
+	 * 
+	 * @param result How the binary ended.
+	 * @param binaryApplicationName The name of the binary.
+	 * @param originalFile The file the binary failed on.
+	 * @throws ThirdPartyBinaryNotFoundException Thrown if the binary could not
+	 *                                           be run.
+	 * @throws ImageFileOptimizationException Thrown otherwise.
+	 */
+	private final static void handleOptimizationFailure(final ProcessRunner.Result result, final String binaryApplicationName, final File originalFile) throws ThirdPartyBinaryNotFoundException, ImageFileOptimizationException {
+		final String errorMessage = result.getErrorMessage();
+		if(result.getExitValue() == 127 /* command not found */) {
+			throw new ThirdPartyBinaryNotFoundException(binaryApplicationName, "Most likely this is due to required libraries not being installed on the OS. On Ubuntu run \"sudo apt-get install libjpeg62:i386\".", new RuntimeException(errorMessage));
 		}
+		throw ImageFileOptimizationException.getInstance(originalFile, new RuntimeException(errorMessage));
 	}
 
 	/**
@@ -508,23 +721,25 @@ public class ImageOptimizationService<C> implements IImageOptimizationService<C>
 	 */
 	@Override
 	public List<OptimizationResult<C>> optimizeAllImages(final FileTypeConversion conversionType, final boolean includeWebPConversion, final Collection<File> files) throws ImageFileOptimizationException, TimeoutException {
+		return optimizeAllImages(OptimizationProfile.MAXIMUM, conversionType, includeWebPConversion, files);
+	}
+	
+	/**
+	 * @see com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService#optimizeAllImages(com.salesforce.perfeng.uiperf.imageoptimization.service.OptimizationProfile, com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService.FileTypeConversion, boolean, java.util.Collection)
+	 */
+	@Override
+	public List<OptimizationResult<C>> optimizeAllImages(final OptimizationProfile profile, final FileTypeConversion conversionType, final boolean includeWebPConversion, final Collection<File> files) throws ImageFileOptimizationException, TimeoutException {
 		if((files == null) || files.isEmpty()) {
 			return Collections.emptyList();
 		}
 
-		final CompletionService<OptimizationResult<C>> completionService = new ExecutorCompletionService<>(executorService);
-
-		int i = 0;
 		final Date start = new Date();
-		final long time = System.nanoTime();
-		
-		final ArrayList<Future<OptimizationResult<C>>> futures = new ArrayList<>();
+		final OptimizationBatch<C> batch = newOptimizationBatch(profile, conversionType, includeWebPConversion);
 		for(final File file : files) {
-			futures.addAll(submitExecuteOptimization(completionService, file, new StringBuilder(tmpWorkingDirectory.getAbsolutePath()).append(File.separatorChar).append("scratch").append(time).append(i++), conversionType, includeWebPConversion));
+			batch.submit(file);
 		}
-		futures.trimToSize();
 		
-		final List<OptimizationResult<C>> optimizedFiles = optimizeGroupOfImages(completionService, futures);
+		final List<OptimizationResult<C>> optimizedFiles = batch.awaitResults();
 		logger.info("Image optimization elapsed time: " + (new Date().getTime() - start.getTime()));
 
 		return optimizedFiles;
@@ -554,371 +769,2048 @@ public class ImageOptimizationService<C> implements IImageOptimizationService<C>
 		return optimizeAllImages(conversionType, includeWebPConversion, new HashSet<>(Arrays.asList(files)));
 	}
 	
-	private static final int waitFor(final Process ps) throws InterruptedException {
-		try {
-			return ps.waitFor();
-		} catch(final InterruptedException ie) {
-			ps.destroy();
-			throw ie;
-		}
+	/**
+	 * @see com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService#newOptimizationBatch(com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService.FileTypeConversion, boolean)
+	 */
+	@Override
+	public OptimizationBatch<C> newOptimizationBatch(final FileTypeConversion conversionType, final boolean includeWebPConversion) {
+		return newOptimizationBatch(OptimizationProfile.MAXIMUM, conversionType, includeWebPConversion);
 	}
-
+	
 	/**
-	 * Executes the binary {@value #ADVPNG_BINARY} to optimize the input file.
-	 * 
-	 * @param workingFile The file to optimize
-	 * @param workingFilePath The path to the file to optimize
-	 * @return the optimized file
-	 * @throws InterruptedException If the optimization was interrupted.
-	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
-	 *                                           {@value #ADVPNG_BINARY}
-	 *                                           application does not exist.
+	 * @see com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService#newOptimizationBatch(com.salesforce.perfeng.uiperf.imageoptimization.service.OptimizationProfile, com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService.FileTypeConversion, boolean)
 	 */
-	final File executeAdvpng(final File workingFile, final String workingFilePath) throws InterruptedException, ThirdPartyBinaryNotFoundException {
-
-		final Process ps;
-		try {
-			final ProcessBuilder pb = new ProcessBuilder(advpngBinaryPath, "-z", "-4", workingFilePath);
-			pb.redirectErrorStream(true);
-			ps = pb.start();
-		} catch(final IOException ioe) {
-			throw new ThirdPartyBinaryNotFoundException(ADVPNG_BINARY, ioe);
-		}
-		
-		waitFor(ps);
-		
-		if(ps.exitValue() != 0) {
-			handleOptimizationFailure(ps, ADVPNG_BINARY, workingFile);
-		}
-		return workingFile;
+	@Override
+	public OptimizationBatch<C> newOptimizationBatch(final OptimizationProfile profile, final FileTypeConversion conversionType, final boolean includeWebPConversion) {
+		return new ExecuteOptimizationBatch(conversionType, includeWebPConversion, profile);
 	}
-
+	
 	/**
-	 * Executes the binary {@value #PNGOUT_BINARY} to optimize the input file.
-	 * 
-	 * @param workingFile The file to optimize
-	 * @param workingFilePath The path to the file to optimize
-	 * @return the optimized file
-	 * @throws InterruptedException If the optimization was interrupted.
-	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
-	 *                                           {@value #PNGOUT_BINARY}
-	 *                                           application does not exist.
+	 * Submits each image to the {@link #executorService} as soon as it is 
+	 * added to the batch.
 	 */
-	final File executePngout(final File workingFile, final String workingFilePath) throws InterruptedException, ThirdPartyBinaryNotFoundException {
-
-		final Process ps;
-		try {
-			// Slightly different from the other binary calls because PNG out 
-			// displays an error when long file paths are used.
-			final ProcessBuilder pb = new ProcessBuilder(pngoutBinaryPath, workingFile.getName(), workingFile.getName(), "-y");
-			pb.directory(workingFile.getParentFile());
-			pb.redirectErrorStream(true);
-			ps = pb.start();
-		} catch(final IOException ioe) {
-			throw new ThirdPartyBinaryNotFoundException(PNGOUT_BINARY, ioe);
+	@ThreadSafe
+	private final class ExecuteOptimizationBatch implements OptimizationBatch<C> {
+		
+		private final FileTypeConversion conversionType;
+		private final boolean includeWebPConversion;
+		private final OptimizationProfile profile;
+		private final CompletionService<OptimizationResult<C>> completionService = new ExecutorCompletionService<>(executorService);
+		private final Set<Future<OptimizationResult<C>>> futures = ConcurrentHashMap.newKeySet();
+		/**
+		 * The futures passed on by {@link #pollResults(Consumer)} before 
+		 * {@link #submit(File)} added them to {@link #futures}. Guarded by 
+		 * {@link #futures}.
+		 */
+		private final Set<Future<OptimizationResult<C>>> polledFutures = new HashSet<>();
+		private final long time = System.nanoTime();
+		private final AtomicInteger count = new AtomicInteger();
+		private final Queue<File> skippedFiles = new ConcurrentLinkedQueue<>();
+		private volatile boolean closed;
+		private volatile int timedOutCount;
+		
+		/**
+		 * @param conversionType If and how to handle converting images from 
+		 *                       one type to another.
+		 * @param includeWebPConversion If <code>true</code> then the a WebP 
+		 *                              version of the image will also be 
+		 *                              generated (if it is smaller).
+		 * @param profile How hard to try to make the images smaller.
+		 */
+		ExecuteOptimizationBatch(final FileTypeConversion conversionType, final boolean includeWebPConversion, final OptimizationProfile profile) {
+			this.conversionType = conversionType;
+			this.includeWebPConversion = includeWebPConversion;
+			this.profile = profile;
 		}
-
-		waitFor(ps);
-		if(ps.exitValue() != 0 && ps.exitValue() != 2) {
-			handleOptimizationFailure(ps, PNGOUT_BINARY, workingFile);
-		} else {
-			final File newFile = new File(workingFilePath + "." + PNG_EXTENSION);
-			if(newFile.exists()) {
-				workingFile.delete();
-				if(!newFile.renameTo(workingFile)) {
-					logger.warn("Optimization failed to copy file. Moving on with the test.", ImageFileOptimizationException.getInstance(workingFile, "Optimization failed to copy file. Moving on with the test."));
+		
+		@Override
+		public void submit(final File file) throws ImageFileOptimizationException {
+			submit(file, null);
+		}
+		
+		@Override
+		public void submit(final File file, final ImageHeader header) throws ImageFileOptimizationException {
+			if(closed) {
+				throw new IllegalStateException("No images can be submitted after awaitResults() is called.");
+			}
+			final ImageHeader imageHeader;
+			try {
+				imageHeader = (header == null) ? ImageHeader.read(file) : header;
+			} catch(final IOException ioe) {
+				throw ImageFileOptimizationException.getInstance(file, ioe);
+			}
+			final ImageFormat format = imageHeader.getFormat();
+			if((format == null) || (format == ImageFormat.WEBP)) {
+				// Not worth starting any of the binaries for.
+				if(logger.isWarnEnabled()) {
+					logger.warn("Skipping file. The content is not a supported image format\n\tfile: {}\n\tformat: {}", file.getPath(), format);
+				}
+				skippedFiles.add(file);
+				return;
+			}
+			final boolean mislabeled = format != ImageFormat.fromExtension(FilenameUtils.getExtension(file.getName()));
+			if(mislabeled && logger.isWarnEnabled()) {
+				logger.warn("The file extension does not match the content. Optimizing it as {}\n\tfile: {}", format, file.getPath());
+			}
+			final ImageTier tier = imageTiers.classify(imageHeader, file.length());
+			final OptimizationProfile tierProfile = imageTiers.getProfile(tier, profile);
+			if(logger.isDebugEnabled()) {
+				logger.debug("Optimizing {} image with the {} profile\n\tfile: {}", tier.getName(), tierProfile, file.getPath());
+			}
+			final List<Future<OptimizationResult<C>>> submitted = submitExecuteOptimization(completionService, file, imageHeader, mislabeled, new StringBuilder(tmpWorkingDirectory.getAbsolutePath()).append(File.separatorChar).append("scratch").append(time).append(count.getAndIncrement()), conversionType, includeWebPConversion, tierProfile, tier);
+			synchronized(futures) {
+				for(final Future<OptimizationResult<C>> future : submitted) {
+					// A fast image can be done, and passed on by another 
+					// thread, before it gets here.
+					if(!polledFutures.remove(future)) {
+						futures.add(future);
+					}
 				}
 			}
 		}
-		return workingFile;
+		
+		@Override
+		public void pollResults(final Consumer<? super OptimizationResult<C>> consumer) throws ImageFileOptimizationException {
+			if(closed) {
+				throw new IllegalStateException("The results cannot be polled after awaitResults() is called.");
+			}
+			Future<OptimizationResult<C>> future;
+			while((future = completionService.poll()) != null) {
+				synchronized(futures) {
+					if(!futures.remove(future)) {
+						polledFutures.add(future);
+					}
+				}
+				final OptimizationResult<C> optimizationResult;
+				try {
+					optimizationResult = future.get();
+				} catch (final ExecutionException ee) {
+					throw new RuntimeException(ee);
+				} catch (final InterruptedException ie) {
+					throw new RuntimeException(ie);
+				}
+				if(optimizationResult != null) {
+					logger.info(optimizationResult.toString());
+					consumer.accept(optimizationResult);
+				}
+			}
+		}
+		
+		@Override
+		public List<File> getSkippedFiles() {
+			return new ArrayList<>(skippedFiles);
+		}
+		
+		@Override
+		public int getTimedOutCount() {
+			return timedOutCount;
+		}
+		
+		@Override
+		public List<OptimizationResult<C>> awaitResults() throws ImageFileOptimizationException, TimeoutException {
+			final List<OptimizationResult<C>> results = new ArrayList<>();
+			awaitResults(results::add);
+			return results;
+		}
+		
+		@Override
+		public void awaitResults(final Consumer<? super OptimizationResult<C>> consumer) throws ImageFileOptimizationException, TimeoutException {
+			closed = true;
+			try {
+				timedOutCount = optimizeGroupOfImages(completionService, futures, consumer);
+			} finally {
+				saveToolStatistics();
+			}
+			if(timedOutCount > 0) {
+				throw new TimeoutException("Timed out waiting for image to optimize.");
+			}
+		}
 	}
 	
 	/**
-	 * Executes the binary {@value #PNGQUANT_BINARY} to optimize the input file.
-	 * 
-	 * @param workingFile The file to optimize
-	 * @param workingFilePath The path to the file to optimize
-	 * @return the optimized file
-	 * @throws InterruptedException If the optimization was interrupted.
-	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
-	 *                                           {@value #PNGQUANT_BINARY}
-	 *                                           application does not exist.
+	 * @see com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService#optimizeImage(com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService.FileTypeConversion, boolean, byte[])
 	 */
-	final File executePngquant(final File workingFile, final String workingFilePath) throws InterruptedException, ThirdPartyBinaryNotFoundException {
-		
-		final Process ps;
+	@Override
+	public List<OptimizedImage> optimizeImage(final FileTypeConversion conversionType, final boolean includeWebPConversion, final byte[] image) throws ImageFileOptimizationException {
+		if((image == null) || (image.length == 0)) {
+			throw new IllegalArgumentException("The passed in image cannot be empty.");
+		}
+		final ImageHeader header;
 		try {
-			// Slightly different from the other binary calls because PNG out 
-			// displays an error when long file paths are used.
-			final ProcessBuilder pb = new ProcessBuilder(pngquantBinaryPath, "--quality=100-100", "-s1", "--ext", ".png2", "--force", "--", workingFile.getName());
-			pb.directory(workingFile.getParentFile());
-			pb.redirectErrorStream(true);
-			ps = pb.start();
+			header = ImageHeader.read(image);
 		} catch(final IOException ioe) {
-			throw new ThirdPartyBinaryNotFoundException(PNGQUANT_BINARY, ioe);
+			throw new ImageFileOptimizationException(ImageUtils.IN_MEMORY_IMAGE_PATH, ioe);
+		}
+		final ImageFormat format = header.getFormat();
+		if((format == null) || (format == ImageFormat.WEBP)) {
+			throw new ImageFileOptimizationException(ImageUtils.IN_MEMORY_IMAGE_PATH, "The image is not a supported format.");
 		}
 		
-		waitFor(ps);
-		
-		// If conversion results in quality below the min quality the image 
-		// won't be saved and pngquant will exit with status code 99.
-		if(ps.exitValue() != 99) {
-			if(ps.exitValue() != 0) {
-				handleOptimizationFailure(ps, PNGQUANT_BINARY, workingFile);
+		final long start = System.nanoTime();
+		final List<OptimizedImage> results = new ArrayList<>(2);
+		final ImageTier tier = imageTiers.classify(header, image.length);
+		final OptimizationProfile profile = imageTiers.getProfile(tier, OptimizationProfile.MAXIMUM);
+		File scratchDirectory = null;
+		final long previousImageId = OptimizationEvents.setCurrentImageId(OptimizationEvents.nextImageId());
+		ImageContext optimizedImage = null;
+		try {
+			// Only some of the binaries have to work on a file, everything 
+			// else is streamed over stdin / stdout.
+			if((format == ImageFormat.PNG) || ((format == ImageFormat.GIF) && (FileTypeConversion.isEnabled(conversionType) || includeWebPConversion)) || !optimizerTools.get(profile).isStdinPipeline(format)) {
+				scratchDirectory = Files.createTempDirectory(tmpWorkingDirectory.toPath(), "memory").toFile();
 			}
-			final File newFile;
-			if(IImageOptimizationService.PNG_EXTENSION.equalsIgnoreCase(FilenameUtils.getExtension(workingFile.getName()))) {
-				newFile = new File(workingFilePath + '2');
-			} else {
-				newFile = new File(workingFilePath + ".png2");
+			
+			byte[] optimized;
+			ImageFormat optimizedFormat = format;
+			switch(format) {
+				case JPEG:
+					optimized = executePipeline(ImageFormat.JPEG, image, scratchDirectory, profile);
+					break;
+				case GIF:
+					optimized = executePipeline(ImageFormat.GIF, image, scratchDirectory, profile);
+					optimizedImage = new ImageContext(optimized);
+					if(isFileTypeConversionEnabled(conversionType, optimizedImage)) {
+						final byte[] png = convertToPng(optimizedImage);
+						if(png != null) {
+							final byte[] optimizedPng = executePngOptimization(png, scratchDirectory, profile);
+							if(optimizedPng.length < optimized.length) {
+								optimized = optimizedPng;
+								optimizedFormat = ImageFormat.PNG;
+							}
+						}
+					}
+					break;
+				default:
+					optimized = executePngOptimization(image, scratchDirectory, profile);
+					break;
 			}
 			
-			if(workingFile.length() > newFile.length()) {
+			if(optimized.length < image.length) {
+				final boolean fileTypeChanged = (optimizedFormat != format);
+				if(optimizedImage == null) {
+					optimizedImage = new ImageContext(optimized);
+				}
+				final ImageContext originalImage = new ImageContext(image);
 				try {
-					Files.move(newFile.toPath(), workingFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-				} catch (final IOException ioe) {
-					throw ImageFileOptimizationException.getInstance(workingFile, "Optimization failed to copy file.", ioe);
+					results.add(new OptimizedImage(optimized, optimizedFormat, image.length, fileTypeChanged, !fileTypeChanged && !ImageUtils.visuallyCompare(originalImage, optimizedImage), false));
+				} finally {
+					recordDecodeCount(IN_MEMORY_OPERATION, originalImage);
+					originalImage.close();
 				}
 			} else {
-				newFile.delete();
+				results.add(new OptimizedImage(image, format, image.length, false, false, false));
+			}
+			
+			if(includeWebPConversion && (format != ImageFormat.JPEG)) {
+				try {
+					final byte[] webp = executeWebpConversion(format, image, scratchDirectory, profile);
+					if((webp != null) && (webp.length < image.length)) {
+						results.add(new OptimizedImage(webp, ImageFormat.WEBP, image.length, true, false, true));
+					}
+				} catch(final ThirdPartyBinaryNotFoundException tpbnfe) {
+					throw tpbnfe;
+				} catch(final Exception e) {
+					logger.warn(WEBP_ERROR_MESSAGE, new ImageFileOptimizationException(ImageUtils.IN_MEMORY_IMAGE_PATH, e));
+				}
+			}
+		} catch(final ThirdPartyBinaryNotFoundException | ImageFileOptimizationException e) {
+			throw e;
+		} catch(final InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new ImageFileOptimizationException(ImageUtils.IN_MEMORY_IMAGE_PATH, ie);
+		} catch(final Exception e) {
+			throw new ImageFileOptimizationException(ImageUtils.IN_MEMORY_IMAGE_PATH, e);
+		} finally {
+			OptimizationEvents.setCurrentImageId(previousImageId);
+			if(optimizedImage != null) {
+				recordDecodeCount(IN_MEMORY_OPERATION, optimizedImage);
+				optimizedImage.close();
+			}
+			if(scratchDirectory != null) {
+				FileUtils.deleteQuietly(scratchDirectory);
 			}
 		}
-		return workingFile;
+		
+		final long elapsed = System.nanoTime() - start;
+		tierMetrics.get(tier.getName()).record(elapsed, image.length, results.get(0).getOptimizedSize(), false);
+		if(logger.isDebugEnabled()) {
+			logger.debug("In memory {} image optimization elapsed time: {}ms", tier.getName(), Long.valueOf(TimeUnit.NANOSECONDS.toMillis(elapsed)));
+		}
+		return results;
 	}
-
+	
 	/**
-	 * Executes the binary {@value #OPTIPNG_BINARY} to optimize the input file.
-	 * 
-	 * @param workingFile The file to optimize
-	 * @param workingFilePath The path to the file to optimize
-	 * @return the optimized file
-	 * @throws InterruptedException If the optimization was interrupted.
+	 * @see com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService#optimizeImage(com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService.FileTypeConversion, boolean, java.nio.ByteBuffer)
+	 */
+	@Override
+	public List<OptimizedImage> optimizeImage(final FileTypeConversion conversionType, final boolean includeWebPConversion, final ByteBuffer image) throws ImageFileOptimizationException {
+		if((image == null) || !image.hasRemaining()) {
+			throw new IllegalArgumentException("The passed in image cannot be empty.");
+		}
+		final ByteBuffer buffer = image.duplicate();
+		final byte[] data = new byte[buffer.remaining()];
+		buffer.get(data);
+		return optimizeImage(conversionType, includeWebPConversion, data);
+	}
+	
+	/**
+	 * @see com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService#optimizeImage(com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService.FileTypeConversion, boolean, java.io.InputStream)
+	 */
+	@Override
+	public List<OptimizedImage> optimizeImage(final FileTypeConversion conversionType, final boolean includeWebPConversion, final InputStream image) throws ImageFileOptimizationException, IOException {
+		return optimizeImage(conversionType, includeWebPConversion, IOUtils.toByteArray(image));
+	}
+	
+	/**
+	 * Same check as the GIF file optimization uses to decide if the GIF should 
+	 * also be tried as a PNG, but for an in memory image.
+	 * 
+	 * @param conversionType If and how to handle converting images from one 
+	 *                       type to another.
+	 * @param gif The optimized GIF.
+	 * @return <code>true</code> if the GIF should be converted.
+	 */
+	private static final boolean isFileTypeConversionEnabled(final FileTypeConversion conversionType, final ImageContext gif) {
+		try {
+			if(FileTypeConversion.isEnabled(conversionType) && !gif.isAnimatedGif()) {
+				if((conversionType == FileTypeConversion.IE6SAFE) && !gif.containsAlphaTransparency()) {
+					return true;
+				}
+				return (conversionType == FileTypeConversion.ALL);
+			}
+		} catch(final Exception e) {
+			logger.debug("The image must be corrupted. Ignoring the error.", e);
+		}
+		return false;
+	}
+	
+	/**
+	 * @param gif The GIF to convert.
+	 * @return The PNG version of the image or <code>null</code> if JAVA is not 
+	 *         able to convert it.
+	 */
+	private static final byte[] convertToPng(final ImageContext gif) {
+		try(final ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+			if(ImageIO.write(gif.getImage(), PNG_EXTENSION, baos)) {
+				return baos.toByteArray();
+			}
+		} catch(final Exception e) {
+			logger.debug("Unable to convert optimized GIF to PNG. Ignoring.", new ImageFileOptimizationException(ImageUtils.IN_MEMORY_IMAGE_PATH, e));
+		}
+		return null;
+	}
+	
+	/**
+	 * Records how many times the image of the context was decoded in the 
+	 * {@link #decodeMetrics}. More than once means the decoded image did not 
+	 * stay in memory between the checks.
+	 * 
+	 * @param operation The operation that is done with the image.
+	 * @param image The context of the image, can be <code>null</code>.
+	 */
+	private final void recordDecodeCount(final String operation, final ImageContext image) {
+		if(image != null) {
+			decodeMetrics.get(operation).record(image.getDecodeCount());
+			if(logger.isDebugEnabled()) {
+				logger.debug("Decoded {} time(s): {}", Integer.valueOf(image.getDecodeCount()), image.getPath());
+			}
+		}
+	}
+	
+	/**
+	 * Runs the binary and waits for it to exit, see 
+	 * {@link #run(String, File, ProcessBuilder, byte[], OutputStream, File...)}.
+	 * 
+	 * @param binaryApplicationName The name of the binary.
+	 * @param workingFile The file the binary works on, used in error 
+	 *                    messages.
+	 * @param pb The binary to run.
+	 * @param outputFiles The files the binary writes, deleted if it is killed.
+	 * @return How the binary ended, with the end of its output.
+	 * @throws InterruptedException If the wait was interrupted.
+	 * @throws ThirdPartyBinaryNotFoundException Thrown if the binary cannot 
+	 *                                           be started.
+	 * @throws ImageFileOptimizationException Thrown if the binary ran longer
+	 *                                        than the timeout.
+	 */
+	private final ProcessRunner.Result run(final String binaryApplicationName, final File workingFile, final ProcessBuilder pb, final File... outputFiles) throws InterruptedException, ThirdPartyBinaryNotFoundException, ImageFileOptimizationException {
+		return run(binaryApplicationName, workingFile, pb, null, null, outputFiles);
+	}
+	
+	/**
+	 * Runs the binary with the {@link #processRunner} and waits for it to 
+	 * exit, killing it if it runs longer than the timeout of the service. The
+	 * command line and exit code are added to the event of the binary that is
+	 * running on this thread and the exit code is recorded in the 
+	 * {@link #binaryMetrics}. A binary that was killed failed, whatever its 
+	 * exit code, and what it wrote is deleted since it may be cut short.
+	 * 
+	 * @param binaryApplicationName The name of the binary.
+	 * @param workingFile The file the binary works on, used in error 
+	 *                    messages, or <code>null</code> for an in memory 
+	 *                    image.
+	 * @param pb The binary to run.
+	 * @param stdin Written to stdin, or <code>null</code>.
+	 * @param stdout Where stdout is copied, or <code>null</code> to keep the 
+	 *               end of it in the result.
+	 * @param outputFiles The files the binary writes, deleted if it is killed.
+	 * @return How the binary ended, with the end of its output.
+	 * @throws InterruptedException If the wait was interrupted.
+	 * @throws ThirdPartyBinaryNotFoundException Thrown if the binary cannot 
+	 *                                           be started.
+	 * @throws ImageFileOptimizationException Thrown if the binary ran longer
+	 *                                        than the timeout.
+	 */
+	private final ProcessRunner.Result run(final String binaryApplicationName, final File workingFile, final ProcessBuilder pb, final byte[] stdin, final OutputStream stdout, final File... outputFiles) throws InterruptedException, ThirdPartyBinaryNotFoundException, ImageFileOptimizationException {
+		final OptimizationEvent event = BINARY_EVENT.get();
+		if(event != null) {
+			event.setArguments(pb.command());
+		}
+		final ProcessRunner.Execution execution;
+		try {
+			execution = processRunner.start(pb, stdin, stdout);
+		} catch(final IOException ioe) {
+			throw new ThirdPartyBinaryNotFoundException(binaryApplicationName, ioe);
+		}
+		final ProcessRunner.Result result = execution.waitFor();
+		binaryMetrics.get(binaryApplicationName).recordExitCode(result.getExitValue());
+		if(event != null) {
+			event.setExitCode(result.getExitValue());
+		}
+		if(result.isTimedOut()) {
+			for(final File outputFile : outputFiles) {
+				FileUtils.deleteQuietly(outputFile);
+			}
+			final RuntimeException cause = new RuntimeException(result.getErrorMessage());
+			if(workingFile == null) {
+				throw new ImageFileOptimizationException(ImageUtils.IN_MEMORY_IMAGE_PATH, cause);
+			}
+			throw ImageFileOptimizationException.getInstance(workingFile, cause);
+		}
+		return result;
+	}
+	
+	/**
+	 * Runs 1 of the binaries that work on a file, records the run in the 
+	 * {@link #binaryMetrics} and adds it to the {@link StageTrace} of the 
+	 * image.
+	 * 
+	 * @param binaryApplicationName The name of the binary.
+	 * @param workingFile The file passed to the binary.
+	 * @param binary Runs the binary.
+	 * @return The file the binary produced.
+	 * @throws InterruptedException If the optimization was interrupted.
+	 */
+	private final File measureBinary(final String binaryApplicationName, final File workingFile, final BinaryExecution binary) throws InterruptedException {
+		return traceBinary(binaryApplicationName, workingFile, () -> recordBinary(binaryApplicationName, workingFile, binary));
+	}
+	
+	/**
+	 * Adds the time the binary took on the image to the {@link StageTrace} of
+	 * the image.
+	 * 
+	 * @param binaryApplicationName The name of the binary.
+	 * @param workingFile The file passed to the binary.
+	 * @param binary Runs the binary.
+	 * @return The file the binary produced.
+	 * @throws InterruptedException If the optimization was interrupted.
+	 */
+	private static final File traceBinary(final String binaryApplicationName, final File workingFile, final BinaryExecution binary) throws InterruptedException {
+		final long inputSize = workingFile.length();
+		final long cpuStart = getCpuTime();
+		final long start = System.nanoTime();
+		long outputSize = 0;
+		boolean failed = true;
+		try {
+			final File result = binary.execute();
+			if(result != null) {
+				outputSize = result.length();
+			}
+			failed = false;
+			return result;
+		} finally {
+			traceStage(binaryApplicationName, start, cpuStart, failed ? inputSize : outputSize);
+		}
+	}
+	
+	/**
+	 * Runs 1 of the binaries on 1 file and records the run in the 
+	 * {@link #binaryMetrics}.
+	 * 
+	 * @param binaryApplicationName The name of the binary.
+	 * @param workingFile The file passed to the binary.
+	 * @param binary Runs the binary.
+	 * @return The file the binary produced.
+	 * @throws InterruptedException If the optimization was interrupted.
+	 */
+	private final File recordBinary(final String binaryApplicationName, final File workingFile, final BinaryExecution binary) throws InterruptedException {
+		return recordBinary(binaryApplicationName, Collections.singletonList(workingFile), files -> Collections.singletonList(binary.execute())).get(0);
+	}
+	
+	/**
+	 * Runs 1 of the binaries once on a group of files and records the run, 
+	 * once, in the {@link #binaryMetrics} with the sizes of all of the files.
+	 * 
+	 * @param binaryApplicationName The name of the binary.
+	 * @param workingFiles The files passed to the binary.
+	 * @param binary Runs the binary.
+	 * @return The file the binary produced for each file.
+	 * @throws InterruptedException If the optimization was interrupted.
+	 */
+	private final List<File> recordBinary(final String binaryApplicationName, final List<File> workingFiles, final BinaryBatcher.GroupExecution binary) throws InterruptedException {
+		final BinaryMetrics metrics = binaryMetrics.get(binaryApplicationName);
+		long inputSize = 0;
+		for(final File workingFile : workingFiles) {
+			inputSize += workingFile.length();
+		}
+		final OptimizationEvent event = OptimizationEvents.binary(binaryApplicationName);
+		BINARY_EVENT.set(event);
+		final long start = System.nanoTime();
+		long outputSize = 0;
+		boolean failed = true;
+		try {
+			final List<File> results = binary.execute(workingFiles);
+			for(final File result : results) {
+				if(result != null) {
+					outputSize += result.length();
+				}
+			}
+			failed = false;
+			return results;
+		} finally {
+			final long nanos = System.nanoTime() - start;
+			metrics.record(nanos, inputSize, outputSize, failed);
+			final Long share = Long.valueOf(nanos / workingFiles.size());
+			for(final File workingFile : workingFiles) {
+				processNanos.computeIfPresent(workingFile, (file, previous) -> Long.valueOf(Math.max(previous.longValue(), 0) + share.longValue()));
+			}
+			BINARY_EVENT.remove();
+			event.setBytes(inputSize, outputSize);
+			event.commit();
+		}
+	}
+	
+	/**
+	 * Runs a binary that takes many files through the {@link #binaryBatcher}
+	 * when the file is small enough, so it is run once for the small images 
+	 * that are optimized at the same time with the same profile. Each process
+	 * is recorded once in the {@link #binaryMetrics}, without the time spent
+	 * waiting for the group to fill up, while the {@link StageTrace} of each
+	 * image has the whole time it took.
+	 * 
+	 * @param binaryApplicationName The name of the binary.
+	 * @param profile The profile with the arguments of the binary.
+	 * @param workingFile The file to optimize.
+	 * @param group Runs the binary on a group of files.
+	 * @param single Runs the binary on only the file.
+	 * @return The file the binary produced.
+	 * @throws InterruptedException If the optimization was interrupted.
+	 */
+	private final File executeBatched(final String binaryApplicationName, final OptimizationProfile profile, final File workingFile, final BinaryBatcher.GroupExecution group, final BinaryBatcher.SingleExecution single) throws InterruptedException {
+		if(!binaryBatcher.accepts(workingFile)) {
+			return measureBinary(binaryApplicationName, workingFile, single::execute);
+		}
+		return traceBinary(binaryApplicationName, workingFile, () -> binaryBatcher.execute(binaryApplicationName + ' ' + profile, workingFile, 
+				files -> recordBinary(binaryApplicationName, files, group), () -> recordBinary(binaryApplicationName, workingFile, single::execute)));
+	}
+	
+	/**
+	 * @param files The files.
+	 * @return The canonical path of each file.
+	 */
+	private static final List<String> getCanonicalPaths(final List<File> files) {
+		final List<String> paths = new ArrayList<>(files.size());
+		for(final File file : files) {
+			try {
+				paths.add(file.getCanonicalPath());
+			} catch(final IOException ioe) {
+				throw ImageFileOptimizationException.getInstance(file, ioe);
+			}
+		}
+		return paths;
+	}
+	
+	/**
+	 * @return The CPU time of the current thread, -1 if the JVM does not 
+	 *         measure it or no stages are traced on this thread.
+	 */
+	private static final long getCpuTime() {
+		if((STAGE_TRACE.get() == null) || !THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported()) {
+			return -1;
+		}
+		return THREAD_MX_BEAN.getCurrentThreadCpuTime();
+	}
+	
+	/**
+	 * Adds a stage to the {@link StageTrace} of the image the thread is 
+	 * working on, if it is traced.
+	 * 
+	 * @param tool The tool that ran in the stage.
+	 * @param start The {@link System#nanoTime()} the stage started.
+	 * @param cpuStart The {@link #getCpuTime()} when the stage started.
+	 * @param sizeAfter The size of the image after the stage.
+	 */
+	private static final void traceStage(final String tool, final long start, final long cpuStart, final long sizeAfter) {
+		final StageTrace.Builder trace = STAGE_TRACE.get();
+		if(trace != null) {
+			final long cpuEnd = (cpuStart < 0) ? -1 : getCpuTime();
+			trace.add(tool, System.nanoTime() - start, (cpuEnd < 0) ? -1 : cpuEnd - cpuStart, sizeAfter);
+		}
+	}
+
+	/**
+	 * Executes the binary {@value #ADVPNG_BINARY} to optimize the input file.
+	 * 
+	 * @param workingFile The file to optimize
+	 * @param workingFilePath The path to the file to optimize
+	 * @return the optimized file
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
+	 *                                           {@value #ADVPNG_BINARY}
+	 *                                           application does not exist.
+	 */
+	final File executeAdvpng(final File workingFile, final String workingFilePath) throws InterruptedException, ThirdPartyBinaryNotFoundException {
+		return executeAdvpng(workingFile, workingFilePath, OptimizationProfile.MAXIMUM);
+	}
+	
+	/**
+	 * Executes the binary {@value #ADVPNG_BINARY} to optimize the input file.
+	 * 
+	 * @param workingFile The file to optimize
+	 * @param workingFilePath The path to the file to optimize
+	 * @param profile The profile with the compression level.
+	 * @return the optimized file
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
+	 *                                           {@value #ADVPNG_BINARY}
+	 *                                           application does not exist.
+	 */
+	final File executeAdvpng(final File workingFile, final String workingFilePath, final OptimizationProfile profile) throws InterruptedException, ThirdPartyBinaryNotFoundException {
+		return executeBatched(ADVPNG_BINARY, profile, workingFile, files -> {
+			runAdvpng(getCanonicalPaths(files), files.get(0), profile);
+			return files;
+		}, () -> {
+			runAdvpng(Collections.singletonList(workingFilePath), workingFile, profile);
+			return workingFile;
+		});
+	}
+	
+	/**
+	 * Runs {@value #ADVPNG_BINARY} once on the files, it optimizes them in 
+	 * place.
+	 * 
+	 * @param workingFilePaths The paths to the files to optimize.
+	 * @param workingFile The file named in the error if it fails.
+	 * @param profile The profile with the compression level.
+	 * @throws InterruptedException If the optimization was interrupted.
+	 */
+	private final void runAdvpng(final List<String> workingFilePaths, final File workingFile, final OptimizationProfile profile) throws InterruptedException {
+		final List<String> command = new ArrayList<>(3 + workingFilePaths.size());
+		command.add(advpngBinaryPath);
+		command.add("-z");
+		command.add(profile.getAdvpngLevel());
+		command.addAll(workingFilePaths);
+		final ProcessBuilder pb = new ProcessBuilder(command);
+		pb.redirectErrorStream(true);
+		final ProcessRunner.Result result = run(ADVPNG_BINARY, workingFile, pb);
+	
+		if(result.getExitValue() != 0) {
+			handleOptimizationFailure(result, ADVPNG_BINARY, workingFile);
+		}
+	}
+
+	/**
+	 * Executes the binary {@value #PNGOUT_BINARY} to optimize the input file.
+	 * 
+	 * @param workingFile The file to optimize
+	 * @param workingFilePath The path to the file to optimize
+	 * @return the optimized file
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
+	 *                                           {@value #PNGOUT_BINARY}
+	 *                                           application does not exist.
+	 */
+	final File executePngout(final File workingFile, final String workingFilePath) throws InterruptedException, ThirdPartyBinaryNotFoundException {
+		return measureBinary(PNGOUT_BINARY, workingFile, () -> {
+			// Slightly different from the other binary calls because PNG out 
+			// displays an error when long file paths are used.
+			final ProcessBuilder pb = new ProcessBuilder(pngoutBinaryPath, workingFile.getName(), workingFile.getName(), "-y");
+			pb.directory(workingFile.getParentFile());
+			pb.redirectErrorStream(true);
+			final ProcessRunner.Result result = run(PNGOUT_BINARY, workingFile, pb, new File(workingFilePath + "." + PNG_EXTENSION));
+
+			if(result.getExitValue() != 0 && result.getExitValue() != 2) {
+				handleOptimizationFailure(result, PNGOUT_BINARY, workingFile);
+			} else {
+				final File newFile = new File(workingFilePath + "." + PNG_EXTENSION);
+				if(newFile.exists()) {
+					workingFile.delete();
+					if(!newFile.renameTo(workingFile)) {
+						logger.warn("Optimization failed to copy file. Moving on with the test.", ImageFileOptimizationException.getInstance(workingFile, "Optimization failed to copy file. Moving on with the test."));
+					}
+				}
+			}
+			return workingFile;
+		});
+	}
+	
+	/**
+	 * Executes the binary {@value #PNGQUANT_BINARY} to optimize the input file.
+	 * 
+	 * @param workingFile The file to optimize
+	 * @param workingFilePath The path to the file to optimize
+	 * @return the optimized file
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
+	 *                                           {@value #PNGQUANT_BINARY}
+	 *                                           application does not exist.
+	 */
+	final File executePngquant(final File workingFile, final String workingFilePath) throws InterruptedException, ThirdPartyBinaryNotFoundException {
+		return measureBinary(PNGQUANT_BINARY, workingFile, () -> {
+			// Slightly different from the other binary calls because PNG out 
+			// displays an error when long file paths are used.
+			final ProcessBuilder pb = new ProcessBuilder(pngquantBinaryPath, "--quality=100-100", "-s1", "--ext", ".png2", "--force", "--", workingFile.getName());
+			pb.directory(workingFile.getParentFile());
+			pb.redirectErrorStream(true);
+			final File newFile;
+			if(IImageOptimizationService.PNG_EXTENSION.equalsIgnoreCase(FilenameUtils.getExtension(workingFile.getName()))) {
+				newFile = new File(workingFilePath + '2');
+			} else {
+				newFile = new File(workingFilePath + ".png2");
+			}
+			final ProcessRunner.Result result = run(PNGQUANT_BINARY, workingFile, pb, newFile);
+		
+			// If conversion results in quality below the min quality the image 
+			// won't be saved and pngquant will exit with status code 99.
+			if(result.getExitValue() != 99) {
+				if(result.getExitValue() != 0) {
+					handleOptimizationFailure(result, PNGQUANT_BINARY, workingFile);
+				}
+			
+				if(workingFile.length() > newFile.length()) {
+					try {
+						Files.move(newFile.toPath(), workingFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+					} catch (final IOException ioe) {
+						throw ImageFileOptimizationException.getInstance(workingFile, "Optimization failed to copy file.", ioe);
+					}
+				} else {
+					newFile.delete();
+				}
+			}
+			return workingFile;
+		});
+	}
+
+	/**
+	 * Executes the binary {@value #OPTIPNG_BINARY} to optimize the input file.
+	 * 
+	 * @param workingFile The file to optimize
+	 * @param workingFilePath The path to the file to optimize
+	 * @return the optimized file
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
+	 *                                           {@value #OPTIPNG_BINARY}
+	 *                                           application does not exist.
+	 */
+	final File executeOptipng(final File workingFile, final String workingFilePath) throws InterruptedException, ThirdPartyBinaryNotFoundException {
+		return executeOptipng(workingFile, workingFilePath, OptimizationProfile.MAXIMUM);
+	}
+	
+	/**
+	 * Executes the binary {@value #OPTIPNG_BINARY} to optimize the input file.
+	 * 
+	 * @param workingFile The file to optimize
+	 * @param workingFilePath The path to the file to optimize
+	 * @param profile The profile with the trials to run.
+	 * @return the optimized file
+	 * @throws InterruptedException If the optimization was interrupted.
 	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
 	 *                                           {@value #OPTIPNG_BINARY}
 	 *                                           application does not exist.
 	 */
-	final File executeOptipng(final File workingFile, final String workingFilePath) throws InterruptedException, ThirdPartyBinaryNotFoundException {
-
-		final Process ps;
-		try {
-			final ProcessBuilder pb = new ProcessBuilder(optipngBinaryPath, "-zc9", "-zm8-9", "-zs0-3", "-f0-5", "-zw", "32k", workingFilePath);
-			pb.redirectErrorStream(true);
-			ps = pb.start();
-		} catch(final IOException ioe) {
-			throw new ThirdPartyBinaryNotFoundException(OPTIPNG_BINARY, ioe);
+	final File executeOptipng(final File workingFile, final String workingFilePath, final OptimizationProfile profile) throws InterruptedException, ThirdPartyBinaryNotFoundException {
+		return executeBatched(OPTIPNG_BINARY, profile, workingFile, files -> {
+			runOptipng(getCanonicalPaths(files), files.get(0), profile);
+			return files;
+		}, () -> {
+			runOptipng(Collections.singletonList(workingFilePath), workingFile, profile);
+			return workingFile;
+		});
+	}
+	
+	/**
+	 * Runs {@value #OPTIPNG_BINARY} once on the files, it optimizes them in 
+	 * place.
+	 * 
+	 * @param workingFilePaths The paths to the files to optimize.
+	 * @param workingFile The file named in the error if it fails.
+	 * @param profile The profile with the trials to run.
+	 * @throws InterruptedException If the optimization was interrupted.
+	 */
+	private final void runOptipng(final List<String> workingFilePaths, final File workingFile, final OptimizationProfile profile) throws InterruptedException {
+		final List<String> command = new ArrayList<>(7 + workingFilePaths.size());
+		command.add(optipngBinaryPath);
+		command.addAll(Arrays.asList(profile.getOptipngArguments()));
+		command.add("-zw");
+		command.add("32k");
+		command.addAll(workingFilePaths);
+		final ProcessBuilder pb = new ProcessBuilder(command);
+		pb.redirectErrorStream(true);
+		final ProcessRunner.Result result = run(OPTIPNG_BINARY, workingFile, pb);
+		if(result.getExitValue() != 0) {
+			handleOptimizationFailure(result, OPTIPNG_BINARY, workingFile);
+		}
+	}
+
+	/**
+	 * Executes the binary {@value #JPEGTRAN_BINARY} to optimize the input file.
+	 * 
+	 * @param workingFile The file to optimize
+	 * @param workingFilePath The path to the file to optimize
+	 * @return the optimized file
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
+	 *                                           {@value #JPEGTRAN_BINARY} 
+	 *                                           application does not exist.
+	 */
+	final File executeJpegtran(final File workingFile, final String workingFilePath) throws InterruptedException, ThirdPartyBinaryNotFoundException {
+		return measureBinary(JPEGTRAN_BINARY, workingFile, () -> {
+			final ProcessBuilder pb = new ProcessBuilder(jpegtranBinaryPath, "-copy", "none", "-optimize", "-outfile", workingFilePath + ".tmp", workingFilePath);
+			pb.redirectErrorStream(true);
+			final ProcessRunner.Result result = run(JPEGTRAN_BINARY, workingFile, pb, new File(workingFilePath + ".tmp"));
+
+			if(result.getExitValue() == 0) {
+				final File tmpFile = new File(workingFilePath + ".tmp");
+				if(tmpFile.length() < workingFile.length()) {
+					return tmpFile;
+				}
+			} else {
+				handleOptimizationFailure(result, JPEGTRAN_BINARY, workingFile);
+			}
+
+			return workingFile;
+		});
+	}
+
+	/**
+	 * Executes the binary {@value #JFIFREMOVE_BINARY}" to optimize the input 
+	 * file.
+	 * 
+	 * @param workingFile The file to optimize
+	 * @param workingFilePath The path to the file to optimize
+	 * @return the optimized file
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
+	 *                                           "jfifremove" application does 
+	 *                                           not exist.
+	 */
+	final File executeJfifremove(final File workingFile, final String workingFilePath) throws InterruptedException, ThirdPartyBinaryNotFoundException {
+		return measureBinary(JFIFREMOVE_BINARY, workingFile, () -> {
+			//Can't redirect the Error stream because it is already redirecting 
+			//the output. The runner reads it on its own.
+			final ProcessRunner.Result result = run(JFIFREMOVE_BINARY, workingFile, new ProcessBuilder("bash", "-c", new StringBuilder(jfifremoveBinaryPath).append(" < \"").append(workingFilePath).append("\" > \"").append(workingFilePath).append(".tmp2\"").toString()), new File(workingFilePath + ".tmp2"));
+
+			if(result.getExitValue() != 0) {
+				handleOptimizationFailure(result, JFIFREMOVE_BINARY, workingFile);
+			}
+
+			return new File(workingFilePath + ".tmp2");
+		});
+	}
+
+	/**
+	 * Executes the binary {@value #GIFSICLE_BINARY} to optimize the input file.
+	 * 
+	 * @param workingFile The file to optimize
+	 * @param workingFilePath The path to the file to optimize
+	 * @return the optimized file
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
+	 *                                           {@value #GIFSICLE_BINARY} 
+	 *                                           application does not exist.
+	 */
+	final File executeGifsicle(final File workingFile, final String workingFilePath) throws InterruptedException, ThirdPartyBinaryNotFoundException {
+		return executeGifsicle(workingFile, workingFilePath, OptimizationProfile.MAXIMUM);
+	}
+	
+	/**
+	 * Executes the binary {@value #GIFSICLE_BINARY} to optimize the input file.
+	 * 
+	 * @param workingFile The file to optimize
+	 * @param workingFilePath The path to the file to optimize
+	 * @param profile The profile with the optimization level.
+	 * @return the optimized file
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
+	 *                                           {@value #GIFSICLE_BINARY} 
+	 *                                           application does not exist.
+	 */
+	final File executeGifsicle(final File workingFile, final String workingFilePath, final OptimizationProfile profile) throws InterruptedException, ThirdPartyBinaryNotFoundException {
+		return executeBatched(GIFSICLE_BINARY, profile, workingFile, files -> executeGifsicle(files, profile), () -> {
+			final File tmpFile = new File(workingFilePath + ".tmp");
+			final ProcessBuilder pb = new ProcessBuilder(gifsicleBinaryPath, profile.getGifsicleLevel(), workingFilePath, "-o", tmpFile.getPath());
+			pb.redirectErrorStream(true);
+			final ProcessRunner.Result result = run(GIFSICLE_BINARY, workingFile, pb, tmpFile);
+			checkGifsicleResult(result, workingFile, Collections.singletonList(tmpFile));
+			return tmpFile;
+		});
+	}
+	
+	/**
+	 * {@value #GIFSICLE_BINARY} exits with 1 for warnings as well as errors, 
+	 * so that is only a failure if it did not leave an output file. Any other
+	 * exit code other than 0 is a failure.
+	 * 
+	 * @param result How {@value #GIFSICLE_BINARY} ended.
+	 * @param workingFile The file named in the error if it failed.
+	 * @param outputFiles The files it was meant to write.
+	 */
+	private static final void checkGifsicleResult(final ProcessRunner.Result result, final File workingFile, final List<File> outputFiles) {
+		if(result.getExitValue() == 0) {
+			return;
+		}
+		if(result.getExitValue() == 1) {
+			boolean written = true;
+			for(final File outputFile : outputFiles) {
+				written &= outputFile.exists();
+			}
+			if(written) {
+				return;
+			}
+		}
+		handleOptimizationFailure(result, GIFSICLE_BINARY, workingFile);
+	}
+	
+	/**
+	 * Runs {@value #GIFSICLE_BINARY} once on copies of the files, with 
+	 * <code>--batch</code> so it optimizes the copies in place. The exit code
+	 * is checked the same way as for a run on 1 file. A copy it could not 
+	 * optimize is left as it was, so it still has the same pixels as its 
+	 * original.
+	 * 
+	 * @param workingFiles The files to optimize.
+	 * @param profile The profile with the optimization level.
+	 * @return The optimized copy of each file, next to it with the extension
+	 *         <code>.tmp</code>.
+	 * @throws InterruptedException If the optimization was interrupted.
+	 */
+	private final List<File> executeGifsicle(final List<File> workingFiles, final OptimizationProfile profile) throws InterruptedException {
+		final List<File> tmpFiles = new ArrayList<>(workingFiles.size());
+		try {
+			for(final File workingFile : workingFiles) {
+				final File tmpFile = new File(workingFile.getCanonicalPath() + ".tmp");
+				Files.copy(workingFile.toPath(), tmpFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				tmpFiles.add(tmpFile);
+			}
+		} catch(final IOException ioe) {
+			throw ImageFileOptimizationException.getInstance(workingFiles.get(tmpFiles.size()), ioe);
+		}
+		final List<String> command = new ArrayList<>(3 + tmpFiles.size());
+		command.add(gifsicleBinaryPath);
+		command.add("--batch");
+		command.add(profile.getGifsicleLevel());
+		for(final File tmpFile : tmpFiles) {
+			command.add(tmpFile.getPath());
+		}
+		final ProcessBuilder pb = new ProcessBuilder(command);
+		pb.redirectErrorStream(true);
+		final ProcessRunner.Result result = run(GIFSICLE_BINARY, workingFiles.get(0), pb, tmpFiles.toArray(new File[tmpFiles.size()]));
+		checkGifsicleResult(result, workingFiles.get(0), tmpFiles);
+		return tmpFiles;
+	}
+
+	/**
+	 * Executes the binary {@value #CWEBP_BINARY} to convert the input file to 
+	 * a smaller file. The resulting image is only supported by Chrome and Opera
+	 * 
+	 * @param workingFile The file to convert
+	 * @param workingFilePath The path to the file to convert
+	 * @return The converted file
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
+	 *                                           {@value #CWEBP_BINARY} 
+	 *                                           application does not exist.
+	 */
+	final File executeCWebp(final File workingFile, final String workingFilePath) throws InterruptedException, ThirdPartyBinaryNotFoundException {
+		return executeCWebp(workingFile, workingFilePath, OptimizationProfile.MAXIMUM);
+	}
+	
+	/**
+	 * Executes the binary {@value #CWEBP_BINARY} to convert the input file to 
+	 * a smaller file. The resulting image is only supported by Chrome and Opera
+	 * 
+	 * @param workingFile The file to convert
+	 * @param workingFilePath The path to the file to convert
+	 * @param profile The profile with the compression method.
+	 * @return The converted file
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
+	 *                                           {@value #CWEBP_BINARY} 
+	 *                                           application does not exist.
+	 */
+	final File executeCWebp(final File workingFile, final String workingFilePath, final OptimizationProfile profile) throws InterruptedException, ThirdPartyBinaryNotFoundException {
+		return measureBinary(CWEBP_BINARY, workingFile, () -> {
+			final String webpFilePath = FilenameUtils.removeExtension(workingFilePath) + "." + WEBP_EXTENSION;
+
+			final ProcessBuilder pb = new ProcessBuilder(cwebpBinaryPath, workingFilePath, "-lossless", "-m", profile.getWebpMethod(), "-o", webpFilePath);
+			pb.redirectErrorStream(true);
+			final ProcessRunner.Result result = run(CWEBP_BINARY, workingFile, pb, new File(webpFilePath));
+
+			File webpFile = null;
+			if(result.getExitValue() == 0) {
+				webpFile = new File(webpFilePath);
+				if(webpFile.exists()) {
+					return webpFile;
+				}
+				handleOptimizationFailure(result, CWEBP_BINARY, workingFile);
+			} else {
+				handleOptimizationFailure(result, CWEBP_BINARY, workingFile);
+			}
+
+			return webpFile;
+		});
+	}
+
+	/**
+	 * Executes the binary {@value #GIF2WEBP_BINARY} to convert the input file 
+	 * to a smaller file. The resulting image is only supported by Chrome and 
+	 * Opera
+	 * 
+	 * @param workingFile The file to convert
+	 * @param workingFilePath The path to the file to convert
+	 * @return The converted file
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
+	 *                                           {@value #GIF2WEBP_BINARY} 
+	 *                                           application does not exist.
+	 */
+	final File executeGif2Webp(final File workingFile, final String workingFilePath) throws InterruptedException, ThirdPartyBinaryNotFoundException {
+		return executeGif2Webp(workingFile, workingFilePath, OptimizationProfile.MAXIMUM);
+	}
+	
+	/**
+	 * Executes the binary {@value #GIF2WEBP_BINARY} to convert the input file 
+	 * to a smaller file. The resulting image is only supported by Chrome and 
+	 * Opera
+	 * 
+	 * @param workingFile The file to convert
+	 * @param workingFilePath The path to the file to convert
+	 * @param profile The profile with the compression method.
+	 * @return The converted file
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
+	 *                                           {@value #GIF2WEBP_BINARY} 
+	 *                                           application does not exist.
+	 */
+	final File executeGif2Webp(final File workingFile, final String workingFilePath, final OptimizationProfile profile) throws InterruptedException, ThirdPartyBinaryNotFoundException {
+		return measureBinary(GIF2WEBP_BINARY, workingFile, () -> {
+			final String webpFilePath = FilenameUtils.removeExtension(workingFilePath) + "." + WEBP_EXTENSION;
+
+			final ProcessBuilder pb = new ProcessBuilder(gif2webpBinaryPath, workingFilePath, "-m", profile.getWebpMethod(), "-o", webpFilePath);
+			pb.redirectErrorStream(true);
+			final ProcessRunner.Result result = run(GIF2WEBP_BINARY, workingFile, pb, new File(webpFilePath));
+
+			File webpFile = null;
+			if(result.getExitValue() == 0) {
+				webpFile = new File(webpFilePath);
+				if(webpFile.exists()) {
+					return webpFile;
+				}
+				handleOptimizationFailure(result, GIF2WEBP_BINARY, workingFile);
+			} else {
+				handleOptimizationFailure(result, GIF2WEBP_BINARY, workingFile);
+			}
+
+			return webpFile;
+		});
+	}
+
+	/**
+	 * Executes a binary application that reads the image from stdin and writes
+	 * the result to stdout. stdin is fed and stderr is drained on separate 
+	 * threads so that the binary cannot block on a full pipe.
+	 * 
+	 * @param binaryApplicationName The name of the binary used in error 
+	 *                              messages.
+	 * @param input The bytes written to stdin.
+	 * @param successExitValues The exit values that indicate success.
+	 * @param command The command to execute.
+	 * @return The bytes written to stdout.
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @throws ThirdPartyBinaryNotFoundException Thrown if the binary 
+	 *                                           application does not exist.
+	 */
+	final byte[] executePipe(final String binaryApplicationName, final byte[] input, final int[] successExitValues, final String... command) throws InterruptedException, ThirdPartyBinaryNotFoundException {
+		return measurePipe(binaryApplicationName, input, image -> runPipe(binaryApplicationName, image, successExitValues, command));
+	}
+	
+	/**
+	 * Runs 1 of the binaries that read the image from stdin and records the
+	 * run in the {@link #binaryMetrics}.
+	 * 
+	 * @param binaryApplicationName The name of the binary.
+	 * @param input The image passed to the binary.
+	 * @param binary Runs the binary.
+	 * @return The image the binary produced.
+	 * @throws InterruptedException If the optimization was interrupted.
+	 */
+	private final byte[] measurePipe(final String binaryApplicationName, final byte[] input, final PipeStep binary) throws InterruptedException {
+		final BinaryMetrics metrics = binaryMetrics.get(binaryApplicationName);
+		final OptimizationEvent event = OptimizationEvents.binary(binaryApplicationName);
+		BINARY_EVENT.set(event);
+		final long start = System.nanoTime();
+		long outputSize = 0;
+		boolean failed = true;
+		try {
+			final byte[] output = binary.execute(input);
+			outputSize = output.length;
+			failed = false;
+			return output;
+		} finally {
+			metrics.record(System.nanoTime() - start, input.length, outputSize, failed);
+			BINARY_EVENT.remove();
+			event.setBytes(input.length, outputSize);
+			event.commit();
+		}
+	}
+	
+	/**
+	 * The body of {@link #executePipe(String, byte[], int[], String...)}, 
+	 * without the metrics.
+	 * 
+	 * @param binaryApplicationName The name of the binary used in error 
+	 *                              messages.
+	 * @param input The bytes written to stdin.
+	 * @param successExitValues The exit values that indicate success.
+	 * @param command The command to execute.
+	 * @return The bytes written to stdout.
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @throws ThirdPartyBinaryNotFoundException Thrown if the binary 
+	 *                                           application does not exist.
+	 */
+	private final byte[] runPipe(final String binaryApplicationName, final byte[] input, final int[] successExitValues, final String... command) throws InterruptedException, ThirdPartyBinaryNotFoundException {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream(input.length);
+		final ProcessRunner.Result result = run(binaryApplicationName, null, new ProcessBuilder(command), input, output);
+	
+		for(final int successExitValue : successExitValues) {
+			if(result.getExitValue() == successExitValue) {
+				return output.toByteArray();
+			}
+		}
+	
+		final String errorMessage = result.getErrorMessage();
+		if(result.getExitValue() == 127 /* command not found */) {
+			throw new ThirdPartyBinaryNotFoundException(binaryApplicationName, "Most likely this is due to required libraries not being installed on the OS.", new RuntimeException(errorMessage));
+		}
+		throw new ImageFileOptimizationException(ImageUtils.IN_MEMORY_IMAGE_PATH, new RuntimeException(errorMessage));
+	}
+	
+	/**
+	 * Streams the image through the binary {@value #JPEGTRAN_BINARY}.
+	 * 
+	 * @param image The JPEG to optimize
+	 * @return the optimized image, or the passed in image if it was not made
+	 *         smaller.
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
+	 *                                           {@value #JPEGTRAN_BINARY} 
+	 *                                           application does not exist.
+	 */
+	final byte[] executeJpegtran(final byte[] image) throws InterruptedException, ThirdPartyBinaryNotFoundException {
+		final byte[] output = executePipe(JPEGTRAN_BINARY, image, new int[] {0}, jpegtranBinaryPath, "-copy", "none", "-optimize");
+		return ((output.length > 0) && (output.length < image.length)) ? output : image;
+	}
+	
+	/**
+	 * Streams the image through the binary {@value #JFIFREMOVE_BINARY}.
+	 * 
+	 * @param image The JPEG to optimize
+	 * @return the optimized image
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
+	 *                                           {@value #JFIFREMOVE_BINARY} 
+	 *                                           application does not exist.
+	 */
+	final byte[] executeJfifremove(final byte[] image) throws InterruptedException, ThirdPartyBinaryNotFoundException {
+		final byte[] output = executePipe(JFIFREMOVE_BINARY, image, new int[] {0}, jfifremoveExecutablePath);
+		return (output.length > 0) ? output : image;
+	}
+	
+	/**
+	 * Streams the image through the binary {@value #GIFSICLE_BINARY}.
+	 * 
+	 * @param image The GIF to optimize
+	 * @return the optimized image
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
+	 *                                           {@value #GIFSICLE_BINARY} 
+	 *                                           application does not exist.
+	 */
+	final byte[] executeGifsicle(final byte[] image) throws InterruptedException, ThirdPartyBinaryNotFoundException {
+		return executeGifsicle(image, OptimizationProfile.MAXIMUM);
+	}
+	
+	/**
+	 * Streams the image through the binary {@value #GIFSICLE_BINARY}.
+	 * 
+	 * @param image The GIF to optimize
+	 * @param profile The profile with the optimization level.
+	 * @return the optimized image
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
+	 *                                           {@value #GIFSICLE_BINARY} 
+	 *                                           application does not exist.
+	 */
+	final byte[] executeGifsicle(final byte[] image, final OptimizationProfile profile) throws InterruptedException, ThirdPartyBinaryNotFoundException {
+		// gifsicle exits with 1 for warnings, the same as the file version.
+		final byte[] output = executePipe(GIFSICLE_BINARY, image, new int[] {0, 1}, gifsicleBinaryPath, profile.getGifsicleLevel());
+		if(output.length == 0) {
+			throw new ImageFileOptimizationException(ImageUtils.IN_MEMORY_IMAGE_PATH, GIFSICLE_BINARY + " did not produce an image.");
+		}
+		return output;
+	}
+	
+	/**
+	 * Streams the image through the binary {@value #PNGQUANT_BINARY}.
+	 * 
+	 * @param image The PNG to optimize
+	 * @return the optimized image, or the passed in image if it was not made
+	 *         smaller.
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
+	 *                                           {@value #PNGQUANT_BINARY} 
+	 *                                           application does not exist.
+	 */
+	final byte[] executePngquant(final byte[] image) throws InterruptedException, ThirdPartyBinaryNotFoundException {
+		// If conversion results in quality below the min quality the image 
+		// won't be saved and pngquant will exit with status code 99.
+		final byte[] output = executePipe(PNGQUANT_BINARY, image, new int[] {0, 99}, pngquantBinaryPath, "--quality=100-100", "-s1", "-");
+		return ((output.length > 0) && (output.length < image.length)) ? output : image;
+	}
+	
+	/**
+	 * Streams the image through the binary {@value #CWEBP_BINARY}.
+	 * 
+	 * @param image The image to convert
+	 * @return The converted image
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
+	 *                                           {@value #CWEBP_BINARY} 
+	 *                                           application does not exist.
+	 */
+	final byte[] executeCWebp(final byte[] image) throws InterruptedException, ThirdPartyBinaryNotFoundException {
+		return executeCWebp(image, OptimizationProfile.MAXIMUM);
+	}
+	
+	/**
+	 * Streams the image through the binary {@value #CWEBP_BINARY}.
+	 * 
+	 * @param image The image to convert
+	 * @param profile The profile with the compression method.
+	 * @return The converted image
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
+	 *                                           {@value #CWEBP_BINARY} 
+	 *                                           application does not exist.
+	 */
+	final byte[] executeCWebp(final byte[] image, final OptimizationProfile profile) throws InterruptedException, ThirdPartyBinaryNotFoundException {
+		return executePipe(CWEBP_BINARY, image, new int[] {0}, cwebpBinaryPath, "-lossless", "-m", profile.getWebpMethod(), "-o", "-", "--", "-");
+	}
+	
+	/**
+	 * Converts an in memory image to WebP with {@value #CWEBP_BINARY} or, for
+	 * a GIF, {@value #GIF2WEBP_BINARY}. The image is written to the scratch 
+	 * directory first if the tool cannot read it from stdin.
+	 * 
+	 * @param format The format of the image.
+	 * @param image The image to convert
+	 * @param scratchDirectory The directory the binary works in.
+	 * @param profile The profile the image is converted with.
+	 * @return The converted image or <code>null</code> if the GIF is animated.
+	 * @throws IOException If there was an issue reading / writing to the file
+	 *                     system
+	 * @throws InterruptedException If the optimization was interrupted.
+	 */
+	private final byte[] executeWebpConversion(final ImageFormat format, final byte[] image, final File scratchDirectory, final OptimizationProfile profile) throws IOException, InterruptedException {
+		if((format == ImageFormat.GIF) && ImageUtils.isAminatedGif(image)) {
+			return null;
+		}
+		final OptimizerTool tool = optimizerTools.get(profile).getTool((format == ImageFormat.GIF) ? GIF2WEBP_BINARY : CWEBP_BINARY);
+		if(tool.getCapabilities().contains(Capability.STDIN)) {
+			return executeTool(tool, image, profile);
+		}
+		final File workingFile = new File(scratchDirectory, "webp." + format.getExtension());
+		Files.write(workingFile.toPath(), image);
+		final File webpFile = executeTool(tool, workingFile, profile);
+		return (webpFile == null) ? null : Files.readAllBytes(webpFile.toPath());
+	}
+	
+	/**
+	 * Runs the passes of the PNG pipeline against an in memory image.
+	 * 
+	 * @param image The PNG to optimize
+	 * @param scratchDirectory The directory the binaries work in.
+	 * @param profile The profile with the pipeline and the passes.
+	 * @return The optimized image.
+	 * @throws IOException If there was an issue reading / writing to the file
+	 *                     system
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @see #executePipeline(ImageFormat, byte[], File, OptimizationProfile)
+	 */
+	private final byte[] executePngOptimization(final byte[] image, final File scratchDirectory, final OptimizationProfile profile) throws IOException, InterruptedException {
+		byte[] optimized = image;
+		for(int pass = 1; pass <= profile.getPngPasses(); pass++) {
+			optimized = executePipeline(ImageFormat.PNG, optimized, scratchDirectory, profile);
+		}
+		return optimized;
+	}
+	
+	/**
+	 * Runs the pipeline of the format against an in memory image. The tools 
+	 * that can read from stdin are streamed the image, the image is written 
+	 * to 1 scratch file for each run of tools in a row that cannot and they 
+	 * optimize it in place.
+	 * 
+	 * @param format The format of the image.
+	 * @param image The image to optimize.
+	 * @param scratchDirectory The directory the tools that need a file work 
+	 *                         in.
+	 * @param profile The profile with the pipeline.
+	 * @return The optimized image.
+	 * @throws IOException If there was an issue reading / writing to the file
+	 *                     system
+	 * @throws InterruptedException If the optimization was interrupted.
+	 */
+	private final byte[] executePipeline(final ImageFormat format, final byte[] image, final File scratchDirectory, final OptimizationProfile profile) throws IOException, InterruptedException {
+		byte[] optimized = image;
+		// When not null it holds the latest version of the image.
+		File workingFile = null;
+		try {
+			for(final OptimizerTool tool : optimizerTools.get(profile).getPipeline(format)) {
+				if(tool.getCapabilities().contains(Capability.STDIN)) {
+					if(workingFile != null) {
+						optimized = Files.readAllBytes(workingFile.toPath());
+						workingFile.delete();
+						workingFile = null;
+					}
+					optimized = executeTool(tool, optimized, profile);
+				} else {
+					if(workingFile == null) {
+						workingFile = File.createTempFile("image", "." + format.getExtension(), scratchDirectory);
+						Files.write(workingFile.toPath(), optimized);
+					}
+					executeToolInPlace(tool, workingFile, profile);
+				}
+			}
+			if(workingFile != null) {
+				optimized = Files.readAllBytes(workingFile.toPath());
+			}
+		} finally {
+			if(workingFile != null) {
+				workingFile.delete();
+			}
+		}
+		return optimized;
+	}
+	
+	/**
+	 * Runs the pipeline of the format against an image file, each tool on the
+	 * file written by the tool before it.
+	 * 
+	 * @param format The format of the image.
+	 * @param workingFile The image to optimize.
+	 * @param profile The profile with the pipeline.
+	 * @return The optimized image.
+	 * @throws InterruptedException If the optimization was interrupted.
+	 */
+	private final File executePipeline(final ImageFormat format, final File workingFile, final OptimizationProfile profile) throws InterruptedException {
+		File optimizedFile = workingFile;
+		for(final OptimizerTool tool : optimizerTools.get(profile).getPipeline(format)) {
+			final File file = executeTool(tool, optimizedFile, profile);
+			if(file != null) {
+				optimizedFile = file;
+			}
+		}
+		return optimizedFile;
+	}
+	
+	/**
+	 * Runs a tool against an image file. The built-in tools record their own
+	 * metrics, the tools that are plugged in are measured here.
+	 * 
+	 * @param tool The tool to run.
+	 * @param image The image to optimize.
+	 * @param profile The profile passed to the tool.
+	 * @return The file written by the tool, see 
+	 *         {@link OptimizerTool#optimize(ToolContext, File)}.
+	 * @throws InterruptedException If the optimization was interrupted.
+	 */
+	private final File executeTool(final OptimizerTool tool, final File image, final OptimizationProfile profile) throws InterruptedException {
+		final BinaryExecution execution = () -> {
+			try {
+				return tool.optimize(toolContexts.get(profile), image);
+			} catch(final IOException ioe) {
+				throw ImageFileOptimizationException.getInstance(image, ioe);
+			}
+		};
+		return (tool instanceof BinaryTool) ? execution.execute() : measureBinary(tool.getName(), image, execution);
+	}
+	
+	/**
+	 * Runs a tool against an in memory image.
+	 * 
+	 * @param tool The tool to run, it needs the {@link Capability#STDIN} 
+	 *             capability.
+	 * @param image The image to optimize.
+	 * @param profile The profile passed to the tool.
+	 * @return The image written by the tool.
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @see #executeTool(OptimizerTool, File, OptimizationProfile)
+	 */
+	private final byte[] executeTool(final OptimizerTool tool, final byte[] image, final OptimizationProfile profile) throws InterruptedException {
+		final PipeStep execution = input -> {
+			try {
+				return tool.optimize(toolContexts.get(profile), input);
+			} catch(final IOException ioe) {
+				throw new ImageFileOptimizationException(ImageUtils.IN_MEMORY_IMAGE_PATH, ioe);
+			}
+		};
+		return (tool instanceof BinaryTool) ? execution.execute(image) : measurePipe(tool.getName(), image, execution);
+	}
+	
+	/**
+	 * Runs a tool that optimizes the working file. Unless the tool optimizes
+	 * in place, the file it writes replaces the working file when it is 
+	 * smaller.
+	 * 
+	 * @param tool The tool to run.
+	 * @param workingFile The image to optimize.
+	 * @param profile The profile passed to the tool.
+	 * @throws InterruptedException If the optimization was interrupted.
+	 */
+	private final void executeToolInPlace(final OptimizerTool tool, final File workingFile, final OptimizationProfile profile) throws InterruptedException {
+		final File optimizedFile = executeTool(tool, workingFile, profile);
+		if(tool.getCapabilities().contains(Capability.IN_PLACE) || (optimizedFile == null) || optimizedFile.equals(workingFile)) {
+			return;
+		}
+		if(optimizedFile.isFile() && (optimizedFile.length() > 0) && (optimizedFile.length() < workingFile.length())) {
+			try {
+				Files.move(optimizedFile.toPath(), workingFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} catch (final IOException ioe) {
+				throw ImageFileOptimizationException.getInstance(workingFile, "Optimization failed to copy file.", ioe);
+			}
+		} else {
+			optimizedFile.delete();
+		}
+	}
+
+	/**
+	 * Runs passes of the PNG pipeline, by default the AdvPNG, PNGOut, OptiPNG
+	 * and pngquant optimization programs, on the passed in file, in place. 
+	 * Each program only replaces the file when it made it smaller, so the 
+	 * passes stop as soon as one of them does not change the size, since 
+	 * running the same programs on the same file again would not either. The
+	 * programs that the 
+	 * {@link #toolStatistics} show do not save enough on this class of image 
+	 * are skipped.
+	 * 
+	 * @param workingFile The PNG to optimize.
+	 * @param bestSize The size of the smallest image found so far. If the 
+	 *                 file is not smaller than it after the first pass, the
+	 *                 file is given up on. The later passes only take off the
+	 *                 last few bytes. If <code>null</code> the file is never 
+	 *                 given up on.
+	 * @param profile The profile with the pipeline and the passes.
+	 * @return The optimized file or <code>null</code> if it was given up on.
+	 * @throws IOException If there was an issue reading / writing to the file
+	 *                     system
+	 * @throws InterruptedException If the optimization was interrupted.
+	 */
+	final File executePngOptimization(final File workingFile, final AtomicLong bestSize, final OptimizationProfile profile) throws IOException, InterruptedException {
+		return executePngOptimization(workingFile, bestSize, profile, ToolStatistics.classify(workingFile));
+	}
+	
+	/**
+	 * @param workingFile The PNG to optimize.
+	 * @param bestSize The size of the smallest image found so far or 
+	 *                 <code>null</code> if the file is never given up on.
+	 * @param profile The profile with the pipeline and the passes.
+	 * @param imageClass The class of the image from 
+	 *                   {@link ToolStatistics#classify(ImageHeader, long)}, 
+	 *                   when its header was already read.
+	 * @return The optimized file or <code>null</code> if it was given up on.
+	 * @throws IOException If there was an issue reading / writing to the file
+	 *                     system
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @see #executePngOptimization(File, AtomicLong, OptimizationProfile)
+	 */
+	final File executePngOptimization(final File workingFile, final AtomicLong bestSize, final OptimizationProfile profile, final String imageClass) throws IOException, InterruptedException {
+		final String path = workingFile.getCanonicalPath();
+		long size = workingFile.length();
+		for(int pass = 1; pass <= profile.getPngPasses(); pass++) {
+			// FIXME Handle the ImageFileOptimizationException in one of the optimizations so it does not impact the other optimizations.
+			for(final OptimizerTool tool : optimizerTools.get(profile).getPipeline(ImageFormat.PNG)) {
+				executeBinary(tool.getName(), pass, imageClass, workingFile, () -> {
+					executeToolInPlace(tool, workingFile, profile);
+					return workingFile;
+				});
+			}
+			final long optimizedSize = workingFile.length();
+			if((bestSize != null) && (optimizedSize >= bestSize.get())) {
+				logger.debug("Giving up on {}, it is not smaller than the best size of {} bytes.", path, bestSize);
+				return null;
+			}
+			if(optimizedSize == size) {
+				break;
+			}
+			size = optimizedSize;
+		}
+		if(bestSize != null) {
+			bestSize.accumulateAndGet(size, Math::min);
+		}
+		return workingFile;
+	}
+	
+	/**
+	 * Runs 1 of the binaries that optimize an image in place, unless the 
+	 * {@link #toolStatistics} show that it does not save enough on this class
+	 * of image, and records how much it saved and the time its share of the 
+	 * {@link #processNanos process} took.
+	 * 
+	 * @param binaryApplicationName The name of the binary.
+	 * @param pass Which pass over the image it is, starting at 1.
+	 * @param imageClass The class of the image from 
+	 *                   {@link ToolStatistics#classify(File)}.
+	 * @param workingFile The file the binary optimizes.
+	 * @param binary Runs the binary.
+	 * @throws InterruptedException If the optimization was interrupted.
+	 */
+	private final void executeBinary(final String binaryApplicationName, final int pass, final String imageClass, final File workingFile, final BinaryExecution binary) throws InterruptedException {
+		if(!toolStatistics.shouldRun(binaryApplicationName, pass, imageClass)) {
+			logger.debug("Skipping {} on pass {} of {}, it does not save enough on {} images.", binaryApplicationName, Integer.valueOf(pass), workingFile.getPath(), imageClass);
+			return;
+		}
+		final long size = workingFile.length();
+		final long start = System.nanoTime();
+		processNanos.put(workingFile, Long.valueOf(-1));
+		final long nanos;
+		try {
+			binary.execute();
+		} finally {
+			final long measured = processNanos.remove(workingFile).longValue();
+			nanos = (measured < 0) ? (System.nanoTime() - start) : measured;
+		}
+		toolStatistics.record(binaryApplicationName, pass, imageClass, size - workingFile.length(), nanos);
+	}
+	
+	/**
+	 * Runs a binary that works on a file.
+	 */
+	@FunctionalInterface
+	private interface BinaryExecution {
+		/**
+		 * @return The file the binary produced.
+		 * @throws InterruptedException If the optimization was interrupted.
+		 */
+		File execute() throws InterruptedException;
+	}
+	
+	/**
+	 * Runs a binary that reads the image from stdin.
+	 */
+	@FunctionalInterface
+	private interface PipeStep {
+		/**
+		 * @param image The image written to stdin.
+		 * @return The image the binary wrote to stdout.
+		 * @throws InterruptedException If the optimization was interrupted.
+		 */
+		byte[] execute(byte[] image) throws InterruptedException;
+	}
+	
+	/**
+	 * Runs a binary on an image file.
+	 */
+	@FunctionalInterface
+	private interface FileStep {
+		/**
+		 * @param profile The effort level of the binary.
+		 * @param image The image passed to the binary.
+		 * @return The file the binary produced.
+		 * @throws IOException If there was an issue reading / writing to the 
+		 *                     file system
+		 * @throws InterruptedException If the optimization was interrupted.
+		 */
+		File execute(OptimizationProfile profile, File image) throws IOException, InterruptedException;
+	}
+	
+	/**
+	 * Runs a binary that reads the image from stdin, at the effort level of a 
+	 * profile.
+	 */
+	@FunctionalInterface
+	private interface StdinStep {
+		/**
+		 * @param profile The effort level of the binary.
+		 * @param image The image written to stdin.
+		 * @return The image the binary wrote to stdout.
+		 * @throws InterruptedException If the optimization was interrupted.
+		 */
+		byte[] execute(OptimizationProfile profile, byte[] image) throws InterruptedException;
+	}
+	
+	/**
+	 * 1 of the built-in {@link OptimizerTool}s, which runs its binary with the
+	 * <code>execute*</code> methods of the service. Those already record the
+	 * metrics of the binary.
+	 */
+	@Immutable
+	private static final class BinaryTool implements OptimizerTool {
+		
+		private final String name;
+		private final Set<ImageFormat> inputFormats;
+		private final ImageFormat outputFormat;
+		private final Set<Capability> capabilities;
+		private final FileStep fileStep;
+		private final StdinStep stdinStep;
+		
+		/**
+		 * @param name The name of the binary.
+		 * @param inputFormats The formats the binary reads.
+		 * @param outputFormat The format the binary writes or 
+		 *                     <code>null</code> if it is the input format.
+		 * @param capabilities What the binary is able to do.
+		 * @param fileStep Runs the binary on a file.
+		 * @param stdinStep Runs the binary over stdin / stdout or 
+		 *                  <code>null</code> if it is not able to.
+		 */
+		BinaryTool(final String name, final Set<ImageFormat> inputFormats, final ImageFormat outputFormat, final Set<Capability> capabilities, final FileStep fileStep, final StdinStep stdinStep) {
+			this.name = name;
+			this.inputFormats = Collections.unmodifiableSet(inputFormats);
+			this.outputFormat = outputFormat;
+			this.capabilities = Collections.unmodifiableSet(capabilities);
+			this.fileStep = fileStep;
+			this.stdinStep = stdinStep;
 		}
-		if(waitFor(ps) != 0) {
-			handleOptimizationFailure(ps, OPTIPNG_BINARY, workingFile);
+		
+		@Override
+		public String getName() {
+			return name;
+		}
+		
+		@Override
+		public Set<ImageFormat> getInputFormats() {
+			return inputFormats;
+		}
+		
+		@Override
+		public ImageFormat getOutputFormat(final ImageFormat inputFormat) {
+			return (outputFormat == null) ? inputFormat : outputFormat;
+		}
+		
+		@Override
+		public Set<Capability> getCapabilities() {
+			return capabilities;
+		}
+		
+		@Override
+		public File optimize(final ToolContext context, final File image) throws IOException, InterruptedException {
+			return fileStep.execute(context.getProfile(), image);
+		}
+		
+		@Override
+		public byte[] optimize(final ToolContext context, final byte[] image) throws IOException, InterruptedException {
+			if(stdinStep == null) {
+				return OptimizerTool.super.optimize(context, image);
+			}
+			return stdinStep.execute(context.getProfile(), image);
+		}
+		
+		@Override
+		public String toString() {
+			return name;
 		}
-
-		return workingFile;
 	}
-
+	
 	/**
-	 * Executes the binary {@value #JPEGTRAN_BINARY} to optimize the input file.
-	 * 
-	 * @param workingFile The file to optimize
-	 * @param workingFilePath The path to the file to optimize
-	 * @return the optimized file
-	 * @throws InterruptedException If the optimization was interrupted.
-	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
-	 *                                           {@value #JPEGTRAN_BINARY} 
-	 *                                           application does not exist.
+	 * Runs the binaries of the tools the same way as the built-in binaries.
 	 */
-	final File executeJpegtran(final File workingFile, final String workingFilePath) throws InterruptedException, ThirdPartyBinaryNotFoundException {
-
-		final Process ps;
-		try {
-			final ProcessBuilder pb = new ProcessBuilder(jpegtranBinaryPath, "-copy", "none", "-optimize", "-outfile", workingFilePath + ".tmp", workingFilePath);
-			pb.redirectErrorStream(true);
-			ps = pb.start();
-		} catch(final IOException ioe) {
-			throw new ThirdPartyBinaryNotFoundException(JPEGTRAN_BINARY, ioe);
+	@ThreadSafe
+	private final class ServiceToolContext implements ToolContext {
+		
+		private final OptimizationProfile profile;
+		
+		/**
+		 * @param profile The profile the images are optimized with.
+		 */
+		ServiceToolContext(final OptimizationProfile profile) {
+			this.profile = profile;
 		}
-
-		if(waitFor(ps) == 0) {
-			final File tmpFile = new File(workingFilePath + ".tmp");
-			if(tmpFile.length() < workingFile.length()) {
-				return tmpFile;
+		
+		@Override
+		public File getBinaryDirectory() {
+			return binaryDirectory;
+		}
+		
+		@Override
+		public OptimizationProfile getProfile() {
+			return profile;
+		}
+		
+		@Override
+		public int execute(final File image, final File directory, final int[] successExitValues, final String... command) throws InterruptedException {
+			final String binaryApplicationName = new File(command[0]).getName();
+			final ProcessBuilder pb = new ProcessBuilder(command);
+			pb.directory(directory);
+			pb.redirectErrorStream(true);
+			final ProcessRunner.Result result = run(binaryApplicationName, image, pb);
+			
+			final int exitValue = result.getExitValue();
+			for(final int successExitValue : successExitValues) {
+				if(exitValue == successExitValue) {
+					return exitValue;
+				}
 			}
-		} else {
-			handleOptimizationFailure(ps, JPEGTRAN_BINARY, workingFile);
+			handleOptimizationFailure(result, binaryApplicationName, image);
+			return exitValue;
+		}
+		
+		@Override
+		public byte[] executePipe(final byte[] image, final int[] successExitValues, final String... command) throws InterruptedException {
+			return runPipe(new File(command[0]).getName(), image, successExitValues, command);
 		}
-
-		return workingFile;
 	}
-
+	
 	/**
-	 * Executes the binary {@value #JFIFREMOVE_BINARY}" to optimize the input 
-	 * file.
-	 * 
-	 * @param workingFile The file to optimize
-	 * @param workingFilePath The path to the file to optimize
-	 * @return the optimized file
-	 * @throws InterruptedException If the optimization was interrupted.
-	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
-	 *                                           "jfifremove" application does 
-	 *                                           not exist.
+	 * Saves the {@link #toolStatistics}, logging instead of failing if they 
+	 * cannot be saved.
 	 */
-	final File executeJfifremove(final File workingFile, final String workingFilePath) throws InterruptedException, ThirdPartyBinaryNotFoundException {
-
-		final Process ps;
+	private final void saveToolStatistics() {
 		try {
-			//Can't redirect the Error stream because it is already redirecting 
-			//the output.
-			//ps = new ProcessBuilder("bash", "-c", new StringBuilder(jfifremoveBinaryPath).append(" < ").append(escapedWorkingFilePath).append(" > ").append(escapedWorkingFilePath).append(".tmp2").toString()).start();
-			ps = new ProcessBuilder("bash", "-c", new StringBuilder(jfifremoveBinaryPath).append(" < \"").append(workingFilePath).append("\" > \"").append(workingFilePath).append(".tmp2\"").toString()).start();
+			toolStatistics.save();
 		} catch(final IOException ioe) {
-			throw new ThirdPartyBinaryNotFoundException(JFIFREMOVE_BINARY, ioe);
+			logger.warn("Unable to save the tool statistics.", ioe);
 		}
-
-		if(waitFor(ps) != 0) {
-			handleOptimizationFailure(ps, JFIFREMOVE_BINARY, workingFile);
-		}
-
-		return new File(workingFilePath + ".tmp2");
 	}
-
+	
 	/**
-	 * Executes the binary {@value #GIFSICLE_BINARY} to optimize the input file.
+	 * Converts each of the passed in GIFs to a PNG and optimizes the distinct
+	 * PNGs at the same time. All of the GIFs need to be the same image.
 	 * 
-	 * @param workingFile The file to optimize
-	 * @param workingFilePath The path to the file to optimize
-	 * @return the optimized file
+	 * @param basePath The path, without an extension, that the PNGs are 
+	 *                 written next to.
+	 * @param gifSize The size of the optimized GIF, which the PNGs have to 
+	 *                beat.
+	 * @param profile The profile the PNGs are optimized with.
+	 * @param gifs The GIFs to convert. Each needs to be a file.
+	 * @return The smallest optimized PNG or <code>null</code> if none of them 
+	 *         are smaller than the GIF.
+	 * @throws IOException If there was an issue reading / writing to the file
+	 *                     system
 	 * @throws InterruptedException If the optimization was interrupted.
-	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
-	 *                                           {@value #GIFSICLE_BINARY} 
-	 *                                           application does not exist.
+	 * @see #optimizePngCandidates(Executor, List, long, PngCandidateOptimizer)
 	 */
-	final File executeGifsicle(final File workingFile, final String workingFilePath) throws InterruptedException, ThirdPartyBinaryNotFoundException {
-
-		final Process ps;
-		try {
-			final ProcessBuilder pb = new ProcessBuilder(gifsicleBinaryPath, "-O3", workingFilePath, "-o", workingFilePath + ".tmp");
-			pb.redirectErrorStream(true);
-			ps = pb.start();
-		} catch(final IOException ioe) {
-			throw new ThirdPartyBinaryNotFoundException(GIFSICLE_BINARY, ioe);
+	private final File executePngCandidateOptimization(final String basePath, final long gifSize, final OptimizationProfile profile, final ImageContext... gifs) throws IOException, InterruptedException {
+		final List<File> pngs = new ArrayList<>(gifs.length);
+		final List<byte[]> pngData = new ArrayList<>(gifs.length);
+		for(int i = 0; i < gifs.length; i++) {
+			final File png = new File(basePath + ((i == 0) ? "" : "." + i) + '.' + PNG_EXTENSION);
+			pngData.add(convertToPng(gifs[i], png));
+			pngs.add(png);
 		}
-
-		if(waitFor(ps) == 1) {
-			final File tmpFile = new File(workingFilePath + ".tmp");
-			if(tmpFile.exists()) {
-				return tmpFile;
+		final List<File> candidates = removeDuplicateCandidates(pngs, pngData);
+		if(candidates.isEmpty()) {
+			return null;
+		}
+		
+		final long imageId = OptimizationEvents.getCurrentImageId();
+		final StageTrace.Builder stageTrace = STAGE_TRACE.get();
+		return optimizePngCandidates(executorService, candidates, gifSize, (candidate, bestSize) -> {
+			final long previousImageId = OptimizationEvents.setCurrentImageId(imageId);
+			final StageTrace.Builder previousStageTrace = STAGE_TRACE.get();
+			STAGE_TRACE.set(stageTrace);
+			try {
+				return executePngOptimization(candidate, bestSize, profile);
+			} finally {
+				OptimizationEvents.setCurrentImageId(previousImageId);
+				STAGE_TRACE.set(previousStageTrace);
+			}
+		});
+	}
+	
+	/**
+	 * Deletes the PNGs that have the same bytes as an earlier PNG, since 
+	 * optimizing them again would give the same result.
+	 * 
+	 * @param pngs The PNGs converted from the GIFs.
+	 * @param pngData The bytes of each of the <code>pngs</code>, in the same 
+	 *                order.
+	 * @return The PNGs that are left, in the same order.
+	 */
+	static final List<File> removeDuplicateCandidates(final List<File> pngs, final List<byte[]> pngData) {
+		final List<File> candidates = new ArrayList<>(pngs.size());
+		final List<byte[]> candidateData = new ArrayList<>(pngs.size());
+		for(int i = 0; i < pngs.size(); i++) {
+			final byte[] data = pngData.get(i);
+			boolean duplicate = false;
+			for(final byte[] candidate : candidateData) {
+				duplicate |= Arrays.equals(candidate, data);
+			}
+			if(duplicate) {
+				logger.debug("{} is the same PNG as another candidate.", pngs.get(i).getPath());
+				pngs.get(i).delete();
+			} else {
+				candidates.add(pngs.get(i));
+				candidateData.add(data);
 			}
-			handleOptimizationFailure(ps, GIFSICLE_BINARY, workingFile);
-		} else if(ps.exitValue() != 0) {
-			handleOptimizationFailure(ps, GIFSICLE_BINARY, workingFile);
 		}
-
-		return new File(workingFilePath + ".tmp");
+		return candidates;
 	}
-
+	
 	/**
-	 * Executes the binary {@value #CWEBP_BINARY} to convert the input file to 
-	 * a smaller file. The resulting image is only supported by Chrome and Opera
+	 * <p>Optimizes the PNG candidates at the same time, sharing the smallest
+	 * size found so far so that a candidate that falls behind is given up on.
+	 * Keeps the smallest of them and deletes the rest.</p>
+	 * <p>The candidates, other than the first, are queued on the 
+	 * <code>executor</code>, which is the same pool the images are optimized
+	 * on so that no more binaries run than there are threads. The current 
+	 * thread optimizes the first candidate and then each candidate that no 
+	 * thread of the pool has started, so it never waits on a task that is 
+	 * still queued behind it.</p>
 	 * 
-	 * @param workingFile The file to convert
-	 * @param workingFilePath The path to the file to convert
-	 * @return The converted file
+	 * @param executor Where the candidates are queued.
+	 * @param candidates The distinct PNGs.
+	 * @param gifSize The size of the optimized GIF, which the PNGs have to 
+	 *                beat.
+	 * @param optimizer Optimizes 1 candidate.
+	 * @return The smallest optimized PNG or <code>null</code> if none of them 
+	 *         are smaller than the GIF.
 	 * @throws InterruptedException If the optimization was interrupted.
-	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
-	 *                                           {@value #CWEBP_BINARY} 
-	 *                                           application does not exist.
 	 */
-	final File executeCWebp(final File workingFile, final String workingFilePath) throws InterruptedException, ThirdPartyBinaryNotFoundException {
-		final String webpFilePath = FilenameUtils.removeExtension(workingFilePath) + "." + WEBP_EXTENSION;
-
-		final Process ps;
+	static final File optimizePngCandidates(final Executor executor, final List<File> candidates, final long gifSize, final PngCandidateOptimizer optimizer) throws InterruptedException {
+		final AtomicLong bestSize = new AtomicLong(gifSize);
+		final List<FutureTask<File>> tasks = new ArrayList<>(candidates.size() - 1);
+		for(final File candidate : candidates.subList(1, candidates.size())) {
+			final FutureTask<File> task = new FutureTask<>(() -> optimizer.optimize(candidate, bestSize));
+			tasks.add(task);
+			executor.execute(task);
+		}
+		
+		final List<File> optimizedCandidates = new ArrayList<>(candidates.size());
 		try {
-			final ProcessBuilder pb = new ProcessBuilder(cwebpBinaryPath, workingFilePath, "-lossless", "-m", "6", "-o", webpFilePath);
-			pb.redirectErrorStream(true);
-			ps = pb.start();
-		} catch(final IOException ioe) {
-			throw new ThirdPartyBinaryNotFoundException(CWEBP_BINARY, ioe);
+			try {
+				optimizedCandidates.add(optimizer.optimize(candidates.get(0), bestSize));
+			} catch(final IOException | ImageFileOptimizationException e) {
+				logger.debug("Unable to optimize the PNG version of the GIF. Ignoring.", e);
+			}
+			for(final FutureTask<File> task : tasks) {
+				// Does nothing if a thread of the pool already started it.
+				task.run();
+				try {
+					optimizedCandidates.add(task.get());
+				} catch(final ExecutionException ee) {
+					if(ee.getCause() instanceof ThirdPartyBinaryNotFoundException) {
+						throw (ThirdPartyBinaryNotFoundException)ee.getCause();
+					}
+					logger.debug("Unable to optimize the PNG version of the GIF. Ignoring.", ee.getCause());
+				}
+			}
+		} finally {
+			for(final FutureTask<File> task : tasks) {
+				task.cancel(true);
+			}
 		}
-
-		File webpFile = null;
-		if(waitFor(ps) == 0) {
-			webpFile = new File(webpFilePath);
-			if(webpFile.exists()) {
-				return webpFile;
+		
+		File best = null;
+		for(final File candidate : optimizedCandidates) {
+			if((candidate != null) && ((best == null) || (candidate.length() < best.length()))) {
+				best = candidate;
 			}
-			handleOptimizationFailure(ps, CWEBP_BINARY, workingFile);
-		} else {
-			handleOptimizationFailure(ps, CWEBP_BINARY, workingFile);
 		}
-
-		return webpFile;
+		if((best != null) && (best.length() >= gifSize)) {
+			best = null;
+		}
+		for(final File candidate : candidates) {
+			if(!candidate.equals(best)) {
+				candidate.delete();
+			}
+		}
+		return best;
 	}
-
+	
 	/**
-	 * Executes the binary {@value #GIF2WEBP_BINARY} to convert the input file 
-	 * to a smaller file. The resulting image is only supported by Chrome and 
-	 * Opera
+	 * Optimizes 1 of the PNG candidates of a GIF.
+	 */
+	@FunctionalInterface
+	interface PngCandidateOptimizer {
+		/**
+		 * @param candidate The PNG to optimize in place.
+		 * @param bestSize The size of the smallest candidate so far, which 
+		 *                 starts as the size of the GIF. Shared by all of 
+		 *                 the candidates.
+		 * @return The optimized file or <code>null</code> if it was given up 
+		 *         on.
+		 * @throws IOException If there was an issue reading / writing to the
+		 *                     file system
+		 * @throws InterruptedException If the optimization was interrupted.
+		 */
+		File optimize(File candidate, AtomicLong bestSize) throws IOException, InterruptedException;
+	}
+	
+	/**
+	 * Writes the PNG version of the GIF with ImageIO, or with 
+	 * {@link ImageUtils#convertImageNative(File, File)} if ImageIO is not able
+	 * to.
 	 * 
-	 * @param workingFile The file to convert
-	 * @param workingFilePath The path to the file to convert
-	 * @return The converted file
-	 * @throws InterruptedException If the optimization was interrupted.
-	 * @throws ThirdPartyBinaryNotFoundException Thrown if the 
-	 *                                           {@value #GIF2WEBP_BINARY} 
-	 *                                           application does not exist.
+	 * @param gif The GIF to convert.
+	 * @param png Where the PNG is written.
+	 * @return The bytes of the PNG.
+	 * @throws IOException If there was an issue reading / writing to the file
+	 *                     system
+	 * @throws InterruptedException If the conversion was interrupted.
 	 */
-	final File executeGif2Webp(final File workingFile, final String workingFilePath) throws InterruptedException, ThirdPartyBinaryNotFoundException {
-		final String webpFilePath = FilenameUtils.removeExtension(workingFilePath) + "." + WEBP_EXTENSION;
-
-		final Process ps;
-		try {
-			final ProcessBuilder pb = new ProcessBuilder(gif2webpBinaryPath, workingFilePath, "-m", "6", "-o", webpFilePath);
-			pb.redirectErrorStream(true);
-			ps = pb.start();
-		} catch(final IOException ioe) {
-			throw new ThirdPartyBinaryNotFoundException(GIF2WEBP_BINARY, ioe);
+	private final byte[] convertToPng(final ImageContext gif, final File png) throws IOException, InterruptedException {
+		byte[] data = convertToPng(gif);
+		if(data == null) {
+			measureBinary(ImageUtils.CONVERT_BINARY, gif.getFile(), () -> {
+				ImageUtils.convertImageNative(gif.getFile(), png);
+				return png;
+			});
+			data = Files.readAllBytes(png.toPath());
+		} else {
+			Files.write(png.toPath(), data);
 		}
-
-		File webpFile = null;
-		if(waitFor(ps) == 0) {
-			webpFile = new File(webpFilePath);
-			if(webpFile.exists()) {
-				return webpFile;
+		return data;
+	}
+	
+	/**
+	 * Base of the tasks that optimize 1 image file. Records how long the task
+	 * waited for a thread and marks the thread as working on the image, for 
+	 * the {@link OptimizationEvents}, and how long the image took in the 
+	 * {@link #tierMetrics}.
+	 */
+	private abstract class OptimizationTask implements Callable<OptimizationResult<C>> {
+		
+		private final long imageId = OptimizationEvents.nextImageId();
+		private final OptimizationEvent queued;
+		private final StageTrace.Builder stageTrace = StageTrace.isEnabled() ? new StageTrace.Builder() : null;
+		private final File originalFile;
+		private final ImageTier tier;
+		/**
+		 * How hard to try to make the image smaller.
+		 */
+		final OptimizationProfile profile;
+		
+		/**
+		 * @param masterFile The original image.
+		 * @param profile How hard to try to make the image smaller.
+		 * @param tier The tier of the image or <code>null</code> if the task 
+		 *             is not recorded in the {@link #tierMetrics}.
+		 */
+		OptimizationTask(final File masterFile, final OptimizationProfile profile, final ImageTier tier) {
+			queued = OptimizationEvents.queued(imageId, masterFile.getPath());
+			originalFile = masterFile;
+			this.profile = profile;
+			this.tier = tier;
+		}
+		
+		/**
+		 * @see java.util.concurrent.Callable#call()
+		 */
+		@Override
+		public final OptimizationResult<C> call() {
+			queued.commit();
+			final long previousImageId = OptimizationEvents.setCurrentImageId(imageId);
+			final StageTrace.Builder previousStageTrace = STAGE_TRACE.get();
+			STAGE_TRACE.set(stageTrace);
+			final long start = System.nanoTime();
+			final boolean batched = (tier != null) && binaryBatcher.accepts(originalFile);
+			if(batched) {
+				binaryBatcher.imageStarted();
+			}
+			try {
+				final OptimizationResult<C> result = optimize();
+				if((result != null) && (stageTrace != null)) {
+					result.setStageTrace(stageTrace.build());
+				}
+				if(tier != null) {
+					final long originalSize = originalFile.length();
+					tierMetrics.get(tier.getName()).record(System.nanoTime() - start, originalSize, (result == null) ? originalSize : result.getOptimizedFileSize(), false);
+				}
+				return result;
+			} finally {
+				if(batched) {
+					binaryBatcher.imageFinished();
+				}
+				OptimizationEvents.setCurrentImageId(previousImageId);
+				STAGE_TRACE.set(previousStageTrace);
 			}
-			handleOptimizationFailure(ps, GIF2WEBP_BINARY, workingFile);
-		} else {
-			handleOptimizationFailure(ps, GIF2WEBP_BINARY, workingFile);
 		}
-
-		return webpFile;
+		
+		/**
+		 * Optimizes the image.
+		 * 
+		 * @return The result of the optimization or <code>null</code> if the
+		 *         image could not be optimized.
+		 */
+		abstract OptimizationResult<C> optimize();
+		
+		/**
+		 * Copies the original image to the file that is optimized.
+		 * 
+		 * @param masterFile The original image.
+		 * @param workingFile The copy of the image to optimize.
+		 * @throws IOException Thrown if the image cannot be copied.
+		 */
+		final void copyMaster(final File masterFile, final File workingFile) throws IOException {
+			final OptimizationEvent event = OptimizationEvents.copyMaster(masterFile.getPath());
+			final long cpuStart = getCpuTime();
+			final long start = System.nanoTime();
+			FixedFileUtils.copyFile(masterFile, workingFile);
+			traceStage(COPY_STAGE, start, cpuStart, workingFile.length());
+			event.setBytes(0, workingFile.length());
+			event.commit();
+		}
 	}
-
-	private final class ExecutePngOptimization implements Callable<OptimizationResult<C>> {
+	
+	private final class ExecutePngOptimization extends OptimizationTask {
 
 		private final File masterFile;
 		private final File workingFile;
 		//TODO Support type conversions.
 		private final FileTypeConversion conversionType;
+		private final boolean mislabeled;
+		private final String imageClass;
 
 		/**
 		 * @param masterFile The original image.
 		 * @param workingFile The tmp file to optimize.
 		 * @param conversionType If and how to handle converting images from one 
 		 *                       type to another.
+		 * @param mislabeled <code>true</code> if the file extension of the 
+		 *                   original image does not match its content.
+		 * @param profile How hard to try to make the image smaller.
+		 * @param imageClass The class of the original image from 
+		 *                   {@link ToolStatistics#classify(ImageHeader, long)}.
 		 */
-		public ExecutePngOptimization(final File masterFile, final File workingFile, final FileTypeConversion conversionType) {
+		public ExecutePngOptimization(final File masterFile, final File workingFile, final FileTypeConversion conversionType, final boolean mislabeled, final OptimizationProfile profile, final ImageTier tier, final String imageClass) {
+			super(masterFile, profile, tier);
 			this.workingFile = workingFile;
 			this.masterFile = masterFile;
 			this.conversionType = conversionType;
+			this.mislabeled = mislabeled;
+			this.imageClass = imageClass;
 		}
 
 		/**
-		 * @see java.util.concurrent.Callable#call()
+		 * @see OptimizationTask#optimize()
 		 */
 		@Override
-		public OptimizationResult<C> call() {
+		OptimizationResult<C> optimize() {
 
 			File optimizedFile = null;
 			try {
-				FixedFileUtils.copyFile(masterFile, workingFile);
+				copyMaster(masterFile, workingFile);
 
 				optimizedFile = executeOptimization();
 
@@ -930,7 +2822,7 @@ public class ImageOptimizationService<C> implements IImageOptimizationService<C>
 					if(finalFile == null) {
 						return null;
 					}
-					return new OptimizationResult<>(finalFile, finalFile.length(), masterFile, masterFileSize, false, !ImageUtils.visuallyCompare(optimizedFile, masterFile), false);
+					return new OptimizationResult<>(finalFile, finalFile.length(), masterFile, masterFileSize, false, !ImageUtils.visuallyCompare(optimizedFile, masterFile), false, mislabeled);
 				}
 			} catch(final ThirdPartyBinaryNotFoundException tpbnfe) {
 				throw tpbnfe;
@@ -958,43 +2850,46 @@ public class ImageOptimizationService<C> implements IImageOptimizationService<C>
 		 * @throws InterruptedException If the optimization was interrupted.
 		 */
 		public File executeOptimization() throws IOException, InterruptedException {
-			final String path = workingFile.getCanonicalPath();
-			// FIXME Handle the ImageFileOptimizationException in one of the optimizations so it does not impact the other optimizations.
-			return executePngquant(executeOptipng(executePngout(executeAdvpng(executePngquant(executeOptipng(executePngout(executeAdvpng(workingFile, path), path), path), path), path), path), path), path);
+			return executePngOptimization(workingFile, null, profile, imageClass);
 		}
 	}
 
-	private final class ExecuteJpegOptimization implements Callable<OptimizationResult<C>> {
+	private final class ExecuteJpegOptimization extends OptimizationTask {
 
 		private final File masterFile;
 		private final File workingFile;
 		//TODO Support type conversions
 		private final FileTypeConversion conversionType;
+		private final boolean mislabeled;
 
 		/**
 		 * @param masterFile The original image
 		 * @param workingFile The copy of the file to optimize
 		 * @param conversionType If and how to handle converting images from one 
 		 *                       type to another.
+		 * @param mislabeled <code>true</code> if the file extension of the 
+		 *                   original image does not match its content.
+		 * @param profile How hard to try to make the image smaller.
 		 */
-		public ExecuteJpegOptimization(final File masterFile, final File workingFile, final FileTypeConversion conversionType) {
+		public ExecuteJpegOptimization(final File masterFile, final File workingFile, final FileTypeConversion conversionType, final boolean mislabeled, final OptimizationProfile profile, final ImageTier tier) {
+			super(masterFile, profile, tier);
 			this.workingFile = workingFile;
 			this.masterFile = masterFile;
 			this.conversionType = conversionType;
+			this.mislabeled = mislabeled;
 		}
 
 		/**
-		 * @see java.util.concurrent.Callable#call()
+		 * @see OptimizationTask#optimize()
 		 */
 		@Override
-		public OptimizationResult<C> call() {
+		OptimizationResult<C> optimize() {
 
 			File optimizedFile = null;
 			try {
-				FixedFileUtils.copyFile(masterFile, workingFile);
+				copyMaster(masterFile, workingFile);
 
-				optimizedFile = executeJpegtran(workingFile, workingFile.getCanonicalPath());
-				optimizedFile = executeJfifremove(optimizedFile, optimizedFile.getCanonicalPath());
+				optimizedFile = executePipeline(ImageFormat.JPEG, workingFile, profile);
 
 				final long masterFileSize = masterFile.length();
 
@@ -1004,7 +2899,7 @@ public class ImageOptimizationService<C> implements IImageOptimizationService<C>
 						return null;
 					}
 					
-					return new OptimizationResult<>(finalFile, finalFile.length(), masterFile, masterFileSize, false, !ImageUtils.visuallyCompare(finalFile, masterFile), false);
+					return new OptimizationResult<>(finalFile, finalFile.length(), masterFile, masterFileSize, false, !ImageUtils.visuallyCompare(finalFile, masterFile), false, mislabeled);
 				}
 			} catch(final ThirdPartyBinaryNotFoundException tpbnfe) {
 				throw tpbnfe;
@@ -1023,41 +2918,47 @@ public class ImageOptimizationService<C> implements IImageOptimizationService<C>
 		}
 	}
 
-	private final class ExecuteWebpConversion implements Callable<OptimizationResult<C>> {
+	private final class ExecuteWebpConversion extends OptimizationTask {
 
 		private final File masterFile;
 		private final File workingFile;
 		private final boolean isGif;
+		private final boolean mislabeled;
 
 		/**
 		 * @param masterFile The original image
 		 * @param workingFile The copy of the file to optimize
 		 * @param isGif If <code>true</code> then use 
-		 *              {@link ImageOptimizationService#executeGif2Webp(File, String)}
+		 *              {@link ImageOptimizationService#executeGif2Webp(File, String, OptimizationProfile)}
 		 *              to convert the file to WebP. If <code>false</code> then 
 		 *              use
-		 *              {@link ImageOptimizationService#executeCWebp(File, String)}
+		 *              {@link ImageOptimizationService#executeCWebp(File, String, OptimizationProfile)}
 		 *              to convert the image to WebP.
+		 * @param mislabeled <code>true</code> if the file extension of the 
+		 *                   original image does not match its content.
+		 * @param profile How hard to try to make the image smaller.
 		 */
-		public ExecuteWebpConversion(final File masterFile, final File workingFile, final boolean isGif) {
+		public ExecuteWebpConversion(final File masterFile, final File workingFile, final boolean isGif, final boolean mislabeled, final OptimizationProfile profile) {
+			super(masterFile, profile, null);
 			this.workingFile = workingFile;
 			this.masterFile = masterFile;
 			this.isGif = isGif;
+			this.mislabeled = mislabeled;
 		}
 
 		/**
-		 * @see java.util.concurrent.Callable#call()
+		 * @see OptimizationTask#optimize()
 		 */
 		@Override
-		public OptimizationResult<C> call() {
+		OptimizationResult<C> optimize() {
 
 			File optimizedFile = null;
 			try {
-				FixedFileUtils.copyFile(masterFile, workingFile);
+				copyMaster(masterFile, workingFile);
 
 				if(!isGif || !ImageUtils.isAminatedGif(workingFile)) {
 
-					optimizedFile = isGif ? executeGif2Webp(workingFile, workingFile.getCanonicalPath()) : executeCWebp(workingFile, workingFile.getCanonicalPath());
+					optimizedFile = executeTool(optimizerTools.get(profile).getTool(isGif ? GIF2WEBP_BINARY : CWEBP_BINARY), workingFile, profile);
 
 					final long masterFileSize = masterFile.length();
 
@@ -1066,7 +2967,7 @@ public class ImageOptimizationService<C> implements IImageOptimizationService<C>
 						if(finalFile == null) {
 							return null;
 						}
-						return new OptimizationResult<>(finalFile, finalFile.length(), masterFile, masterFileSize, true, false, true);
+						return new OptimizationResult<>(finalFile, finalFile.length(), masterFile, masterFileSize, true, false, true, mislabeled);
 					}
 				}
 			} catch(final ThirdPartyBinaryNotFoundException tpbnfe) {
@@ -1086,11 +2987,12 @@ public class ImageOptimizationService<C> implements IImageOptimizationService<C>
 		}
 	}
 
-	private final class ExecuteGifOptimization implements Callable<OptimizationResult<C>> {
+	private final class ExecuteGifOptimization extends OptimizationTask {
 
 		private final File masterFile;
 		private final File workingFile;
 		private final FileTypeConversion conversionType;
+		private final boolean mislabeled;
 
 		/**
 		 * @param masterFile The original file
@@ -1098,16 +3000,21 @@ public class ImageOptimizationService<C> implements IImageOptimizationService<C>
 		 *                    optimized
 		 * @param conversionType If and how to handle converting images from one 
 		 *                       type to another.
+		 * @param mislabeled <code>true</code> if the file extension of the 
+		 *                   original image does not match its content.
+		 * @param profile How hard to try to make the image smaller.
 		 */
-		public ExecuteGifOptimization(final File masterFile, final File workingFile, final FileTypeConversion conversionType) {
+		public ExecuteGifOptimization(final File masterFile, final File workingFile, final FileTypeConversion conversionType, final boolean mislabeled, final OptimizationProfile profile, final ImageTier tier) {
+			super(masterFile, profile, tier);
 			this.workingFile = workingFile;
 			this.masterFile = masterFile;
 			this.conversionType = conversionType;
+			this.mislabeled = mislabeled;
 		}
 
-		private boolean isFileTypeConversionEnabled(final File optimizedFile) {
-			if(FileTypeConversion.isEnabled(conversionType) && !ImageUtils.isAminatedGif(optimizedFile)) {
-				if((conversionType == FileTypeConversion.IE6SAFE) && !ImageUtils.containsAlphaTransparency(optimizedFile)) {
+		private boolean isFileTypeConversionEnabled(final ImageContext optimizedImage) {
+			if(FileTypeConversion.isEnabled(conversionType) && !optimizedImage.isAnimatedGif()) {
+				if((conversionType == FileTypeConversion.IE6SAFE) && !optimizedImage.containsAlphaTransparency()) {
 					return true;
 				}
 				return (conversionType == FileTypeConversion.ALL);
@@ -1116,78 +3023,42 @@ public class ImageOptimizationService<C> implements IImageOptimizationService<C>
 		}
 
 		/**
-		 * @see java.util.concurrent.Callable#call()
+		 * @see OptimizationTask#optimize()
 		 */
 		@Override
-		public OptimizationResult<C> call() {
+		OptimizationResult<C> optimize() {
 
 			File optimizedFile = null;
+			// The working file is a copy of the master file that gifsicle 
+			// does not change, so they share 1 context.
+			final ImageContext masterImage = new ImageContext(masterFile);
+			ImageContext optimizedImage = null;
 			try {
 				boolean fileTypeChanged = false;
 
-				FixedFileUtils.copyFile(masterFile, workingFile);
+				copyMaster(masterFile, workingFile);
 
-				optimizedFile = executeGifsicle(workingFile, workingFile.getCanonicalPath());
+				optimizedFile = executePipeline(ImageFormat.GIF, workingFile, profile);
+				optimizedImage = new ImageContext(optimizedFile);
 
 				boolean answer;
 				try {
-					answer = isFileTypeConversionEnabled(optimizedFile);
+					answer = isFileTypeConversionEnabled(optimizedImage);
 				} catch(final Exception e) {
 					logger.debug("The image must be corrupted. Ignoring the error.", e);
 					answer = false;
 				}
 
 				if(answer) {
-
-					final File workingFilePng = new File(FilenameUtils.removeExtension(workingFile.getCanonicalPath()) + "." + PNG_EXTENSION);
-					final File workingFilePng2 = new File(FilenameUtils.removeExtension(workingFile.getCanonicalPath()) + ".2" + PNG_EXTENSION);
-
-					File optimizedFilePng = null;
-					try {
-						//First try optimizing the PNG version of the optimized GIF
-						ImageIO.write(ImageIO.read(optimizedFile), PNG_EXTENSION, workingFilePng);
-						optimizedFilePng = new ExecutePngOptimization(workingFilePng, workingFilePng, conversionType).executeOptimization();
-					} catch(final Exception e) {
-						logger.debug("Unable to convert optimized GIF to PNG. Ignoring.", new ImageFileOptimizationException(optimizedFile.getPath(), e));
-						ImageUtils.convertImageNative(optimizedFile, workingFilePng);
-					}
-
-					try {
-						//First try optimizing the PNG version of the optimized GIF
-						ImageIO.write(ImageIO.read(workingFile), PNG_EXTENSION, workingFilePng2);
-						optimizedFilePng = new ExecutePngOptimization(workingFilePng2, workingFilePng2, conversionType).executeOptimization();
-					} catch(final Exception e) {
-						logger.debug("Unable to convert optimized GIF to PNG. Ignoring.", new ImageFileOptimizationException(workingFile.getPath(), e));
-						ImageUtils.convertImageNative(workingFile, workingFilePng2);
-					}
-
-					final File optimizedFilePng2 = new ExecutePngOptimization(workingFilePng2, workingFilePng2, conversionType).executeOptimization();
-
-					if((optimizedFilePng == null)) {
-						workingFilePng.delete();
-						if(!optimizedFilePng2.renameTo(workingFilePng)) {
-							throw ImageFileOptimizationException.getInstance(workingFilePng, (Throwable)null);
-						}
-						optimizedFilePng = workingFilePng;
-					} else if((optimizedFilePng.length() > optimizedFilePng2.length())) {
-						workingFilePng.delete();
-						if(!optimizedFilePng2.renameTo(workingFilePng)) {
-							throw ImageFileOptimizationException.getInstance(workingFilePng, (Throwable)null);
-						}
-						optimizedFilePng = workingFilePng;
-					} else {
-						workingFilePng.delete();
-						if(!optimizedFilePng.renameTo(workingFilePng)) {
-							throw ImageFileOptimizationException.getInstance(workingFilePng, (Throwable)null);
-						}
-						optimizedFilePng = workingFilePng;
-					}
-
-					if(optimizedFilePng.length() < optimizedFile.length()) {
+					// Both the optimized GIF and the original GIF are tried as 
+					// a PNG, the optimizers do not always do best with the 
+					// smaller GIF.
+					final File optimizedFilePng = executePngCandidateOptimization(FilenameUtils.removeExtension(workingFile.getCanonicalPath()), optimizedFile.length(), profile, optimizedImage, masterImage);
+					if(optimizedFilePng != null) {
 						fileTypeChanged = true;
 						optimizedFile = optimizedFilePng;
 					}
-				} 
+				}
 
 				final long masterFileSize = masterFile.length();
 				if(optimizedFile.length() < masterFileSize) {
@@ -1197,7 +3068,7 @@ public class ImageOptimizationService<C> implements IImageOptimizationService<C>
 					}
 					final boolean automatedOptimizationFailed;
 					try {
-						automatedOptimizationFailed = fileTypeChanged ? false : !ImageUtils.visuallyCompare(masterFile, optimizedFile);
+						automatedOptimizationFailed = fileTypeChanged ? false : !ImageUtils.visuallyCompare(masterImage, optimizedImage);
 					} catch(final ImageFileOptimizationException ifoe) {
 						final Throwable cause = ifoe.getCause();
 						if((cause instanceof NullPointerException) && "getImageTypes".equals(cause.getStackTrace()[0].getMethodName())) {
@@ -1207,13 +3078,19 @@ public class ImageOptimizationService<C> implements IImageOptimizationService<C>
 						throw ifoe;
 					}
 
-					return new OptimizationResult<>(finalFile, finalFile.length(), masterFile, masterFileSize, fileTypeChanged, automatedOptimizationFailed, false);
+					return new OptimizationResult<>(finalFile, finalFile.length(), masterFile, masterFileSize, fileTypeChanged, automatedOptimizationFailed, false, mislabeled);
 				}
 			} catch(final ThirdPartyBinaryNotFoundException tpbnfe) {
 				throw tpbnfe;
 			} catch (final Exception e) {
 				logger.warn(GIF_ERROR_MESSAGE, new ImageFileOptimizationException(masterFile.getPath(), e));
 			} finally {
+				recordDecodeCount(GIF_OPERATION, masterImage);
+				recordDecodeCount(GIF_OPERATION, optimizedImage);
+				masterImage.close();
+				if(optimizedImage != null) {
+					optimizedImage.close();
+				}
 				try {
 					FileUtils.forceDelete(workingFile.getParentFile());
 				} catch (final IOException ioe) {
@@ -1233,12 +3110,48 @@ public class ImageOptimizationService<C> implements IImageOptimizationService<C>
 		return finalWorkingDirectoryPath;
 	}
 	
+	/**
+	 * @return How often, how long and how well each binary ran for this 
+	 *         service. The same numbers are published over JMX until 
+	 *         {@link #destroy()} is called.
+	 * @since 1.6.0
+	 */
+	public BinaryMetricsRegistry getBinaryMetrics() {
+		return binaryMetrics;
+	}
+	
+	/**
+	 * @return How many images of each {@link ImageTier} this service 
+	 *         optimized, how long it took and how many bytes it saved. The 
+	 *         same numbers are published over JMX until {@link #destroy()} is
+	 *         called.
+	 * @since 1.6.0
+	 */
+	public BinaryMetricsRegistry getTierMetrics() {
+		return tierMetrics;
+	}
+	
+	/**
+	 * @return How many times this service decoded the images of each 
+	 *         operation. The same numbers are published over JMX until 
+	 *         {@link #destroy()} is called.
+	 * @since 1.6.0
+	 */
+	public DecodeMetricsRegistry getDecodeMetrics() {
+		return decodeMetrics;
+	}
+	
 	/**
 	 * Called when the service is being shutdown, so it shuts down the thread 
 	 * pool.
 	 */
 	public void destroy() {
 		executorService.shutdown();
+		pipeExecutorService.shutdown();
+		saveToolStatistics();
+		binaryMetrics.unregister();
+		tierMetrics.unregister();
+		decodeMetrics.unregister();
 		logger.debug("The executorService is shutdown.");
 	}
 }
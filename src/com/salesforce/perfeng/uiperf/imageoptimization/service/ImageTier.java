@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.service;
+
+import java.util.Locale;
+
+/**
+ * The tiers of image, by their size in bytes and in pixels, see 
+ * {@link ImageTiers}. Each tier can be optimized with less effort than the 
+ * {@link OptimizationProfile} asked for.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public enum ImageTier {
+	/**
+	 * Icons and other small images, where starting the binaries takes longer
+	 * than running them.
+	 */
+	TINY,
+	/**
+	 * Every image that is not {@link #TINY} or {@link #HUGE}.
+	 */
+	NORMAL,
+	/**
+	 * Images so large that the slowest binaries take minutes on them.
+	 */
+	HUGE;
+	
+	/**
+	 * @return The name of the tier in lower case, as used in the system 
+	 *         properties and the metrics.
+	 */
+	public String getName() {
+		return name().toLowerCase(Locale.ENGLISH);
+	}
+}
@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.service;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.apache.http.annotation.Immutable;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageDecoder;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageHeader;
+
+/**
+ * <p>Puts each image in an {@link ImageTier} by its size in bytes and the 
+ * number of pixels in its header, and picks the {@link OptimizationProfile} 
+ * of the tier.</p>
+ * <p>An image is {@link ImageTier#HUGE} when it has at least 
+ * {@link #getHugeMinBytes()} bytes or {@link #getHugeMinPixels()} pixels, 
+ * {@link ImageTier#TINY} when it has at most {@link #getTinyMaxBytes()} bytes
+ * and {@link #getTinyMaxPixels()} pixels and {@link ImageTier#NORMAL} 
+ * otherwise, including when its header cannot be read. A tier can have the 
+ * most effort it gets. The profile asked for is only ever lowered to it, 
+ * never raised, and is used as is for a tier without one.</p>
+ * <p>Lowering the profile is opt in. By default no tier has a most effort, 
+ * see {@link #createInstance()}, and {@link #classify(ImageHeader, long)} 
+ * only goes by the size so that the dimension of each image does not have to
+ * be read.</p>
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@Immutable
+public class ImageTiers {
+
+	/**
+	 * Name of the system property with the most bytes of a tiny image. The 
+	 * default is 2048.
+	 */
+	public static final String TINY_MAX_BYTES_PROPERTY = "imageoptimization.tier.tinyMaxBytes";
+	/**
+	 * Name of the system property with the most pixels of a tiny image. The 
+	 * default is 4096, a 64x64 image.
+	 */
+	public static final String TINY_MAX_PIXELS_PROPERTY = "imageoptimization.tier.tinyMaxPixels";
+	/**
+	 * Name of the system property with the fewest bytes of a huge image. The 
+	 * default is 1MB.
+	 */
+	public static final String HUGE_MIN_BYTES_PROPERTY = "imageoptimization.tier.hugeMinBytes";
+	/**
+	 * Name of the system property with the fewest pixels of a huge image. The
+	 * default is 4194304, a 2048x2048 image.
+	 */
+	public static final String HUGE_MIN_PIXELS_PROPERTY = "imageoptimization.tier.hugeMinPixels";
+	/**
+	 * Name of the system property that turns on the default most effort of 
+	 * each tier: {@link OptimizationProfile#FAST} for a tiny image, 
+	 * {@link OptimizationProfile#BALANCED} for a huge image and 
+	 * {@link OptimizationProfile#MAXIMUM} for the rest. The default is 
+	 * <code>false</code>.
+	 */
+	public static final String ENABLED_PROPERTY = "imageoptimization.tier.enabled";
+	/**
+	 * Prefix of the system properties with the most effort of each tier, 
+	 * followed by the name of the tier and <code>.profile</code>, for example
+	 * <code>-Dimageoptimization.tier.tiny.profile=balanced</code>.
+	 */
+	public static final String PROFILE_PROPERTY_PREFIX = "imageoptimization.tier.";
+	
+	private final long tinyMaxBytes;
+	private final long tinyMaxPixels;
+	private final long hugeMinBytes;
+	private final long hugeMinPixels;
+	private final Map<ImageTier, OptimizationProfile> profiles;
+	
+	/**
+	 * @param tinyMaxBytes The most bytes of a tiny image.
+	 * @param tinyMaxPixels The most pixels of a tiny image.
+	 * @param hugeMinBytes The fewest bytes of a huge image.
+	 * @param hugeMinPixels The fewest pixels of a huge image.
+	 * @param profiles The most effort of each tier. A tier that is not in the
+	 *                 {@link Map} gets the profile asked for.
+	 */
+	public ImageTiers(final long tinyMaxBytes, final long tinyMaxPixels, final long hugeMinBytes, final long hugeMinPixels, final Map<ImageTier, OptimizationProfile> profiles) {
+		if((tinyMaxBytes >= hugeMinBytes) || (tinyMaxPixels >= hugeMinPixels)) {
+			throw new IllegalArgumentException("A tiny image has to be smaller than a huge image.");
+		}
+		this.tinyMaxBytes = tinyMaxBytes;
+		this.tinyMaxPixels = tinyMaxPixels;
+		this.hugeMinBytes = hugeMinBytes;
+		this.hugeMinPixels = hugeMinPixels;
+		final Map<ImageTier, OptimizationProfile> map = new EnumMap<>(ImageTier.class);
+		map.putAll(profiles);
+		this.profiles = Collections.unmodifiableMap(map);
+	}
+	
+	/**
+	 * Unless {@value #ENABLED_PROPERTY} is <code>true</code> or a 
+	 * {@value #PROFILE_PROPERTY_PREFIX}&lt;tier&gt;.profile system property is
+	 * set, the images are still put in tiers but always get the profile asked
+	 * for.
+	 * 
+	 * @return The tiers configured by the {@value #TINY_MAX_BYTES_PROPERTY}, 
+	 *         {@value #TINY_MAX_PIXELS_PROPERTY}, 
+	 *         {@value #HUGE_MIN_BYTES_PROPERTY}, 
+	 *         {@value #HUGE_MIN_PIXELS_PROPERTY}, {@value #ENABLED_PROPERTY} 
+	 *         and {@value #PROFILE_PROPERTY_PREFIX}&lt;tier&gt;.profile system
+	 *         properties.
+	 */
+	public static ImageTiers createInstance() {
+		final Map<ImageTier, OptimizationProfile> profiles = new EnumMap<>(ImageTier.class);
+		if(Boolean.getBoolean(ENABLED_PROPERTY)) {
+			profiles.put(ImageTier.TINY, OptimizationProfile.FAST);
+			profiles.put(ImageTier.NORMAL, OptimizationProfile.MAXIMUM);
+			profiles.put(ImageTier.HUGE, OptimizationProfile.BALANCED);
+		}
+		for(final ImageTier tier : ImageTier.values()) {
+			final String profile = System.getProperty(PROFILE_PROPERTY_PREFIX + tier.getName() + ".profile");
+			if(profile != null) {
+				profiles.put(tier, OptimizationProfile.fromName(profile));
+			}
+		}
+		return new ImageTiers(Long.getLong(TINY_MAX_BYTES_PROPERTY, 2048).longValue(), Long.getLong(TINY_MAX_PIXELS_PROPERTY, 64 * 64).longValue(),
+				Long.getLong(HUGE_MIN_BYTES_PROPERTY, 1024 * 1024).longValue(), Long.getLong(HUGE_MIN_PIXELS_PROPERTY, 2048 * 2048).longValue(), profiles);
+	}
+	
+	/**
+	 * @param image The image, the pixels are read from its header.
+	 * @return The tier of the image.
+	 */
+	public ImageTier classify(final File image) {
+		return classify(image.length(), ImageDecoder.getDimension(image));
+	}
+	
+	/**
+	 * When no tier has a most effort the tier cannot change the profile, so 
+	 * the dimension is not read from the image and the tier, which is then 
+	 * only used by the metrics, goes by the size alone.
+	 * 
+	 * @param header The header of the image.
+	 * @param bytes The size of the image.
+	 * @return The tier of the image.
+	 */
+	public ImageTier classify(final ImageHeader header, final long bytes) {
+		if(profiles.isEmpty()) {
+			if(bytes >= hugeMinBytes) {
+				return ImageTier.HUGE;
+			}
+			return (bytes <= tinyMaxBytes) ? ImageTier.TINY : ImageTier.NORMAL;
+		}
+		return classify(bytes, header.getDimension());
+	}
+	
+	/**
+	 * @param bytes The size of the image.
+	 * @param dimension The width and height of the image or <code>null</code>
+	 *                  if the header could not be read, in which case the 
+	 *                  image is only huge by its size and never tiny.
+	 * @return The tier of the image.
+	 */
+	public ImageTier classify(final long bytes, final Dimension dimension) {
+		if(dimension == null) {
+			return (bytes >= hugeMinBytes) ? ImageTier.HUGE : ImageTier.NORMAL;
+		}
+		final long pixels = (long)dimension.width * dimension.height;
+		if((bytes >= hugeMinBytes) || (pixels >= hugeMinPixels)) {
+			return ImageTier.HUGE;
+		}
+		if((bytes <= tinyMaxBytes) && (pixels <= tinyMaxPixels)) {
+			return ImageTier.TINY;
+		}
+		return ImageTier.NORMAL;
+	}
+	
+	/**
+	 * @param tier The tier of the image.
+	 * @param requested The profile asked for.
+	 * @return The profile with the least effort of the one asked for and the 
+	 *         one of the tier.
+	 */
+	public OptimizationProfile getProfile(final ImageTier tier, final OptimizationProfile requested) {
+		final OptimizationProfile profile = profiles.get(tier);
+		return ((profile != null) && (profile.compareTo(requested) < 0)) ? profile : requested;
+	}
+	
+	/**
+	 * @return The most bytes of a tiny image.
+	 */
+	public long getTinyMaxBytes() {
+		return tinyMaxBytes;
+	}
+	
+	/**
+	 * @return The most pixels of a tiny image.
+	 */
+	public long getTinyMaxPixels() {
+		return tinyMaxPixels;
+	}
+	
+	/**
+	 * @return The fewest bytes of a huge image.
+	 */
+	public long getHugeMinBytes() {
+		return hugeMinBytes;
+	}
+	
+	/**
+	 * @return The fewest pixels of a huge image.
+	 */
+	public long getHugeMinPixels() {
+		return hugeMinPixels;
+	}
+}
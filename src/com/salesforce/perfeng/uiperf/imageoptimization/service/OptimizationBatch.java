@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.service;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.dto.OptimizationResult;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFileOptimizationException;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageHeader;
+
+/**
+ * A group of images that are optimized together. Unlike 
+ * {@link IImageOptimizationService#optimizeAllImages(IImageOptimizationService.FileTypeConversion, boolean, java.util.Collection)}
+ * the images do not need to be known up front; each image starts being 
+ * optimized as soon as it is {@link #submit(File) submitted}, which lets the
+ * caller optimize images while it is still looking for more of them.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ * @param <C> Contains the changeList information.
+ * @see IImageOptimizationService#newOptimizationBatch(IImageOptimizationService.FileTypeConversion, boolean)
+ */
+public interface OptimizationBatch<C> {
+
+	/**
+	 * Starts optimizing the passed in image. The image is handled based on its
+	 * content, not its file extension. Can be called from multiple threads at
+	 * the same time.
+	 * 
+	 * @param file The image to optimize.
+	 * @throws ImageFileOptimizationException Thrown if the image cannot be 
+	 *                                        submitted.
+	 * @throws IllegalStateException Thrown if {@link #awaitResults()} was 
+	 *                               already called.
+	 */
+	public void submit(final File file) throws ImageFileOptimizationException;
+	
+	/**
+	 * Starts optimizing the passed in image whose header was already read, 
+	 * for example by the 
+	 * {@link com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFileScanner},
+	 * so the image is not opened again to look at it. Ignores the header by 
+	 * default.
+	 * 
+	 * @param file The image to optimize.
+	 * @param header The header of the image or <code>null</code> if it has 
+	 *               not been read.
+	 * @throws ImageFileOptimizationException Thrown if the image cannot be 
+	 *                                        submitted.
+	 * @throws IllegalStateException Thrown if {@link #awaitResults()} was 
+	 *                               already called.
+	 */
+	public default void submit(final File file, final ImageHeader header) throws ImageFileOptimizationException {
+		submit(file);
+	}
+	
+	/**
+	 * Passes the images that are already optimized to the consumer without 
+	 * waiting for the others, so that the caller can write out the results 
+	 * while it is still submitting images instead of holding on to all of 
+	 * them until {@link #awaitResults(Consumer)}. Images can still be 
+	 * submitted after this is called, and the images passed on here are not 
+	 * passed on again by {@link #awaitResults(Consumer)}. Does nothing by 
+	 * default.
+	 * 
+	 * @param consumer Called, on the calling thread, with each image that was
+	 *                 optimized to a smaller size.
+	 * @throws ImageFileOptimizationException Thrown if there is a problem 
+	 *                                        optimizing an image.
+	 * @throws IllegalStateException Thrown if {@link #awaitResults()} was 
+	 *                               already called.
+	 */
+	public default void pollResults(final Consumer<? super OptimizationResult<C>> consumer) throws ImageFileOptimizationException {
+		// Nothing is done before awaitResults is called.
+	}
+	
+	/**
+	 * Waits for all of the submitted images to be optimized. No more images 
+	 * can be submitted after this is called.
+	 * 
+	 * @return The results from the optimization. All items in the {@link List}
+	 *         are considered optimized, not <code>null</code>, and will exclude
+	 *         images that could not be optimized to a smaller size.
+	 * @throws ImageFileOptimizationException Thrown if there is a problem 
+	 *                                        optimizing an image.
+	 * @throws TimeoutException Happens if an image took to long to optimize.
+	 */
+	public List<OptimizationResult<C>> awaitResults() throws ImageFileOptimizationException, TimeoutException;
+	
+	/**
+	 * Waits for all of the submitted images to be optimized, passing each 
+	 * result to the consumer as soon as it is done instead of collecting them.
+	 * The batch does not hold on to the results, so the memory used does not 
+	 * grow with the size of the batch. No more images can be submitted after 
+	 * this is called.
+	 * 
+	 * @param consumer Called, on the calling thread, with each image that was
+	 *                 optimized to a smaller size.
+	 * @throws ImageFileOptimizationException Thrown if there is a problem 
+	 *                                        optimizing an image.
+	 * @throws TimeoutException Happens if an image took to long to optimize.
+	 */
+	public default void awaitResults(final Consumer<? super OptimizationResult<C>> consumer) throws ImageFileOptimizationException, TimeoutException {
+		awaitResults().forEach(consumer);
+	}
+	
+	/**
+	 * @return The submitted files that were skipped, without starting any of 
+	 *         the binary applications, because their content is not one of the
+	 *         image formats that can be optimized.
+	 */
+	public List<File> getSkippedFiles();
+	
+	/**
+	 * @return The number of images that were cancelled because the batch timed
+	 *         out waiting for them.
+	 */
+	public default int getTimedOutCount() {
+		return 0;
+	}
+}
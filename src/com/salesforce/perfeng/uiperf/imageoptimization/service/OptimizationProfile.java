@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.service;
+
+import static com.salesforce.perfeng.uiperf.imageoptimization.service.ImageOptimizationService.ADVPNG_BINARY;
+import static com.salesforce.perfeng.uiperf.imageoptimization.service.ImageOptimizationService.GIFSICLE_BINARY;
+import static com.salesforce.perfeng.uiperf.imageoptimization.service.ImageOptimizationService.JFIFREMOVE_BINARY;
+import static com.salesforce.perfeng.uiperf.imageoptimization.service.ImageOptimizationService.JPEGTRAN_BINARY;
+import static com.salesforce.perfeng.uiperf.imageoptimization.service.ImageOptimizationService.OPTIPNG_BINARY;
+import static com.salesforce.perfeng.uiperf.imageoptimization.service.ImageOptimizationService.PNGOUT_BINARY;
+import static com.salesforce.perfeng.uiperf.imageoptimization.service.ImageOptimizationService.PNGQUANT_BINARY;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.tool.OptimizerTools;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFormat;
+
+/**
+ * <p>How hard the service tries to make an image smaller, chosen for each call
+ * to {@link IImageOptimizationService#optimizeAllImages(OptimizationProfile, IImageOptimizationService.FileTypeConversion, boolean, java.util.Collection)}.
+ * A profile picks both the tools run on each format and the effort level of 
+ * the binaries.</p>
+ * <p>The pipeline of a profile can be changed with the system property 
+ * {@value OptimizerTools#PIPELINE_PROPERTY_PREFIX}&lt;profile&gt;.&lt;format&gt;,
+ * for example <code>-Dimageoptimization.pipeline.fast.png=optipng</code>. 
+ * {@link #MAXIMUM} uses {@value OptimizerTools#PIPELINE_PROPERTY_PREFIX}&lt;format&gt;.</p>
+ * <p>The profiles are declared from the least to the most effort.</p>
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public enum OptimizationProfile {
+	
+	/**
+	 * 1 pass of OptiPNG at <code>-o1</code>, jpegtran only, 
+	 * <code>gifsicle -O1</code> and the fastest WebP method. Meant for checks
+	 * that need the images optimized in seconds.
+	 */
+	FAST(1, "-1", new String[] {"-o1"}, "-O1", "0",
+			Arrays.asList(OPTIPNG_BINARY),
+			Arrays.asList(JPEGTRAN_BINARY)),
+	/**
+	 * 1 pass of AdvPNG at <code>-z -2</code>, OptiPNG at <code>-o2</code> and
+	 * pngquant, both JPEG tools, <code>gifsicle -O2</code> and WebP method 4.
+	 * Skips PNGOut, which is the slowest of the binaries.
+	 */
+	BALANCED(1, "-2", new String[] {"-o2"}, "-O2", "4",
+			Arrays.asList(ADVPNG_BINARY, OPTIPNG_BINARY, PNGQUANT_BINARY),
+			Arrays.asList(JPEGTRAN_BINARY, JFIFREMOVE_BINARY)),
+	/**
+	 * Up to 2 passes of all of the binaries at their highest effort, for 
+	 * example the 96 trials of OptiPNG. This is the default.
+	 */
+	MAXIMUM(2, "-4", new String[] {"-zc9", "-zm8-9", "-zs0-3", "-f0-5"}, "-O3", "6",
+			Arrays.asList(ADVPNG_BINARY, PNGOUT_BINARY, OPTIPNG_BINARY, PNGQUANT_BINARY),
+			Arrays.asList(JPEGTRAN_BINARY, JFIFREMOVE_BINARY));
+	
+	private final int pngPasses;
+	private final String advpngLevel;
+	private final String[] optipngArguments;
+	private final String gifsicleLevel;
+	private final String webpMethod;
+	private final Map<ImageFormat, List<String>> defaultPipelines = new EnumMap<>(ImageFormat.class);
+	
+	/**
+	 * @param pngPasses The most passes of the PNG pipeline.
+	 * @param advpngLevel The compression level passed to AdvPNG.
+	 * @param optipngArguments The arguments that set the trials of OptiPNG.
+	 * @param gifsicleLevel The optimization level passed to gifsicle.
+	 * @param webpMethod The compression method passed to cwebp and gif2webp.
+	 * @param pngPipeline The names of the tools run on a PNG.
+	 * @param jpegPipeline The names of the tools run on a JPEG.
+	 */
+	private OptimizationProfile(final int pngPasses, final String advpngLevel, final String[] optipngArguments, final String gifsicleLevel, final String webpMethod, final List<String> pngPipeline, final List<String> jpegPipeline) {
+		this.pngPasses = pngPasses;
+		this.advpngLevel = advpngLevel;
+		this.optipngArguments = optipngArguments;
+		this.gifsicleLevel = gifsicleLevel;
+		this.webpMethod = webpMethod;
+		defaultPipelines.put(ImageFormat.PNG, Collections.unmodifiableList(pngPipeline));
+		defaultPipelines.put(ImageFormat.JPEG, Collections.unmodifiableList(jpegPipeline));
+		defaultPipelines.put(ImageFormat.GIF, Collections.singletonList(GIFSICLE_BINARY));
+	}
+	
+	/**
+	 * @return The most passes of the PNG pipeline that are run on an image. 
+	 *         The passes stop early once a pass does not make the image 
+	 *         smaller.
+	 */
+	public int getPngPasses() {
+		return pngPasses;
+	}
+	
+	/**
+	 * @return The names of the tools run on each format, unless changed with
+	 *         the system property of the {@link #getPipelinePropertyPrefix() 
+	 *         prefix}.
+	 */
+	public Map<ImageFormat, List<String>> getDefaultPipelines() {
+		return Collections.unmodifiableMap(defaultPipelines);
+	}
+	
+	/**
+	 * @return The prefix of the system properties with the pipeline of each
+	 *         format.
+	 */
+	public String getPipelinePropertyPrefix() {
+		if(this == MAXIMUM) {
+			return OptimizerTools.PIPELINE_PROPERTY_PREFIX;
+		}
+		return OptimizerTools.PIPELINE_PROPERTY_PREFIX + name().toLowerCase(Locale.ENGLISH) + '.';
+	}
+	
+	/**
+	 * @return The compression level argument of AdvPNG, for example 
+	 *         <code>-4</code>.
+	 */
+	String getAdvpngLevel() {
+		return advpngLevel;
+	}
+	
+	/**
+	 * @return The arguments of OptiPNG that set which trials it runs.
+	 */
+	String[] getOptipngArguments() {
+		return optipngArguments.clone();
+	}
+	
+	/**
+	 * @return The optimization level argument of gifsicle, for example 
+	 *         <code>-O3</code>.
+	 */
+	String getGifsicleLevel() {
+		return gifsicleLevel;
+	}
+	
+	/**
+	 * @return The value of the <code>-m</code> argument of cwebp and 
+	 *         gif2webp, from 0 (fastest) to 6 (smallest).
+	 */
+	String getWebpMethod() {
+		return webpMethod;
+	}
+	
+	/**
+	 * @param name The name of the profile, in any case.
+	 * @return The profile with the name.
+	 * @throws IllegalArgumentException Thrown if there is no profile with the
+	 *                                  name.
+	 */
+	public static OptimizationProfile fromName(final String name) {
+		return valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+	}
+}
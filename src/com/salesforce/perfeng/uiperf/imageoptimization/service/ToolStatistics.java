@@ -0,0 +1,323 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.http.annotation.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageHeader;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.UserFiles;
+
+/**
+ * <p>Keeps track of how many bytes each optimization binary saves, and how 
+ * long it takes, for each class of image. Once a binary has been run enough 
+ * times on a class of image, it is skipped for that class when it saves less 
+ * than {@link #getMinBytesPerSecond()} bytes per second it runs. For example
+ * pngout and advpng rarely save anything on small palette PNGs once optipng 
+ * has run.</p>
+ * <p>A binary that is skipped can still be run {@link #getExplorePercent()} 
+ * percent of the time, so its statistics stay up to date if the images 
+ * change. Old runs count less and less: the numbers are halved every 
+ * {@value #MAX_RUNS} runs.</p>
+ * <p>Skipping is off unless {@value #ENABLED_PROPERTY} is <code>true</code>.
+ * Once it is on, which binaries run depends on the statistics saved by the 
+ * earlier runs on the machine, and on chance while exploring, so the same 
+ * image is not always optimized the same way.</p>
+ * <p>The time is the elapsed time of the binary. The binaries are single 
+ * threaded, so it is close to the CPU time they use.</p>
+ * <p>The statistics are saved to a file so they carry over to the next 
+ * run. A file that another user could have written is not loaded.</p>
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@ThreadSafe
+public class ToolStatistics {
+
+	private final static Logger logger = LoggerFactory.getLogger(ToolStatistics.class);
+	
+	/**
+	 * Name of the system property used to set the file the statistics are 
+	 * saved to. The default is {@link #getDefaultFile()}.
+	 */
+	public static final String FILE_PROPERTY = "imageoptimization.toolStatistics";
+	/**
+	 * Name of the system property that turns on skipping the binaries that do
+	 * not save enough. The default is <code>false</code>, every binary is 
+	 * always run and nothing is saved.
+	 */
+	public static final String ENABLED_PROPERTY = "imageoptimization.toolStatistics.enabled";
+	/**
+	 * Name of the system property used to set {@link #getExplorePercent()}. 
+	 * The default is 10. 0 means a binary that does not save enough is always
+	 * skipped, and its statistics are never brought up to date.
+	 */
+	public static final String EXPLORE_PERCENT_PROPERTY = "imageoptimization.explorePercent";
+	/**
+	 * Name of the system property used to set {@link #getMinBytesPerSecond()}.
+	 * The default is 100.
+	 */
+	public static final String MIN_BYTES_PER_SECOND_PROPERTY = "imageoptimization.minBytesPerSecond";
+	/**
+	 * The number of times a binary has to run on a class of image before it 
+	 * can be skipped for that class.
+	 */
+	static final int MIN_RUNS = 20;
+	/**
+	 * Once a binary runs this many times on a class of image its numbers are 
+	 * halved.
+	 */
+	static final int MAX_RUNS = 1000;
+	
+	private static final String[] PNG_COLOR_TYPES = {"GRAY", null, "RGB", "PALETTE", "GRAY_ALPHA", null, "RGBA"};
+	private static final String[] SIZE_BUCKETS = {"4K", "16K", "64K", "256K", "1M"};
+	
+	private final Map<String, Statistic> statistics = new ConcurrentHashMap<>();
+	private final File file;
+	private final int explorePercent;
+	private final long minBytesPerSecond;
+	
+	/**
+	 * Loads the statistics saved in the passed in file, if it exists.
+	 * 
+	 * @param file The file the statistics are saved to. If <code>null</code>
+	 *             the statistics are not saved.
+	 * @param explorePercent How often, in percent, a binary runs even though
+	 *                       it is not expected to save enough.
+	 * @param minBytesPerSecond The fewest bytes a binary needs to save per 
+	 *                          second it runs to not be skipped.
+	 */
+	public ToolStatistics(final File file, final int explorePercent, final long minBytesPerSecond) {
+		if((explorePercent < 0) || (explorePercent > 100)) {
+			throw new IllegalArgumentException("The explore percent needs to be between 0 and 100.");
+		}
+		this.file = file;
+		this.explorePercent = explorePercent;
+		this.minBytesPerSecond = minBytesPerSecond;
+		if((file != null) && file.isFile()) {
+			try {
+				UserFiles.checkPrivate(file);
+				load();
+			} catch(final IOException | RuntimeException e) {
+				logger.warn("Unable to read the tool statistics from " + file.getPath() + ". Starting over.", e);
+				statistics.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Unless {@value #ENABLED_PROPERTY} is <code>true</code>, the statistics 
+	 * never skip a binary and are not saved.
+	 * 
+	 * @return The statistics configured by the {@value #ENABLED_PROPERTY}, 
+	 *         {@value #FILE_PROPERTY}, {@value #EXPLORE_PERCENT_PROPERTY} and 
+	 *         {@value #MIN_BYTES_PER_SECOND_PROPERTY} system properties.
+	 */
+	public static ToolStatistics createInstance() {
+		final long minBytesPerSecond = Long.getLong(MIN_BYTES_PER_SECOND_PROPERTY, 100).longValue();
+		if(!Boolean.getBoolean(ENABLED_PROPERTY)) {
+			return new ToolStatistics(null, 100, minBytesPerSecond);
+		}
+		final String path = System.getProperty(FILE_PROPERTY);
+		return new ToolStatistics((path == null) ? getDefaultFile() : new File(path), Integer.getInteger(EXPLORE_PERCENT_PROPERTY, 10).intValue(), minBytesPerSecond);
+	}
+	
+	/**
+	 * @return The default location of the statistics for the current user, 
+	 *         in {@link UserFiles#getDirectory()}.
+	 */
+	public static File getDefaultFile() {
+		return new File(UserFiles.getDirectory(), "statistics");
+	}
+	
+	/**
+	 * Works out the class of a PNG from its header and its size: its color 
+	 * type, its bit depth and which of the size buckets it is in.
+	 * 
+	 * @param png The image.
+	 * @return The class of the image, for example 
+	 *         <code>PNG.PALETTE.8.4K</code>, or <code>PNG</code> if the 
+	 *         header cannot be read.
+	 */
+	public static String classify(final File png) {
+		try {
+			return classify(ImageHeader.read(png), png.length());
+		} catch(final IOException ioe) {
+			logger.debug("Unable to read the PNG header of " + png.getPath() + '.', ioe);
+			return "PNG";
+		}
+	}
+	
+	/**
+	 * @param header The header of the image, already read when it was found.
+	 * @param size The size of the image.
+	 * @return The class of the image, for example 
+	 *         <code>PNG.PALETTE.8.4K</code>, or <code>PNG</code> if it is not
+	 *         a PNG.
+	 * @see #classify(File)
+	 */
+	public static String classify(final ImageHeader header, final long size) {
+		final int colorType = header.getPngColorType();
+		if(colorType < 0) {
+			return "PNG";
+		}
+		final String colorTypeName = (colorType < PNG_COLOR_TYPES.length) ? PNG_COLOR_TYPES[colorType] : null;
+		return "PNG." + ((colorTypeName == null) ? Integer.toString(colorType) : colorTypeName) + '.' + header.getPngBitDepth() + '.' + getSizeBucket(size);
+	}
+	
+	private static String getSizeBucket(final long size) {
+		for(int i = 0; i < SIZE_BUCKETS.length; i++) {
+			if(size < (4096L << (2 * i))) {
+				return SIZE_BUCKETS[i];
+			}
+		}
+		return "LARGE";
+	}
+	
+	/**
+	 * @param tool The name of the binary.
+	 * @param pass Which pass over the image it is, starting at 1. A binary 
+	 *             saves a lot less on the second pass.
+	 * @param imageClass The class of the image from 
+	 *                   {@link #classify(File)}.
+	 * @return <code>true</code> if the binary should be run.
+	 */
+	public boolean shouldRun(final String tool, final int pass, final String imageClass) {
+		final Statistic statistic = statistics.get(getKey(tool, pass, imageClass));
+		if((statistic == null) || statistic.isExpectedGainAtLeast(minBytesPerSecond)) {
+			return true;
+		}
+		return ThreadLocalRandom.current().nextInt(100) < explorePercent;
+	}
+	
+	/**
+	 * Records 1 run of a binary.
+	 * 
+	 * @param tool The name of the binary.
+	 * @param pass Which pass over the image it is, starting at 1.
+	 * @param imageClass The class of the image from 
+	 *                   {@link #classify(File)}.
+	 * @param bytesSaved The number of bytes the binary took off the image.
+	 * @param nanos How long the binary ran for.
+	 */
+	public void record(final String tool, final int pass, final String imageClass, final long bytesSaved, final long nanos) {
+		statistics.computeIfAbsent(getKey(tool, pass, imageClass), key -> new Statistic()).add(1, Math.max(bytesSaved, 0), nanos);
+	}
+	
+	/**
+	 * Saves the statistics to the file passed to the constructor. The file is
+	 * replaced in 1 step so a concurrent reader never sees half of it. Its 
+	 * directory is created, only for the current user, if it does not exist.
+	 * 
+	 * @throws IOException Thrown if the file cannot be written.
+	 */
+	public void save() throws IOException {
+		if(file == null) {
+			return;
+		}
+		final Properties properties = new Properties();
+		for(final Map.Entry<String, Statistic> entry : statistics.entrySet()) {
+			properties.setProperty(entry.getKey(), entry.getValue().toString());
+		}
+		final File directory = file.getAbsoluteFile().getParentFile();
+		if(!directory.isDirectory()) {
+			UserFiles.createDirectory(directory);
+		}
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		properties.store(os, "Bytes saved and time taken by each image optimization binary: runs,bytesSaved,nanos");
+		UserFiles.write(file, os.toByteArray());
+	}
+	
+	private void load() throws IOException {
+		final Properties properties = new Properties();
+		try(final InputStream is = Files.newInputStream(file.toPath())) {
+			properties.load(is);
+		}
+		for(final String key : properties.stringPropertyNames()) {
+			final String[] values = properties.getProperty(key).split(",");
+			statistics.computeIfAbsent(key, k -> new Statistic()).add(Long.parseLong(values[0]), Long.parseLong(values[1]), Long.parseLong(values[2]));
+		}
+	}
+	
+	/**
+	 * @return How often, in percent, a binary runs even though it is not 
+	 *         expected to save enough.
+	 */
+	public int getExplorePercent() {
+		return explorePercent;
+	}
+	
+	/**
+	 * @return The fewest bytes a binary needs to save per second it runs to 
+	 *         not be skipped.
+	 */
+	public long getMinBytesPerSecond() {
+		return minBytesPerSecond;
+	}
+	
+	private static String getKey(final String tool, final int pass, final String imageClass) {
+		return imageClass + '.' + tool + '.' + pass;
+	}
+	
+	private static final class Statistic {
+		private long runs;
+		private long bytesSaved;
+		private long nanos;
+		
+		synchronized void add(final long addedRuns, final long addedBytesSaved, final long addedNanos) {
+			runs += addedRuns;
+			bytesSaved += addedBytesSaved;
+			nanos += addedNanos;
+			if(runs > MAX_RUNS) {
+				runs /= 2;
+				bytesSaved /= 2;
+				nanos /= 2;
+			}
+		}
+		
+		synchronized boolean isExpectedGainAtLeast(final long minBytesPerSecond) {
+			return (runs < MIN_RUNS) || (nanos <= 0) || ((bytesSaved * 1_000_000_000d / nanos) >= minBytesPerSecond);
+		}
+		
+		@Override
+		public synchronized String toString() {
+			return runs + "," + bytesSaved + ',' + nanos;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.tool;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFormat;
+
+/**
+ * <p>A tool that optimizes an image, for example 1 of the binaries or an 
+ * optimizer written in JAVA. The service runs the tools of the pipeline of 
+ * each format, see {@link OptimizerTools}.</p>
+ * <p>Implementations are found with {@link java.util.ServiceLoader}, by 
+ * listing them in 
+ * <code>META-INF/services/com.salesforce.perfeng.uiperf.imageoptimization.tool.OptimizerTool</code>.
+ * A tool with the same {@link #getName() name} as a built-in tool replaces 
+ * it. Implementations need a public no argument constructor and must be
+ * thread safe, the same instance optimizes many images at the same time.</p>
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public interface OptimizerTool {
+
+	/**
+	 * What a tool is able to do, which decides how the service calls it.
+	 */
+	public static enum Capability {
+		/**
+		 * {@link OptimizerTool#optimize(ToolContext, File)} always returns 
+		 * the passed in file, changed in place. Otherwise the returned file 
+		 * only replaces the passed in file when it is smaller.
+		 */
+		IN_PLACE,
+		/**
+		 * {@link OptimizerTool#optimize(ToolContext, byte[])} is supported, 
+		 * so in memory images do not have to be written to a file.
+		 */
+		STDIN
+	}
+	
+	/**
+	 * @return The name of the tool, used in the pipelines, the metrics and the
+	 *         logs.
+	 */
+	public String getName();
+	
+	/**
+	 * @return The formats the tool is able to read.
+	 */
+	public Set<ImageFormat> getInputFormats();
+	
+	/**
+	 * @param inputFormat The format of the image passed to the tool.
+	 * @return The format of the image the tool writes. Only tools that keep 
+	 *         the format can be part of a pipeline.
+	 */
+	public default ImageFormat getOutputFormat(final ImageFormat inputFormat) {
+		return inputFormat;
+	}
+	
+	/**
+	 * @return What the tool is able to do.
+	 */
+	public Set<Capability> getCapabilities();
+	
+	/**
+	 * Optimizes an image file.
+	 * 
+	 * @param context Runs binaries for the tool.
+	 * @param image The image to optimize. It is a copy that the tool can 
+	 *              change.
+	 * @return The optimized image, the passed in file if it was optimized in
+	 *         place or <code>null</code> if the tool did not write an image.
+	 * @throws IOException If there was an issue reading / writing to the file
+	 *                     system
+	 * @throws InterruptedException If the optimization was interrupted.
+	 */
+	public File optimize(ToolContext context, File image) throws IOException, InterruptedException;
+	
+	/**
+	 * Optimizes an in memory image. Only called when the tool has the
+	 * {@link Capability#STDIN} capability.
+	 * 
+	 * @param context Runs binaries for the tool.
+	 * @param image The image to optimize.
+	 * @return The optimized image, or the passed in image if it was not made 
+	 *         smaller.
+	 * @throws IOException If there was an issue reading the image.
+	 * @throws InterruptedException If the optimization was interrupted.
+	 */
+	public default byte[] optimize(final ToolContext context, final byte[] image) throws IOException, InterruptedException {
+		throw new UnsupportedOperationException(getName() + " cannot optimize an in memory image.");
+	}
+}
@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.tool;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+import org.apache.http.annotation.Immutable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFormat;
+
+/**
+ * <p>The {@link OptimizerTool}s known to a service and the pipeline of tools
+ * run on each format.</p>
+ * <p>The tools are the built-in tools of the service plus the tools found by
+ * {@link ServiceLoader}, which replace the built-in tools with the same name.
+ * The pipeline of a format is the comma separated tool names of the system 
+ * property {@value #PIPELINE_PROPERTY_PREFIX}&lt;format&gt;, for example 
+ * <code>-Dimageoptimization.pipeline.png=advpng,optipng</code>, or the 
+ * default pipeline of the service when it is not set.</p>
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@Immutable
+public final class OptimizerTools {
+
+	private final static Logger logger = LoggerFactory.getLogger(OptimizerTools.class);
+	
+	/**
+	 * Prefix of the system properties with the pipeline of each format. The 
+	 * format is in lower case.
+	 */
+	public static final String PIPELINE_PROPERTY_PREFIX = "imageoptimization.pipeline.";
+	
+	private final Map<String, OptimizerTool> tools;
+	private final Map<ImageFormat, List<OptimizerTool>> pipelines = new EnumMap<>(ImageFormat.class);
+	
+	/**
+	 * Uses the tools found by {@link ServiceLoader}.
+	 * 
+	 * @param builtInTools The tools of the service.
+	 * @param defaultPipelines The names of the tools run on each format when
+	 *                         its system property is not set.
+	 * @throws IllegalArgumentException Thrown if a pipeline has a tool that 
+	 *                                  does not exist or does not keep the 
+	 *                                  format.
+	 */
+	public OptimizerTools(final Collection<? extends OptimizerTool> builtInTools, final Map<ImageFormat, List<String>> defaultPipelines) {
+		this(builtInTools, defaultPipelines, ServiceLoader.load(OptimizerTool.class, OptimizerTool.class.getClassLoader()));
+	}
+	
+	/**
+	 * @param builtInTools The tools of the service.
+	 * @param defaultPipelines The names of the tools run on each format when
+	 *                         its system property is not set.
+	 * @param pluggedInTools The tools that are added to the built-in tools, 
+	 *                       replacing the ones with the same name.
+	 * @throws IllegalArgumentException Thrown if a pipeline has a tool that 
+	 *                                  does not exist or does not keep the 
+	 *                                  format.
+	 */
+	public OptimizerTools(final Collection<? extends OptimizerTool> builtInTools, final Map<ImageFormat, List<String>> defaultPipelines, final Iterable<? extends OptimizerTool> pluggedInTools) {
+		this(findTools(builtInTools, pluggedInTools), PIPELINE_PROPERTY_PREFIX, defaultPipelines);
+	}
+	
+	/**
+	 * @param tools The tools, by name.
+	 * @param pipelinePropertyPrefix The prefix of the system properties with 
+	 *                               the pipeline of each format.
+	 * @param defaultPipelines The names of the tools run on each format when
+	 *                         its system property is not set.
+	 * @throws IllegalArgumentException Thrown if a pipeline has a tool that 
+	 *                                  does not exist or does not keep the 
+	 *                                  format.
+	 */
+	private OptimizerTools(final Map<String, OptimizerTool> tools, final String pipelinePropertyPrefix, final Map<ImageFormat, List<String>> defaultPipelines) {
+		this.tools = tools;
+		for(final Map.Entry<ImageFormat, List<String>> entry : defaultPipelines.entrySet()) {
+			final ImageFormat format = entry.getKey();
+			final String property = System.getProperty(pipelinePropertyPrefix + format.name().toLowerCase(Locale.ENGLISH));
+			final List<OptimizerTool> pipeline = new ArrayList<>();
+			for(final String name : (property == null) ? entry.getValue() : parsePipeline(property)) {
+				final OptimizerTool tool = getTool(name);
+				if(!tool.getInputFormats().contains(format) || (tool.getOutputFormat(format) != format)) {
+					throw new IllegalArgumentException("The optimizer tool " + name + " cannot be in the " + format + " pipeline, it does not keep the format.");
+				}
+				pipeline.add(tool);
+			}
+			pipelines.put(format, Collections.unmodifiableList(pipeline));
+			if(logger.isDebugEnabled()) {
+				logger.debug("The {} pipeline of {} is {}.", format, pipelinePropertyPrefix, pipeline);
+			}
+		}
+	}
+	
+	private static Map<String, OptimizerTool> findTools(final Collection<? extends OptimizerTool> builtInTools, final Iterable<? extends OptimizerTool> pluggedInTools) {
+		final Map<String, OptimizerTool> allTools = new LinkedHashMap<>();
+		for(final OptimizerTool tool : builtInTools) {
+			allTools.put(tool.getName(), tool);
+		}
+		for(final OptimizerTool tool : pluggedInTools) {
+			if(logger.isInfoEnabled()) {
+				logger.info("{} the optimizer tool {} ({}).", allTools.containsKey(tool.getName()) ? "Replacing" : "Adding", tool.getName(), tool.getClass().getName());
+			}
+			allTools.put(tool.getName(), tool);
+		}
+		return Collections.unmodifiableMap(allTools);
+	}
+	
+	/**
+	 * Creates other pipelines of the same tools, for example for another 
+	 * {@link com.salesforce.perfeng.uiperf.imageoptimization.service.OptimizationProfile}.
+	 * 
+	 * @param pipelinePropertyPrefix The prefix of the system properties with 
+	 *                               the pipeline of each format.
+	 * @param defaultPipelines The names of the tools run on each format when
+	 *                         its system property is not set.
+	 * @return The same tools with the other pipelines.
+	 * @throws IllegalArgumentException Thrown if a pipeline has a tool that 
+	 *                                  does not exist or does not keep the 
+	 *                                  format.
+	 */
+	public OptimizerTools withPipelines(final String pipelinePropertyPrefix, final Map<ImageFormat, List<String>> defaultPipelines) {
+		return new OptimizerTools(tools, pipelinePropertyPrefix, defaultPipelines);
+	}
+	
+	private static List<String> parsePipeline(final String property) {
+		final List<String> names = new ArrayList<>();
+		for(final String name : property.split(",")) {
+			if(!name.trim().isEmpty()) {
+				names.add(name.trim());
+			}
+		}
+		return names;
+	}
+	
+	/**
+	 * @param name The name of the tool.
+	 * @return The tool.
+	 * @throws IllegalArgumentException Thrown if there is no tool with the 
+	 *                                  name.
+	 */
+	public OptimizerTool getTool(final String name) {
+		final OptimizerTool tool = tools.get(name);
+		if(tool == null) {
+			throw new IllegalArgumentException("There is no optimizer tool named " + name + ". The tools are " + tools.keySet() + '.');
+		}
+		return tool;
+	}
+	
+	/**
+	 * @return All of the tools, by name.
+	 */
+	public Map<String, OptimizerTool> getTools() {
+		return tools;
+	}
+	
+	/**
+	 * @param format The format of the image.
+	 * @return The tools run, in order, on an image of the format. Empty if the
+	 *         format does not have a pipeline.
+	 */
+	public List<OptimizerTool> getPipeline(final ImageFormat format) {
+		final List<OptimizerTool> pipeline = pipelines.get(format);
+		return (pipeline == null) ? Collections.<OptimizerTool>emptyList() : pipeline;
+	}
+	
+	/**
+	 * @param format The format of the image.
+	 * @return <code>true</code> if every tool of the pipeline of the format 
+	 *         has the {@link OptimizerTool.Capability#STDIN} capability.
+	 */
+	public boolean isStdinPipeline(final ImageFormat format) {
+		for(final OptimizerTool tool : getPipeline(format)) {
+			if(!tool.getCapabilities().contains(OptimizerTool.Capability.STDIN)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
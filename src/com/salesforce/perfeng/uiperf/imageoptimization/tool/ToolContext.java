@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.tool;
+
+import java.io.File;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.service.OptimizationProfile;
+
+/**
+ * Passed to the {@link OptimizerTool}s by the service so they run binaries 
+ * the same way as the built-in tools: the binary is found in the binary 
+ * directory of the service, its output is read while it runs, it is killed
+ * with the processes it started if it runs longer than the timeout of the 
+ * service, its exit code is recorded in the metrics and a failure is 
+ * reported with the end of the output of the binary.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public interface ToolContext {
+
+	/**
+	 * @return The directory of the binaries passed to the service.
+	 */
+	public File getBinaryDirectory();
+	
+	/**
+	 * @return The profile the image is optimized with, which tools can use to
+	 *         pick their effort level.
+	 */
+	public OptimizationProfile getProfile();
+	
+	/**
+	 * Runs a binary that works on a file and waits for it.
+	 * 
+	 * @param image The image the binary works on, used in error messages.
+	 * @param directory The working directory of the binary or 
+	 *                  <code>null</code> for the current directory.
+	 * @param successExitValues The exit values that indicate success.
+	 * @param command The path of the binary followed by its arguments.
+	 * @return The exit value of the binary.
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @throws com.salesforce.perfeng.uiperf.ThirdPartyBinaryNotFoundException 
+	 *         Thrown if the binary does not exist.
+	 * @throws com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFileOptimizationException 
+	 *         Thrown if the exit value is not 1 of the success exit values.
+	 */
+	public int execute(File image, File directory, int[] successExitValues, String... command) throws InterruptedException;
+	
+	/**
+	 * Runs a binary that reads the image from stdin and writes the result to
+	 * stdout.
+	 * 
+	 * @param image The bytes written to stdin.
+	 * @param successExitValues The exit values that indicate success.
+	 * @param command The path of the binary followed by its arguments.
+	 * @return The bytes written to stdout.
+	 * @throws InterruptedException If the optimization was interrupted.
+	 * @throws com.salesforce.perfeng.uiperf.ThirdPartyBinaryNotFoundException 
+	 *         Thrown if the binary does not exist.
+	 * @throws com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFileOptimizationException 
+	 *         Thrown if the exit value is not 1 of the success exit values.
+	 */
+	public byte[] executePipe(byte[] image, int[] successExitValues, String... command) throws InterruptedException;
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.utils;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.lang.ref.SoftReference;
+
+import org.apache.http.annotation.NotThreadSafe;
+
+/**
+ * <p>The facts about 1 image that the checks of an optimization task need. 
+ * Each fact is worked out the first time it is asked for and then kept for 
+ * the life of the context, so the image is decoded once no matter how many 
+ * checks look at it.</p>
+ * <p>The decoded image is only held by a {@link SoftReference} so the garbage
+ * collector can take it back when memory runs low, in which case it is 
+ * decoded again the next time it is needed. {@link #getDecodeCount()} tells 
+ * how often that happened. Its part of the {@link ImageDecoder} memory budget
+ * is held until the context is closed or the image is decoded again.</p>
+ * <p>The image must not change while the context is in use.</p>
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@NotThreadSafe
+public class ImageContext implements AutoCloseable {
+
+	private final File file;
+	private final byte[] data;
+	
+	private Boolean animatedGif;
+	private Boolean alphaTransparency;
+	private SoftReference<BufferedImage> image;
+	private ImageDecoder.Reservation reservation;
+	private int decodeCount;
+	
+	/**
+	 * @param file The image.
+	 */
+	public ImageContext(final File file) {
+		if(file == null) {
+			throw new IllegalArgumentException("The passed in file cannot be null.");
+		}
+		this.file = file;
+		this.data = null;
+	}
+	
+	/**
+	 * @param data The bytes of the image.
+	 */
+	public ImageContext(final byte[] data) {
+		if(data == null) {
+			throw new IllegalArgumentException("The passed in data cannot be null.");
+		}
+		this.file = null;
+		this.data = data;
+	}
+	
+	/**
+	 * @return The image, or <code>null</code> for an in memory image.
+	 */
+	public File getFile() {
+		return file;
+	}
+	
+	/**
+	 * @return The path of the image, or {@link ImageUtils#IN_MEMORY_IMAGE_PATH}
+	 *         for an in memory image.
+	 */
+	public String getPath() {
+		return (file == null) ? ImageUtils.IN_MEMORY_IMAGE_PATH : file.getPath();
+	}
+	
+	/**
+	 * @return <code>true</code> if it is an animated gif.
+	 * @see ImageUtils#isAminatedGif(File)
+	 */
+	public boolean isAnimatedGif() {
+		if(animatedGif == null) {
+			animatedGif = Boolean.valueOf((file == null) ? ImageUtils.isAminatedGif(data) : ImageUtils.isAminatedGif(file));
+		}
+		return animatedGif.booleanValue();
+	}
+	
+	/**
+	 * @return <code>true</code> if the image contains one or more pixels with
+	 *         some percentage of transparency (Alpha)
+	 * @see ImageUtils#containsAlphaTransparency(File)
+	 */
+	public boolean containsAlphaTransparency() {
+		if(alphaTransparency == null) {
+			alphaTransparency = Boolean.valueOf(ImageUtils.containsAlphaTransparency(getImage(), getPath()));
+		}
+		return alphaTransparency.booleanValue();
+	}
+	
+	/**
+	 * @return The decoded image.
+	 * @throws ImageFileOptimizationException Thrown if the image cannot be 
+	 *                                        decoded.
+	 * @see ImageDecoder#decode(File)
+	 */
+	public BufferedImage getImage() throws ImageFileOptimizationException {
+		BufferedImage decoded = (image == null) ? null : image.get();
+		if(decoded == null) {
+			close();
+			final ImageDecoder.DecodedImage decodedImage = (file == null) ? ImageDecoder.decode(data) : ImageDecoder.decode(file);
+			decoded = decodedImage.getImage();
+			reservation = decodedImage.reservation;
+			decodeCount++;
+			image = new SoftReference<>(decoded);
+		}
+		return decoded;
+	}
+	
+	/**
+	 * Lets go of the decoded image and gives its memory back to the 
+	 * {@link ImageDecoder} budget. The image is decoded again if the context 
+	 * is used after that.
+	 */
+	@Override
+	public void close() {
+		image = null;
+		if(reservation != null) {
+			reservation.close();
+			reservation = null;
+		}
+	}
+	
+	/**
+	 * @return The number of times the image was decoded. More than 1 means 
+	 *         the decoded image was garbage collected between the checks.
+	 */
+	public int getDecodeCount() {
+		return decodeCount;
+	}
+}
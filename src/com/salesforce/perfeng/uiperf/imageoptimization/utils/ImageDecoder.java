@@ -0,0 +1,650 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.utils;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Toolkit;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.swing.ImageIcon;
+
+import org.apache.http.annotation.Immutable;
+import org.apache.http.annotation.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Node;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.metrics.OptimizationEvent;
+import com.salesforce.perfeng.uiperf.imageoptimization.metrics.OptimizationEvents;
+
+/**
+ * <p>Decodes images with {@link ImageIO}. Each thread keeps 1 
+ * {@link ImageReader} per {@link ImageFormat} that is reused for every image
+ * it decodes, so the readers do not have to be looked up and created each 
+ * time, and the decodes on different threads do not wait on each other the 
+ * way they do with AWT's image fetcher threads. Nothing here needs a display,
+ * so it works the same in headless mode.</p>
+ * <p>The AWT {@link Toolkit} is still used for the images that ImageIO does 
+ * not decode the way a browser does:</p>
+ * <ul>
+ * <li>images that ImageIO fails to read, like CMYK JPEGs;</li>
+ * <li>images with an embedded color profile. ImageIO applies the profile 
+ * while the Toolkit ignores it. As some of the binaries remove the profile 
+ * (<code>jpegtran -copy none</code> for example), comparing the original to 
+ * the optimized image would always fail;</li>
+ * <li>GIFs with a transparent index outside of their color table.</li>
+ * </ul>
+ * <p>Either way the decoded image is a {@link BufferedImage#TYPE_INT_ARGB} 
+ * image holding the samples of the file as is.</p>
+ * <p>Before an image is decoded its dimension is read from its header. Images
+ * with more than {@link #MAX_PIXELS} pixels are rejected, and the others wait
+ * for room in a memory budget shared by all of the decodes. The room is kept 
+ * until the {@link DecodedImage} is closed, so the heap used by the decoded 
+ * images stays bounded no matter how many images are held at the same time. 
+ * A thread that already holds part of the budget, to compare 2 images for 
+ * example, does not wait for more. It takes the room if there is some and 
+ * goes over the budget otherwise, so 2 threads never wait on each other's 
+ * images.</p>
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@Immutable
+@ThreadSafe
+public class ImageDecoder {
+
+	private final static Logger logger = LoggerFactory.getLogger(ImageDecoder.class);
+	
+	/**
+	 * Name of the system property used to set {@link #MAX_PIXELS}.
+	 */
+	public static final String MAX_PIXELS_PROPERTY = "imageoptimization.maxPixels";
+	/**
+	 * The largest number of pixels an image can have and still be decoded. 
+	 * Larger images, like decompression bombs that are a few KB on disk but 
+	 * gigabytes once decoded, are rejected after reading only their header. 
+	 * Set with the {@value #MAX_PIXELS_PROPERTY} system property, the default
+	 * is 64 megapixels.
+	 */
+	public static final long MAX_PIXELS = Long.getLong(MAX_PIXELS_PROPERTY, 64L * 1024 * 1024).longValue();
+	/**
+	 * Name of the system property used to set the number of bytes all of the 
+	 * decodes running at the same time can use. The default is half of the 
+	 * maximum heap size.
+	 */
+	public static final String MEMORY_BUDGET_PROPERTY = "imageoptimization.decodeMemoryBudget";
+	/**
+	 * The memory needed per pixel of a decoded image, the size of a 
+	 * {@link BufferedImage#TYPE_INT_ARGB} pixel.
+	 */
+	static final int BYTES_PER_PIXEL = 4;
+	
+	private static final MemoryBudget MEMORY_BUDGET = new MemoryBudget(Long.getLong(MEMORY_BUDGET_PROPERTY, Runtime.getRuntime().maxMemory() / 2).longValue());
+	
+	private static final String GIF_IMAGE_METADATA_FORMAT = "javax_imageio_gif_image_1.0";
+	private static final String GIF_STREAM_METADATA_FORMAT = "javax_imageio_gif_stream_1.0";
+	
+	private static final ThreadLocal<Map<ImageFormat, ImageReader>> READERS = ThreadLocal.withInitial(() -> new EnumMap<>(ImageFormat.class));
+	/**
+	 * The number of {@link Reservation}s each thread holds.
+	 */
+	private static final ThreadLocal<AtomicInteger> RESERVATIONS = ThreadLocal.withInitial(AtomicInteger::new);
+	private static final LongAdder DECODES = new LongAdder();
+	
+	/**
+	 * Decodes the passed in image. The memory of the decoded image stays 
+	 * reserved in the budget until the returned image is closed.
+	 * 
+	 * @param file The image to decode.
+	 * @return The decoded image.
+	 * @throws ImageFileOptimizationException Thrown if the image cannot be 
+	 *                                        decoded.
+	 */
+	public static DecodedImage decode(final File file) throws ImageFileOptimizationException {
+		DECODES.increment();
+		ImageHeader header = null;
+		try {
+			header = ImageHeader.read(file);
+		} catch(final IOException ioe) {
+			logger.debug("Unable to read the header of " + file.getPath() + '.', ioe);
+		}
+		final Reservation reservation = reserve(getDecodedSize((header == null) ? null : header.getDimension(), file.getPath()), file.getPath());
+		final OptimizationEvent event = OptimizationEvents.verification("decode", file.getPath());
+		boolean decoded = false;
+		try {
+			BufferedImage image = null;
+			try(final ImageInputStream stream = new FileImageInputStream(file)) {
+				image = decodeImageIO(header.getFormat(), stream);
+			} catch(final Exception e) {
+				if(logger.isDebugEnabled()) {
+					logger.debug("ImageIO could not decode " + file.getPath() + ". Using the AWT Toolkit instead.", e);
+				}
+			}
+			if(image == null) {
+				image = decodeToolkit(file);
+			}
+			decoded = true;
+			event.setPassed(true);
+			return new DecodedImage(image, reservation);
+		} finally {
+			if(!decoded) {
+				reservation.close();
+			}
+			event.commit();
+		}
+	}
+	
+	/**
+	 * Decodes the passed in image. The memory of the decoded image stays 
+	 * reserved in the budget until the returned image is closed.
+	 * 
+	 * @param data The bytes of the image to decode.
+	 * @return The decoded image.
+	 * @throws ImageFileOptimizationException Thrown if the image cannot be 
+	 *                                        decoded.
+	 */
+	public static DecodedImage decode(final byte[] data) throws ImageFileOptimizationException {
+		DECODES.increment();
+		final ImageHeader header;
+		try {
+			header = ImageHeader.read(data);
+		} catch(final IOException ioe) {
+			throw new ImageFileOptimizationException(ImageUtils.IN_MEMORY_IMAGE_PATH, ioe);
+		}
+		final Reservation reservation = reserve(getDecodedSize(header.getDimension(), ImageUtils.IN_MEMORY_IMAGE_PATH), ImageUtils.IN_MEMORY_IMAGE_PATH);
+		final OptimizationEvent event = OptimizationEvents.verification("decode", ImageUtils.IN_MEMORY_IMAGE_PATH);
+		boolean decoded = false;
+		try {
+			BufferedImage image = null;
+			try(final ImageInputStream stream = new MemoryCacheImageInputStream(new ByteArrayInputStream(data))) {
+				image = decodeImageIO(header.getFormat(), stream);
+			} catch(final Exception e) {
+				logger.debug("ImageIO could not decode the in memory image. Using the AWT Toolkit instead.", e);
+			}
+			if(image == null) {
+				image = decodeToolkit(data);
+			}
+			decoded = true;
+			event.setPassed(true);
+			return new DecodedImage(image, reservation);
+		} finally {
+			if(!decoded) {
+				reservation.close();
+			}
+			event.commit();
+		}
+	}
+	
+	/**
+	 * Reads the width and height of the image from its header without 
+	 * decoding it. For a GIF this is the larger of the first frame and the 
+	 * logical screen the frames are drawn on.
+	 * 
+	 * @param file The image.
+	 * @return The dimension of the image or <code>null</code> if the header 
+	 *         cannot be read.
+	 */
+	public static Dimension getDimension(final File file) {
+		try {
+			return ImageHeader.read(file).getDimension();
+		} catch(final IOException ioe) {
+			logger.debug("Unable to read the dimension of " + file.getPath() + '.', ioe);
+			return null;
+		}
+	}
+	
+	/**
+	 * @param data The bytes of the image.
+	 * @return The dimension of the image or <code>null</code> if the header 
+	 *         cannot be read.
+	 * @see #getDimension(File)
+	 */
+	public static Dimension getDimension(final byte[] data) {
+		try {
+			return ImageHeader.read(data).getDimension();
+		} catch(final IOException ioe) {
+			logger.debug("Unable to read the dimension of the in memory image.", ioe);
+			return null;
+		}
+	}
+	
+	/**
+	 * @param dimension The dimension of the image.
+	 * @param path The path of the image, used in error messages.
+	 * @return The number of bytes the decoded image needs.
+	 * @throws ImageFileOptimizationException Thrown if the dimension is not 
+	 *                                        known or the image has more than
+	 *                                        {@link #MAX_PIXELS} pixels.
+	 */
+	private static long getDecodedSize(final Dimension dimension, final String path) throws ImageFileOptimizationException {
+		if(dimension == null) {
+			throw new ImageFileOptimizationException(path, "The dimension of the image could not be read.");
+		}
+		final long pixels = (long)dimension.width * dimension.height;
+		if(pixels > MAX_PIXELS) {
+			throw new ImageFileOptimizationException(path, "The image is " + dimension.width + 'x' + dimension.height + " pixels, which is more than the limit of " + MAX_PIXELS + " pixels.");
+		}
+		return pixels * BYTES_PER_PIXEL;
+	}
+	
+	/**
+	 * Reserves the passed in number of bytes in the memory budget shared by 
+	 * all of the decodes. A thread without a reservation waits until the bytes
+	 * are available. A thread that already holds one takes the bytes only if 
+	 * they are available right away, otherwise it goes over the budget rather
+	 * than wait on memory that might be held by other threads that are 
+	 * waiting too. Each reservation needs to be closed.
+	 * 
+	 * @param bytes The number of bytes about to be allocated.
+	 * @param path The path of the image, used in error messages.
+	 * @return The reservation.
+	 * @throws ImageFileOptimizationException Thrown if the thread is 
+	 *                                        interrupted while waiting.
+	 */
+	static Reservation reserve(final long bytes, final String path) throws ImageFileOptimizationException {
+		final AtomicInteger reservations = RESERVATIONS.get();
+		boolean acquired = true;
+		if(reservations.get() == 0) {
+			try {
+				MEMORY_BUDGET.acquire(bytes);
+			} catch(final InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new ImageFileOptimizationException(path, ie);
+			}
+		} else {
+			acquired = MEMORY_BUDGET.tryAcquire(bytes);
+			if(!acquired && logger.isDebugEnabled()) {
+				logger.debug("The memory budget is used up, going over it by {} bytes for {}.", Long.valueOf(bytes), path);
+			}
+		}
+		reservations.incrementAndGet();
+		return new Reservation(acquired ? bytes : 0, reservations);
+	}
+	
+	/**
+	 * @return The number of bytes of the memory budget that are not reserved.
+	 */
+	static long getAvailableMemory() {
+		return MEMORY_BUDGET.getAvailableBytes();
+	}
+	
+	/**
+	 * @return The number of images decoded since the JVM started.
+	 */
+	public static long getDecodeCount() {
+		return DECODES.sum();
+	}
+	
+	/**
+	 * @param format The format of the image.
+	 * @param stream The image.
+	 * @return The decoded image or <code>null</code> if the image should be 
+	 *         decoded with the {@link Toolkit} instead.
+	 * @throws IOException Thrown if the image cannot be read.
+	 */
+	private static BufferedImage decodeImageIO(final ImageFormat format, final ImageInputStream stream) throws IOException {
+		final ImageReader reader = getReader(format);
+		if(reader == null) {
+			return null;
+		}
+		boolean reusable = false;
+		try {
+			reader.setInput(stream, true, true);
+			final Iterator<ImageTypeSpecifier> imageTypes = reader.getImageTypes(0);
+			if(imageTypes.hasNext()) {
+				final ColorSpace colorSpace = imageTypes.next().getColorModel().getColorSpace();
+				if(!colorSpace.isCS_sRGB() && (colorSpace.getType() != ColorSpace.TYPE_GRAY)) {
+					reusable = true;
+					return null;
+				}
+			}
+			if((format == ImageFormat.GIF) && hasTransparentIndexOutsidePalette(reader)) {
+				reusable = true;
+				return null;
+			}
+			final BufferedImage image = toArgb(reader.read(0));
+			reusable = true;
+			return image;
+		} finally {
+			if(reusable) {
+				reader.reset();
+			} else {
+				// The reader can be left in a bad state after an error.
+				READERS.get().remove(format);
+				reader.dispose();
+			}
+		}
+	}
+	
+	/**
+	 * Copies the decoded image into a {@link BufferedImage#TYPE_INT_ARGB} 
+	 * image, the type the {@link Toolkit} decodes to and the type 
+	 * {@link PixelComparator} reads directly.
+	 * <p>ImageIO decodes 8 and 16 bit grayscale images into a linear gray 
+	 * color space. Reading their pixels as RGB converts them from that linear
+	 * space to sRGB and brightens them, while a browser simply repeats the 
+	 * gray sample in each channel. The gray samples are therefore copied 
+	 * as is, without any color conversion, so a grayscale image is the same 
+	 * as the RGB image with the same pixels.</p>
+	 * 
+	 * @param image The image returned by the {@link ImageReader}.
+	 * @return The image as {@link BufferedImage#TYPE_INT_ARGB}.
+	 */
+	static BufferedImage toArgb(final BufferedImage image) {
+		if(image.getType() == BufferedImage.TYPE_INT_ARGB) {
+			return image;
+		}
+		final int width = image.getWidth();
+		final int height = image.getHeight();
+		final BufferedImage converted = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		final int[] pixels = ((DataBufferInt)converted.getRaster().getDataBuffer()).getData();
+		if((image.getColorModel() instanceof ComponentColorModel) && (image.getColorModel().getColorSpace().getType() == ColorSpace.TYPE_GRAY)) {
+			final Raster raster = image.getRaster();
+			final boolean alpha = raster.getNumBands() > 1;
+			final int max = (1 << raster.getSampleModel().getSampleSize(0)) - 1;
+			final int[] gray = new int[width];
+			final int[] alphas = new int[width];
+			for(int y = 0; y < height; y++) {
+				raster.getSamples(0, y, width, 1, 0, gray);
+				if(alpha) {
+					raster.getSamples(0, y, width, 1, 1, alphas);
+				}
+				final int offset = y * width;
+				for(int x = 0; x < width; x++) {
+					final int g = toByte(gray[x], max);
+					pixels[offset + x] = ((alpha ? toByte(alphas[x], max) : 0xff) << 24) | (g << 16) | (g << 8) | g;
+				}
+			}
+		} else {
+			image.getRGB(0, 0, width, height, pixels, 0, width);
+		}
+		return converted;
+	}
+	
+	/**
+	 * @param sample A sample of a grayscale image.
+	 * @param max The largest value the sample can have.
+	 * @return The sample scaled to 8 bits.
+	 */
+	private static int toByte(final int sample, final int max) {
+		return (max == 0xff) ? sample : (((sample * 0xff) + (max / 2)) / max);
+	}
+	
+	/**
+	 * @param format The format of the image.
+	 * @param stream The image.
+	 * @return The dimension of the image or <code>null</code> if ImageIO 
+	 *         cannot read the format.
+	 * @throws IOException Thrown if the header cannot be read.
+	 * @see ImageHeader#getDimension()
+	 */
+	static Dimension readDimension(final ImageFormat format, final ImageInputStream stream) throws IOException {
+		final ImageReader reader = getReader(format);
+		if(reader == null) {
+			return null;
+		}
+		boolean reusable = false;
+		try {
+			reader.setInput(stream, true, true);
+			final Dimension dimension = new Dimension(reader.getWidth(0), reader.getHeight(0));
+			if(format == ImageFormat.GIF) {
+				final IIOMetadata streamMetadata = reader.getStreamMetadata();
+				final Node screen = (streamMetadata == null) ? null : getChild(streamMetadata.getAsTree(GIF_STREAM_METADATA_FORMAT), "LogicalScreenDescriptor");
+				if(screen != null) {
+					dimension.width = Math.max(dimension.width, Integer.parseInt(getAttribute(screen, "logicalScreenWidth")));
+					dimension.height = Math.max(dimension.height, Integer.parseInt(getAttribute(screen, "logicalScreenHeight")));
+				}
+			}
+			reusable = true;
+			return dimension;
+		} finally {
+			if(reusable) {
+				reader.reset();
+			} else {
+				READERS.get().remove(format);
+				reader.dispose();
+			}
+		}
+	}
+	
+	/**
+	 * Some GIF encoders use a transparent index that is past the end of the 
+	 * color table. Browsers (and the {@link Toolkit}) draw those pixels as 
+	 * transparent while ImageIO masks the index down to the size of the color
+	 * table and draws them with one of its colors.
+	 * 
+	 * @param reader The GIF reader with its input already set.
+	 * @return <code>true</code> if the first frame's transparent index is not 
+	 *         in its color table.
+	 * @throws IOException Thrown if the metadata cannot be read.
+	 */
+	private static boolean hasTransparentIndexOutsidePalette(final ImageReader reader) throws IOException {
+		final Node imageMetadata = reader.getImageMetadata(0).getAsTree(GIF_IMAGE_METADATA_FORMAT);
+		final Node graphicControl = getChild(imageMetadata, "GraphicControlExtension");
+		if((graphicControl == null) || !"TRUE".equalsIgnoreCase(getAttribute(graphicControl, "transparentColorFlag"))) {
+			return false;
+		}
+		final int transparentIndex = Integer.parseInt(getAttribute(graphicControl, "transparentColorIndex"));
+		
+		final Node localColorTable = getChild(imageMetadata, "LocalColorTable");
+		if(localColorTable != null) {
+			return transparentIndex >= Integer.parseInt(getAttribute(localColorTable, "sizeOfLocalColorTable"));
+		}
+		final IIOMetadata streamMetadata = reader.getStreamMetadata();
+		if(streamMetadata == null) {
+			return false;
+		}
+		final Node globalColorTable = getChild(streamMetadata.getAsTree(GIF_STREAM_METADATA_FORMAT), "GlobalColorTable");
+		return (globalColorTable != null) && (transparentIndex >= Integer.parseInt(getAttribute(globalColorTable, "sizeOfGlobalColorTable")));
+	}
+	
+	private static Node getChild(final Node parent, final String name) {
+		for(Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if(name.equals(child.getNodeName())) {
+				return child;
+			}
+		}
+		return null;
+	}
+	
+	private static String getAttribute(final Node node, final String name) {
+		return node.getAttributes().getNamedItem(name).getNodeValue();
+	}
+	
+	/**
+	 * @param format The format of the image.
+	 * @return The reader for this thread or <code>null</code> if ImageIO 
+	 *         cannot read the format.
+	 */
+	private static ImageReader getReader(final ImageFormat format) {
+		if(format == null) {
+			return null;
+		}
+		final Map<ImageFormat, ImageReader> readers = READERS.get();
+		ImageReader reader = readers.get(format);
+		if(reader == null) {
+			final Iterator<ImageReader> iterator = ImageIO.getImageReadersByMIMEType(format.getMimeType());
+			if(!iterator.hasNext()) {
+				return null;
+			}
+			reader = iterator.next();
+			readers.put(format, reader);
+		}
+		return reader;
+	}
+	
+	/**
+	 * Decodes the image with the {@link Toolkit}.
+	 * 
+	 * @param file The <code>File</code> to use.
+	 * @return The resulting <code>BufferedImage</code>
+	 */
+	@SuppressWarnings("unused")
+	static BufferedImage decodeToolkit(final File file) {
+		Image image;
+			
+		try (final FileInputStream inputStream = new FileInputStream(file)) {
+			// ImageIO.read(file) is broken for some images so I went this 
+			// route
+			image = Toolkit.getDefaultToolkit().createImage(file.getCanonicalPath());
+			
+			//forces the image to be rendered
+			new ImageIcon(image);
+		} catch(final Exception e2) {
+			throw new ImageFileOptimizationException(file.getPath(), e2);
+		}
+		
+		return toBufferedImage(image, file.getPath());
+	}
+	
+	/**
+	 * Decodes the image with the {@link Toolkit}.
+	 * 
+	 * @param data The bytes of the image to use.
+	 * @return The resulting <code>BufferedImage</code>
+	 * @see #decodeToolkit(File)
+	 */
+	@SuppressWarnings("unused")
+	static BufferedImage decodeToolkit(final byte[] data) {
+		final Image image;
+		try {
+			image = Toolkit.getDefaultToolkit().createImage(data);
+			
+			//forces the image to be rendered
+			new ImageIcon(image);
+		} catch(final Exception e2) {
+			throw new ImageFileOptimizationException(ImageUtils.IN_MEMORY_IMAGE_PATH, e2);
+		}
+		
+		return toBufferedImage(image, ImageUtils.IN_MEMORY_IMAGE_PATH);
+	}
+	
+	/**
+	 * Part of the memory budget, made by {@link ImageDecoder#reserve(long, String)}.
+	 */
+	@ThreadSafe
+	static final class Reservation implements AutoCloseable {
+		
+		private final long bytes;
+		private final AtomicInteger reservations;
+		private final AtomicBoolean closed = new AtomicBoolean();
+		
+		/**
+		 * @param bytes The number of bytes taken from the budget.
+		 * @param reservations The number of reservations the thread that made
+		 *                     this one holds.
+		 */
+		Reservation(final long bytes, final AtomicInteger reservations) {
+			this.bytes = bytes;
+			this.reservations = reservations;
+		}
+		
+		/**
+		 * Gives the bytes back to the budget. Only the first call does 
+		 * anything.
+		 */
+		@Override
+		public void close() {
+			if(closed.compareAndSet(false, true)) {
+				MEMORY_BUDGET.release(bytes);
+				reservations.decrementAndGet();
+			}
+		}
+	}
+	
+	/**
+	 * An image decoded by {@link ImageDecoder}, which holds its part of the 
+	 * memory budget until it is closed. The image must not be used after 
+	 * that.
+	 * 
+	 * @author eperret (Eric Perret)
+	 * @since 1.6.0
+	 */
+	@ThreadSafe
+	public static final class DecodedImage implements AutoCloseable {
+		
+		private final BufferedImage image;
+		final Reservation reservation;
+		
+		DecodedImage(final BufferedImage image, final Reservation reservation) {
+			this.image = image;
+			this.reservation = reservation;
+		}
+		
+		/**
+		 * @return The decoded image, a {@link BufferedImage#TYPE_INT_ARGB} 
+		 *         image.
+		 */
+		public BufferedImage getImage() {
+			return image;
+		}
+		
+		/**
+		 * Gives the memory of the image back to the budget. Only the first 
+		 * call does anything.
+		 */
+		@Override
+		public void close() {
+			reservation.close();
+		}
+	}
+	
+	private static BufferedImage toBufferedImage(final Image image, final String path) {
+		if((image.getWidth(null) <= 0) || (image.getHeight(null) <= 0)) {
+			throw new ImageFileOptimizationException(path, "The image could not be decoded.");
+		}
+		final BufferedImage converted = new BufferedImage(image.getWidth(null), image.getHeight(null), BufferedImage.TYPE_INT_ARGB);
+		final Graphics2D g2d = converted.createGraphics();
+		g2d.drawImage(image, 0, 0, null);
+		g2d.dispose();
+		return converted;
+	}
+}
@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.http.annotation.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService;
+
+/**
+ * <p>Finds the images in a set of directories. Each directory is listed by its
+ * own task on a {@link ForkJoinPool} so that sub directories are walked in 
+ * parallel, which matters most on network file systems where listing a 
+ * directory and opening a file are slow.</p>
+ * <p>Only the {@link ImageHeader} of each file with a supported extension is
+ * read to check that the content is an image. Images are handed to the 
+ * consumer, with their header so that it does not need to be read again, as 
+ * soon as they are found, instead of after the whole tree has been 
+ * walked.</p>
+ * <p>A directory or file that cannot be read is logged and skipped, the same
+ * as {@link java.nio.file.FileVisitor#visitFileFailed(Object, IOException)}
+ * would, so that 1 of them does not stop the rest of the tree from being 
+ * optimized.</p>
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@ThreadSafe
+public class ImageFileScanner {
+
+	private final static Logger logger = LoggerFactory.getLogger(ImageFileScanner.class);
+	
+	private final ForkJoinPool pool;
+	
+	/**
+	 * @param parallelism The number of directories / files that are read at 
+	 *                    the same time. As the work is mostly waiting on the
+	 *                    file system this can be larger than the number of 
+	 *                    CPUs.
+	 */
+	public ImageFileScanner(final int parallelism) {
+		pool = new ForkJoinPool(parallelism);
+	}
+	
+	/**
+	 * Finds all of the valid images in the passed in directories.
+	 * 
+	 * @param rootDirectories The directories to search in.
+	 * @param consumer Called with each image, and its header, as soon as it 
+	 *                 is found. Is called from multiple threads at the same 
+	 *                 time.
+	 * @return The number of images that were found.
+	 */
+	public int scan(final Collection<File> rootDirectories, final BiConsumer<File, ImageHeader> consumer) {
+		final AtomicInteger numberOfImages = new AtomicInteger();
+		final List<ScanDirectory> tasks = new ArrayList<>(rootDirectories.size());
+		for(final File rootDirectory : rootDirectories) {
+			tasks.add(new ScanDirectory(rootDirectory.toPath(), consumer, numberOfImages));
+		}
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+		if(logger.isInfoEnabled()) {
+			logger.info("Found {} images.", Integer.valueOf(numberOfImages.get()));
+		}
+		return numberOfImages.get();
+	}
+	
+	/**
+	 * Stops the threads used to walk the directories.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+	
+	/**
+	 * Checks that the content of the passed in file is an image that can be 
+	 * optimized. Images whose content does not match their extension are 
+	 * still returned so that the service can report them as mislabeled.
+	 * 
+	 * @param file The file to check.
+	 * @return The header of the image or <code>null</code> if the file is not
+	 *         an image that can be optimized.
+	 * @throws IOException Thrown if the file cannot be read.
+	 */
+	static ImageHeader readImageHeader(final Path file) throws IOException {
+		final ImageHeader header = ImageHeader.read(file.toFile());
+		final ImageFormat actual = header.getFormat();
+		if((actual != null) && (actual != ImageFormat.WEBP)) {
+			return header;
+		}
+		if(logger.isWarnEnabled() && (Files.size(file) > 0)) {
+			logger.warn("Skipping file. Unexpected content type for file\n\tfile: {}\n\tcontentType: {}", file, (actual == null) ? null : actual.getMimeType());
+		}
+		return null;
+	}
+	
+	/**
+	 * Lists a single directory, forking a new task for each sub directory.
+	 */
+	private static final class ScanDirectory extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final Path directory;
+		private final transient BiConsumer<File, ImageHeader> consumer;
+		private final AtomicInteger numberOfImages;
+		
+		ScanDirectory(final Path directory, final BiConsumer<File, ImageHeader> consumer, final AtomicInteger numberOfImages) {
+			this.directory = directory;
+			this.consumer = consumer;
+			this.numberOfImages = numberOfImages;
+		}
+		
+		@Override
+		protected void compute() {
+			final List<ScanDirectory> subDirectories = new ArrayList<>();
+			try(final DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+				for(final Path path : stream) {
+					if(Files.isDirectory(path)) {
+						final ScanDirectory task = new ScanDirectory(path, consumer, numberOfImages);
+						task.fork();
+						subDirectories.add(task);
+					} else if(FilenameUtils.isExtension(path.getFileName().toString(), IImageOptimizationService.SUPPORTED_FILE_EXTENSIONS)) {
+						scanFile(path);
+					}
+				}
+			} catch(final IOException ioe) {
+				logger.warn("Unable to list " + directory + ". Skipping it.", ioe);
+			}
+			for(final ScanDirectory task : subDirectories) {
+				task.join();
+			}
+		}
+		
+		private void scanFile(final Path path) {
+			final ImageHeader header;
+			try {
+				header = readImageHeader(path);
+			} catch(final IOException ioe) {
+				logger.warn("Unable to read " + path + ". Skipping it.", ioe);
+				return;
+			}
+			if(header != null) {
+				numberOfImages.incrementAndGet();
+				consumer.accept(path.toFile(), header);
+			}
+		}
+	}
+}
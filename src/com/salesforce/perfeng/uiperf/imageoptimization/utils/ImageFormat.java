@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.utils;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService;
+
+/**
+ * The image formats the service knows how to handle, along with the "magic 
+ * number" of each format so that the real type of an image can be determined 
+ * from its first few bytes instead of trusting its file extension.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public enum ImageFormat {
+	/**
+	 * {@value IImageOptimizationService#PNG_MIME_TYPE}
+	 */
+	PNG(IImageOptimizationService.PNG_EXTENSION, IImageOptimizationService.PNG_MIME_TYPE),
+	/**
+	 * {@value IImageOptimizationService#GIF_MIME_TYPE}
+	 */
+	GIF(IImageOptimizationService.GIF_EXTENSION, IImageOptimizationService.GIF_MIME_TYPE),
+	/**
+	 * {@value IImageOptimizationService#JPEG_MIME_TYPE}
+	 */
+	JPEG(IImageOptimizationService.JPEG_EXTENSION, IImageOptimizationService.JPEG_MIME_TYPE),
+	/**
+	 * {@value IImageOptimizationService#WEBP_MIME_TYPE}
+	 */
+	WEBP(IImageOptimizationService.WEBP_EXTENSION, IImageOptimizationService.WEBP_MIME_TYPE);
+	
+	private final String extension;
+	private final String mimeType;
+	
+	private ImageFormat(final String extension, final String mimeType) {
+		this.extension = extension;
+		this.mimeType = mimeType;
+	}
+	
+	/**
+	 * @return The default (lower case) file extension for this format.
+	 */
+	public String getExtension() {
+		return extension;
+	}
+	
+	/**
+	 * @return The mime type for this format.
+	 */
+	public String getMimeType() {
+		return mimeType;
+	}
+	
+	/**
+	 * Detects the format from the first bytes of an image.
+	 * 
+	 * @param header The first bytes of the image.
+	 * @param length The number of valid bytes in {@code header}.
+	 * @return The detected format or <code>null</code> if the bytes do not 
+	 *         match any of the supported formats.
+	 */
+	public static ImageFormat detect(final byte[] header, final int length) {
+		if((length >= 8) && ((header[0] & 0xff) == 0x89) && (header[1] == 'P') && (header[2] == 'N') && (header[3] == 'G') && (header[4] == '\r') && (header[5] == '\n') && (header[6] == 0x1a) && (header[7] == '\n')) {
+			return PNG;
+		}
+		if((length >= 6) && (header[0] == 'G') && (header[1] == 'I') && (header[2] == 'F') && (header[3] == '8') && ((header[4] == '7') || (header[4] == '9')) && (header[5] == 'a')) {
+			return GIF;
+		}
+		if((length >= 3) && ((header[0] & 0xff) == 0xff) && ((header[1] & 0xff) == 0xd8) && ((header[2] & 0xff) == 0xff)) {
+			return JPEG;
+		}
+		if((length >= 12) && (header[0] == 'R') && (header[1] == 'I') && (header[2] == 'F') && (header[3] == 'F') && (header[8] == 'W') && (header[9] == 'E') && (header[10] == 'B') && (header[11] == 'P')) {
+			return WEBP;
+		}
+		return null;
+	}
+	
+	/**
+	 * Looks up the format that the passed in file extension belongs to.
+	 * 
+	 * @param extension The file extension (case insensitive) without the dot.
+	 * @return The format or <code>null</code> if the extension is not one of 
+	 *         the supported extensions.
+	 */
+	public static ImageFormat fromExtension(final String extension) {
+		if(extension == null) {
+			return null;
+		}
+		final String ext = extension.toLowerCase();
+		if(IImageOptimizationService.PNG_EXTENSION.equals(ext)) {
+			return PNG;
+		}
+		if(IImageOptimizationService.GIF_EXTENSION.equals(ext)) {
+			return GIF;
+		}
+		if(IImageOptimizationService.JPEG_EXTENSION.equals(ext) || IImageOptimizationService.JPEG_EXTENSION2.equals(ext) || IImageOptimizationService.JPEG_EXTENSION3.equals(ext)) {
+			return JPEG;
+		}
+		if(IImageOptimizationService.WEBP_EXTENSION.equals(ext)) {
+			return WEBP;
+		}
+		return null;
+	}
+}
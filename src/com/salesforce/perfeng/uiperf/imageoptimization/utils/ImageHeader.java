@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.utils;
+
+import java.awt.Dimension;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import org.apache.http.annotation.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * What is known about an image from its header: its format, its dimension 
+ * and, for a PNG, the bit depth and color type. The header is read once, when
+ * the image is found, and passed along with the file so that nothing else 
+ * needs to open the file to look at it again.
+ * <p>
+ * Reading the header only sniffs the first few bytes of the image through a 
+ * reused buffer. The dimension needs an ImageIO reader so it is only read the
+ * first time {@link #getDimension()} is called.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@ThreadSafe
+public final class ImageHeader {
+
+	private final static Logger logger = LoggerFactory.getLogger(ImageHeader.class);
+	
+	/**
+	 * The number of bytes read from the start of the image. The IHDR chunk 
+	 * always comes first in a PNG, its bit depth and color type are the 25th
+	 * and 26th bytes of the file.
+	 */
+	private static final int LENGTH = 26;
+	
+	/**
+	 * Reused by {@link #read(File)} so that checking a large number of files 
+	 * does not allocate a buffer per file.
+	 */
+	private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[LENGTH]);
+	
+	private final ImageFormat format;
+	private final int pngBitDepth;
+	private final int pngColorType;
+	private final File file;
+	private final byte[] data;
+	
+	private volatile Dimension dimension;
+	private volatile boolean dimensionRead;
+	
+	private ImageHeader(final ImageFormat format, final int pngBitDepth, final int pngColorType, final File file, final byte[] data) {
+		this.format = format;
+		this.pngBitDepth = pngBitDepth;
+		this.pngColorType = pngColorType;
+		this.file = file;
+		this.data = data;
+	}
+	
+	/**
+	 * Reads the header of the passed in image.
+	 * 
+	 * @param file The image.
+	 * @return The header of the image.
+	 * @throws IOException Thrown if the file cannot be read.
+	 */
+	public static ImageHeader read(final File file) throws IOException {
+		final byte[] header = BUFFER.get();
+		try(final InputStream is = new FileInputStream(file)) {
+			return create(header, read(is, header), file, null);
+		}
+	}
+	
+	/**
+	 * @param data The bytes of the image. They are kept, not copied, in case 
+	 *        the dimension is needed.
+	 * @return The header of the image.
+	 * @throws IOException Thrown if the bytes cannot be read.
+	 * @see #read(File)
+	 */
+	public static ImageHeader read(final byte[] data) throws IOException {
+		final byte[] header = BUFFER.get();
+		try(final InputStream is = new ByteArrayInputStream(data)) {
+			return create(header, read(is, header), null, data);
+		}
+	}
+	
+	private static int read(final InputStream is, final byte[] header) throws IOException {
+		int length = 0;
+		int read;
+		while((length < LENGTH) && ((read = is.read(header, length, LENGTH - length)) != -1)) {
+			length += read;
+		}
+		return length;
+	}
+	
+	private static ImageHeader create(final byte[] header, final int length, final File file, final byte[] data) {
+		final ImageFormat format = ImageFormat.detect(header, length);
+		final boolean png = (format == ImageFormat.PNG) && (length == LENGTH);
+		return new ImageHeader(format, png ? header[24] : -1, png ? header[25] : -1, file, data);
+	}
+	
+	/**
+	 * @return The format detected from the content of the image or 
+	 *         <code>null</code> if it is not one of the supported formats.
+	 */
+	public ImageFormat getFormat() {
+		return format;
+	}
+	
+	/**
+	 * The first call opens the image again to read its dimension, later calls
+	 * return the value read then.
+	 * 
+	 * @return The dimension of the image, for a GIF the larger of the first 
+	 *         frame and the logical screen, or <code>null</code> if it cannot
+	 *         be read.
+	 */
+	public Dimension getDimension() {
+		if(!dimensionRead) {
+			dimension = readDimension();
+			dimensionRead = true;
+		}
+		final Dimension d = dimension;
+		return (d == null) ? null : new Dimension(d);
+	}
+	
+	private Dimension readDimension() {
+		if(format == null) {
+			return null;
+		}
+		try(final ImageInputStream stream = (file != null) ? new FileImageInputStream(file) : new MemoryCacheImageInputStream(new ByteArrayInputStream(data))) {
+			return ImageDecoder.readDimension(format, stream);
+		} catch(final Exception e) {
+			if(logger.isDebugEnabled()) {
+				logger.debug("Unable to read the dimension of " + ((file != null) ? file.getPath() : ImageUtils.IN_MEMORY_IMAGE_PATH) + '.', e);
+			}
+			return null;
+		}
+	}
+	
+	/**
+	 * @return The bit depth of the PNG or -1 if the image is not a PNG.
+	 */
+	public int getPngBitDepth() {
+		return pngBitDepth;
+	}
+	
+	/**
+	 * @return The color type of the PNG or -1 if the image is not a PNG.
+	 */
+	public int getPngColorType() {
+		return pngColorType;
+	}
+}
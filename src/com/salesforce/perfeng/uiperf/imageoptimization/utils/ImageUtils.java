@@ -1,31 +1,27 @@
 package com.salesforce.perfeng.uiperf.imageoptimization.utils;
 
-import java.awt.Graphics2D;
 import java.awt.Image;
-import java.awt.Toolkit;
 import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorConvertOp;
 import java.awt.image.PixelGrabber;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.StringWriter;
 import java.util.Iterator;
 
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
 import javax.imageio.stream.ImageInputStream;
-import javax.swing.ImageIcon;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.http.annotation.Immutable;
 import org.apache.http.annotation.ThreadSafe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.salesforce.perfeng.uiperf.ThirdPartyBinaryNotFoundException;
+import com.salesforce.perfeng.uiperf.imageoptimization.metrics.OptimizationEvent;
+import com.salesforce.perfeng.uiperf.imageoptimization.metrics.OptimizationEvents;
 
 /**
  * Utility methods used to interact with images.
@@ -44,33 +40,14 @@ public class ImageUtils {
 	 * application needs to be installed on the system this JAVA app is running 
 	 * on.
 	 */
-	static final String CONVERT_BINARY = "convert";
-	
-	private static final boolean equals(final int[] data1, final int[] data2) {
-        final int length = data1.length;
-		if (length != data2.length) {
-			logger.debug("File lengths are different.");
-            return false;
-        }
-		for(int i = 0; i < length; i++) {
-			if(data1[i] != data2[i]) {
-		        
-				//If the alpha is 0 for both that means that the pixels are 100%
-				//transparent and the color does not matter. Return false if 
-				//only 1 is 100% transparent.
-				if((((data1[i] >> 24) & 0xff) == 0) && (((data2[i] >> 24) & 0xff) == 0)) {
-					logger.debug("Both pixles at spot {} are different but 100% transparent.", Integer.valueOf(i));
-				} else {
-					logger.debug("The pixel {} is different.", Integer.valueOf(i));
-					return false;
-				}
-			}
-		}
-		logger.debug("Both groups of pixels are the same.");
-		return true;
-	}
+	public static final String CONVERT_BINARY = "convert";
+	/**
+	 * Used in place of a file path in error messages for images that only 
+	 * exist in memory.
+	 */
+	public static final String IN_MEMORY_IMAGE_PATH = "<in memory image>";
 	
-	private static final int[] getPixels(final BufferedImage img, final File file) {
+	private static final int[] getPixels(final BufferedImage img, final String imagePath) {
 		
 		final int width = img.getWidth();
         final int height = img.getHeight();
@@ -90,7 +67,7 @@ public class ImageUtils {
 			    throw new RuntimeException();
 			}
 		} catch (final InterruptedException ie) {
-			throw new ImageFileOptimizationException(file.getPath(), ie);
+			throw new ImageFileOptimizationException(imagePath, ie);
 		}
 		
         return pixelData;
@@ -100,28 +77,24 @@ public class ImageUtils {
 	 * Gets the {@link BufferedImage} from the passed in {@link File}.
 	 * 
 	 * @param file The <code>File</code> to use.
-	 * @return The resulting <code>BufferedImage</code>
+	 * @return The resulting <code>BufferedImage</code>, which needs to be 
+	 *         closed once it is no longer used.
+	 * @see ImageDecoder#decode(File)
 	 */
-	@SuppressWarnings("unused")
-	final static BufferedImage getBufferedImage(final File file) {
-		Image image;
-			
-		try (final FileInputStream inputStream = new FileInputStream(file)) {
-			// ImageIO.read(file) is broken for some images so I went this 
-			// route
-			image = Toolkit.getDefaultToolkit().createImage(file.getCanonicalPath());
-			
-			//forces the image to be rendered
-			new ImageIcon(image);
-		} catch(final Exception e2) {
-			throw new ImageFileOptimizationException(file.getPath(), e2);
-		}
-		
-		final BufferedImage converted = new BufferedImage(image.getWidth(null), image.getHeight(null), BufferedImage.TYPE_INT_ARGB);
-		final Graphics2D g2d = converted.createGraphics();
-        g2d.drawImage(image, 0, 0, null);
-        g2d.dispose();
-		return converted;
+	final static ImageDecoder.DecodedImage getBufferedImage(final File file) {
+		return ImageDecoder.decode(file);
+	}
+	
+	/**
+	 * Gets the {@link BufferedImage} from the passed in image bytes.
+	 * 
+	 * @param data The bytes of the image to use.
+	 * @return The resulting <code>BufferedImage</code>, which needs to be 
+	 *         closed once it is no longer used.
+	 * @see ImageDecoder#decode(byte[])
+	 */
+	final static ImageDecoder.DecodedImage getBufferedImage(final byte[] data) {
+		return ImageDecoder.decode(data);
 	}
 	
 	/**
@@ -135,7 +108,10 @@ public class ImageUtils {
 	 *         <code>false</code>.
 	 */
 	private final static boolean visuallyCompareJava(final File file1, final File file2) {
-		return equals(getPixels(getBufferedImage(file1), file1), getPixels(getBufferedImage(file2), file2));
+		try(final ImageDecoder.DecodedImage image1 = getBufferedImage(file1);
+				final ImageDecoder.DecodedImage image2 = getBufferedImage(file2)) {
+			return PixelComparator.equals(image1.getImage(), image2.getImage());
+		}
 	}
 
 	/**
@@ -155,7 +131,10 @@ public class ImageUtils {
 			return true;
 		}
 		
+		final OptimizationEvent event = OptimizationEvents.verification("compare", file2.getPath());
 		boolean answer = visuallyCompareJava(file1, file2);
+		event.setPassed(answer);
+		event.commit();
 
 		if(!answer) {
 			logger.info("The files \"{}\" and \"{}\" are not pixel by pixel the same image. Manual comparison required.", file1.getPath(), file2.getPath());
@@ -166,6 +145,58 @@ public class ImageUtils {
 		return answer;
 	}
 	
+	/**
+	 * Compares 2 in memory images to see if they are the same based on a 
+	 * visual pixel by pixel comparison.
+	 * 
+	 * @param data1 Image 1 to compare
+	 * @param data2 Image 2 to compare
+	 * @return <code>true</code> if both images are visually the same.
+	 * @see #visuallyCompare(File, File)
+	 */
+	public final static boolean visuallyCompare(final byte[] data1, final byte[] data2) {
+		if(data1 == data2) {
+			return true;
+		}
+		
+		final OptimizationEvent event = OptimizationEvents.verification("compare", IN_MEMORY_IMAGE_PATH);
+		final boolean answer;
+		try(final ImageDecoder.DecodedImage image1 = getBufferedImage(data1);
+				final ImageDecoder.DecodedImage image2 = getBufferedImage(data2)) {
+			answer = PixelComparator.equals(image1.getImage(), image2.getImage());
+		}
+		event.setPassed(answer);
+		event.commit();
+		if(!answer) {
+			logger.info("The in memory images are not pixel by pixel the same image. Manual comparison required.");
+		}
+		return answer;
+	}
+	
+	/**
+	 * Compares 2 images to see if they are the same based on a visual pixel by
+	 * pixel comparison, using the images already decoded by the contexts.
+	 * 
+	 * @param image1 Image 1 to compare
+	 * @param image2 Image 2 to compare
+	 * @return <code>true</code> if both images are visually the same.
+	 * @see #visuallyCompare(File, File)
+	 */
+	public final static boolean visuallyCompare(final ImageContext image1, final ImageContext image2) {
+		if(image1 == image2) {
+			return true;
+		}
+		
+		final OptimizationEvent event = OptimizationEvents.verification("compare", image2.getPath());
+		final boolean answer = PixelComparator.equals(image1.getImage(), image2.getImage());
+		event.setPassed(answer);
+		event.commit();
+		if(!answer) {
+			logger.info("The files \"{}\" and \"{}\" are not pixel by pixel the same image. Manual comparison required.", image1.getPath(), image2.getPath());
+		}
+		return answer;
+	}
+	
 	/**
 	 * @param file The image to check
 	 * @return <code>true</code> if the image contains one or more pixels with
@@ -174,8 +205,47 @@ public class ImageUtils {
 	public final static boolean containsAlphaTransparency(final File file) {
 		logger.debug("Start Alpha pixel check for {}.", file.getPath());
 		
-		boolean answer = false;
-		for(final int pixel : getPixels(getBufferedImage(file), file)) {
+		final boolean answer;
+		try(final ImageDecoder.DecodedImage image = getBufferedImage(file)) {
+			answer = containsAlphaTransparency(image.getImage(), file.getPath());
+		}
+		
+		logger.debug("End Alpha pixel check for {}.", file.getPath());
+		
+		return answer;
+	}
+	
+	/**
+	 * @param data The bytes of the image to check
+	 * @return <code>true</code> if the image contains one or more pixels with
+	 *         some percentage of transparency (Alpha)
+	 * @see #containsAlphaTransparency(File)
+	 */
+	public final static boolean containsAlphaTransparency(final byte[] data) {
+		try(final ImageDecoder.DecodedImage image = getBufferedImage(data)) {
+			return containsAlphaTransparency(image.getImage(), IN_MEMORY_IMAGE_PATH);
+		}
+	}
+	
+	/**
+	 * @param image The decoded image to check
+	 * @param imagePath The path of the image, used in error messages.
+	 * @return <code>true</code> if the image contains one or more pixels with
+	 *         some percentage of transparency (Alpha)
+	 * @see #containsAlphaTransparency(File)
+	 */
+	final static boolean containsAlphaTransparency(final BufferedImage image, final String imagePath) {
+		// The pixels are copied into a new array.
+		final ImageDecoder.Reservation reservation = ImageDecoder.reserve((long)image.getWidth() * image.getHeight() * ImageDecoder.BYTES_PER_PIXEL, imagePath);
+		try {
+			return containsAlphaTransparency(getPixels(image, imagePath));
+		} finally {
+			reservation.close();
+		}
+	}
+	
+	private final static boolean containsAlphaTransparency(final int[] pixels) {
+		for(final int pixel : pixels) {
 			//If the alpha is 0 for both that means that the pixels are 100%
 			//transparent and the color does not matter. Return false if 
 			//only 1 is 100% transparent.
@@ -186,32 +256,15 @@ public class ImageUtils {
 		}
 		
 		logger.debug("The image does not contain Aplha Transparency.");
-		logger.debug("End Alpha pixel check for {}.", file.getPath());
-		
-		return answer;
+		return false;
 	}
 	
-	private final static void handleOptimizationFailure(final Process ps, final String binaryApplicationName, final File originalFile) throws ThirdPartyBinaryNotFoundException, ImageFileOptimizationException {
-		
-		try(final StringWriter writer = new StringWriter();
-			final InputStream is      = ps.getInputStream()) {
-			try {
-				IOUtils.copy(is, writer);
-				final StringBuilder errorMessage = new StringBuilder("Image conversion failed with edit code: ").append(ps.exitValue()).append(". ").append(writer);
-				if(ps.exitValue() == 127 /* command not found */) {
-					throw new ThirdPartyBinaryNotFoundException(binaryApplicationName, "Most likely this is due to ImageMagick not being installed on the OS. On Ubuntu run \"sudo apt-get install imagemagick\".", new RuntimeException(errorMessage.toString()));
-				}
-				throw ImageFileOptimizationException.getInstance(originalFile, new RuntimeException(errorMessage.toString()));
-			} catch (final IOException ioe) {
-				logger.error("Unable to redirect error output for child process for " + originalFile, ioe);
-			}
-		} catch(final ThirdPartyBinaryNotFoundException tpbnfe) {
-			throw tpbnfe;
-		} catch(final ImageFileOptimizationException ifoe) {
-			throw ifoe;
-		} catch(final Exception e) {
-			throw new RuntimeException(e);
+	private final static void handleOptimizationFailure(final ProcessRunner.Result result, final String binaryApplicationName, final File originalFile) throws ThirdPartyBinaryNotFoundException, ImageFileOptimizationException {
+		final String errorMessage = new StringBuilder("Image conversion failed with edit code: ").append(result.getExitValue()).append(". ").append(result.getOutput()).toString();
+		if(result.getExitValue() == 127 /* command not found */) {
+			throw new ThirdPartyBinaryNotFoundException(binaryApplicationName, "Most likely this is due to ImageMagick not being installed on the OS. On Ubuntu run \"sudo apt-get install imagemagick\".", new RuntimeException(errorMessage));
 		}
+		throw ImageFileOptimizationException.getInstance(originalFile, new RuntimeException(errorMessage));
 	}
 	
 	/**
@@ -227,15 +280,22 @@ public class ImageUtils {
 	 *                                           application does not exist.
 	 */
 	public final static void convertImageNative(final File fromImage, final File toImage) throws InterruptedException, ThirdPartyBinaryNotFoundException {
-		final Process ps;
+		final ProcessRunner.Execution execution;
 		try {
-			ps = new ProcessBuilder(CONVERT_BINARY, fromImage.getCanonicalPath(), toImage.getCanonicalPath()).start();
+			final ProcessBuilder pb = new ProcessBuilder(CONVERT_BINARY, fromImage.getCanonicalPath(), toImage.getCanonicalPath());
+			pb.redirectErrorStream(true);
+			execution = ProcessRunner.getDefault().start(pb);
 		} catch(final IOException ioe) {
 			throw new ThirdPartyBinaryNotFoundException(CONVERT_BINARY, "Most likely this is due to ImageMagic not being installed on the OS. On Ubuntu run \"sudo apt-get install imagemagick\".", ioe);
 		}
 		
-		if((ps.waitFor() != 0) || !toImage.exists()) {
-			handleOptimizationFailure(ps, CONVERT_BINARY, fromImage);
+		final ProcessRunner.Result result = execution.waitFor();
+		if(result.isTimedOut()) {
+			// It may have been killed half way through writing the image.
+			toImage.delete();
+		}
+		if(result.isTimedOut() || (result.getExitValue() != 0) || !toImage.exists()) {
+			handleOptimizationFailure(result, CONVERT_BINARY, fromImage);
 		}
 	}
 	
@@ -246,20 +306,44 @@ public class ImageUtils {
 	 * @return <code>true</code> if it is an animated gif.
 	 */
 	public final static boolean isAminatedGif(final File file) {
-
 		try(final ImageInputStream stream = ImageIO.createImageInputStream(file)) {
-			if(stream == null) {
-				return true;
-			}
-			final Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
-			if (!readers.hasNext()) {
-				throw new RuntimeException("no image reader found");
-			}
-			final ImageReader reader = readers.next();
-			reader.setInput(stream); // don't omit this line!
-			return (reader.getNumImages(true) > 1); // don't use false!
+			return isAnimatedGif(stream);
+		} catch (final IOException ioe) {
+			throw new RuntimeException(ioe);
+		}
+	}
+	
+	/**
+	 * Checks to see if the in memory image is an animated gif.
+	 * 
+	 * @param data The bytes of the image to check
+	 * @return <code>true</code> if it is an animated gif.
+	 * @see #isAminatedGif(File)
+	 */
+	public final static boolean isAminatedGif(final byte[] data) {
+		try(final ImageInputStream stream = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
+			return isAnimatedGif(stream);
 		} catch (final IOException ioe) {
 			throw new RuntimeException(ioe);
 		}
 	}
+	
+	/**
+	 * @param stream The opened image or <code>null</code> if ImageIO could 
+	 *               not open it.
+	 * @return <code>true</code> if it is an animated gif.
+	 * @throws IOException Thrown if the image cannot be read.
+	 */
+	private final static boolean isAnimatedGif(final ImageInputStream stream) throws IOException {
+		if(stream == null) {
+			return true;
+		}
+		final Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+		if (!readers.hasNext()) {
+			throw new RuntimeException("no image reader found");
+		}
+		final ImageReader reader = readers.next();
+		reader.setInput(stream); // don't omit this line!
+		return (reader.getNumImages(true) > 1); // don't use false!
+	}
 }
\ No newline at end of file
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.utils;
+
+import java.util.concurrent.Semaphore;
+
+import org.apache.http.annotation.ThreadSafe;
+
+/**
+ * A number of bytes of memory shared by all of the threads. A thread has to 
+ * acquire the bytes it is about to allocate before it allocates them and waits
+ * until enough of the budget is released by other threads, so the peak memory
+ * used stays bounded no matter how many threads are running.
+ * <p>The bytes are counted in kilobytes so that budgets larger than 2GB fit in
+ * the underlying {@link Semaphore}. A request for more than the whole budget 
+ * waits for the whole budget, so it runs on its own instead of never 
+ * running.</p>
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@ThreadSafe
+public class MemoryBudget {
+
+	private static final int KILOBYTE = 1024;
+	
+	private final Semaphore semaphore;
+	private final int capacity;
+	
+	/**
+	 * @param bytes The size of the budget in bytes.
+	 */
+	public MemoryBudget(final long bytes) {
+		if(bytes < KILOBYTE) {
+			throw new IllegalArgumentException("The budget needs to be at least " + KILOBYTE + " bytes.");
+		}
+		capacity = (int)Math.min(bytes / KILOBYTE, Integer.MAX_VALUE);
+		semaphore = new Semaphore(capacity, true);
+	}
+	
+	/**
+	 * Waits until the passed in number of bytes are available and takes them 
+	 * from the budget. Each call needs to be followed by a call to 
+	 * {@link #release(long)} with the same number of bytes.
+	 * 
+	 * @param bytes The number of bytes about to be allocated.
+	 * @throws InterruptedException Thrown if the thread is interrupted while 
+	 *                              waiting.
+	 */
+	public void acquire(final long bytes) throws InterruptedException {
+		semaphore.acquire(toPermits(bytes));
+	}
+	
+	/**
+	 * Takes the passed in number of bytes from the budget only if they are 
+	 * available right away.
+	 * 
+	 * @param bytes The number of bytes about to be allocated.
+	 * @return <code>true</code> if the bytes were taken, in which case they 
+	 *         need to be given back with {@link #release(long)}.
+	 */
+	public boolean tryAcquire(final long bytes) {
+		return semaphore.tryAcquire(toPermits(bytes));
+	}
+	
+	/**
+	 * Gives the bytes taken by {@link #acquire(long)} back to the budget.
+	 * 
+	 * @param bytes The number of bytes that were acquired.
+	 */
+	public void release(final long bytes) {
+		semaphore.release(toPermits(bytes));
+	}
+	
+	/**
+	 * @return The number of bytes that can be acquired without waiting.
+	 */
+	public long getAvailableBytes() {
+		return (long)semaphore.availablePermits() * KILOBYTE;
+	}
+	
+	private int toPermits(final long bytes) {
+		if(bytes < 0) {
+			throw new IllegalArgumentException("The number of bytes cannot be negative.");
+		}
+		return (int)Math.min((bytes + KILOBYTE - 1) / KILOBYTE, capacity);
+	}
+}
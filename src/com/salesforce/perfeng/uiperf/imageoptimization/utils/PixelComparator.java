@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.utils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.http.annotation.Immutable;
+import org.apache.http.annotation.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Compares the pixels of 2 images in place, one row at a time, and stops 
+ * at the first pixel that is different. Two pixels that are both 100% 
+ * transparent are considered the same whatever their color.</p>
+ * <p>When both images are {@link BufferedImage#TYPE_INT_ARGB}, which is what 
+ * {@link ImageDecoder} decodes every image to, the backing <code>int[]</code> 
+ * of each {@link Raster} is read directly. Any other type of image is read through 2 
+ * reused row buffers. Either way nothing is allocated per pixel.</p>
+ * <p>Images with at least {@link #PARALLEL_THRESHOLD} pixels are split into 
+ * bands of rows that are compared in parallel on the common 
+ * {@link ForkJoinPool}. As soon as one band finds a difference the other 
+ * bands stop.</p>
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@Immutable
+@ThreadSafe
+public class PixelComparator {
+
+	private final static Logger logger = LoggerFactory.getLogger(PixelComparator.class);
+	
+	/**
+	 * Name of the system property used to set {@link #PARALLEL_THRESHOLD}.
+	 */
+	public static final String PARALLEL_THRESHOLD_PROPERTY = "imageoptimization.parallelCompareThreshold";
+	/**
+	 * The minimum number of pixels an image needs before it is compared in 
+	 * parallel. Smaller images are not worth the fork / join overhead. Set 
+	 * with the {@value #PARALLEL_THRESHOLD_PROPERTY} system property, the 
+	 * default is 1 megapixel. A value of 0 or less disables the parallel 
+	 * comparison.
+	 */
+	public static final int PARALLEL_THRESHOLD = Integer.getInteger(PARALLEL_THRESHOLD_PROPERTY, 1024 * 1024).intValue();
+	/**
+	 * The number of pixels compared by 1 task before it stops splitting its 
+	 * rows.
+	 */
+	private static final int PIXELS_PER_BAND = 128 * 1024;
+	
+	/**
+	 * Compares every pixel of the 2 images.
+	 * 
+	 * @param image1 Image 1 to compare
+	 * @param image2 Image 2 to compare
+	 * @return <code>true</code> if both images are visually the same.
+	 */
+	public static boolean equals(final BufferedImage image1, final BufferedImage image2) {
+		if((image1.getWidth() != image2.getWidth()) || (image1.getHeight() != image2.getHeight())) {
+			logger.debug("The image dimensions are different.");
+			return false;
+		}
+		final long numberOfPixels = (long)image1.getWidth() * image1.getHeight();
+		final boolean answer;
+		if((PARALLEL_THRESHOLD > 0) && (numberOfPixels >= PARALLEL_THRESHOLD) && (ForkJoinPool.getCommonPoolParallelism() > 1)) {
+			answer = ForkJoinPool.commonPool().invoke(new CompareBand(image1, image2, 0, image1.getHeight(), new AtomicBoolean())).booleanValue();
+		} else {
+			answer = equals(image1, image2, 0, image1.getHeight(), null);
+		}
+		if(answer) {
+			logger.debug("Both groups of pixels are the same.");
+		}
+		return answer;
+	}
+	
+	/**
+	 * Compares the pixels in a range of rows of the 2 images. Both images must
+	 * have the same dimensions.
+	 * 
+	 * @param image1 Image 1 to compare
+	 * @param image2 Image 2 to compare
+	 * @param fromRow The first row to compare (inclusive).
+	 * @param toRow The last row to compare (exclusive).
+	 * @param different Shared between the bands of a parallel comparison. Is 
+	 *                  set when a difference is found and checked before each
+	 *                  row so the other bands can stop early. Can be 
+	 *                  <code>null</code>.
+	 * @return <code>true</code> if the rows are visually the same. The answer
+	 *         is meaningless if another band found a difference first.
+	 */
+	static boolean equals(final BufferedImage image1, final BufferedImage image2, final int fromRow, final int toRow, final AtomicBoolean different) {
+		final int[] data1 = getArgbData(image1);
+		final int[] data2 = getArgbData(image2);
+		final int width = image1.getWidth();
+		int transparentDifferences = 0;
+		
+		if((data1 != null) && (data2 != null)) {
+			for(int y = fromRow; y < toRow; y++) {
+				if((different != null) && different.get()) {
+					return false;
+				}
+				final int difference = compareRow(data1, data2, y * width, width);
+				if(difference < 0) {
+					if(different != null) {
+						different.set(true);
+					}
+					if(logger.isDebugEnabled()) {
+						logger.debug("The pixel {} is different.", Integer.valueOf(-difference - 1));
+					}
+					return false;
+				}
+				transparentDifferences += difference;
+			}
+		} else {
+			final int[] row1 = new int[width];
+			final int[] row2 = new int[width];
+			for(int y = fromRow; y < toRow; y++) {
+				if((different != null) && different.get()) {
+					return false;
+				}
+				image1.getRGB(0, y, width, 1, row1, 0, width);
+				image2.getRGB(0, y, width, 1, row2, 0, width);
+				final int difference = compareRow(row1, row2, 0, width);
+				if(difference < 0) {
+					if(different != null) {
+						different.set(true);
+					}
+					if(logger.isDebugEnabled()) {
+						logger.debug("The pixel {} is different.", Integer.valueOf((y * width) - difference - 1));
+					}
+					return false;
+				}
+				transparentDifferences += difference;
+			}
+		}
+		if((transparentDifferences > 0) && logger.isDebugEnabled()) {
+			logger.debug("{} pixels are different but 100% transparent in both images.", Integer.valueOf(transparentDifferences));
+		}
+		return true;
+	}
+	
+	/**
+	 * Compares 1 row of pixels.
+	 * 
+	 * @param data1 The pixels of image 1.
+	 * @param data2 The pixels of image 2.
+	 * @param offset The index of the first pixel of the row.
+	 * @param width The number of pixels in the row.
+	 * @return The number of pixels that are different but 100% transparent in
+	 *         both images or, if a pixel is really different, 
+	 *         <code>-(index + 1)</code> of that pixel.
+	 */
+	private static int compareRow(final int[] data1, final int[] data2, final int offset, final int width) {
+		int transparentDifferences = 0;
+		final int end = offset + width;
+		for(int i = offset; i < end; i++) {
+			final int pixel1 = data1[i];
+			final int pixel2 = data2[i];
+			if(pixel1 != pixel2) {
+				//If the alpha is 0 for both that means that the pixels are 100%
+				//transparent and the color does not matter.
+				if(((pixel1 | pixel2) & 0xff000000) != 0) {
+					return -i - 1;
+				}
+				transparentDifferences++;
+			}
+		}
+		return transparentDifferences;
+	}
+	
+	/**
+	 * Compares a band of rows, splitting it in half until it is small enough.
+	 */
+	private static final class CompareBand extends RecursiveTask<Boolean> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final transient BufferedImage image1;
+		private final transient BufferedImage image2;
+		private final int fromRow;
+		private final int toRow;
+		private final AtomicBoolean different;
+		
+		CompareBand(final BufferedImage image1, final BufferedImage image2, final int fromRow, final int toRow, final AtomicBoolean different) {
+			this.image1 = image1;
+			this.image2 = image2;
+			this.fromRow = fromRow;
+			this.toRow = toRow;
+			this.different = different;
+		}
+		
+		@Override
+		protected Boolean compute() {
+			final int numberOfRows = toRow - fromRow;
+			if((numberOfRows < 2) || (((long)numberOfRows * image1.getWidth()) <= PIXELS_PER_BAND)) {
+				return Boolean.valueOf(PixelComparator.equals(image1, image2, fromRow, toRow, different));
+			}
+			final int middle = fromRow + (numberOfRows / 2);
+			final CompareBand top = new CompareBand(image1, image2, fromRow, middle, different);
+			top.fork();
+			final boolean bottom = new CompareBand(image1, image2, middle, toRow, different).compute().booleanValue();
+			return Boolean.valueOf(top.join().booleanValue() && bottom && !different.get());
+		}
+	}
+	
+	/**
+	 * @param image The image to get the pixels from.
+	 * @return The backing array of the image, with one non pre-multiplied ARGB
+	 *         pixel per element and no padding between rows, or 
+	 *         <code>null</code> if the image is not stored that way.
+	 */
+	static int[] getArgbData(final BufferedImage image) {
+		if(image.getType() != BufferedImage.TYPE_INT_ARGB) {
+			return null;
+		}
+		final Raster raster = image.getRaster();
+		final DataBuffer dataBuffer = raster.getDataBuffer();
+		if(!(dataBuffer instanceof DataBufferInt) || (dataBuffer.getNumBanks() != 1) || (dataBuffer.getOffset() != 0) || (raster.getParent() != null)) {
+			return null;
+		}
+		if(!(raster.getSampleModel() instanceof SinglePixelPackedSampleModel) || (((SinglePixelPackedSampleModel)raster.getSampleModel()).getScanlineStride() != image.getWidth())) {
+			return null;
+		}
+		return ((DataBufferInt)dataBuffer).getData();
+	}
+}
@@ -0,0 +1,514 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+import org.apache.http.annotation.Immutable;
+import org.apache.http.annotation.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Runs the child processes of the binaries. The output of each process is
+ * read on other threads while it runs, so a binary that writes more than the
+ * pipe holds does not block, and only the last 
+ * {@link #getOutputLimit()} bytes are kept for the error messages.</p>
+ * <p>A process that runs longer than {@link #getTimeoutMillis()} is killed,
+ * together with the processes it started, and each run returns a 
+ * {@link Result} with the exit code and how long it took.</p>
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@ThreadSafe
+public class ProcessRunner {
+	
+	private final static Logger logger = LoggerFactory.getLogger(ProcessRunner.class);
+	
+	/**
+	 * Name of the system property with the most bytes of output kept for 
+	 * each process. The default is 65536.
+	 */
+	public static final String OUTPUT_LIMIT_PROPERTY = "imageoptimization.process.outputLimit";
+	/**
+	 * Name of the system property with the seconds a process can run before 
+	 * it is killed, when the caller does not set a timeout. The default is 0,
+	 * which means there is no timeout.
+	 */
+	public static final String TIMEOUT_PROPERTY = "imageoptimization.process.timeoutSeconds";
+	
+	/**
+	 * How long to wait for the output of a process after it exited. Only a 
+	 * process it started that is still running can hold the output open that
+	 * long.
+	 */
+	private static final long DRAIN_TIMEOUT_MILLIS = 1000;
+	
+	/**
+	 * <code>Process.descendants()</code>, <code>null</code> before Java 9.
+	 */
+	private static final Method DESCENDANTS;
+	/**
+	 * <code>ProcessHandle.destroyForcibly()</code>, <code>null</code> before 
+	 * Java 9.
+	 */
+	private static final Method DESTROY_FORCIBLY;
+	static {
+		Method descendants = null;
+		Method destroyForcibly = null;
+		try {
+			descendants = Process.class.getMethod("descendants");
+			destroyForcibly = Class.forName("java.lang.ProcessHandle").getMethod("destroyForcibly");
+		} catch(final ReflectiveOperationException roe) {
+			logger.debug("The processes started by a binary can only be found with pkill before Java 9.", roe);
+		}
+		DESCENDANTS = descendants;
+		DESTROY_FORCIBLY = destroyForcibly;
+	}
+	
+	private static volatile ProcessRunner defaultInstance;
+	
+	private final Executor executor;
+	private final int outputLimit;
+	private final long timeoutMillis;
+	
+	/**
+	 * @param executor Runs the threads that read the output of and write the
+	 *                 input to the processes. It needs a thread for each
+	 *                 stream of each process that is running, so it should 
+	 *                 not have a limit.
+	 * @param outputLimit The most bytes of output kept for each process.
+	 * @param timeoutMillis How long a process can run before it is killed. If
+	 *                      the value is 0 or a negative number then there is
+	 *                      no timeout.
+	 */
+	public ProcessRunner(final Executor executor, final int outputLimit, final long timeoutMillis) {
+		if(outputLimit <= 0) {
+			throw new IllegalArgumentException("The output limit has to be positive.");
+		}
+		this.executor = executor;
+		this.outputLimit = outputLimit;
+		this.timeoutMillis = timeoutMillis;
+	}
+	
+	/**
+	 * @param executor Runs the threads that read the output of and write the
+	 *                 input to the processes.
+	 * @param timeoutMillis How long a process can run before it is killed. If
+	 *                      the value is 0 or a negative number the 
+	 *                      {@value #TIMEOUT_PROPERTY} system property is used.
+	 * @return The runner with the {@value #OUTPUT_LIMIT_PROPERTY} system 
+	 *         property.
+	 */
+	public static ProcessRunner createInstance(final Executor executor, final long timeoutMillis) {
+		return new ProcessRunner(executor, Integer.getInteger(OUTPUT_LIMIT_PROPERTY, 64 * 1024).intValue(), 
+				(timeoutMillis > 0) ? timeoutMillis : TimeUnit.SECONDS.toMillis(Long.getLong(TIMEOUT_PROPERTY, 0).longValue()));
+	}
+	
+	/**
+	 * @return The runner configured by the system properties, with its own 
+	 *         daemon threads, for the code that does not have a runner of its
+	 *         own.
+	 */
+	public static ProcessRunner getDefault() {
+		ProcessRunner runner = defaultInstance;
+		if(runner == null) {
+			synchronized(ProcessRunner.class) {
+				runner = defaultInstance;
+				if(runner == null) {
+					final ExecutorService executorService = Executors.newCachedThreadPool(DaemonThreadFactory.INSTANCE);
+					runner = createInstance(executorService, 0);
+					defaultInstance = runner;
+				}
+			}
+		}
+		return runner;
+	}
+	
+	/**
+	 * Starts the process, its output is kept in the {@link Result}.
+	 * 
+	 * @param pb The process to start.
+	 * @return The running process.
+	 * @throws IOException Thrown if the process cannot be started.
+	 */
+	public Execution start(final ProcessBuilder pb) throws IOException {
+		return start(pb, null, null);
+	}
+	
+	/**
+	 * Starts the process.
+	 * 
+	 * @param pb The process to start.
+	 * @param stdin Written to the standard input of the process, or 
+	 *              <code>null</code> to close it right away. The process is 
+	 *              allowed to stop reading it early.
+	 * @param stdout Where the standard output of the process is copied to, or
+	 *               <code>null</code> to keep the end of it in the 
+	 *               {@link Result}. The error output is always kept in the 
+	 *               {@link Result}.
+	 * @return The running process.
+	 * @throws IOException Thrown if the process cannot be started.
+	 */
+	public Execution start(final ProcessBuilder pb, final byte[] stdin, final OutputStream stdout) throws IOException {
+		final long start = System.nanoTime();
+		final Process process = pb.start();
+		final OutputBuffer output = new OutputBuffer(outputLimit);
+		final List<Future<?>> streams = new ArrayList<>(3);
+		streams.add(submit(() -> drain(process.getInputStream(), (stdout == null) ? output : stdout)));
+		streams.add(submit(() -> drain(process.getErrorStream(), output)));
+		if(stdin == null) {
+			closeQuietly(process.getOutputStream());
+		} else {
+			executor.execute(() -> {
+				try(final OutputStream os = process.getOutputStream()) {
+					os.write(stdin);
+				} catch(final IOException ioe) {
+					// The exit code decides if the process failed.
+					logger.debug("Unable to write the full input to " + pb.command().get(0) + '.', ioe);
+				}
+			});
+		}
+		return new Execution(process, start, output, streams, timeoutMillis);
+	}
+	
+	private Future<?> submit(final Runnable runnable) {
+		final FutureTask<?> task = new FutureTask<>(runnable, null);
+		executor.execute(task);
+		return task;
+	}
+	
+	/**
+	 * Copies the stream until it ends, logging the error if it cannot be 
+	 * read.
+	 * 
+	 * @param is The stream to read.
+	 * @param os Where the stream is copied.
+	 */
+	private static void drain(final InputStream is, final OutputStream os) {
+		final byte[] buffer = new byte[8192];
+		try(final InputStream in = is) {
+			int read;
+			while((read = in.read(buffer)) != -1) {
+				os.write(buffer, 0, read);
+			}
+		} catch(final IOException ioe) {
+			logger.debug("Unable to read the output of the child process.", ioe);
+		}
+	}
+	
+	private static void closeQuietly(final OutputStream os) {
+		try {
+			os.close();
+		} catch(final IOException ioe) {
+			logger.debug("Unable to close the input of the child process.", ioe);
+		}
+	}
+	
+	/**
+	 * Kills the process and every process it started. The process is killed
+	 * first, so it cannot see its children die and exit on its own as if it 
+	 * succeeded. Before Java 9 only the processes it started itself are 
+	 * found, with <code>pkill -P</code>, after the process is stopped so they
+	 * still belong to it.
+	 * 
+	 * @param process The process to kill.
+	 */
+	public static void destroyTree(final Process process) {
+		if(DESCENDANTS != null) {
+			Object[] descendants = null;
+			try {
+				// Collected before the process is killed, after that its 
+				// children no longer belong to it.
+				descendants = ((Stream<?>)DESCENDANTS.invoke(process)).toArray();
+			} catch(final ReflectiveOperationException | RuntimeException e) {
+				logger.debug("Unable to find the processes started by the child process.", e);
+			}
+			process.destroyForcibly();
+			if(descendants != null) {
+				for(final Object descendant : descendants) {
+					try {
+						DESTROY_FORCIBLY.invoke(descendant);
+					} catch(final ReflectiveOperationException | RuntimeException e) {
+						logger.debug("Unable to kill a process started by the child process.", e);
+					}
+				}
+			}
+		} else {
+			final long pid = getPid(process);
+			if(pid > 0) {
+				final String id = Long.toString(pid);
+				signal("kill", "-STOP", id);
+				signal("pkill", "-KILL", "-P", id);
+			}
+			process.destroyForcibly();
+		}
+	}
+	
+	/**
+	 * Runs <code>kill</code> or <code>pkill</code> and waits a moment for it.
+	 * 
+	 * @param command The command and its arguments.
+	 */
+	private static void signal(final String... command) {
+		try {
+			new ProcessBuilder(command).start().waitFor(DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		} catch(final IOException ioe) {
+			logger.debug("Unable to signal the child process.", ioe);
+		} catch(final InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * @param process The process.
+	 * @return The id of the process on Unix before Java 9, -1 if it is not 
+	 *         known.
+	 */
+	private static long getPid(final Process process) {
+		try {
+			final Field field = process.getClass().getDeclaredField("pid");
+			field.setAccessible(true);
+			return field.getLong(process);
+		} catch(final ReflectiveOperationException | RuntimeException e) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * @return The most bytes of output kept for each process.
+	 */
+	public int getOutputLimit() {
+		return outputLimit;
+	}
+	
+	/**
+	 * @return How long a process can run before it is killed, 0 or less if 
+	 *         there is no timeout.
+	 */
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+	
+	/**
+	 * A process started by the {@link ProcessRunner}.
+	 */
+	@ThreadSafe
+	public static final class Execution {
+		
+		private final Process process;
+		private final long start;
+		private final OutputBuffer output;
+		private final List<Future<?>> streams;
+		private final long timeoutMillis;
+		
+		Execution(final Process process, final long start, final OutputBuffer output, final List<Future<?>> streams, final long timeoutMillis) {
+			this.process = process;
+			this.start = start;
+			this.output = output;
+			this.streams = streams;
+			this.timeoutMillis = timeoutMillis;
+		}
+		
+		/**
+		 * Waits for the process to exit. If it runs longer than the timeout or
+		 * the wait is interrupted the process and every process it started is
+		 * killed.
+		 * 
+		 * @return How the process ended.
+		 * @throws InterruptedException If the wait was interrupted.
+		 */
+		public Result waitFor() throws InterruptedException {
+			boolean timedOut = false;
+			try {
+				if(timeoutMillis > 0) {
+					if(!process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS)) {
+						timedOut = true;
+						destroyTree(process);
+						process.waitFor();
+					}
+				} else {
+					process.waitFor();
+				}
+			} catch(final InterruptedException ie) {
+				destroyTree(process);
+				throw ie;
+			}
+			final long duration = System.nanoTime() - start;
+			for(final Future<?> stream : streams) {
+				try {
+					stream.get(DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+				} catch(final ExecutionException | TimeoutException e) {
+					logger.debug("The output of the child process did not end after it exited.", e);
+					stream.cancel(true);
+				}
+			}
+			return new Result(process.exitValue(), duration, timedOut, output.toString());
+		}
+		
+		/**
+		 * Kills the process and every process it started.
+		 */
+		public void destroy() {
+			destroyTree(process);
+		}
+	}
+	
+	/**
+	 * How a process ended.
+	 */
+	@Immutable
+	public static final class Result {
+		
+		private final int exitValue;
+		private final long durationNanos;
+		private final boolean timedOut;
+		private final String output;
+		
+		/**
+		 * @param exitValue The exit code of the process.
+		 * @param durationNanos How long the process ran.
+		 * @param timedOut <code>true</code> if the process was killed because
+		 *                 it ran too long.
+		 * @param output The end of the output of the process.
+		 */
+		public Result(final int exitValue, final long durationNanos, final boolean timedOut, final String output) {
+			this.exitValue = exitValue;
+			this.durationNanos = durationNanos;
+			this.timedOut = timedOut;
+			this.output = output;
+		}
+		
+		/**
+		 * @return The exit code of the process.
+		 */
+		public int getExitValue() {
+			return exitValue;
+		}
+		
+		/**
+		 * @return How long the process ran, in nanoseconds.
+		 */
+		public long getDurationNanos() {
+			return durationNanos;
+		}
+		
+		/**
+		 * @return <code>true</code> if the process was killed because it ran
+		 *         too long.
+		 */
+		public boolean isTimedOut() {
+			return timedOut;
+		}
+		
+		/**
+		 * @return The end of the output and error output of the process, 
+		 *         without the standard output if it was copied somewhere 
+		 *         else.
+		 */
+		public String getOutput() {
+			return output;
+		}
+		
+		/**
+		 * @return The message of the error when the process failed.
+		 */
+		public String getErrorMessage() {
+			final StringBuilder sb = new StringBuilder("Optimization failed with edit code: ").append(exitValue).append(". ");
+			if(timedOut) {
+				sb.append("It was killed after ").append(TimeUnit.NANOSECONDS.toMillis(durationNanos)).append("ms. ");
+			}
+			return sb.append(output).toString();
+		}
+	}
+	
+	/**
+	 * Keeps the last bytes written to it, a ring buffer.
+	 */
+	@ThreadSafe
+	static final class OutputBuffer extends OutputStream {
+		
+		private final byte[] buffer;
+		private long written;
+		
+		/**
+		 * @param limit The most bytes kept.
+		 */
+		OutputBuffer(final int limit) {
+			buffer = new byte[limit];
+		}
+		
+		@Override
+		public synchronized void write(final int b) {
+			buffer[(int)(written++ % buffer.length)] = (byte)b;
+		}
+		
+		@Override
+		public synchronized void write(final byte[] b, final int off, final int len) {
+			// Only the last bytes of a large write are kept.
+			final int skipped = Math.max(0, len - buffer.length);
+			written += skipped;
+			for(int i = off + skipped, end = off + len; i < end;) {
+				final int position = (int)(written % buffer.length);
+				final int length = Math.min(end - i, buffer.length - position);
+				System.arraycopy(b, i, buffer, position, length);
+				written += length;
+				i += length;
+			}
+		}
+		
+		@Override
+		public synchronized String toString() {
+			if(written <= buffer.length) {
+				return new String(buffer, 0, (int)written, StandardCharsets.UTF_8);
+			}
+			final int position = (int)(written % buffer.length);
+			final byte[] ordered = new byte[buffer.length];
+			System.arraycopy(buffer, position, ordered, 0, buffer.length - position);
+			System.arraycopy(buffer, 0, ordered, buffer.length - position, position);
+			return new StringBuilder("[").append(written - buffer.length).append(" bytes dropped] ").append(new String(ordered, StandardCharsets.UTF_8)).toString();
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.apache.http.annotation.Immutable;
+import org.apache.http.annotation.ThreadSafe;
+
+/**
+ * Utility methods for the files that are kept between runs for the current 
+ * user, like the file that tells the clients how to reach the daemon. They 
+ * are kept in a directory in <code>java.io.tmpdir</code> that only the current
+ * user can use, so another user cannot read them or put their own in their 
+ * place.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@Immutable
+@ThreadSafe
+public class UserFiles {
+
+	private static final Set<PosixFilePermission> NOT_OWNER_WRITE = EnumSet.of(PosixFilePermission.GROUP_WRITE, PosixFilePermission.OTHERS_WRITE);
+	
+	private UserFiles() {
+		// Only has static methods.
+	}
+	
+	/**
+	 * @return The directory of the files of the current user. It is only 
+	 *         created by {@link #createDirectory(File)}.
+	 */
+	public static File getDirectory() {
+		return new File(System.getProperty("java.io.tmpdir"), "ImageOptimization-" + System.getProperty("user.name"));
+	}
+	
+	/**
+	 * Creates the passed in directory, only accessible by the current user, 
+	 * if it does not exist yet and checks that only the current user can 
+	 * write to it.
+	 * 
+	 * @param directory The directory.
+	 * @throws IOException Thrown if the directory cannot be created or 
+	 *                     another user can write to it.
+	 */
+	public static void createDirectory(final File directory) throws IOException {
+		final Path path = directory.toPath();
+		if(!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+			try {
+				if(isPosix(path.toAbsolutePath().getParent())) {
+					Files.createDirectories(path, PosixFilePermissions.asFileAttribute(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE)));
+				} else {
+					Files.createDirectories(path);
+				}
+			} catch(final FileAlreadyExistsException faee) {
+				// Created by another process at the same time, it is checked below.
+			}
+		}
+		if(!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+			throw new IOException(directory.getPath() + " is not a directory.");
+		}
+		checkPrivate(directory);
+	}
+	
+	/**
+	 * Checks that the passed in file, or directory, belongs to the current 
+	 * user and that no other user can write to it.
+	 * 
+	 * @param file The file.
+	 * @throws IOException Thrown if the file cannot be read or another user 
+	 *                     could have changed it.
+	 */
+	public static void checkPrivate(final File file) throws IOException {
+		final Path path = file.toPath();
+		final UserPrincipal owner = Files.getOwner(path, LinkOption.NOFOLLOW_LINKS);
+		final UserPrincipal currentUser = FileSystems.getDefault().getUserPrincipalLookupService().lookupPrincipalByName(System.getProperty("user.name"));
+		if(!currentUser.equals(owner)) {
+			throw new IOException(file.getPath() + " belongs to " + owner.getName() + ", not to the current user.");
+		}
+		if(isPosix(path)) {
+			final Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(path, LinkOption.NOFOLLOW_LINKS);
+			permissions.retainAll(NOT_OWNER_WRITE);
+			if(!permissions.isEmpty()) {
+				throw new IOException(file.getPath() + " can be written to by other users.");
+			}
+		}
+	}
+	
+	/**
+	 * Writes the passed in content to a new file, only readable by the 
+	 * current user, next to the passed in file and then moves it in place in 
+	 * 1 step, so a reader never sees half of it and a file that is already 
+	 * there does not need to be deleted first.
+	 * 
+	 * @param file The file to write.
+	 * @param content The new content of the file.
+	 * @throws IOException Thrown if the file cannot be written.
+	 */
+	public static void write(final File file, final byte[] content) throws IOException {
+		// Created with only the owner's read and write permissions.
+		final Path tmpFile = Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(), file.getName(), ".tmp");
+		try {
+			Files.write(tmpFile, content);
+			Files.move(tmpFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmpFile);
+		}
+	}
+	
+	private static boolean isPosix(final Path path) {
+		return Files.getFileAttributeView(path, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS) != null;
+	}
+}
@@ -0,0 +1,367 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.watch;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.http.annotation.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.dto.OptimizationResult;
+import com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService;
+import com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService.FileTypeConversion;
+
+/**
+ * <p>Watches directories, and all of their sub directories, for images that 
+ * are created or modified and optimizes them in place.</p>
+ * <p>The events for a file are coalesced until the file has not changed for
+ * the debounce period. The files that are ready are put on a bounded queue
+ * that is drained, in batches, by a single thread calling 
+ * {@link IImageOptimizationService#optimizeAllImages(FileTypeConversion, boolean, java.util.Collection)}.
+ * When the queue is full the watching thread waits, so a burst of events never
+ * starts more work than the service's executor is allowed to run.</p>
+ * <p>The optimized images written back by this class are remembered (by size 
+ * and last modified time) so that the events they cause are ignored.</p>
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+@ThreadSafe
+public class ImageDirectoryWatcher implements Closeable {
+
+	private final static Logger logger = LoggerFactory.getLogger(ImageDirectoryWatcher.class);
+	
+	/**
+	 * Used to stop the optimization thread.
+	 */
+	private static final File POISON = new File("");
+	
+	private final IImageOptimizationService<?> service;
+	private final FileTypeConversion conversionType;
+	private final boolean includeWebPConversion;
+	private final long debounceInNanos;
+	private final int batchSize;
+	
+	private final WatchService watchService;
+	private final BlockingQueue<File> queue;
+	/**
+	 * Files waiting for the debounce period to pass, only accessed by the 
+	 * watching thread. Value is the time, from {@link System#nanoTime()}, of
+	 * the last event.
+	 */
+	private final Map<Path, Long> pendingFiles = new LinkedHashMap<>();
+	/**
+	 * The files written by this class whose event has not been ignored yet. 
+	 * Value is the size and last modified time of the file when it was 
+	 * written.
+	 */
+	private final Map<Path, long[]> writtenFiles = new ConcurrentHashMap<>();
+	
+	private final Thread watchThread;
+	private final Thread optimizationThread;
+	private volatile boolean closed;
+	
+	/**
+	 * Creates the watcher. Nothing is watched until {@link #watch(Path)} is 
+	 * called and nothing is optimized until {@link #start()} is called.
+	 * 
+	 * @param service The service used to optimize the images.
+	 * @param conversionType If and how to handle converting images from one 
+	 *                       type to another. Images are only replaced when 
+	 *                       they keep their file type.
+	 * @param includeWebPConversion If <code>true</code> then the WebP versions 
+	 *                              of the image will be generated.
+	 * @param debounceInMillis How long a file has to go without changing 
+	 *                         before it is optimized.
+	 * @param queueCapacity The number of files that can wait to be optimized.
+	 * @param batchSize The maximum number of files passed to the service at 
+	 *                  one time.
+	 * @throws IOException Thrown if the {@link WatchService} cannot be created.
+	 */
+	public ImageDirectoryWatcher(final IImageOptimizationService<?> service, final FileTypeConversion conversionType, final boolean includeWebPConversion, final long debounceInMillis, final int queueCapacity, final int batchSize) throws IOException {
+		if(service == null) {
+			throw new IllegalArgumentException("The passed in service cannot be null.");
+		} else if(debounceInMillis <= 0 || queueCapacity <= 0 || batchSize <= 0) {
+			throw new IllegalArgumentException("The debounce, queue capacity and batch size must be greater than 0.");
+		}
+		this.service = service;
+		this.conversionType = conversionType;
+		this.includeWebPConversion = includeWebPConversion;
+		this.debounceInNanos = TimeUnit.MILLISECONDS.toNanos(debounceInMillis);
+		this.batchSize = batchSize;
+		
+		watchService = FileSystems.getDefault().newWatchService();
+		queue = new ArrayBlockingQueue<>(queueCapacity);
+		watchThread = new Thread(this::watchLoop, "ImageDirectoryWatcher-watch");
+		optimizationThread = new Thread(this::optimizationLoop, "ImageDirectoryWatcher-optimize");
+	}
+	
+	/**
+	 * Starts watching the directory and all of its current and future sub 
+	 * directories. The images that already exist are not optimized.
+	 * 
+	 * @param directory The directory to watch.
+	 * @throws IOException Thrown if the directory cannot be watched.
+	 */
+	public void watch(final Path directory) throws IOException {
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
+				dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		if(logger.isInfoEnabled()) {
+			logger.info("Watching {} for images to optimize.", directory);
+		}
+	}
+	
+	/**
+	 * Starts the threads that handle the events and optimize the images.
+	 */
+	public void start() {
+		watchThread.start();
+		optimizationThread.start();
+	}
+	
+	/**
+	 * Stops watching. The images already on the queue are optimized before 
+	 * the optimization thread stops.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		watchService.close();
+		try {
+			watchThread.join();
+			if(optimizationThread.isAlive()) {
+				queue.put(POISON);
+				optimizationThread.join();
+			}
+		} catch(final InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private void watchLoop() {
+		final long pollInNanos = Math.max(debounceInNanos / 2, TimeUnit.MILLISECONDS.toNanos(10));
+		try {
+			while(!closed) {
+				final WatchKey key = watchService.poll(pollInNanos, TimeUnit.NANOSECONDS);
+				if(key != null) {
+					handleEvents(key);
+				}
+				enqueueReadyFiles();
+			}
+		} catch(final ClosedWatchServiceException cwse) {
+			logger.debug("The watch service is closed.");
+		} catch(final InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private void handleEvents(final WatchKey key) throws InterruptedException {
+		final Path directory = (Path)key.watchable();
+		for(final WatchEvent<?> event : key.pollEvents()) {
+			if(event.kind() == OVERFLOW) {
+				// Events were lost, so only check the directory they were lost 
+				// for instead of the whole tree.
+				logger.warn("Missed events for {}. Checking the directory.", directory);
+				try(final DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+					for(final Path path : stream) {
+						fileChanged(path);
+					}
+				} catch(final IOException ioe) {
+					logger.warn("Unable to list " + directory, ioe);
+				}
+			} else {
+				final Path path = directory.resolve((Path)event.context());
+				if(event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+					try {
+						watch(path);
+						// Files can be created before the directory is watched.
+						try(final Stream<Path> stream = Files.walk(path)) {
+							stream.filter(Files::isRegularFile).forEach(this::fileChanged);
+						}
+					} catch(final IOException ioe) {
+						logger.warn("Unable to watch " + path, ioe);
+					}
+				} else {
+					fileChanged(path);
+				}
+			}
+		}
+		key.reset();
+	}
+	
+	private void fileChanged(final Path path) {
+		if(FilenameUtils.isExtension(path.toString(), IImageOptimizationService.SUPPORTED_FILE_EXTENSIONS)) {
+			pendingFiles.put(path, Long.valueOf(System.nanoTime()));
+		}
+	}
+	
+	private void enqueueReadyFiles() throws InterruptedException {
+		final long now = System.nanoTime();
+		final Iterator<Map.Entry<Path, Long>> iterator = pendingFiles.entrySet().iterator();
+		while(iterator.hasNext()) {
+			final Map.Entry<Path, Long> entry = iterator.next();
+			if(now - entry.getValue().longValue() < debounceInNanos) {
+				continue;
+			}
+			iterator.remove();
+			final Path path = entry.getKey();
+			if(!Files.isRegularFile(path) || isWrittenByUs(path)) {
+				continue;
+			}
+			// Blocks when the optimization thread is behind.
+			queue.put(path.toFile());
+		}
+	}
+	
+	private boolean isWrittenByUs(final Path path) {
+		final long[] written = writtenFiles.get(path);
+		if(written == null) {
+			return false;
+		}
+		final File file = path.toFile();
+		// Either the event of our own write, which is only ignored once, or 
+		// changed by someone else since it was written.
+		writtenFiles.remove(path);
+		return written[0] == file.length() && written[1] == file.lastModified();
+	}
+	
+	/**
+	 * @return The number of files written by this class whose event has not
+	 *         been ignored yet.
+	 */
+	int getWrittenFileCount() {
+		return writtenFiles.size();
+	}
+	
+	private void optimizationLoop() {
+		final List<File> batch = new ArrayList<>(batchSize);
+		try {
+			while(true) {
+				final File first = queue.take();
+				if(first == POISON) {
+					return;
+				}
+				batch.add(first);
+				queue.drainTo(batch, batchSize - 1);
+				final boolean stop = batch.remove(POISON);
+				optimize(batch);
+				batch.clear();
+				if(stop) {
+					return;
+				}
+			}
+		} catch(final InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private void optimize(final List<File> files) {
+		try {
+			for(final OptimizationResult<?> result : service.optimizeAllImages(conversionType, includeWebPConversion, files)) {
+				if(result.isFileTypeChanged() || result.isBrowserSpecific() || result.isFailedAutomatedTest() || result.getOptimizedFileSize() >= result.getOriginalFileSize()) {
+					continue;
+				}
+				final Path original = result.getOriginalFile().toPath();
+				try {
+					replace(original, result.getOptimizedFile().toPath());
+				} catch(final IOException ioe) {
+					// Only this image is left as it was, the rest of the batch 
+					// is still replaced.
+					logger.error("Error replacing " + original, ioe);
+					continue;
+				}
+				if(logger.isInfoEnabled()) {
+					logger.info("Optimized {} from {} to {} bytes.", original, Long.valueOf(result.getOriginalFileSize()), Long.valueOf(result.getOptimizedFileSize()));
+				}
+			}
+		} catch(final Exception e) {
+			logger.error("Error optimizing " + files, e);
+		}
+	}
+	
+	/**
+	 * Copies the optimized image next to the original and moves it over the
+	 * original, so nothing reading the original ever sees it half written.
+	 * The temporary file does not have an image extension so it is not 
+	 * picked up by the watcher.
+	 * 
+	 * @param original The image that is replaced.
+	 * @param optimized The optimized version of the image.
+	 * @throws IOException Thrown if the image cannot be replaced. The 
+	 *                     original is left as it was.
+	 */
+	private void replace(final Path original, final Path optimized) throws IOException {
+		final Path tmp = Files.createTempFile(original.toAbsolutePath().getParent(), "." + original.getFileName(), ".tmp");
+		try {
+			Files.copy(optimized, tmp, StandardCopyOption.REPLACE_EXISTING);
+			// The move keeps the size and the last modified time.
+			final File file = tmp.toFile();
+			writtenFiles.put(original, new long[] {file.length(), file.lastModified()});
+			Files.move(tmp, original, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch(final IOException ioe) {
+			writtenFiles.remove(original);
+			Files.deleteIfExists(tmp);
+			throw ioe;
+		}
+	}
+}
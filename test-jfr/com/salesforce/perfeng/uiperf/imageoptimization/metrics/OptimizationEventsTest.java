@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Test;
+
+/**
+ * Test for {@link OptimizationEvents}. It uses <code>jdk.jfr</code>, so it is 
+ * compiled for Java 11 with {@link JfrEvents} instead of being in 
+ * {@link com.salesforce.perfeng.uiperf.imageoptimization.AllTests}.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public class OptimizationEventsTest {
+
+	/**
+	 * Test that a binary invocation is recorded with the image ID of the 
+	 * thread, and that nothing is recorded when the event is not enabled.
+	 * 
+	 * @throws IOException Thrown if the recording cannot be written or read.
+	 */
+	@Test
+	public void testBinaryEvent() throws IOException {
+		assertTrue(OptimizationEvents.isAvailable());
+		
+		final long imageId = OptimizationEvents.nextImageId();
+		final long previousImageId = OptimizationEvents.setCurrentImageId(imageId);
+		final File file = File.createTempFile("OptimizationEventsTest", ".jfr");
+		try(final Recording recording = new Recording()) {
+			recording.enable("com.salesforce.perfeng.uiperf.imageoptimization.Binary");
+			
+			// Not enabled, so it is not recorded.
+			OptimizationEvents.promotion("/tmp/final/test.png").commit();
+			
+			recording.start();
+			final OptimizationEvent event = OptimizationEvents.binary("optipng");
+			event.setArguments(Arrays.asList("optipng", "-zc9", "test.png"));
+			event.setExitCode(0);
+			event.setBytes(1000, 800);
+			event.commit();
+			recording.stop();
+			recording.dump(file.toPath());
+			
+			final List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+			assertEquals(1, events.size());
+			final RecordedEvent recorded = events.get(0);
+			assertEquals(imageId, recorded.getLong("imageId"));
+			assertEquals("optipng", recorded.getString("tool"));
+			assertEquals("optipng -zc9 test.png", recorded.getString("arguments"));
+			assertEquals(0, recorded.getInt("exitCode"));
+			assertEquals(1000, recorded.getLong("bytesBefore"));
+			assertEquals(800, recorded.getLong("bytesAfter"));
+		} finally {
+			OptimizationEvents.setCurrentImageId(previousImageId);
+			file.delete();
+		}
+	}
+}
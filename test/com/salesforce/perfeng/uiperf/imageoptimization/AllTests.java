@@ -31,8 +31,26 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
+import com.salesforce.perfeng.uiperf.imageoptimization.dto.StageTraceTest;
+import com.salesforce.perfeng.uiperf.imageoptimization.metrics.BinaryMetricsTest;
+import com.salesforce.perfeng.uiperf.imageoptimization.metrics.DecodeMetricsTest;
+import com.salesforce.perfeng.uiperf.imageoptimization.report.ReportWriterTest;
+import com.salesforce.perfeng.uiperf.imageoptimization.report.ResultStoreTest;
+import com.salesforce.perfeng.uiperf.imageoptimization.server.OptimizationDaemonTest;
+import com.salesforce.perfeng.uiperf.imageoptimization.server.OptimizationHttpServerTest;
+import com.salesforce.perfeng.uiperf.imageoptimization.service.BinaryBatcherTest;
 import com.salesforce.perfeng.uiperf.imageoptimization.service.ImageOptimizationServiceTest;
+import com.salesforce.perfeng.uiperf.imageoptimization.service.ImageTiersTest;
+import com.salesforce.perfeng.uiperf.imageoptimization.service.ToolStatisticsTest;
+import com.salesforce.perfeng.uiperf.imageoptimization.tool.OptimizerToolsTest;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFileScannerTest;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageContextTest;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageDecoderTest;
 import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageUtilsTest;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.MemoryBudgetTest;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.PixelComparatorTest;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ProcessRunnerTest;
+import com.salesforce.perfeng.uiperf.imageoptimization.watch.ImageDirectoryWatcherTest;
 
 /**
  * Test Suite for the ImageOptimization project
@@ -41,7 +59,7 @@ import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageUtilsTest;
  * @since 188.internal
  */
 @RunWith(Suite.class)
-@SuiteClasses({ ImageOptimizationServiceTest.class, ImageUtilsTest.class})
+@SuiteClasses({ ImageOptimizationServiceTest.class, StageTraceTest.class, ReportWriterTest.class, ResultStoreTest.class, ToolStatisticsTest.class, ImageTiersTest.class, BinaryBatcherTest.class, OptimizerToolsTest.class, ImageUtilsTest.class, ImageDecoderTest.class, ImageContextTest.class, ImageFileScannerTest.class, PixelComparatorTest.class, ProcessRunnerTest.class, MemoryBudgetTest.class, BinaryMetricsTest.class, DecodeMetricsTest.class, OptimizationHttpServerTest.class, OptimizationDaemonTest.class, ImageDirectoryWatcherTest.class})
 public class AllTests {
 	//Nothing is needed in here.
 }
\ No newline at end of file
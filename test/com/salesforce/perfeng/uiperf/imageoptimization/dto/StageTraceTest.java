@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.dto;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Test for {@link StageTrace}.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public class StageTraceTest {
+
+	/**
+	 * Test that the stages are kept in order, including after the arrays 
+	 * grow.
+	 */
+	@Test
+	public void testBuild() {
+		final StageTrace.Builder builder = new StageTrace.Builder();
+		for(int i = 0; i < 20; i++) {
+			builder.add((i % 2 == 0) ? "optipng" : "pngout", i * 1000, i * 10, 5000 - i);
+		}
+		final StageTrace trace = builder.build();
+		assertEquals(20, trace.size());
+		assertEquals("optipng", trace.getTool(0));
+		assertEquals("pngout", trace.getTool(19));
+		assertEquals(19000, trace.getDurationNanos(19));
+		assertEquals(190, trace.getCpuNanos(19));
+		assertEquals(4981, trace.getSizeAfter(19));
+		
+		builder.add("advpng", 1, -1, 10);
+		assertEquals(20, trace.size());
+		assertEquals(-1, builder.build().getCpuNanos(20));
+	}
+}
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+/**
+ * Test for {@link BinaryMetrics} and {@link BinaryMetricsRegistry}.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public class BinaryMetricsTest {
+
+	/**
+	 * Test that the runs of a binary are added up, published over JMX, reset 
+	 * and removed from JMX.
+	 * 
+	 * @throws JMException Thrown if the metrics cannot be read over JMX.
+	 */
+	@Test
+	public void testRecord() throws JMException {
+		final BinaryMetricsRegistry registry = new BinaryMetricsRegistry("BinaryMetricsTest");
+		final BinaryMetrics metrics = registry.get("optipng");
+		metrics.record(TimeUnit.MILLISECONDS.toNanos(3), 1000, 800, false);
+		metrics.recordExitCode(0);
+		metrics.record(TimeUnit.MILLISECONDS.toNanos(150), 500, 0, true);
+		metrics.recordExitCode(1);
+		metrics.recordExitCode(0);
+		
+		assertEquals(2, metrics.getInvocations());
+		assertEquals(1, metrics.getFailures());
+		assertEquals(153, metrics.getTotalTimeMillis());
+		assertEquals(76.5, metrics.getMeanTimeMillis(), 0.001);
+		assertEquals(150, metrics.getMaxTimeMillis());
+		assertEquals(1500, metrics.getBytesIn());
+		assertEquals(800, metrics.getBytesOut());
+		assertEquals(Long.valueOf(2), metrics.getExitCodes().get("0"));
+		assertEquals(Long.valueOf(1), metrics.getExitCodes().get("1"));
+		assertEquals(Long.valueOf(1), metrics.getTimeHistogram().get("<=5ms"));
+		assertEquals(Long.valueOf(1), metrics.getTimeHistogram().get("<=200ms"));
+		assertEquals(Long.valueOf(0), metrics.getTimeHistogram().get(">60000ms"));
+		
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName name = registry.getObjectName("optipng");
+		assertEquals(Long.valueOf(2), server.getAttribute(name, "Invocations"));
+		
+		server.invoke(name, "reset", null, null);
+		assertEquals(0, metrics.getInvocations());
+		assertEquals(0, metrics.getMaxTimeMillis());
+		assertTrue(metrics.getExitCodes().isEmpty());
+		assertEquals(0, metrics.getMeanTimeMillis(), 0);
+		
+		registry.unregister();
+		assertFalse(server.isRegistered(name));
+	}
+}
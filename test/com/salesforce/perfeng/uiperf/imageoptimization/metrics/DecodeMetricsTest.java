@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+/**
+ * Test for {@link DecodeMetrics} and {@link DecodeMetricsRegistry}.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public class DecodeMetricsTest {
+
+	/**
+	 * Test that the decodes of the images of an operation are added up, 
+	 * published over JMX, reset and removed from JMX.
+	 * 
+	 * @throws JMException Thrown if the metrics cannot be read over JMX.
+	 */
+	@Test
+	public void testRecord() throws JMException {
+		final DecodeMetricsRegistry registry = new DecodeMetricsRegistry("DecodeMetricsTest");
+		final DecodeMetrics metrics = registry.get("gif");
+		metrics.record(1);
+		metrics.record(3);
+		metrics.record(0);
+		
+		assertEquals("gif", metrics.getOperation());
+		assertEquals(3, metrics.getImages());
+		assertEquals(4, metrics.getDecodes());
+		assertEquals(4 / 3d, metrics.getMeanDecodesPerImage(), 0.001);
+		assertEquals(1, metrics.getRedecodedImages());
+		assertEquals(1, registry.getAll().size());
+		
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName name = registry.getObjectName("gif");
+		assertEquals(Long.valueOf(4), server.getAttribute(name, "Decodes"));
+		
+		server.invoke(name, "reset", null, null);
+		assertEquals(0, metrics.getImages());
+		assertEquals(0, metrics.getDecodes());
+		assertEquals(0, metrics.getMeanDecodesPerImage(), 0);
+		
+		registry.unregister();
+		assertFalse(server.isRegistered(name));
+	}
+}
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.report;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.dto.OptimizationResult;
+
+/**
+ * Test for {@link ReportWriter}, {@link JsonLinesReportWriter} and 
+ * {@link CsvReportWriter}.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public class ReportWriterTest {
+
+	private static void writeResults(final ReportWriter report) throws IOException {
+		report.accept(new OptimizationResult<Void>(new File("/final/a.png"), 800, new File("/images/a.png"), 1000, false, false, false));
+		report.accept(new OptimizationResult<Void>(new File("/final/b,\"c\".png"), 50, new File("/images/b,\"c\".gif"), 100, true, true, false));
+		report.accept(new OptimizationResult<Void>(new File("/final/a.webp"), 600, new File("/images/a.png"), 1000, true, false, true));
+		report.setTimedOut(2);
+		report.finish();
+	}
+	
+	/**
+	 * Test the JSON Lines report.
+	 * 
+	 * @throws IOException Thrown if the report cannot be written.
+	 */
+	@Test
+	public void testJsonLines() throws IOException {
+		final StringWriter writer = new StringWriter();
+		writeResults(ReportWriter.create(ReportWriter.JSON_LINES, writer));
+		final String[] lines = writer.toString().split("\n");
+		assertEquals(4, lines.length);
+		assertEquals("{\"record\":\"result\",\"format\":\"png\",\"original\":\"/images/a.png\",\"optimized\":\"/final/a.png\",\"originalSize\":1000,\"optimizedSize\":800,\"bytesSaved\":200,\"fileTypeChanged\":false,\"failedAutomatedTest\":false,\"browserSpecific\":false,\"mislabeled\":false}", lines[0]);
+		assertEquals("{\"record\":\"result\",\"format\":\"png\",\"original\":\"/images/b,\\\"c\\\".gif\",\"optimized\":\"/final/b,\\\"c\\\".png\",\"originalSize\":100,\"optimizedSize\":50,\"bytesSaved\":50,\"fileTypeChanged\":true,\"failedAutomatedTest\":true,\"browserSpecific\":false,\"mislabeled\":false}", lines[1]);
+		assertEquals("{\"record\":\"result\",\"format\":\"webp\",\"original\":\"/images/a.png\",\"optimized\":\"/final/a.webp\",\"originalSize\":1000,\"optimizedSize\":600,\"bytesSaved\":400,\"fileTypeChanged\":true,\"failedAutomatedTest\":false,\"browserSpecific\":true,\"mislabeled\":false}", lines[2]);
+		assertEquals("{\"record\":\"totals\",\"formats\":{\"gif\":{\"images\":1,\"originalSize\":100,\"optimizedSize\":50,\"bytesSaved\":50,\"failures\":1,\"browserSpecific\":0},\"png\":{\"images\":1,\"originalSize\":1000,\"optimizedSize\":800,\"bytesSaved\":200,\"failures\":0,\"browserSpecific\":1}},\"images\":2,\"originalSize\":1100,\"optimizedSize\":850,\"bytesSaved\":250,\"failures\":1,\"browserSpecific\":1,\"skipped\":0,\"timeouts\":2}", lines[3]);
+	}
+	
+	/**
+	 * Test the CSV report.
+	 * 
+	 * @throws IOException Thrown if the report cannot be written.
+	 */
+	@Test
+	public void testCsv() throws IOException {
+		final StringWriter writer = new StringWriter();
+		writeResults(ReportWriter.create(ReportWriter.CSV, writer));
+		final String[] lines = writer.toString().split("\n");
+		assertEquals(9, lines.length);
+		assertEquals(CsvReportWriter.HEADER, lines[0]);
+		assertEquals("result,png,1,/images/a.png,/final/a.png,1000,800,200,0,false,false,false", lines[1]);
+		assertEquals("result,png,1,\"/images/b,\"\"c\"\".gif\",\"/final/b,\"\"c\"\".png\",100,50,50,1,true,false,false", lines[2]);
+		assertEquals("result,webp,1,/images/a.png,/final/a.webp,1000,600,400,0,true,true,false", lines[3]);
+		assertEquals("total,gif,1,,,100,50,50,1,,0,", lines[4]);
+		assertEquals("total,png,1,,,1000,800,200,0,,1,", lines[5]);
+		assertEquals("total,all,2,,,1100,850,250,1,,1,", lines[6]);
+		assertEquals("skipped,,0,,,,,,,,,", lines[7]);
+		assertEquals("timeout,,2,,,,,,,,,", lines[8]);
+	}
+}
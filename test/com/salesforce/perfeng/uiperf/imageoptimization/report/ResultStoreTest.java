@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.report;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.dto.OptimizationResult;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFormat;
+
+/**
+ * Test for {@link ResultStore}.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public class ResultStoreTest {
+
+	/**
+	 * Where the store spills.
+	 */
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	
+	/**
+	 * Test adding enough results to spill over several segments, then reading
+	 * them back.
+	 * 
+	 * @throws IOException Thrown if the store cannot spill.
+	 */
+	@Test
+	public void testSpill() throws IOException {
+		final int count = (ResultStore.SEGMENT_ROWS * 2) + 100;
+		try(final ResultStore store = new ResultStore(folder.getRoot(), 2 * 1024 * 1024)) {
+			for(int i = 0; i < count; i++) {
+				final boolean png = (i % 2) == 0;
+				store.accept(new OptimizationResult<Void>(new File("/final/dir" + (i % 10), "image" + i + (png ? ".png" : ".gif")), 
+						i, new File("/images/dir" + (i % 10), "image" + i + ".gif"), i + 10L, png, (i % 3) == 0, false, false));
+			}
+			assertTrue(store.isSpilled());
+			assertEquals(1, folder.getRoot().list().length);
+			assertEquals(count, store.size());
+			assertEquals(count * 10L, store.getBytesSaved());
+			assertEquals((count + 2) / 3, store.getFailedAutomatedTestCount());
+			
+			final Map<ImageFormat, Long> byFormat = store.getBytesSavedByFormat();
+			assertEquals(Long.valueOf(count * 5L), byFormat.get(ImageFormat.PNG));
+			assertEquals(Long.valueOf(count * 5L), byFormat.get(ImageFormat.GIF));
+			
+			final OptimizationResult<Void> last = store.get(count - 1);
+			assertEquals(new File("/final/dir" + ((count - 1) % 10), "image" + (count - 1) + ".gif"), last.getOptimizedFile());
+			assertEquals(new File("/images/dir" + ((count - 1) % 10), "image" + (count - 1) + ".gif"), last.getOriginalFile());
+			assertEquals(count - 1, last.getOptimizedFileSize());
+			assertFalse(last.isFileTypeChanged());
+			
+			int i = 0;
+			for(final OptimizationResult<Void> result : store) {
+				assertEquals(i + 10L, result.getOriginalFileSize());
+				assertEquals((i % 3) == 0, result.isFailedAutomatedTest());
+				i++;
+			}
+			assertEquals(count, i);
+		}
+		assertEquals(0, folder.getRoot().list().length);
+	}
+}
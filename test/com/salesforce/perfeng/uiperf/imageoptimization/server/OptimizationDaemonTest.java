@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.dto.OptimizationResult;
+import com.salesforce.perfeng.uiperf.imageoptimization.service.FakeImageOptimizationService;
+import com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService.FileTypeConversion;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFileOptimizationException;
+
+/**
+ * Test for {@link OptimizationDaemon} and {@link OptimizationDaemonClient}.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public class OptimizationDaemonTest {
+
+	/**
+	 * Used to create the daemon file and the images.
+	 */
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	
+	/**
+	 * Test that the client gets the results from the daemon.
+	 * 
+	 * @throws Exception Can be thrown when interacting with the daemon.
+	 */
+	@Test
+	public void testOptimizeAllImages() throws Exception {
+		final File daemonFile = new File(folder.getRoot(), "test.daemon");
+		final File image = folder.newFile("image.png");
+		Files.write(image.toPath(), new byte[10]);
+		
+		final FakeImageOptimizationService service = new FakeImageOptimizationService();
+		final OptimizationDaemon daemon = new OptimizationDaemon(service, daemonFile, 1);
+		daemon.start();
+		try {
+			assertEquals(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE), Files.getPosixFilePermissions(daemonFile.toPath()));
+			
+			final OptimizationDaemonClient client = OptimizationDaemonClient.find(daemonFile);
+			assertNotNull(client);
+			final List<OptimizationResult<Void>> results = client.optimizeAllImages(FileTypeConversion.ALL, false, Arrays.asList(image));
+			assertNotNull(results);
+			assertEquals(1, results.size());
+			assertEquals(image.getCanonicalPath(), results.get(0).getOriginalFile().getPath());
+			assertEquals(10, results.get(0).getOriginalFileSize());
+			assertEquals(8, results.get(0).getOptimizedFileSize());
+			assertEquals(service.getFinalResultsDirectory(), client.getFinalResultsDirectory());
+		} finally {
+			daemon.stop();
+		}
+		assertFalse(daemonFile.exists());
+	}
+	
+	/**
+	 * Test that the daemon rejects a request with the wrong token.
+	 * 
+	 * @throws Exception Can be thrown when interacting with the daemon.
+	 */
+	@Test
+	public void testInvalidToken() throws Exception {
+		final File daemonFile = new File(folder.getRoot(), "test.daemon");
+		final OptimizationDaemon daemon = new OptimizationDaemon(new FakeImageOptimizationService(), daemonFile, 1);
+		daemon.start();
+		try {
+			final String port = new String(Files.readAllBytes(daemonFile.toPath()), StandardCharsets.UTF_8).split(" ")[0];
+			final File badDaemonFile = folder.newFile("bad.daemon");
+			Files.write(badDaemonFile.toPath(), (port + " badtoken").getBytes(StandardCharsets.UTF_8));
+			OptimizationDaemonClient.find(badDaemonFile).optimizeAllImages(FileTypeConversion.ALL, false, Arrays.asList(folder.newFile("image.png")));
+			fail("The daemon should reject an invalid token.");
+		} catch(final ImageFileOptimizationException expected) {
+			assertTrue(expected.getMessage().contains("Invalid token."));
+		} finally {
+			daemon.stop();
+		}
+	}
+	
+	/**
+	 * Test that the client tells the caller to fall back to running in 
+	 * process when there is no daemon.
+	 * 
+	 * @throws IOException Can be thrown when writing the daemon file.
+	 */
+	@Test
+	public void testNoDaemon() throws IOException {
+		assertNull(OptimizationDaemonClient.find(new File(folder.getRoot(), "missing.daemon")));
+		
+		final File staleDaemonFile = folder.newFile("stale.daemon");
+		Files.write(staleDaemonFile.toPath(), "1 token".getBytes(StandardCharsets.UTF_8));
+		assertNull(OptimizationDaemonClient.find(staleDaemonFile).optimizeAllImages(FileTypeConversion.ALL, false, Arrays.asList(new File("image.png"))));
+	}
+	
+	/**
+	 * Test that the directory of the daemon file is created so only the 
+	 * current user can use it.
+	 * 
+	 * @throws IOException Can be thrown when writing the daemon file.
+	 */
+	@Test
+	public void testCreateDirectory() throws IOException {
+		final File daemonFile = new File(new File(folder.getRoot(), "user"), "daemon");
+		final OptimizationDaemon daemon = new OptimizationDaemon(new FakeImageOptimizationService(), daemonFile, 1);
+		daemon.start();
+		try {
+			assertEquals(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE), Files.getPosixFilePermissions(daemonFile.getParentFile().toPath()));
+			assertNotNull(OptimizationDaemonClient.find(daemonFile));
+		} finally {
+			daemon.stop();
+		}
+	}
+	
+	/**
+	 * Test that the daemon file is not written to, or read from, a directory
+	 * other users can write to.
+	 * 
+	 * @throws IOException Can be thrown when writing the daemon file.
+	 */
+	@Test
+	public void testSharedDirectory() throws IOException {
+		final File sharedDirectory = folder.newFolder("shared");
+		final Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(sharedDirectory.toPath());
+		permissions.add(PosixFilePermission.OTHERS_WRITE);
+		Files.setPosixFilePermissions(sharedDirectory.toPath(), permissions);
+		final File daemonFile = new File(sharedDirectory, "daemon");
+		
+		final OptimizationDaemon daemon = new OptimizationDaemon(new FakeImageOptimizationService(), daemonFile, 1);
+		try {
+			daemon.start();
+			fail("The daemon file should not be written to a shared directory.");
+		} catch(final IOException expected) {
+			assertTrue(expected.getMessage().contains("other users"));
+		} finally {
+			daemon.stop();
+		}
+		
+		Files.write(daemonFile.toPath(), "1 token".getBytes(StandardCharsets.UTF_8));
+		assertNull(OptimizationDaemonClient.find(daemonFile));
+	}
+}
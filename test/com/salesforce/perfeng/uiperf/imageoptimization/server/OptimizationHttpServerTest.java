@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.service.FakeImageOptimizationService;
+import com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFormat;
+
+/**
+ * Test for {@link OptimizationHttpServer}. Uses a fake service so that the 
+ * binaries are not needed.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public class OptimizationHttpServerTest {
+	
+	private OptimizationHttpServer server;
+	
+	/**
+	 * Stops the server started by the test.
+	 */
+	@After
+	public void tearDown() {
+		if(server != null) {
+			server.stop(0);
+		}
+	}
+	
+	private final URL startServer(final IImageOptimizationService<Void> service, final int numberOfThreads, final int queueCapacity) throws IOException {
+		server = new OptimizationHttpServer(service, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), numberOfThreads, queueCapacity, 1024);
+		server.start();
+		return new URL("http", "127.0.0.1", server.getAddress().getPort(), OptimizationHttpServer.OPTIMIZE_PATH);
+	}
+	
+	private static final HttpURLConnection post(final URL url, final byte[] body) throws IOException {
+		final HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		try(final OutputStream os = connection.getOutputStream()) {
+			os.write(body);
+		}
+		return connection;
+	}
+	
+	/**
+	 * Test that the optimized image and its details are returned.
+	 * 
+	 * @throws IOException Thrown if the request fails.
+	 */
+	@Test
+	public void testOptimize() throws IOException {
+		final URL url = startServer(new FakeImageOptimizationService(), 1, 1);
+		
+		HttpURLConnection connection = post(url, FakeImageOptimizationService.PNG);
+		assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+		assertEquals(ImageFormat.PNG.getMimeType(), connection.getContentType());
+		assertEquals(String.valueOf(FakeImageOptimizationService.PNG.length), connection.getHeaderField(OptimizationHttpServer.ORIGINAL_SIZE_HEADER));
+		assertEquals(String.valueOf(FakeImageOptimizationService.OPTIMIZED_PNG.length), connection.getHeaderField(OptimizationHttpServer.OPTIMIZED_SIZE_HEADER));
+		assertEquals("false", connection.getHeaderField(OptimizationHttpServer.FILE_TYPE_CHANGED_HEADER));
+		assertEquals("false", connection.getHeaderField(OptimizationHttpServer.BROWSER_SPECIFIC_HEADER));
+		try(final InputStream is = connection.getInputStream()) {
+			assertArrayEquals(FakeImageOptimizationService.OPTIMIZED_PNG, IOUtils.toByteArray(is));
+		}
+		
+		connection = post(new URL(url + "?conversion=all&variant=webp"), FakeImageOptimizationService.PNG);
+		assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+		assertEquals(ImageFormat.WEBP.getMimeType(), connection.getContentType());
+		assertEquals("true", connection.getHeaderField(OptimizationHttpServer.FILE_TYPE_CHANGED_HEADER));
+		assertEquals("true", connection.getHeaderField(OptimizationHttpServer.BROWSER_SPECIFIC_HEADER));
+		try(final InputStream is = connection.getInputStream()) {
+			assertArrayEquals(FakeImageOptimizationService.WEBP, IOUtils.toByteArray(is));
+		}
+	}
+	
+	/**
+	 * Test that bad requests are rejected.
+	 * 
+	 * @throws IOException Thrown if the request fails.
+	 */
+	@Test
+	public void testBadRequests() throws IOException {
+		final URL url = startServer(new FakeImageOptimizationService(), 1, 1);
+		
+		final HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+		assertEquals(HttpURLConnection.HTTP_BAD_METHOD, connection.getResponseCode());
+		
+		assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, post(new URL(url + "?conversion=qqq"), FakeImageOptimizationService.PNG).getResponseCode());
+		assertEquals(HttpURLConnection.HTTP_UNSUPPORTED_TYPE, post(url, "not an image".getBytes()).getResponseCode());
+		assertEquals(HttpURLConnection.HTTP_ENTITY_TOO_LARGE, post(url, new byte[2048]).getResponseCode());
+	}
+	
+	/**
+	 * Test that requests above the capacity of the server get a 
+	 * <code>503</code>.
+	 * 
+	 * @throws Exception Thrown if the request fails.
+	 */
+	@Test
+	public void testCapacity() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final URL url = startServer(new FakeImageOptimizationService(() -> {
+			started.countDown();
+			try {
+				release.await(10, TimeUnit.SECONDS);
+			} catch (final InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}), 1, 0);
+		
+		final ExecutorService executorService = Executors.newSingleThreadExecutor();
+		try {
+			final Future<Integer> blocked = executorService.submit(() -> Integer.valueOf(post(url, FakeImageOptimizationService.PNG).getResponseCode()));
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+			
+			assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, post(url, FakeImageOptimizationService.PNG).getResponseCode());
+			
+			release.countDown();
+			assertEquals(HttpURLConnection.HTTP_OK, blocked.get(10, TimeUnit.SECONDS).intValue());
+			assertEquals(HttpURLConnection.HTTP_OK, post(url, FakeImageOptimizationService.PNG).getResponseCode());
+		} finally {
+			executorService.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFileOptimizationException;
+
+/**
+ * Test for {@link BinaryBatcher}.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public class BinaryBatcherTest {
+	
+	private static final int FILES = 4;
+	
+	private final ExecutorService executorService = Executors.newFixedThreadPool(FILES);
+	
+	/**
+	 * Shuts down the threads.
+	 */
+	@After
+	public void tearDown() {
+		executorService.shutdownNow();
+	}
+	
+	/**
+	 * Runs the batcher on {@value #FILES} files at the same time.
+	 * 
+	 * @param batcher The batcher to run.
+	 * @param group Runs the binary on a group of files.
+	 * @param singleRuns Counts the runs on 1 file.
+	 * @return The file returned for each file.
+	 * @throws Exception If a run failed.
+	 */
+	private List<File> executeAll(final BinaryBatcher batcher, final BinaryBatcher.GroupExecution group, final AtomicInteger singleRuns) throws Exception {
+		final List<Future<File>> futures = new ArrayList<>(FILES);
+		for(int i = 0; i < FILES; i++) {
+			batcher.imageStarted();
+		}
+		for(int i = 0; i < FILES; i++) {
+			final File file = new File("image" + i + ".png");
+			futures.add(executorService.submit((Callable<File>)() -> {
+				try {
+					return batcher.execute("optipng", file, group, () -> {
+						singleRuns.incrementAndGet();
+						return file;
+					});
+				} finally {
+					batcher.imageFinished();
+				}
+			}));
+		}
+		final List<File> results = new ArrayList<>(FILES);
+		for(final Future<File> future : futures) {
+			results.add(future.get());
+		}
+		return results;
+	}
+	
+	/**
+	 * Test that the files asked for at the same time are run once.
+	 * 
+	 * @throws Exception If a run failed.
+	 */
+	@Test
+	public void testExecuteGroupsFiles() throws Exception {
+		final List<List<File>> groups = new CopyOnWriteArrayList<>();
+		final AtomicInteger singleRuns = new AtomicInteger();
+		final List<File> results = executeAll(new BinaryBatcher(FILES, 4096, 60000), files -> {
+			groups.add(files);
+			return files;
+		}, singleRuns);
+		assertEquals("All the files fill 1 group, so it runs without waiting for the linger.", 1, groups.size());
+		assertEquals(FILES, groups.get(0).size());
+		assertEquals(0, singleRuns.get());
+		for(int i = 0; i < FILES; i++) {
+			assertEquals("image" + i + ".png", results.get(i).getName());
+		}
+	}
+	
+	/**
+	 * Test that each file is run on its own when the run of the group fails.
+	 * 
+	 * @throws Exception If a run failed.
+	 */
+	@Test
+	public void testExecuteGroupFailure() throws Exception {
+		final AtomicInteger singleRuns = new AtomicInteger();
+		final List<File> results = executeAll(new BinaryBatcher(FILES, 4096, 60000), files -> {
+			throw ImageFileOptimizationException.getInstance(files.get(0), new RuntimeException("Bad file"));
+		}, singleRuns);
+		assertEquals(FILES, singleRuns.get());
+		for(int i = 0; i < FILES; i++) {
+			assertEquals("image" + i + ".png", results.get(i).getName());
+		}
+	}
+	
+	/**
+	 * Test that a file that is alone is run on its own without waiting for 
+	 * the linger.
+	 * 
+	 * @throws Exception If a run failed.
+	 */
+	@Test(timeout=10000)
+	public void testExecuteAlone() throws Exception {
+		final AtomicInteger groupRuns = new AtomicInteger();
+		final File file = new File("image.png");
+		final BinaryBatcher batcher = new BinaryBatcher(FILES, 4096, 60000);
+		batcher.imageStarted();
+		final File result = batcher.execute("optipng", file, files -> {
+			groupRuns.incrementAndGet();
+			return files;
+		}, () -> file);
+		batcher.imageFinished();
+		assertEquals(file, result);
+		assertEquals(0, groupRuns.get());
+	}
+	
+	/**
+	 * Test for {@link BinaryBatcher#accepts(File)}.
+	 */
+	@Test
+	public void testAccepts() {
+		final File missing = new File("does-not-exist.png");
+		assertTrue(new BinaryBatcher(FILES, 4096, 5).accepts(missing));
+		assertFalse("1 file per run turns the batching off.", new BinaryBatcher(1, 4096, 5).accepts(missing));
+		assertFalse(new BinaryBatcher(FILES, -1, 5).accepts(missing));
+	}
+}
@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.dto.OptimizationResult;
+import com.salesforce.perfeng.uiperf.imageoptimization.dto.OptimizedImage;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFileOptimizationException;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFormat;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageUtils;
+
+/**
+ * {@link IImageOptimizationService} that returns canned results so that the 
+ * binaries are not needed. Every optimized image is the original with the 
+ * last 2 bytes removed.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public class FakeImageOptimizationService implements IImageOptimizationService<Void> {
+	
+	/**
+	 * A (fake) PNG image.
+	 */
+	public static final byte[] PNG = {(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 1, 2, 3, 4, 5, 6, 7, 8};
+	/**
+	 * The optimized version of {@link #PNG}.
+	 */
+	public static final byte[] OPTIMIZED_PNG = Arrays.copyOf(PNG, PNG.length - 2);
+	/**
+	 * The WebP version of {@link #PNG}.
+	 */
+	public static final byte[] WEBP = {'R', 'I', 'F', 'F', 0, 0, 0, 0, 'W', 'E', 'B', 'P'};
+	
+	private final Runnable onOptimize;
+	private final List<File> optimizedFiles = new CopyOnWriteArrayList<>();
+	private final File finalResultsDirectory;
+	
+	/**
+	 * Creates the service.
+	 */
+	public FakeImageOptimizationService() {
+		this(null);
+	}
+	
+	/**
+	 * Creates the service.
+	 * 
+	 * @param onOptimize Run every time an image is optimized. Can be 
+	 *                   <code>null</code>.
+	 */
+	public FakeImageOptimizationService(final Runnable onOptimize) {
+		this.onOptimize = onOptimize;
+		try {
+			finalResultsDirectory = Files.createTempDirectory("fake").toFile();
+			finalResultsDirectory.deleteOnExit();
+		} catch(final IOException ioe) {
+			throw new IllegalStateException(ioe);
+		}
+	}
+	
+	/**
+	 * @return The files passed to the <code>optimizeAllImages</code> methods.
+	 */
+	public List<File> getOptimizedFiles() {
+		return optimizedFiles;
+	}
+	
+	@Override
+	public List<OptimizedImage> optimizeImage(final FileTypeConversion conversionType, final boolean includeWebPConversion, final byte[] image) {
+		if(onOptimize != null) {
+			onOptimize.run();
+		}
+		if(ImageFormat.detect(image, image.length) != ImageFormat.PNG) {
+			throw new ImageFileOptimizationException(ImageUtils.IN_MEMORY_IMAGE_PATH, "Not a PNG.");
+		}
+		final OptimizedImage optimized = new OptimizedImage(OPTIMIZED_PNG, ImageFormat.PNG, image.length, false, false, false);
+		if(includeWebPConversion) {
+			return Arrays.asList(optimized, new OptimizedImage(WEBP, ImageFormat.WEBP, image.length, true, false, true));
+		}
+		return Arrays.asList(optimized);
+	}
+	
+	@Override
+	public List<OptimizedImage> optimizeImage(final FileTypeConversion conversionType, final boolean includeWebPConversion, final ByteBuffer image) {
+		throw new UnsupportedOperationException();
+	}
+	
+	@Override
+	public List<OptimizedImage> optimizeImage(final FileTypeConversion conversionType, final boolean includeWebPConversion, final InputStream image) {
+		throw new UnsupportedOperationException();
+	}
+	
+	@Override
+	public List<OptimizationResult<Void>> optimizeAllImages(final FileTypeConversion conversionType, final boolean includeWebPConversion, final Collection<File> files) {
+		return optimizeAllImages(OptimizationProfile.MAXIMUM, conversionType, includeWebPConversion, files);
+	}
+	
+	@Override
+	public List<OptimizationResult<Void>> optimizeAllImages(final OptimizationProfile profile, final FileTypeConversion conversionType, final boolean includeWebPConversion, final Collection<File> files) {
+		final List<OptimizationResult<Void>> results = new ArrayList<>(files.size());
+		for(final File file : files) {
+			if(onOptimize != null) {
+				onOptimize.run();
+			}
+			optimizedFiles.add(file);
+			try {
+				final byte[] data = Files.readAllBytes(file.toPath());
+				final File optimizedFile = new File(finalResultsDirectory, file.getName());
+				Files.write(optimizedFile.toPath(), Arrays.copyOf(data, Math.max(0, data.length - 2)));
+				optimizedFile.deleteOnExit();
+				results.add(new OptimizationResult<>(optimizedFile, optimizedFile.length(), file, data.length, false, false, false));
+			} catch(final IOException ioe) {
+				throw new ImageFileOptimizationException(file.getPath(), ioe);
+			}
+		}
+		return results;
+	}
+	
+	@Override
+	public List<OptimizationResult<Void>> optimizeAllImages(final FileTypeConversion conversionType, final boolean includeWebPConversion, final File... files) {
+		return optimizeAllImages(conversionType, includeWebPConversion, Arrays.asList(files));
+	}
+	
+	@Override
+	public OptimizationBatch<Void> newOptimizationBatch(final FileTypeConversion conversionType, final boolean includeWebPConversion) {
+		return newOptimizationBatch(OptimizationProfile.MAXIMUM, conversionType, includeWebPConversion);
+	}
+	
+	@Override
+	public OptimizationBatch<Void> newOptimizationBatch(final OptimizationProfile profile, final FileTypeConversion conversionType, final boolean includeWebPConversion) {
+		final List<File> files = new CopyOnWriteArrayList<>();
+		return new OptimizationBatch<Void>() {
+			@Override
+			public void submit(final File file) {
+				files.add(file);
+			}
+			
+			@Override
+			public List<OptimizationResult<Void>> awaitResults() {
+				return optimizeAllImages(profile, conversionType, includeWebPConversion, files);
+			}
+			
+			@Override
+			public List<File> getSkippedFiles() {
+				return Collections.emptyList();
+			}
+		};
+	}
+	
+	@Override
+	public String getFinalResultsDirectory() {
+		return finalResultsDirectory.getPath();
+	}
+}
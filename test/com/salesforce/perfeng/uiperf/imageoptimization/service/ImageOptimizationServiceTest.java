@@ -28,6 +28,7 @@
 package com.salesforce.perfeng.uiperf.imageoptimization.service;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
@@ -36,12 +37,18 @@ import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.io.FileUtils;
@@ -51,9 +58,11 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.salesforce.perfeng.uiperf.imageoptimization.dto.OptimizationResult;
+import com.salesforce.perfeng.uiperf.imageoptimization.dto.OptimizedImage;
 import com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService.FileTypeConversion;
 import com.salesforce.perfeng.uiperf.imageoptimization.utils.FixedFileUtils;
 import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFileOptimizationException;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFormat;
 import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageUtils;
 
 /**
@@ -1221,6 +1230,281 @@ public class ImageOptimizationServiceTest {
 		assertEquals(tmpDir.getCanonicalPath() + File.separator + "final", (new ImageOptimizationService<>(tmpDir, new File(DEFAULT_BINARY_APP_LOCATION))).getFinalResultsDirectory());
 	}
 	
+	/**
+	 * Test for 
+	 * {@link ImageOptimizationService#optimizeImage(FileTypeConversion, boolean, byte[])}.
+	 * 
+	 * @throws IOException Thrown if there is an issue reading from the file 
+	 *                     system.
+	 */
+	@Test
+	public void testOptimizeImage() throws IOException {
+		final ImageOptimizationTestDTO[] imageOptimizationTestDTOList = {new ImageOptimizationTestDTO("csv_120.png", false, false, true),
+                new ImageOptimizationTestDTO("sharing_model2.jpg", false, false, true),
+                new ImageOptimizationTestDTO("el_icon.gif", false, true, true),
+                new ImageOptimizationTestDTO("doctype_16_sprite.png", false, false, false)};
+		
+		for(final ImageOptimizationTestDTO imageOptimizationTestDTO : imageOptimizationTestDTOList) {
+			final String errorMsg = String.format("failed for image \"%s\"", imageOptimizationTestDTO.getMasterFile().getName());
+			final byte[] image = FileUtils.readFileToByteArray(imageOptimizationTestDTO.getMasterFile());
+			
+			final List<OptimizedImage> results = imageOptimizationService.optimizeImage(FileTypeConversion.NONE, false, image);
+			assertThat(errorMsg, Integer.valueOf(results.size()), Matchers.equalTo(Integer.valueOf(1)));
+			
+			final OptimizedImage result = results.get(0);
+			assertThat(errorMsg, result.getFormat(), Matchers.equalTo(ImageFormat.fromExtension(FilenameUtils.getExtension(imageOptimizationTestDTO.getMasterFile().getName()))));
+			assertThat(errorMsg, Long.valueOf(result.getOriginalSize()), Matchers.equalTo(Long.valueOf(image.length)));
+			assertThat(errorMsg, Boolean.valueOf(result.isOptimized()), Matchers.equalTo(Boolean.valueOf(imageOptimizationTestDTO.isOptimized())));
+			assertThat(errorMsg, Boolean.valueOf(result.isFileTypeChanged()), Matchers.equalTo(Boolean.FALSE));
+			assertThat(errorMsg, Boolean.valueOf(result.isFailedAutomatedTest()), Matchers.equalTo(Boolean.FALSE));
+			assertThat(errorMsg, Boolean.valueOf(result.isBrowserSpecific()), Matchers.equalTo(Boolean.FALSE));
+			assertTrue(errorMsg, ImageUtils.visuallyCompare(image, result.getData()));
+			
+			// The master image is never touched.
+			assertThat(errorMsg, Long.valueOf(FileUtils.checksumCRC32(imageOptimizationTestDTO.getMasterFile())), Matchers.equalTo(Long.valueOf(imageOptimizationTestDTO.getMasterFileChecksum())));
+		}
+		
+		try {
+			imageOptimizationService.optimizeImage(FileTypeConversion.NONE, false, "not an image".getBytes());
+			fail("Only images are supported.");
+		} catch(final ImageFileOptimizationException ignore) {
+			// if this catch block is executed then the test passed.
+		}
+	}
+	
+	/**
+	 * Test that 
+	 * {@link ImageOptimizationService#optimizeImage(FileTypeConversion, boolean, ByteBuffer)}
+	 * rejects a missing or empty buffer before copying it.
+	 * 
+	 * @throws ImageFileOptimizationException Thrown if the image cannot be 
+	 *                                        optimized.
+	 */
+	@Test
+	public void testOptimizeImageEmptyBuffer() throws ImageFileOptimizationException {
+		try {
+			imageOptimizationService.optimizeImage(FileTypeConversion.NONE, false, (ByteBuffer)null);
+			fail("The image is required.");
+		} catch(final IllegalArgumentException ignore) {
+			// if this catch block is executed then the test passed.
+		}
+		final ByteBuffer buffer = ByteBuffer.wrap("not an image".getBytes());
+		buffer.position(buffer.limit());
+		try {
+			imageOptimizationService.optimizeImage(FileTypeConversion.NONE, false, buffer);
+			fail("A buffer with no bytes remaining is empty.");
+		} catch(final IllegalArgumentException ignore) {
+			// if this catch block is executed then the test passed.
+		}
+	}
+	
+	/**
+	 * Test that {@link OptimizationBatch} routes on the content of the image 
+	 * instead of its extension.
+	 * 
+	 * @throws IOException Thrown if there is an issue reading from the file 
+	 *                     system.
+	 * @throws TimeoutException Thrown if optimizing an image timed out.
+	 */
+	@Test
+	public void testOptimizationBatchMislabeledFiles() throws IOException, TimeoutException {
+		final File tmpDir = getTempDir();
+		final File mislabeled = new File(tmpDir, "sharing_model2.png");
+		FixedFileUtils.copyFile(new File("./test/com/salesforce/perfeng/uiperf/imageoptimization/service/sharing_model2.jpg"), mislabeled);
+		final File notAnImage = new File(tmpDir, "not_an_image.png");
+		FileUtils.writeStringToFile(notAnImage, "not an image");
+		
+		final OptimizationBatch<Object> batch = imageOptimizationService.newOptimizationBatch(FileTypeConversion.NONE, false);
+		batch.submit(mislabeled);
+		batch.submit(notAnImage);
+		final List<OptimizationResult<Object>> results = batch.awaitResults();
+		
+		assertEquals(1, results.size());
+		assertTrue(results.get(0).isMislabeled());
+		assertEquals(mislabeled.getCanonicalFile(), results.get(0).getOriginalFile());
+		assertEquals(Collections.singletonList(notAnImage), batch.getSkippedFiles());
+	}
+	
+	/**
+	 * Test that {@link OptimizationBatch#pollResults(java.util.function.Consumer)}
+	 * passes on the images that are done while images are still submitted, 
+	 * and that they are not passed on again by 
+	 * {@link OptimizationBatch#awaitResults()}.
+	 * 
+	 * @throws IOException Thrown if there is an issue reading from the file 
+	 *                     system.
+	 * @throws TimeoutException Thrown if optimizing an image timed out.
+	 * @throws InterruptedException Thrown if the test is interrupted.
+	 */
+	@Test
+	public void testOptimizationBatchPollResults() throws IOException, TimeoutException, InterruptedException {
+		final File tmpDir = getTempDir();
+		final File first = new File(tmpDir, "first.jpg");
+		FixedFileUtils.copyFile(new File("./test/com/salesforce/perfeng/uiperf/imageoptimization/service/sharing_model2.jpg"), first);
+		final File second = new File(tmpDir, "second.jpg");
+		FixedFileUtils.copyFile(new File("./test/com/salesforce/perfeng/uiperf/imageoptimization/service/sharing_model2.jpg"), second);
+		
+		final OptimizationBatch<Object> batch = imageOptimizationService.newOptimizationBatch(FileTypeConversion.NONE, false);
+		batch.submit(first);
+		final List<OptimizationResult<Object>> polled = new ArrayList<>();
+		final long deadline = System.currentTimeMillis() + 60000;
+		while(polled.isEmpty() && (System.currentTimeMillis() < deadline)) {
+			batch.pollResults(polled::add);
+			Thread.sleep(10);
+		}
+		assertEquals(1, polled.size());
+		assertEquals(first.getCanonicalFile(), polled.get(0).getOriginalFile());
+		
+		batch.submit(second);
+		final List<OptimizationResult<Object>> results = batch.awaitResults();
+		assertEquals(1, results.size());
+		assertEquals(second.getCanonicalFile(), results.get(0).getOriginalFile());
+	}
+	
+	/**
+	 * Test that the {@link OptimizationProfile#FAST} profile only runs the 
+	 * tools of its pipeline, once, and still produces a valid image.
+	 * 
+	 * @throws IOException Thrown if there is an issue reading from the file 
+	 *                     system.
+	 * @throws TimeoutException Thrown if optimizing an image timed out.
+	 */
+	@Test
+	public void testOptimizeAllImagesFastProfile() throws IOException, TimeoutException {
+		final File tmpDir = getTempDir();
+		final File png = new File(tmpDir, "csv_120.png");
+		FixedFileUtils.copyFile(new File("./test/com/salesforce/perfeng/uiperf/imageoptimization/service/csv_120.png"), png);
+		
+		final List<OptimizationResult<Object>> results = imageOptimizationService.optimizeAllImages(OptimizationProfile.FAST, FileTypeConversion.NONE, false, Collections.singletonList(png));
+		
+		assertEquals(1, imageOptimizationService.getBinaryMetrics().get(ImageOptimizationService.OPTIPNG_BINARY).getInvocations());
+		assertEquals(0, imageOptimizationService.getBinaryMetrics().get(ImageOptimizationService.ADVPNG_BINARY).getInvocations());
+		assertEquals(0, imageOptimizationService.getBinaryMetrics().get(ImageOptimizationService.PNGOUT_BINARY).getInvocations());
+		assertEquals(0, imageOptimizationService.getBinaryMetrics().get(ImageOptimizationService.PNGQUANT_BINARY).getInvocations());
+		for(final OptimizationResult<Object> result : results) {
+			assertFalse(result.isFailedAutomatedTest());
+			assertThat(Long.valueOf(result.getOptimizedFileSize()), Matchers.lessThan(Long.valueOf(result.getOriginalFileSize())));
+		}
+	}
+	
+	/**
+	 * Test that the PNG candidates with the same bytes as an earlier one are
+	 * deleted.
+	 * 
+	 * @throws IOException Thrown if there is an issue writing to the file 
+	 *                     system.
+	 */
+	@Test
+	public void testRemoveDuplicateCandidates() throws IOException {
+		final File tmpDir = getTempDir();
+		final List<File> pngs = new ArrayList<>();
+		final List<byte[]> pngData = new ArrayList<>();
+		for(final byte[] data : new byte[][] {{1, 2, 3}, {1, 2, 3}, {4}, {1, 2, 3}}) {
+			final File png = new File(tmpDir, pngs.size() + ".png");
+			Files.write(png.toPath(), data);
+			pngs.add(png);
+			pngData.add(data);
+		}
+		
+		final List<File> candidates = ImageOptimizationService.removeDuplicateCandidates(pngs, pngData);
+		
+		assertEquals(Arrays.asList(pngs.get(0), pngs.get(2)), candidates);
+		assertFalse(pngs.get(1).exists());
+		assertFalse(pngs.get(3).exists());
+	}
+	
+	/**
+	 * Test that the smallest PNG candidate is kept and the rest are deleted,
+	 * and that the candidates still queued behind a busy pool are run by the
+	 * current thread.
+	 * 
+	 * @throws IOException Thrown if there is an issue writing to the file 
+	 *                     system.
+	 * @throws InterruptedException Thrown if the test is interrupted.
+	 */
+	@Test
+	public void testOptimizePngCandidates() throws IOException, InterruptedException {
+		final List<File> candidates = createCandidates(10, 10, 10);
+		final Map<File, Integer> optimizedSizes = new HashMap<>();
+		optimizedSizes.put(candidates.get(0), Integer.valueOf(8));
+		optimizedSizes.put(candidates.get(1), Integer.valueOf(5));
+		optimizedSizes.put(candidates.get(2), Integer.valueOf(7));
+		
+		final ExecutorService executorService = Executors.newSingleThreadExecutor();
+		final CountDownLatch busy = new CountDownLatch(1);
+		try {
+			executorService.execute(() -> {
+				try {
+					busy.await();
+				} catch(final InterruptedException ie) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			
+			final File best = ImageOptimizationService.optimizePngCandidates(executorService, candidates, 20, (candidate, bestSize) -> {
+				Files.write(candidate.toPath(), new byte[optimizedSizes.get(candidate).intValue()]);
+				bestSize.accumulateAndGet(candidate.length(), Math::min);
+				return candidate;
+			});
+			
+			assertEquals(candidates.get(1), best);
+			assertEquals(5, best.length());
+			assertFalse(candidates.get(0).exists());
+			assertFalse(candidates.get(2).exists());
+		} finally {
+			busy.countDown();
+			executorService.shutdown();
+		}
+	}
+	
+	/**
+	 * Test that a PNG candidate that is not smaller than the best size so far
+	 * is given up on, and that no candidate is kept if none of them beat the
+	 * GIF.
+	 * 
+	 * @throws IOException Thrown if there is an issue writing to the file 
+	 *                     system.
+	 * @throws InterruptedException Thrown if the test is interrupted.
+	 */
+	@Test
+	public void testOptimizePngCandidatesPruning() throws IOException, InterruptedException {
+		final ImageOptimizationService.PngCandidateOptimizer optimizer = (candidate, bestSize) -> {
+			if(candidate.length() >= bestSize.get()) {
+				return null;
+			}
+			bestSize.accumulateAndGet(candidate.length(), Math::min);
+			return candidate;
+		};
+		
+		final List<File> candidates = createCandidates(6, 9, 4);
+		final File best = ImageOptimizationService.optimizePngCandidates(Runnable::run, candidates, 10, optimizer);
+		assertEquals(candidates.get(2), best);
+		assertFalse(candidates.get(0).exists());
+		assertFalse(candidates.get(1).exists());
+		
+		final List<File> larger = createCandidates(12, 15);
+		assertNull(ImageOptimizationService.optimizePngCandidates(Runnable::run, larger, 10, optimizer));
+		assertFalse(larger.get(0).exists());
+		assertFalse(larger.get(1).exists());
+	}
+	
+	/**
+	 * @param sizes The size of each candidate.
+	 * @return PNG candidates of the passed in sizes.
+	 * @throws IOException Thrown if there is an issue writing to the file 
+	 *                     system.
+	 */
+	private static final List<File> createCandidates(final int... sizes) throws IOException {
+		final File tmpDir = getTempDir();
+		final List<File> candidates = new ArrayList<>(sizes.length);
+		for(final int size : sizes) {
+			final File candidate = new File(tmpDir, candidates.size() + ".png");
+			Files.write(candidate.toPath(), new byte[size]);
+			candidates.add(candidate);
+		}
+		return candidates;
+	}
+	
 	private static class ImageOptimizationTestDTO {
 		
 		private final File masterFile;
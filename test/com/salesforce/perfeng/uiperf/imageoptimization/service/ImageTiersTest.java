@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageHeader;
+
+/**
+ * Test for {@link ImageTiers}.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public class ImageTiersTest {
+	
+	private static final String TINY_PROFILE_PROPERTY = ImageTiers.PROFILE_PROPERTY_PREFIX + "tiny.profile";
+	
+	/**
+	 * Clears the system properties.
+	 */
+	@After
+	public void tearDown() {
+		System.clearProperty(TINY_PROFILE_PROPERTY);
+		System.clearProperty(ImageTiers.TINY_MAX_BYTES_PROPERTY);
+		System.clearProperty(ImageTiers.ENABLED_PROPERTY);
+	}
+	
+	/**
+	 * Test for {@link ImageTiers#classify(long, Dimension)}.
+	 */
+	@Test
+	public void testClassify() {
+		final ImageTiers tiers = new ImageTiers(100, 16, 1000, 400, Collections.<ImageTier, OptimizationProfile>emptyMap());
+		assertSame(ImageTier.TINY, tiers.classify(100, new Dimension(4, 4)));
+		assertSame("An unreadable header is never tiny.", ImageTier.NORMAL, tiers.classify(50, null));
+		assertSame(ImageTier.NORMAL, tiers.classify(101, new Dimension(4, 4)));
+		assertSame(ImageTier.NORMAL, tiers.classify(50, new Dimension(5, 4)));
+		assertSame(ImageTier.NORMAL, tiers.classify(999, null));
+		assertSame(ImageTier.HUGE, tiers.classify(1000, null));
+		assertSame(ImageTier.HUGE, tiers.classify(50, new Dimension(20, 20)));
+	}
+	
+	/**
+	 * Test for {@link ImageTiers#classify(ImageHeader, long)}. The dimension 
+	 * is only read when a tier has a most effort.
+	 * 
+	 * @throws IOException Thrown if the images cannot be read.
+	 */
+	@Test
+	public void testClassifyHeader() throws IOException {
+		// Only the signature and the start of the IHDR chunk, ImageIO cannot
+		// read the dimension from it.
+		final byte[] truncated = new byte[26];
+		System.arraycopy(new byte[] {(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0, 0, 0, 13, 'I', 'H', 'D', 'R'}, 0, truncated, 0, 16);
+		final ImageHeader header = ImageHeader.read(truncated);
+		
+		final ImageTiers disabled = new ImageTiers(100, 16, 1000, 400, Collections.<ImageTier, OptimizationProfile>emptyMap());
+		assertSame("Without a most effort only the size is used.", ImageTier.TINY, disabled.classify(header, 50));
+		assertSame(ImageTier.NORMAL, disabled.classify(header, 101));
+		assertSame(ImageTier.HUGE, disabled.classify(header, 1000));
+		
+		final ImageTiers enabled = new ImageTiers(100, 16, 1000, 400, Collections.singletonMap(ImageTier.TINY, OptimizationProfile.FAST));
+		assertSame("An unreadable header is never tiny.", ImageTier.NORMAL, enabled.classify(header, 50));
+		final File png = new File("./test/com/salesforce/perfeng/uiperf/imageoptimization/service/safe32.png");
+		assertSame("32x32 is more than 400 pixels.", ImageTier.HUGE, enabled.classify(ImageHeader.read(png), png.length()));
+	}
+	
+	/**
+	 * Test for {@link ImageTiers#getProfile(ImageTier, OptimizationProfile)}.
+	 */
+	@Test
+	public void testGetProfile() {
+		final Map<ImageTier, OptimizationProfile> profiles = new EnumMap<>(ImageTier.class);
+		profiles.put(ImageTier.TINY, OptimizationProfile.FAST);
+		profiles.put(ImageTier.HUGE, OptimizationProfile.BALANCED);
+		final ImageTiers tiers = new ImageTiers(100, 16, 1000, 400, profiles);
+		assertSame(OptimizationProfile.FAST, tiers.getProfile(ImageTier.TINY, OptimizationProfile.MAXIMUM));
+		assertSame(OptimizationProfile.BALANCED, tiers.getProfile(ImageTier.HUGE, OptimizationProfile.MAXIMUM));
+		assertSame("The profile asked for is never raised.", OptimizationProfile.FAST, tiers.getProfile(ImageTier.HUGE, OptimizationProfile.FAST));
+		assertSame(OptimizationProfile.MAXIMUM, tiers.getProfile(ImageTier.NORMAL, OptimizationProfile.MAXIMUM));
+	}
+	
+	/**
+	 * Test for {@link ImageTiers#createInstance()}.
+	 */
+	@Test
+	public void testCreateInstance() {
+		System.setProperty(TINY_PROFILE_PROPERTY, "balanced");
+		System.setProperty(ImageTiers.TINY_MAX_BYTES_PROPERTY, "512");
+		final ImageTiers tiers = ImageTiers.createInstance();
+		assertEquals(512, tiers.getTinyMaxBytes());
+		assertEquals(1024 * 1024, tiers.getHugeMinBytes());
+		assertSame(OptimizationProfile.BALANCED, tiers.getProfile(ImageTier.TINY, OptimizationProfile.MAXIMUM));
+		assertSame(OptimizationProfile.MAXIMUM, tiers.getProfile(ImageTier.NORMAL, OptimizationProfile.MAXIMUM));
+		assertSame("Only the tier with a profile set is lowered.", OptimizationProfile.MAXIMUM, tiers.getProfile(ImageTier.HUGE, OptimizationProfile.MAXIMUM));
+	}
+	
+	/**
+	 * Test that {@link ImageTiers#createInstance()} only lowers the profile 
+	 * asked for when {@link ImageTiers#ENABLED_PROPERTY} is set.
+	 */
+	@Test
+	public void testCreateInstanceEnabled() {
+		ImageTiers tiers = ImageTiers.createInstance();
+		for(final ImageTier tier : ImageTier.values()) {
+			assertSame(tier.getName(), OptimizationProfile.MAXIMUM, tiers.getProfile(tier, OptimizationProfile.MAXIMUM));
+		}
+		
+		System.setProperty(ImageTiers.ENABLED_PROPERTY, "true");
+		tiers = ImageTiers.createInstance();
+		assertSame(OptimizationProfile.FAST, tiers.getProfile(ImageTier.TINY, OptimizationProfile.MAXIMUM));
+		assertSame(OptimizationProfile.MAXIMUM, tiers.getProfile(ImageTier.NORMAL, OptimizationProfile.MAXIMUM));
+		assertSame(OptimizationProfile.BALANCED, tiers.getProfile(ImageTier.HUGE, OptimizationProfile.MAXIMUM));
+	}
+	
+	/**
+	 * Test for {@link ImageTiers#ImageTiers(long, long, long, long, Map)} 
+	 * with a tiny image bigger than a huge image.
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void testOverlappingTiers() {
+		new ImageTiers(1000, 16, 1000, 400, Collections.<ImageTier, OptimizationProfile>emptyMap());
+	}
+}
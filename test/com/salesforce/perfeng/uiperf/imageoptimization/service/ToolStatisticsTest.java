@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFormat;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageHeader;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.UserFiles;
+
+/**
+ * Test for {@link ToolStatistics}.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public class ToolStatisticsTest {
+
+	private static final String IMAGE_CLASS = "PNG.PALETTE.8.4K";
+	
+	/**
+	 * Test that a binary that does not save enough is only skipped once it 
+	 * ran {@link ToolStatistics#MIN_RUNS} times, and that the statistics carry
+	 * over to the next run through the file.
+	 * 
+	 * @throws IOException Thrown if the statistics cannot be saved.
+	 */
+	@Test
+	public void testShouldRun() throws IOException {
+		final File file = File.createTempFile("tool", ".statistics");
+		file.deleteOnExit();
+		
+		final ToolStatistics statistics = new ToolStatistics(file, 0, 100);
+		for(int i = 0; i < ToolStatistics.MIN_RUNS; i++) {
+			assertTrue(statistics.shouldRun("pngout", 2, IMAGE_CLASS));
+			// 10 bytes in 1 second
+			statistics.record("pngout", 2, IMAGE_CLASS, 10, 1_000_000_000L);
+			// 1000 bytes in 1 second
+			statistics.record("optipng", 2, IMAGE_CLASS, 1000, 1_000_000_000L);
+		}
+		assertFalse(statistics.shouldRun("pngout", 2, IMAGE_CLASS));
+		assertTrue(statistics.shouldRun("optipng", 2, IMAGE_CLASS));
+		assertTrue(statistics.shouldRun("pngout", 1, IMAGE_CLASS));
+		assertTrue(statistics.shouldRun("pngout", 2, "PNG.RGBA.8.4K"));
+		statistics.save();
+		
+		assertFalse(new ToolStatistics(file, 0, 100).shouldRun("pngout", 2, IMAGE_CLASS));
+		assertTrue(new ToolStatistics(file, 100, 100).shouldRun("pngout", 2, IMAGE_CLASS));
+		assertTrue(new ToolStatistics(file, 0, 10).shouldRun("pngout", 2, IMAGE_CLASS));
+	}
+	
+	/**
+	 * Test for {@link ToolStatistics#classify(File)}.
+	 */
+	@Test
+	public void testClassify() {
+		assertEquals("PNG.RGBA.8.4K", ToolStatistics.classify(new File("./test/com/salesforce/perfeng/uiperf/imageoptimization/service/safe32.png")));
+		assertEquals("PNG", ToolStatistics.classify(new File("./does_not_exist.png")));
+	}
+	
+	/**
+	 * Test for {@link ToolStatistics#classify(ImageHeader, long)} with the 
+	 * header that was already read.
+	 * 
+	 * @throws IOException Thrown if the images cannot be read.
+	 */
+	@Test
+	public void testClassifyHeader() throws IOException {
+		final File png = new File("./test/com/salesforce/perfeng/uiperf/imageoptimization/service/safe32.png");
+		final ImageHeader header = ImageHeader.read(png);
+		assertEquals(ImageFormat.PNG, header.getFormat());
+		assertEquals("PNG.RGBA.8.4K", ToolStatistics.classify(header, png.length()));
+		assertEquals("PNG.RGBA.8.LARGE", ToolStatistics.classify(header, 10L * 1024 * 1024));
+		
+		final File gif = new File("./test/com/salesforce/perfeng/uiperf/imageoptimization/service/addCol.gif");
+		assertEquals("PNG", ToolStatistics.classify(ImageHeader.read(gif), gif.length()));
+	}
+	
+	/**
+	 * Test that no binary is skipped unless 
+	 * {@value ToolStatistics#ENABLED_PROPERTY} is set, that exploring keeps 
+	 * the statistics fresh once it is, and that the default file is in the 
+	 * directory private to the user.
+	 */
+	@Test
+	public void testCreateInstance() {
+		final ToolStatistics disabled = ToolStatistics.createInstance();
+		assertEquals(100, disabled.getExplorePercent());
+		for(int i = 0; i < ToolStatistics.MIN_RUNS; i++) {
+			disabled.record("pngout", 2, IMAGE_CLASS, 0, 1_000_000_000L);
+		}
+		assertTrue(disabled.shouldRun("pngout", 2, IMAGE_CLASS));
+		
+		System.setProperty(ToolStatistics.ENABLED_PROPERTY, "true");
+		try {
+			assertEquals(10, ToolStatistics.createInstance().getExplorePercent());
+		} finally {
+			System.clearProperty(ToolStatistics.ENABLED_PROPERTY);
+		}
+		assertEquals(UserFiles.getDirectory(), ToolStatistics.getDefaultFile().getParentFile());
+	}
+	
+	/**
+	 * Test that {@link ToolStatistics#save()} creates the missing directory 
+	 * so that only the user can write to it.
+	 * 
+	 * @throws IOException Thrown if the statistics cannot be saved.
+	 */
+	@Test
+	public void testSaveCreatesPrivateDirectory() throws IOException {
+		final File dir = new File(Files.createTempDirectory("tool").toFile(), "private");
+		final File file = new File(dir, "statistics");
+		try {
+			final ToolStatistics statistics = new ToolStatistics(file, 0, 100);
+			statistics.record("pngout", 2, IMAGE_CLASS, 10, 1_000_000_000L);
+			statistics.save();
+			
+			assertTrue(file.isFile());
+			UserFiles.checkPrivate(dir);
+		} finally {
+			FileUtils.deleteDirectory(dir.getParentFile());
+		}
+	}
+}
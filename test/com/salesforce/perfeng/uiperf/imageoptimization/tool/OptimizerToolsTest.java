@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.tool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.tool.OptimizerTool.Capability;
+import com.salesforce.perfeng.uiperf.imageoptimization.utils.ImageFormat;
+
+/**
+ * Test for {@link OptimizerTools}.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public class OptimizerToolsTest {
+	
+	private static final String PNG_PROPERTY = OptimizerTools.PIPELINE_PROPERTY_PREFIX + "png";
+	
+	/**
+	 * Clears the pipeline system property.
+	 */
+	@After
+	public void tearDown() {
+		System.clearProperty(PNG_PROPERTY);
+	}
+	
+	private static OptimizerTool tool(final String name, final ImageFormat outputFormat, final Capability... capabilities) {
+		return new OptimizerTool() {
+			@Override
+			public String getName() {
+				return name;
+			}
+			
+			@Override
+			public Set<ImageFormat> getInputFormats() {
+				return EnumSet.of(ImageFormat.PNG);
+			}
+			
+			@Override
+			public ImageFormat getOutputFormat(final ImageFormat inputFormat) {
+				return (outputFormat == null) ? inputFormat : outputFormat;
+			}
+			
+			@Override
+			public Set<Capability> getCapabilities() {
+				return (capabilities.length == 0) ? EnumSet.noneOf(Capability.class) : EnumSet.copyOf(Arrays.asList(capabilities));
+			}
+			
+			@Override
+			public File optimize(final ToolContext context, final File image) {
+				return image;
+			}
+		};
+	}
+	
+	private static Map<ImageFormat, List<String>> pngPipeline(final String... names) {
+		final Map<ImageFormat, List<String>> pipelines = new EnumMap<>(ImageFormat.class);
+		pipelines.put(ImageFormat.PNG, Arrays.asList(names));
+		return pipelines;
+	}
+	
+	/**
+	 * Test that a plugged in tool replaces the built-in tool with the same 
+	 * name in the default pipeline.
+	 */
+	@Test
+	public void testPluggedInToolReplacesBuiltInTool() {
+		final OptimizerTool builtIn = tool("optipng", null);
+		final OptimizerTool pluggedIn = tool("optipng", null, Capability.STDIN);
+		final OptimizerTools tools = new OptimizerTools(Arrays.asList(tool("advpng", null, Capability.STDIN), builtIn), pngPipeline("advpng", "optipng"), Collections.singletonList(pluggedIn));
+		
+		assertSame(pluggedIn, tools.getTool("optipng"));
+		assertEquals(2, tools.getTools().size());
+		assertEquals(Arrays.asList(tools.getTool("advpng"), pluggedIn), tools.getPipeline(ImageFormat.PNG));
+		assertTrue(tools.isStdinPipeline(ImageFormat.PNG));
+		assertTrue(tools.getPipeline(ImageFormat.JPEG).isEmpty());
+	}
+	
+	/**
+	 * Test that the system property replaces the default pipeline.
+	 */
+	@Test
+	public void testPipelineProperty() {
+		System.setProperty(PNG_PROPERTY, " optipng , ,advpng");
+		final OptimizerTool advpng = tool("advpng", null, Capability.STDIN);
+		final OptimizerTool optipng = tool("optipng", null);
+		final OptimizerTools tools = new OptimizerTools(Arrays.asList(advpng, optipng), pngPipeline("advpng"), Collections.<OptimizerTool>emptyList());
+		
+		assertEquals(Arrays.asList(optipng, advpng), tools.getPipeline(ImageFormat.PNG));
+		assertFalse(tools.isStdinPipeline(ImageFormat.PNG));
+	}
+	
+	/**
+	 * Test that a pipeline with a tool that does not exist or that changes 
+	 * the format is rejected.
+	 */
+	@Test
+	public void testInvalidPipeline() {
+		final List<OptimizerTool> builtIns = Arrays.asList(tool("advpng", null), tool("cwebp", ImageFormat.WEBP));
+		try {
+			new OptimizerTools(builtIns, pngPipeline("advpng", "zopflipng"), Collections.<OptimizerTool>emptyList());
+			fail("The unknown tool should have been rejected.");
+		} catch(final IllegalArgumentException iae) {
+			assertTrue(iae.getMessage(), iae.getMessage().contains("zopflipng"));
+		}
+		try {
+			new OptimizerTools(builtIns, pngPipeline("advpng", "cwebp"), Collections.<OptimizerTool>emptyList());
+			fail("The tool that changes the format should have been rejected.");
+		} catch(final IllegalArgumentException iae) {
+			assertTrue(iae.getMessage(), iae.getMessage().contains("cwebp"));
+		}
+	}
+}
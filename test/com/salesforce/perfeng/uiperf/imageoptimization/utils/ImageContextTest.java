@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Test for {@link ImageContext}.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public class ImageContextTest {
+
+	private static final String TEST_DIRECTORY = "./test/com/salesforce/perfeng/uiperf/imageoptimization/utils/";
+	
+	/**
+	 * Test that all of the checks share 1 decode of the image.
+	 */
+	@Test
+	public void testDecodeOnce() {
+		try(final ImageContext image = new ImageContext(new File(TEST_DIRECTORY + "2013_summer_force.gif"));
+				final ImageContext other = new ImageContext(new File(TEST_DIRECTORY + "2013_summer_force.gif"))) {
+			assertEquals(0, image.getDecodeCount());
+			
+			final long decodes = ImageDecoder.getDecodeCount();
+			assertFalse(image.isAnimatedGif());
+			assertTrue(image.containsAlphaTransparency());
+			assertSame(image.getImage(), image.getImage());
+			assertTrue(ImageUtils.visuallyCompare(image, other));
+			
+			assertEquals(1, image.getDecodeCount());
+			assertEquals(decodes + 2, ImageDecoder.getDecodeCount());
+		}
+	}
+	
+	/**
+	 * Test that the memory of the decoded image stays reserved until the 
+	 * context is closed.
+	 */
+	@Test
+	public void testClose() {
+		final long available = ImageDecoder.getAvailableMemory();
+		final ImageContext image = new ImageContext(new File(TEST_DIRECTORY + "sergey_reasonably_small.jpg"));
+		final BufferedImage decoded = image.getImage();
+		assertEquals(available - ((long)decoded.getWidth() * decoded.getHeight() * ImageDecoder.BYTES_PER_PIXEL), ImageDecoder.getAvailableMemory(), 1024);
+		assertFalse(image.containsAlphaTransparency());
+		
+		image.close();
+		assertEquals(available, ImageDecoder.getAvailableMemory());
+		image.close();
+		assertEquals(available, ImageDecoder.getAvailableMemory());
+		
+		assertNotSame(decoded, image.getImage());
+		assertEquals(2, image.getDecodeCount());
+		image.close();
+		assertEquals(available, ImageDecoder.getAvailableMemory());
+	}
+	
+	/**
+	 * Test the context of an in memory image.
+	 * 
+	 * @throws IOException Thrown if the test image cannot be read.
+	 */
+	@Test
+	public void testInMemoryImage() throws IOException {
+		try(final ImageContext image = new ImageContext(FileUtils.readFileToByteArray(new File(TEST_DIRECTORY + "sergey_reasonably_small.jpg")));
+				final ImageContext other = new ImageContext(new File(TEST_DIRECTORY + "sergey_reasonably_small_jpegmini.jpg"))) {
+			assertEquals(ImageUtils.IN_MEMORY_IMAGE_PATH, image.getPath());
+			assertFalse(image.containsAlphaTransparency());
+			assertFalse(ImageUtils.visuallyCompare(image, other));
+			assertEquals(1, image.getDecodeCount());
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Test for {@link ImageDecoder}.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public class ImageDecoderTest {
+
+	private static final String TEST_DIRECTORY = "./test/com/salesforce/perfeng/uiperf/imageoptimization/utils/";
+	
+	/**
+	 * Test that the ImageIO decode has the same pixels as the {@link java.awt.Toolkit}
+	 * decode it replaced.
+	 * 
+	 * @throws IOException Thrown if a test image cannot be read.
+	 */
+	@Test
+	public void testDecodeSameAsToolkit() throws IOException {
+		for(final String name : new String[] {"sergey_reasonably_small.jpg", "2013_summer_force.gif", "no_transparency.gif", "s-arrow-bo.gif", "s-arrow-bo2.gif", "forceapp_bg.png"}) {
+			final File file = new File(TEST_DIRECTORY + name);
+			try(final ImageDecoder.DecodedImage image = ImageDecoder.decode(file);
+					final ImageDecoder.DecodedImage inMemoryImage = ImageDecoder.decode(FileUtils.readFileToByteArray(file))) {
+				assertTrue(name, PixelComparator.equals(ImageDecoder.decodeToolkit(file), image.getImage()));
+				assertTrue(name, PixelComparator.equals(image.getImage(), inMemoryImage.getImage()));
+			}
+		}
+		assertFalse(ImageUtils.visuallyCompare(new File(TEST_DIRECTORY + "safe32_optimized.png"), new File(TEST_DIRECTORY + "safe32_unoptimized.png")));
+	}
+	
+	/**
+	 * Test that a grayscale PNG is the same as the RGB PNG with the same 
+	 * pixels. ImageIO decodes the grayscale one into a linear gray color 
+	 * space that must not be converted to sRGB.
+	 * 
+	 * @throws IOException Thrown if the test images cannot be written.
+	 */
+	@Test
+	public void testDecodeGrayscale() throws IOException {
+		final BufferedImage gray = new BufferedImage(64, 64, BufferedImage.TYPE_BYTE_GRAY);
+		final BufferedImage rgb = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+		for(int y = 0; y < 64; y++) {
+			for(int x = 0; x < 64; x++) {
+				final int sample = (x * 4) + (y / 16);
+				gray.getRaster().setSample(x, y, 0, sample);
+				rgb.getRaster().setPixel(x, y, new int[] {sample, sample, sample});
+			}
+		}
+		final File grayFile = File.createTempFile("gray", ".png");
+		grayFile.deleteOnExit();
+		final File rgbFile = File.createTempFile("rgb", ".png");
+		rgbFile.deleteOnExit();
+		assertTrue(ImageIO.write(gray, "png", grayFile));
+		assertTrue(ImageIO.write(rgb, "png", rgbFile));
+		
+		try(final ImageDecoder.DecodedImage image = ImageDecoder.decode(grayFile)) {
+			assertEquals(0xff808080, image.getImage().getRGB(32, 0));
+		}
+		assertTrue(ImageUtils.visuallyCompare(grayFile, rgbFile));
+		assertTrue(ImageUtils.visuallyCompare(FileUtils.readFileToByteArray(grayFile), FileUtils.readFileToByteArray(rgbFile)));
+	}
+	
+	/**
+	 * Test that an image with more than {@link ImageDecoder#MAX_PIXELS} pixels
+	 * is rejected from its header, before it is decoded.
+	 * 
+	 * @throws IOException Thrown if the test image cannot be read.
+	 */
+	@Test
+	public void testDecodeImageBomb() throws IOException {
+		final File file = new File("./test/com/salesforce/perfeng/uiperf/imageoptimization/service/imagebomb.png");
+		assertEquals(new Dimension(21500, 21500), ImageDecoder.getDimension(file));
+		assertEquals(new Dimension(21500, 21500), ImageDecoder.getDimension(FileUtils.readFileToByteArray(file)));
+		try {
+			ImageDecoder.decode(file);
+			fail();
+		} catch(final ImageFileOptimizationException ifoe) {
+			assertTrue(ifoe.getMessage(), ifoe.getMessage().contains("21500x21500"));
+		}
+	}
+	
+	/**
+	 * Test that a file that is not an image fails to decode.
+	 * 
+	 * @throws IOException Thrown if the temporary file cannot be written.
+	 */
+	@Test(expected=ImageFileOptimizationException.class)
+	public void testDecodeInvalidImage() throws IOException {
+		final File file = File.createTempFile("not_an_image", ".png");
+		file.deleteOnExit();
+		FileUtils.writeStringToFile(file, "This is not an image");
+		ImageDecoder.decode(file);
+	}
+}
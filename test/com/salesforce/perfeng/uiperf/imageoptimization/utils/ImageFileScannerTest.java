@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test for {@link ImageFileScanner}.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public class ImageFileScannerTest {
+
+	private static final byte[] PNG = {(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n', 0, 0, 0, 0};
+	private static final byte[] GIF = {'G', 'I', 'F', '8', '9', 'a', 0, 0};
+	private static final byte[] JPEG = {(byte)0xff, (byte)0xd8, (byte)0xff, (byte)0xe0};
+	
+	/**
+	 * The directories that are searched.
+	 */
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	
+	private File write(final String path, final byte[] content) throws IOException {
+		final File file = new File(folder.getRoot(), path);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), content);
+		return file;
+	}
+	
+	/**
+	 * Test that the images in all of the sub directories are found, with the
+	 * format of their content, and that files whose content is not an image 
+	 * are skipped.
+	 * 
+	 * @throws IOException Can be thrown when interacting with the file system.
+	 */
+	@Test
+	public void testScan() throws IOException {
+		final File mislabeled = write("one/mislabeled.png", JPEG);
+		final Set<File> expected = new HashSet<>(Arrays.asList(
+				write("a.png", PNG),
+				write("one/b.gif", GIF),
+				write("one/two/c.jpg", JPEG),
+				write("three/d.JPEG", JPEG),
+				mislabeled));
+		write("one/not_an_image.png", "text".getBytes());
+		write("one/two/empty.gif", new byte[0]);
+		write("three/notes.txt", PNG);
+		
+		final Map<File, ImageFormat> found = new ConcurrentHashMap<>();
+		final ImageFileScanner scanner = new ImageFileScanner(4);
+		try {
+			assertEquals(5, scanner.scan(Arrays.asList(folder.getRoot()), (file, header) -> found.put(file, header.getFormat())));
+		} finally {
+			scanner.shutdown();
+		}
+		assertEquals(expected, found.keySet());
+		assertEquals(ImageFormat.JPEG, found.get(mislabeled));
+	}
+	
+	/**
+	 * Test that a directory or a file that cannot be read is skipped, and the
+	 * rest of the images are still found.
+	 * 
+	 * @throws IOException Can be thrown when interacting with the file system.
+	 */
+	@Test
+	public void testScanSkipsUnreadable() throws IOException {
+		final Set<File> expected = new HashSet<>(Arrays.asList(
+				write("a.png", PNG),
+				write("one/b.gif", GIF)));
+		final File locked = write("locked/c.png", PNG).getParentFile();
+		// A link to itself cannot be opened.
+		Files.createSymbolicLink(new File(folder.getRoot(), "one/loop.png").toPath(), new File(folder.getRoot(), "one/loop.png").toPath());
+		assertTrue(locked.setReadable(false) && locked.setExecutable(false));
+		// Permissions do not apply to root, which can still list the directory.
+		final boolean unreadable = !Files.isReadable(locked.toPath());
+		
+		final Map<File, ImageFormat> found = new ConcurrentHashMap<>();
+		final ImageFileScanner scanner = new ImageFileScanner(4);
+		try {
+			scanner.scan(Arrays.asList(folder.getRoot()), (file, header) -> found.put(file, header.getFormat()));
+		} finally {
+			scanner.shutdown();
+			locked.setReadable(true);
+			locked.setExecutable(true);
+		}
+		if(!unreadable) {
+			expected.add(new File(locked, "c.png"));
+		}
+		assertEquals(expected, found.keySet());
+	}
+}
@@ -35,6 +35,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URLConnection;
+import java.nio.file.Files;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.Test;
@@ -101,14 +102,11 @@ public class ImageUtilsTest {
 	@Test
 	public void testGetBufferedImage() {
 
-		assertNotNull(ImageUtils.getBufferedImage(new File("./test/com/salesforce/perfeng/uiperf/imageoptimization/utils/sergey_reasonably_small.jpg")));
-		assertNotNull(ImageUtils.getBufferedImage(new File("./test/com/salesforce/perfeng/uiperf/imageoptimization/utils/sergey_reasonably_small_smushit.jpg")));
-		assertNotNull(ImageUtils.getBufferedImage(new File("./test/com/salesforce/perfeng/uiperf/imageoptimization/utils/sergey_reasonably_small_jpegmini.jpg")));
-		assertNotNull(ImageUtils.getBufferedImage(new File("./test/com/salesforce/perfeng/uiperf/imageoptimization/utils/no_transparency.gif")));
-		assertNotNull(ImageUtils.getBufferedImage(new File("./test/com/salesforce/perfeng/uiperf/imageoptimization/utils/no_transparency.gif.tmp")));
-		assertNotNull(ImageUtils.getBufferedImage(new File("./test/com/salesforce/perfeng/uiperf/imageoptimization/utils/2013_summer_force.gif")));
-		assertNotNull(ImageUtils.getBufferedImage(new File("./test/com/salesforce/perfeng/uiperf/imageoptimization/utils/safe32_optimized.png")));
-		assertNotNull(ImageUtils.getBufferedImage(new File("./test/com/salesforce/perfeng/uiperf/imageoptimization/utils/safe32_unoptimized.png")));
+		for(final String name : new String[] {"sergey_reasonably_small.jpg", "sergey_reasonably_small_smushit.jpg", "sergey_reasonably_small_jpegmini.jpg", "no_transparency.gif", "no_transparency.gif.tmp", "2013_summer_force.gif", "safe32_optimized.png", "safe32_unoptimized.png"}) {
+			try(final ImageDecoder.DecodedImage image = ImageUtils.getBufferedImage(new File("./test/com/salesforce/perfeng/uiperf/imageoptimization/utils/" + name))) {
+				assertNotNull(name, image.getImage());
+			}
+		}
 	}
 
 	/**
@@ -170,12 +168,17 @@ public class ImageUtilsTest {
 	}
 
 	/**
-	 * Test for {@link ImageUtils#isAminatedGif(File)}.
+	 * Test for {@link ImageUtils#isAminatedGif(File)} and 
+	 * {@link ImageUtils#isAminatedGif(byte[])}.
+	 * 
+	 * @throws IOException Thrown if the images cannot be read.
 	 */
 	@Test
-	public void testIsAminatedGif() {
+	public void testIsAminatedGif() throws IOException {
 		assertTrue(ImageUtils.isAminatedGif(new File("./test/com/salesforce/perfeng/uiperf/imageoptimization/service/loading.gif")));
 		assertFalse(ImageUtils.isAminatedGif(new File("./test/com/salesforce/perfeng/uiperf/imageoptimization/service/el_icon.gif")));
 		assertFalse(ImageUtils.isAminatedGif(new File("./test/com/salesforce/perfeng/uiperf/imageoptimization/service/addCol.gif")));
+		assertTrue(ImageUtils.isAminatedGif(Files.readAllBytes(new File("./test/com/salesforce/perfeng/uiperf/imageoptimization/service/loading.gif").toPath())));
+		assertFalse(ImageUtils.isAminatedGif(Files.readAllBytes(new File("./test/com/salesforce/perfeng/uiperf/imageoptimization/service/el_icon.gif").toPath())));
 	}
 }
\ No newline at end of file
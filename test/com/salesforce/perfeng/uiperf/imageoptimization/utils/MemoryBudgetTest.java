@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Test for {@link MemoryBudget}.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public class MemoryBudgetTest {
+
+	/**
+	 * Test that a thread waits until the bytes it needs are released by 
+	 * another thread, and that a request larger than the budget still runs.
+	 * 
+	 * @throws InterruptedException Thrown if the test is interrupted.
+	 */
+	@Test(timeout=10000)
+	public void testAcquire() throws InterruptedException {
+		final MemoryBudget budget = new MemoryBudget(10 * 1024);
+		budget.acquire(6 * 1024);
+		assertEquals(4 * 1024, budget.getAvailableBytes());
+		
+		final CountDownLatch acquired = new CountDownLatch(1);
+		final Thread thread = new Thread(() -> {
+			try {
+				budget.acquire(6 * 1024);
+				acquired.countDown();
+			} catch(final InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		thread.start();
+		assertEquals(1, acquired.getCount());
+		
+		budget.release(6 * 1024);
+		assertTrue(acquired.await(5, TimeUnit.SECONDS));
+		thread.join();
+		budget.release(6 * 1024);
+		
+		budget.acquire(1024 * 1024);
+		assertEquals(0, budget.getAvailableBytes());
+		budget.release(1024 * 1024);
+		assertEquals(10 * 1024, budget.getAvailableBytes());
+	}
+	
+	/**
+	 * Test that {@link MemoryBudget#tryAcquire(long)} only takes bytes that 
+	 * are available right away.
+	 */
+	@Test
+	public void testTryAcquire() {
+		final MemoryBudget budget = new MemoryBudget(10 * 1024);
+		assertTrue(budget.tryAcquire(6 * 1024));
+		assertFalse(budget.tryAcquire(6 * 1024));
+		assertEquals(4 * 1024, budget.getAvailableBytes());
+		budget.release(6 * 1024);
+		assertEquals(10 * 1024, budget.getAvailableBytes());
+	}
+}
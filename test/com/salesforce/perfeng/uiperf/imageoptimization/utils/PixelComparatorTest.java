@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.utils;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+
+import org.junit.Test;
+
+/**
+ * Test for {@link PixelComparator}.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public class PixelComparatorTest {
+
+	private static BufferedImage createImage(final int type, final int width, final int height, final int argb) {
+		final BufferedImage image = new BufferedImage(width, height, type);
+		for(int y = 0; y < height; y++) {
+			for(int x = 0; x < width; x++) {
+				image.setRGB(x, y, argb);
+			}
+		}
+		return image;
+	}
+	
+	/**
+	 * Test comparing 2 {@link BufferedImage#TYPE_INT_ARGB} images, which reads
+	 * the rasters in place.
+	 */
+	@Test
+	public void testEqualsArgb() {
+		final BufferedImage image1 = createImage(BufferedImage.TYPE_INT_ARGB, 30, 20, 0xff336699);
+		final BufferedImage image2 = createImage(BufferedImage.TYPE_INT_ARGB, 30, 20, 0xff336699);
+		assertTrue(PixelComparator.equals(image1, image2));
+		
+		image2.setRGB(29, 19, 0xff336698);
+		assertFalse(PixelComparator.equals(image1, image2));
+		
+		assertFalse(PixelComparator.equals(image1, createImage(BufferedImage.TYPE_INT_ARGB, 20, 30, 0xff336699)));
+	}
+	
+	/**
+	 * Test that the images decoded by {@link ImageDecoder}, whatever their 
+	 * format and whichever way they are decoded, have their backing 
+	 * <code>int[]</code> read directly.
+	 * 
+	 * @throws IOException Thrown if a test image cannot be read.
+	 */
+	@Test
+	public void testArgbDataOfDecodedImages() throws IOException {
+		final String testDirectory = "./test/com/salesforce/perfeng/uiperf/imageoptimization/utils/";
+		for(final String name : new String[] {"sergey_reasonably_small.jpg", "2013_summer_force.gif", "no_transparency.gif", "s-arrow-bo.gif", "forceapp_bg.png", "safe32_optimized.png", "safe32_unoptimized.png"}) {
+			final File file = new File(testDirectory + name);
+			try(final ImageDecoder.DecodedImage image = ImageDecoder.decode(file);
+					final ImageDecoder.DecodedImage inMemoryImage = ImageDecoder.decode(FileUtils.readFileToByteArray(file))) {
+				assertNotNull(name, PixelComparator.getArgbData(image.getImage()));
+				assertNotNull(name, PixelComparator.getArgbData(inMemoryImage.getImage()));
+			}
+			assertNotNull(name, PixelComparator.getArgbData(ImageDecoder.decodeToolkit(file)));
+		}
+		assertNotNull(PixelComparator.getArgbData(ImageDecoder.toArgb(createImage(BufferedImage.TYPE_BYTE_GRAY, 10, 10, 0xff808080))));
+		assertNull(PixelComparator.getArgbData(createImage(BufferedImage.TYPE_INT_RGB, 10, 10, 0xff808080)));
+	}
+	
+	/**
+	 * Test that pixels that are 100% transparent in both images are the same 
+	 * whatever their color, but not when only 1 of them is transparent.
+	 */
+	@Test
+	public void testEqualsTransparent() {
+		final BufferedImage image1 = createImage(BufferedImage.TYPE_INT_ARGB, 10, 10, 0x00ffffff);
+		final BufferedImage image2 = createImage(BufferedImage.TYPE_INT_ARGB, 10, 10, 0x00000000);
+		assertTrue(PixelComparator.equals(image1, image2));
+		
+		image2.setRGB(5, 5, 0x01000000);
+		assertFalse(PixelComparator.equals(image1, image2));
+	}
+	
+	/**
+	 * Test comparing images that are not stored as ARGB ints.
+	 */
+	@Test
+	public void testEqualsOtherTypes() {
+		final BufferedImage argb = createImage(BufferedImage.TYPE_INT_ARGB, 15, 7, 0xff102030);
+		final BufferedImage bgr = createImage(BufferedImage.TYPE_3BYTE_BGR, 15, 7, 0xff102030);
+		assertTrue(PixelComparator.equals(argb, bgr));
+		assertTrue(PixelComparator.equals(bgr, argb));
+		
+		bgr.setRGB(0, 6, 0xff102031);
+		assertFalse(PixelComparator.equals(argb, bgr));
+		
+		// A sub image shares the raster of its parent and can not be read in 
+		// place.
+		final BufferedImage parent = createImage(BufferedImage.TYPE_INT_ARGB, 20, 20, 0xff102030);
+		assertTrue(PixelComparator.equals(argb, parent.getSubimage(2, 3, 15, 7)));
+	}
+	
+	/**
+	 * Test an image that is large enough to be compared in parallel bands.
+	 */
+	@Test
+	public void testEqualsLargeImage() {
+		final int width = 2000;
+		final int height = (PixelComparator.PARALLEL_THRESHOLD / width) + 1;
+		final BufferedImage image1 = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		final BufferedImage image2 = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		Arrays.fill(((DataBufferInt)image1.getRaster().getDataBuffer()).getData(), 0xff336699);
+		Arrays.fill(((DataBufferInt)image2.getRaster().getDataBuffer()).getData(), 0xff336699);
+		assertTrue(PixelComparator.equals(image1, image2));
+		
+		image2.setRGB(0, 0, 0x00000000);
+		image1.setRGB(0, 0, 0x00ffffff);
+		assertTrue(PixelComparator.equals(image1, image2));
+		
+		image2.setRGB(width - 1, height - 1, 0xff336698);
+		assertFalse(PixelComparator.equals(image1, image2));
+		image2.setRGB(width - 1, height - 1, 0xff336699);
+		image2.setRGB(width / 2, height / 2, 0xff336698);
+		assertFalse(PixelComparator.equals(image1, image2));
+	}
+}
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Test for {@link ProcessRunner}.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public class ProcessRunnerTest {
+	
+	private final ExecutorService executorService = Executors.newCachedThreadPool();
+	
+	/**
+	 * Shuts down the threads.
+	 */
+	@After
+	public void tearDown() {
+		executorService.shutdownNow();
+	}
+	
+	/**
+	 * Test that a process writing more than the pipe holds does not block and
+	 * only the end of its output is kept.
+	 * 
+	 * @throws Exception If the process could not be run.
+	 */
+	@Test(timeout=30000)
+	public void testLargeOutput() throws Exception {
+		final ProcessBuilder pb = new ProcessBuilder("sh", "-c", "head -c 1000000 /dev/zero | tr '\\0' a; echo end >&2");
+		pb.redirectErrorStream(true);
+		final ProcessRunner.Result result = new ProcessRunner(executorService, 1024, 0).start(pb).waitFor();
+		assertEquals(0, result.getExitValue());
+		assertFalse(result.isTimedOut());
+		assertTrue(result.getOutput(), result.getOutput().startsWith("[998980 bytes dropped] aaa"));
+		assertTrue(result.getOutput(), result.getOutput().endsWith("aend\n"));
+	}
+	
+	/**
+	 * Test that the input is written to stdin and stdout is copied.
+	 * 
+	 * @throws Exception If the process could not be run.
+	 */
+	@Test(timeout=30000)
+	public void testPipe() throws Exception {
+		final byte[] input = "image".getBytes(StandardCharsets.UTF_8);
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		final ProcessRunner.Result result = new ProcessRunner(executorService, 1024, 0).start(new ProcessBuilder("sh", "-c", "cat; echo error >&2; exit 3"), input, output).waitFor();
+		assertEquals(3, result.getExitValue());
+		assertArrayEquals(input, output.toByteArray());
+		assertEquals("error\n", result.getOutput());
+	}
+	
+	/**
+	 * Test that a process that runs too long is killed with the processes it
+	 * started.
+	 * 
+	 * @throws Exception If the process could not be run.
+	 */
+	@Test(timeout=30000)
+	public void testTimeout() throws Exception {
+		// The child keeps the output open, so the output only ends if it is
+		// killed too.
+		final ProcessRunner.Result result = new ProcessRunner(executorService, 1024, 200).start(new ProcessBuilder("sh", "-c", "sleep 60 & wait")).waitFor();
+		assertTrue(result.isTimedOut());
+		assertTrue(result.getExitValue() != 0);
+		assertTrue(TimeUnit.NANOSECONDS.toSeconds(result.getDurationNanos()) < 10);
+		assertTrue(result.getErrorMessage(), result.getErrorMessage().contains("killed after"));
+	}
+}
@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this 
+ * list of conditions and the following disclaimer.
+ * Redistributions in binary form must reproduce the above copyright notice, 
+ * this list of conditions and the following disclaimer in the documentation 
+ * and/or other materials provided with the distribution.
+ * Neither the name of Salesforce.com nor the names of its contributors may be 
+ * used to endorse or promote products derived from this software without 
+ * specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.perfeng.uiperf.imageoptimization.watch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.salesforce.perfeng.uiperf.imageoptimization.service.FakeImageOptimizationService;
+import com.salesforce.perfeng.uiperf.imageoptimization.service.IImageOptimizationService.FileTypeConversion;
+
+/**
+ * Test for {@link ImageDirectoryWatcher}.
+ * 
+ * @author eperret (Eric Perret)
+ * @since 1.6.0
+ */
+public class ImageDirectoryWatcherTest {
+
+	/**
+	 * The directory that is watched.
+	 */
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	
+	private static void waitForLength(final File file, final long length) throws InterruptedException {
+		final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while(file.length() != length && System.nanoTime() < end) {
+			Thread.sleep(20);
+		}
+		assertEquals(length, file.length());
+	}
+	
+	private static String[] sorted(final String[] names) {
+		Arrays.sort(names);
+		return names;
+	}
+	
+	/**
+	 * Test that new and modified images are optimized once, in place, and 
+	 * that writing the optimized image does not trigger another optimization.
+	 * 
+	 * @throws Exception Can be thrown when interacting with the file system.
+	 */
+	@Test
+	public void testWatch() throws Exception {
+		final FakeImageOptimizationService service = new FakeImageOptimizationService();
+		try(final ImageDirectoryWatcher watcher = new ImageDirectoryWatcher(service, FileTypeConversion.NONE, false, 100, 10, 10)) {
+			watcher.watch(folder.getRoot().toPath());
+			watcher.start();
+			
+			final File image = new File(folder.getRoot(), "image.png");
+			// Several writes in a row are coalesced into one optimization.
+			for(int i = 1; i <= 5; i++) {
+				Files.write(image.toPath(), new byte[10 * i]);
+			}
+			Files.write(folder.newFile("notes.txt").toPath(), new byte[10]);
+			waitForLength(image, 48);
+			assertEquals(1, service.getOptimizedFiles().size());
+			
+			final File subDirectory = folder.newFolder("sub");
+			final File gif = new File(subDirectory, "image.gif");
+			Files.write(gif.toPath(), new byte[20]);
+			waitForLength(gif, 18);
+			assertEquals(2, service.getOptimizedFiles().size());
+			
+			// The optimized images that were written back must not be picked up again.
+			Thread.sleep(500);
+			assertEquals(2, service.getOptimizedFiles().size());
+			assertTrue(service.getOptimizedFiles().contains(image));
+			assertTrue(service.getOptimizedFiles().contains(gif));
+			// Each written image is forgotten once its event was ignored.
+			assertEquals(0, watcher.getWrittenFileCount());
+			// The images were moved into place, without leaving the copies behind.
+			assertArrayEquals(new String[] {image.getName(), "notes.txt", subDirectory.getName()}, sorted(folder.getRoot().list()));
+			assertArrayEquals(new String[] {gif.getName()}, subDirectory.list());
+		}
+	}
+}